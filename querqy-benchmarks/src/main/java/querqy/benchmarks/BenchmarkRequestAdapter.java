@@ -0,0 +1,201 @@
+package querqy.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+
+import querqy.lucene.LuceneSearchEngineRequestAdapter;
+import querqy.lucene.QuerySimilarityScoring;
+import querqy.lucene.rewrite.SearchFieldsAndBoosting.FieldBoostModel;
+import querqy.lucene.rewrite.cache.TermQueryCache;
+import querqy.model.QuerqyQuery;
+import querqy.model.RawQuery;
+import querqy.parser.QuerqyParser;
+import querqy.parser.WhiteSpaceQuerqyParser;
+import querqy.rewrite.RewriteChain;
+
+/**
+ * A {@link LuceneSearchEngineRequestAdapter} for a single query without request parameters, boosts or a term query
+ * cache. A new instance must be created per query, as the context is modified while the query is rewritten.
+ */
+public class BenchmarkRequestAdapter implements LuceneSearchEngineRequestAdapter {
+
+    final String queryString;
+    final RewriteChain rewriteChain;
+    final Analyzer queryAnalyzer;
+    final Map<String, Float> queryFieldsAndBoostings;
+    final QuerySimilarityScoring similarityScoring;
+    final Map<String, Object> context = new HashMap<>();
+
+    public BenchmarkRequestAdapter(final String queryString, final RewriteChain rewriteChain,
+                                   final Analyzer queryAnalyzer, final Map<String, Float> queryFieldsAndBoostings,
+                                   final QuerySimilarityScoring similarityScoring) {
+        this.queryString = queryString;
+        this.rewriteChain = rewriteChain;
+        this.queryAnalyzer = queryAnalyzer;
+        this.queryFieldsAndBoostings = queryFieldsAndBoostings;
+        this.similarityScoring = similarityScoring;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public boolean isMatchAllQuery(final String queryString) {
+        return "*:*".equals(queryString);
+    }
+
+    @Override
+    public boolean needsScores() {
+        return true;
+    }
+
+    @Override
+    public Analyzer getQueryAnalyzer() {
+        return queryAnalyzer;
+    }
+
+    @Override
+    public Optional<TermQueryCache> getTermQueryCache() {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean addQuerqyBoostQueriesToMainQuery() {
+        return true;
+    }
+
+    @Override
+    public Optional<QuerySimilarityScoring> getUserQuerySimilarityScoring() {
+        return Optional.ofNullable(similarityScoring);
+    }
+
+    @Override
+    public Optional<QuerySimilarityScoring> getBoostQuerySimilarityScoring() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Map<String, Float> getQueryFieldsAndBoostings() {
+        return queryFieldsAndBoostings;
+    }
+
+    @Override
+    public Map<String, Float> getGeneratedQueryFieldsAndBoostings() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Optional<QuerqyParser> createQuerqyParser() {
+        return Optional.of(new WhiteSpaceQuerqyParser());
+    }
+
+    @Override
+    public boolean useFieldBoostingInQuerqyBoostQueries() {
+        return true;
+    }
+
+    @Override
+    public Optional<Float> getTiebreaker() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Query applyMinimumShouldMatch(final BooleanQuery query) {
+        return query;
+    }
+
+    @Override
+    public Optional<Float> getUserQueryWeight() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Float> getGeneratedFieldBoost() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Float> getPositiveQuerqyBoostWeight() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Float> getNegativeQuerqyBoostWeight() {
+        return Optional.empty();
+    }
+
+    @Override
+    public List<Query> getAdditiveBoosts(final QuerqyQuery<?> userQuery) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Query> getMultiplicativeBoosts(final QuerqyQuery<?> userQuery) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Query parseRawQuery(final RawQuery rawQuery) throws SyntaxException {
+        throw new SyntaxException("Raw queries are not supported in benchmarks: " + rawQuery.getQueryString());
+    }
+
+    @Override
+    public Optional<FieldBoostModel> getFieldBoostModel() {
+        return Optional.empty();
+    }
+
+    @Override
+    public RewriteChain getRewriteChain() {
+        return rewriteChain;
+    }
+
+    @Override
+    public Map<String, Object> getContext() {
+        return context;
+    }
+
+    @Override
+    public Optional<String> getRequestParam(final String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public String[] getRequestParams(final String name) {
+        return new String[0];
+    }
+
+    @Override
+    public Optional<Boolean> getBooleanRequestParam(final String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Integer> getIntegerRequestParam(final String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Float> getFloatRequestParam(final String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Double> getDoubleRequestParam(final String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean isDebugQuery() {
+        return false;
+    }
+
+}
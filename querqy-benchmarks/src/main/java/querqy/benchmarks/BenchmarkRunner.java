@@ -0,0 +1,37 @@
+package querqy.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the benchmarks with the GC profiler enabled, so that the results include the allocation rate per operation
+ * (gc.alloc.rate.norm) next to the timings.</p>
+ *
+ * <p>Usage: <code>java -jar target/benchmarks.jar [JMH options] [benchmark regexp]</code>, for example
+ * <code>java -jar target/benchmarks.jar -p numRules=100000 RulesLookupBenchmark</code>. Run with <code>-h</code> to
+ * list all JMH options.</p>
+ */
+public class BenchmarkRunner {
+
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+
+        final Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
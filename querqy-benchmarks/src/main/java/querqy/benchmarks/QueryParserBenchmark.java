@@ -0,0 +1,62 @@
+package querqy.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import querqy.antlr.ANTLRQueryParser;
+import querqy.model.Query;
+import querqy.parser.QuerqyParser;
+import querqy.parser.WhiteSpaceQuerqyParser;
+
+/**
+ * Parsing query strings into the Querqy query model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryParserBenchmark {
+
+    @Param({"whitespace", "antlr"})
+    public String parser;
+
+    @Param({"3"})
+    public int maxTerms;
+
+    QuerqyParser querqyParser;
+    List<String> queries;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (parser) {
+            case "whitespace": querqyParser = new WhiteSpaceQuerqyParser(); break;
+            case "antlr": querqyParser = new ANTLRQueryParser(); break;
+            default: throw new IllegalArgumentException("Unknown parser: " + parser);
+        }
+        queries = new SyntheticRules(1000, 42L).createQueries(1024, maxTerms);
+    }
+
+    @Benchmark
+    public Query parse() {
+        final String query = queries.get(next);
+        next = (next + 1) % queries.size();
+        return querqyParser.parse(query);
+    }
+
+}
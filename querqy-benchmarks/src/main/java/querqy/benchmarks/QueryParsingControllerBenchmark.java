@@ -0,0 +1,125 @@
+package querqy.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import querqy.lucene.LuceneQueries;
+import querqy.lucene.LuceneSearchEngineRequestAdapter.SyntaxException;
+import querqy.lucene.QueryParsingController;
+import querqy.lucene.QuerySimilarityScoring;
+import querqy.rewrite.RewriteChain;
+import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+
+/**
+ * The complete query processing in {@link QueryParsingController#process()}: parsing, rewriting and building the
+ * Lucene queries. {@link #processAndSearch()} also executes the main query against an in-memory index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Thread)
+public class QueryParsingControllerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numRules;
+
+    @Param({"DFC", "SIMILARITY_SCORE_ON"})
+    public QuerySimilarityScoring similarityScoring;
+
+    @Param({"100000"})
+    public int numDocs;
+
+    final Analyzer analyzer = new WhitespaceAnalyzer();
+    final Map<String, Float> queryFields = new HashMap<>();
+
+    Directory directory;
+    DirectoryReader reader;
+    IndexSearcher searcher;
+    RewriteChain rewriteChain;
+    List<String> queries;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        final SyntheticRules syntheticRules = new SyntheticRules(numRules, 42L);
+        rewriteChain = new RewriteChain(Collections.<RewriterFactory>singletonList(
+                new SimpleCommonRulesRewriterFactory(syntheticRules.createRulesCollection())));
+        queries = syntheticRules.createQueries(1024, 4);
+
+        queryFields.put("f1", 1f);
+        queryFields.put("f2", 2f);
+
+        directory = new RAMDirectory();
+        try (final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            final Random random = new Random(43L);
+            for (int i = 0; i < numDocs; i++) {
+                final Document doc = new Document();
+                doc.add(new TextField("f1", syntheticRules.term(random) + " " + syntheticRules.term(random),
+                        Field.Store.NO));
+                doc.add(new TextField("f2", syntheticRules.term(random), Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public LuceneQueries process() throws SyntaxException {
+        return createController().process();
+    }
+
+    @Benchmark
+    public TopDocs processAndSearch() throws SyntaxException, IOException {
+        return searcher.search(createController().process().mainQuery, 10);
+    }
+
+    QueryParsingController createController() {
+        final String query = queries.get(next);
+        next = (next + 1) % queries.size();
+        return new QueryParsingController(new BenchmarkRequestAdapter(query, rewriteChain, analyzer, queryFields,
+                similarityScoring));
+    }
+
+}
@@ -0,0 +1,62 @@
+package querqy.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import querqy.model.ExpandedQuery;
+import querqy.parser.WhiteSpaceQuerqyParser;
+import querqy.rewrite.RewriteChain;
+import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+
+/**
+ * Parsing and rewriting a query in a {@link RewriteChain} with a single Common Rules rewriter. The query must be
+ * parsed per invocation as rewriting modifies it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Thread)
+public class RewriteChainBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int numRules;
+
+    RewriteChain rewriteChain;
+    List<String> queries;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final SyntheticRules syntheticRules = new SyntheticRules(numRules, 42L);
+        rewriteChain = new RewriteChain(Collections.<RewriterFactory>singletonList(
+                new SimpleCommonRulesRewriterFactory(syntheticRules.createRulesCollection())));
+        queries = syntheticRules.createQueries(1024, 4);
+    }
+
+    @Benchmark
+    public ExpandedQuery rewrite() {
+        final String query = queries.get(next);
+        next = (next + 1) % queries.size();
+        final ExpandedQuery expandedQuery = new ExpandedQuery(new WhiteSpaceQuerqyParser().parse(query));
+        return rewriteChain.rewrite(expandedQuery,
+                new BenchmarkRequestAdapter(query, rewriteChain, null, Collections.emptyMap(), null));
+    }
+
+}
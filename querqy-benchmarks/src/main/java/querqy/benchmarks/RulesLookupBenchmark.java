@@ -0,0 +1,98 @@
+package querqy.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import querqy.model.InputSequenceElement;
+import querqy.model.Term;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.Action;
+import querqy.rewrite.commonrules.model.AhoCorasickRulesCollectionBuilder;
+import querqy.rewrite.commonrules.model.InputBoundary;
+import querqy.rewrite.commonrules.model.PositionSequence;
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.RulesCollectionBuilder;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollectionBuilder;
+
+/**
+ * Looking up the rules that match a query in a {@link RulesCollection} of different sizes and implementations. This
+ * is the lookup that the CommonRulesRewriter does for each query, without applying the instructions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Thread)
+public class RulesLookupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int numRules;
+
+    @Param({"trie", "ahocorasick"})
+    public String collection;
+
+    RulesCollection rules;
+    List<PositionSequence<InputSequenceElement>> sequences;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        final RulesCollectionBuilder builder;
+        switch (collection) {
+            case "trie": builder = new TrieMapRulesCollectionBuilder(true); break;
+            case "ahocorasick": builder = new AhoCorasickRulesCollectionBuilder(true); break;
+            default: throw new IllegalArgumentException("Unknown collection: " + collection);
+        }
+
+        final SyntheticRules syntheticRules = new SyntheticRules(numRules, 42L);
+        rules = new SimpleCommonRulesParser(new StringReader(syntheticRules.createRules()),
+                new WhiteSpaceQuerqyParserFactory(), builder).parse();
+
+        sequences = new ArrayList<>();
+        for (final String query : syntheticRules.createQueries(1024, 4)) {
+            sequences.add(toSequence(query));
+        }
+    }
+
+    @Benchmark
+    public List<Action> getRewriteActions() {
+        final PositionSequence<InputSequenceElement> sequence = sequences.get(next);
+        next = (next + 1) % sequences.size();
+        return rules.getRewriteActions(sequence);
+    }
+
+    /**
+     * Create the sequence in the same way as the CommonRulesRewriter does for the top-level query.
+     */
+    static PositionSequence<InputSequenceElement> toSequence(final String query) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+        for (final String token : query.split(" ")) {
+            sequence.nextPosition();
+            sequence.addElement(new Term(null, token));
+        }
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+        return sequence;
+    }
+
+}
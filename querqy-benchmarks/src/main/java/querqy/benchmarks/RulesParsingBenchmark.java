@@ -0,0 +1,76 @@
+package querqy.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import querqy.rewrite.commonrules.RuleParseException;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.RulesCollection;
+
+/**
+ * Parsing a rules file into a {@link RulesCollection}, which dominates the startup time of the Common Rules rewriter
+ * for large rule sets. Each invocation parses the complete file.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class RulesParsingBenchmark {
+
+    @Param({"10000", "100000", "1000000", "5000000"})
+    public int numRules;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    Path rulesFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rulesFile = Files.createTempFile("querqy-rules-", ".txt");
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(rulesFile),
+                StandardCharsets.UTF_8))) {
+            new SyntheticRules(numRules, 42L).writeRules(writer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(rulesFile);
+    }
+
+    @Benchmark
+    public RulesCollection parse() throws IOException, RuleParseException {
+        try (final Reader reader = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
+            final SimpleCommonRulesParser parser = new SimpleCommonRulesParser(reader,
+                    new WhiteSpaceQuerqyParserFactory(), true);
+            return parallel ? parser.parse(ForkJoinPool.commonPool()) : parser.parse();
+        }
+    }
+
+}
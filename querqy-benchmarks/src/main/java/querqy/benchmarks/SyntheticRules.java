@@ -0,0 +1,382 @@
+package querqy.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import querqy.rewrite.commonrules.RuleParseException;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.RulesCollection;
+
+/**
+ * <p>Creates reproducible Common Rules and query logs for benchmarks and scale tests.</p>
+ *
+ * <p>Terms are taken from a vocabulary of 'w0', 'w1', ... in which the term 'wk' has the frequency rank k + 1. Rule
+ * inputs and query terms are drawn from a Zipf distribution over this vocabulary, so that a few terms are very
+ * frequent both in rules and in queries while most terms are rare. The following rule types are created:</p>
+ *
+ * <ul>
+ *     <li>single-term rules, one per vocabulary term for an evenly spread subset of the vocabulary</li>
+ *     <li>multi-term rules with two or three terms</li>
+ *     <li>boundary rules with one or two terms, anchored at the start, the end or at both ends of the query</li>
+ *     <li>prefix rules ('c17* =&gt;') matching compound tokens like 'c17w5'</li>
+ *     <li>placeholder rules, which are prefix rules that pick up the matching suffix ('SYNONYM: c17 $1')</li>
+ * </ul>
+ *
+ * <p>Queries contain compound tokens at the configured compound rate, so that prefix and placeholder rules get
+ * matched.</p>
+ */
+public class SyntheticRules {
+
+    final int numSingleTermRules;
+    final int numMultiTermRules;
+    final int numBoundaryRules;
+    final int numPrefixRules;
+    final int numPlaceholderRules;
+    final int vocabularySize;
+    final double zipfExponent;
+    final float compoundRate;
+    final long seed;
+
+    final ZipfSampler termSampler;
+    final ZipfSampler stemSampler;
+
+    /**
+     * Rules of all types in a fixed mix: 50% single-term, 25% multi-term, 10% boundary, 10% prefix and 5%
+     * placeholder rules.
+     *
+     * @param numRules The number of rules
+     * @param seed The seed for the random number generator
+     */
+    public SyntheticRules(final int numRules, final long seed) {
+        this(new Builder().numRules(numRules).seed(seed));
+    }
+
+    SyntheticRules(final Builder builder) {
+        numSingleTermRules = builder.numSingleTermRules;
+        numMultiTermRules = builder.numMultiTermRules;
+        numBoundaryRules = builder.numBoundaryRules;
+        numPrefixRules = builder.numPrefixRules;
+        numPlaceholderRules = builder.numPlaceholderRules;
+        vocabularySize = builder.vocabularySize > 0
+                ? builder.vocabularySize
+                : Math.max(1000, 2 * (numSingleTermRules + numMultiTermRules + numBoundaryRules));
+        zipfExponent = builder.zipfExponent;
+        compoundRate = builder.compoundRate;
+        seed = builder.seed;
+
+        if (getNumRules() < 1) {
+            throw new IllegalArgumentException("There must be at least one rule");
+        }
+        if (vocabularySize < numSingleTermRules) {
+            throw new IllegalArgumentException("vocabularySize must not be smaller than the number of single-term " +
+                    "rules");
+        }
+
+        termSampler = new ZipfSampler(vocabularySize, zipfExponent);
+        final int numStems = numPrefixRules + numPlaceholderRules;
+        stemSampler = numStems > 0 ? new ZipfSampler(numStems, zipfExponent) : null;
+    }
+
+    public int getNumRules() {
+        return numSingleTermRules + numMultiTermRules + numBoundaryRules + numPrefixRules + numPlaceholderRules;
+    }
+
+    public int getVocabularySize() {
+        return vocabularySize;
+    }
+
+    /**
+     * @return The rules in the Common Rules format
+     */
+    public String createRules() {
+        final StringWriter writer = new StringWriter(getNumRules() * 32);
+        try {
+            writeRules(writer);
+        } catch (final IOException e) {
+            // StringWriter doesn't throw
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * @return The rules parsed into a {@link RulesCollection}
+     */
+    public RulesCollection createRulesCollection() throws IOException, RuleParseException {
+        return new SimpleCommonRulesParser(new StringReader(createRules()), new WhiteSpaceQuerqyParserFactory(), true)
+                .parse();
+    }
+
+    /**
+     * Write the rules in the Common Rules format.
+     *
+     * @param writer The writer. It will not be closed.
+     * @throws IOException if the writer throws
+     */
+    public void writeRules(final Writer writer) throws IOException {
+
+        final Random random = new Random(seed);
+
+        // distinct terms, evenly spread over all frequency ranks
+        final double stride = vocabularySize / (double) numSingleTermRules;
+        for (int i = 0; i < numSingleTermRules; i++) {
+            final int rank = Math.min(vocabularySize - 1, (int) (i * stride + random.nextDouble() * stride));
+            writer.append('w').append(Integer.toString(rank)).append(" =>\n");
+            writeInstruction(writer, random);
+        }
+
+        for (int i = 0; i < numMultiTermRules; i++) {
+            writer.append(term(random));
+            for (int j = 0, len = 1 + random.nextInt(2); j < len; j++) {
+                writer.append(' ').append(term(random));
+            }
+            writer.append(" =>\n");
+            writeInstruction(writer, random);
+        }
+
+        for (int i = 0; i < numBoundaryRules; i++) {
+            final int type = random.nextInt(3);
+            if (type != 2) {
+                writer.append('"');
+            }
+            writer.append(term(random));
+            if (random.nextBoolean()) {
+                writer.append(' ').append(term(random));
+            }
+            if (type != 1) {
+                writer.append('"');
+            }
+            writer.append(" =>\n");
+            writeInstruction(writer, random);
+        }
+
+        // stems 0 ... numPrefixRules - 1
+        for (int i = 0; i < numPrefixRules; i++) {
+            writer.append('c').append(Integer.toString(i)).append("* =>\n");
+            writeInstruction(writer, random);
+        }
+
+        // stems numPrefixRules ... numPrefixRules + numPlaceholderRules - 1
+        for (int i = numPrefixRules, end = numPrefixRules + numPlaceholderRules; i < end; i++) {
+            final String stem = "c" + i;
+            writer.append(stem).append("* =>\n");
+            if (random.nextBoolean()) {
+                writer.append("  SYNONYM: ").append(stem).append(" $1\n");
+            } else {
+                writer.append("  UP(10): $1\n");
+            }
+        }
+
+        writer.flush();
+    }
+
+    void writeInstruction(final Writer writer, final Random random) throws IOException {
+        switch (random.nextInt(4)) {
+            case 0: writer.append("  UP(10): "); break;
+            case 1: writer.append("  DOWN(10): "); break;
+            case 2: writer.append("  FILTER: "); break;
+            default: writer.append("  SYNONYM: ");
+        }
+        writer.append(term(random)).append('\n');
+    }
+
+    /**
+     * @param numQueries The number of queries
+     * @param maxTerms The max. number of tokens per query
+     * @return Queries with 1 to maxTerms tokens
+     */
+    public List<String> createQueries(final int numQueries, final int maxTerms) {
+        final Random random = new Random(seed + 1);
+        final List<String> queries = new ArrayList<>(numQueries);
+        for (int i = 0; i < numQueries; i++) {
+            queries.add(createQuery(random, maxTerms));
+        }
+        return queries;
+    }
+
+    /**
+     * Write a query log with one query per line.
+     *
+     * @param writer The writer. It will not be closed.
+     * @param numQueries The number of queries
+     * @param maxTerms The max. number of tokens per query
+     * @throws IOException if the writer throws
+     */
+    public void writeQueries(final Writer writer, final int numQueries, final int maxTerms) throws IOException {
+        final Random random = new Random(seed + 1);
+        for (int i = 0; i < numQueries; i++) {
+            writer.append(createQuery(random, maxTerms)).append('\n');
+        }
+        writer.flush();
+    }
+
+    String createQuery(final Random random, final int maxTerms) {
+        final StringBuilder sb = new StringBuilder();
+        for (int j = 0, len = 1 + random.nextInt(maxTerms); j < len; j++) {
+            if (j > 0) {
+                sb.append(' ');
+            }
+            if (stemSampler != null && random.nextFloat() < compoundRate) {
+                sb.append('c').append(stemSampler.sample(random) - 1);
+            }
+            sb.append(term(random));
+        }
+        return sb.toString();
+    }
+
+    String term(final Random random) {
+        return "w" + (termSampler.sample(random) - 1);
+    }
+
+    /**
+     * <p>Writes a rules file and optionally a query log.</p>
+     *
+     * <p>Usage: <code>SyntheticRules &lt;numRules&gt; &lt;rulesFile&gt; [&lt;numQueries&gt; &lt;queriesFile&gt;]</code></p>
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length != 2 && args.length != 4) {
+            System.err.println("Usage: SyntheticRules <numRules> <rulesFile> [<numQueries> <queriesFile>]");
+            System.exit(1);
+        }
+
+        final SyntheticRules syntheticRules = new SyntheticRules(Integer.parseInt(args[0]), 42L);
+
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(Paths.get(args[1])), StandardCharsets.UTF_8))) {
+            syntheticRules.writeRules(writer);
+        }
+
+        if (args.length == 4) {
+            try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(Paths.get(args[3])), StandardCharsets.UTF_8))) {
+                syntheticRules.writeQueries(writer, Integer.parseInt(args[2]), 4);
+            }
+        }
+    }
+
+    public static class Builder {
+
+        int numSingleTermRules = 0;
+        int numMultiTermRules = 0;
+        int numBoundaryRules = 0;
+        int numPrefixRules = 0;
+        int numPlaceholderRules = 0;
+        int vocabularySize = 0;
+        double zipfExponent = 1.0;
+        float compoundRate = 0.1f;
+        long seed = 42L;
+
+        /**
+         * Set the number of rules of each type in the mix that is described at
+         * {@link SyntheticRules#SyntheticRules(int, long)}.
+         *
+         * @param numRules The total number of rules
+         * @return This builder
+         */
+        public Builder numRules(final int numRules) {
+            if (numRules < 1) {
+                throw new IllegalArgumentException("numRules must be > 0");
+            }
+            numSingleTermRules = numRules / 2;
+            numMultiTermRules = numRules / 4;
+            numBoundaryRules = numRules / 10;
+            numPrefixRules = numRules / 10;
+            numPlaceholderRules = numRules - numSingleTermRules - numMultiTermRules - numBoundaryRules
+                    - numPrefixRules;
+            return this;
+        }
+
+        public Builder singleTermRules(final int numSingleTermRules) {
+            this.numSingleTermRules = requireNonNegative(numSingleTermRules, "numSingleTermRules");
+            return this;
+        }
+
+        public Builder multiTermRules(final int numMultiTermRules) {
+            this.numMultiTermRules = requireNonNegative(numMultiTermRules, "numMultiTermRules");
+            return this;
+        }
+
+        public Builder boundaryRules(final int numBoundaryRules) {
+            this.numBoundaryRules = requireNonNegative(numBoundaryRules, "numBoundaryRules");
+            return this;
+        }
+
+        public Builder prefixRules(final int numPrefixRules) {
+            this.numPrefixRules = requireNonNegative(numPrefixRules, "numPrefixRules");
+            return this;
+        }
+
+        public Builder placeholderRules(final int numPlaceholderRules) {
+            this.numPlaceholderRules = requireNonNegative(numPlaceholderRules, "numPlaceholderRules");
+            return this;
+        }
+
+        /**
+         * @param vocabularySize The number of distinct terms. Defaults to twice the number of non-prefix rules, but
+         *                       at least 1000.
+         * @return This builder
+         */
+        public Builder vocabularySize(final int vocabularySize) {
+            if (vocabularySize < 1) {
+                throw new IllegalArgumentException("vocabularySize must be > 0");
+            }
+            this.vocabularySize = vocabularySize;
+            return this;
+        }
+
+        /**
+         * @param zipfExponent The exponent of the term distribution. Defaults to 1.0.
+         * @return This builder
+         */
+        public Builder zipfExponent(final double zipfExponent) {
+            if (!(zipfExponent > 0.0)) {
+                throw new IllegalArgumentException("zipfExponent must be > 0");
+            }
+            this.zipfExponent = zipfExponent;
+            return this;
+        }
+
+        /**
+         * @param compoundRate The probability of a query token to be a compound that starts with a prefix rule stem.
+         *                     Defaults to 0.1.
+         * @return This builder
+         */
+        public Builder compoundRate(final float compoundRate) {
+            if (compoundRate < 0f || compoundRate > 1f) {
+                throw new IllegalArgumentException("compoundRate must be between 0 and 1");
+            }
+            this.compoundRate = compoundRate;
+            return this;
+        }
+
+        public Builder seed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SyntheticRules build() {
+            return new SyntheticRules(this);
+        }
+
+        static int requireNonNegative(final int value, final String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package querqy.benchmarks;
+
+import java.util.Random;
+
+/**
+ * <p>Samples ranks 1 ... n from a Zipf distribution, i.e. the probability of rank k is proportional to
+ * 1 / k<sup>exponent</sup>.</p>
+ *
+ * <p>This uses the rejection-inversion method by W. Hörmann and G. Derflinger ('Rejection-inversion to generate
+ * variates from monotone discrete distributions', 1996), which needs constant memory and time per sample, so that it
+ * can be used for vocabularies of millions of terms.</p>
+ */
+public class ZipfSampler {
+
+    final int numberOfElements;
+    final double exponent;
+
+    final double hIntegralX1;
+    final double hIntegralNumberOfElements;
+    final double s;
+
+    /**
+     * @param numberOfElements The number of ranks
+     * @param exponent The exponent of the distribution, must be > 0. Natural language term frequencies are usually
+     *                 modelled with an exponent close to 1.
+     */
+    public ZipfSampler(final int numberOfElements, final double exponent) {
+        if (numberOfElements < 1) {
+            throw new IllegalArgumentException("numberOfElements must be > 0");
+        }
+        if (!(exponent > 0.0)) {
+            throw new IllegalArgumentException("exponent must be > 0");
+        }
+        this.numberOfElements = numberOfElements;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1.0;
+        this.hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+        this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    /**
+     * @param random The source of randomness
+     * @return A rank between 1 and numberOfElements (both inclusive)
+     */
+    public int sample(final Random random) {
+        while (true) {
+            final double u = hIntegralNumberOfElements
+                    + random.nextDouble() * (hIntegralX1 - hIntegralNumberOfElements);
+            final double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > numberOfElements) {
+                k = numberOfElements;
+            }
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    public int getNumberOfElements() {
+        return numberOfElements;
+    }
+
+    /**
+     * The integral of {@link #h(double)}: (x^(1-exponent) - 1) / (1 - exponent), or log(x) for exponent = 1
+     */
+    double hIntegral(final double x) {
+        final double logX = Math.log(x);
+        return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    double h(final double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    double hIntegralInverse(final double x) {
+        double t = x * (1.0 - exponent);
+        if (t < -1.0) {
+            // limit value for rounding errors
+            t = -1.0;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    /**
+     * log(1 + x) / x, numerically stable for x close to 0
+     */
+    static double helper1(final double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * ((1.0 / 2.0) - x * ((1.0 / 3.0) - x * (1.0 / 4.0)));
+    }
+
+    /**
+     * (exp(x) - 1) / x, numerically stable for x close to 0
+     */
+    static double helper2(final double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * (1.0 / 2.0) * (1.0 + x * (1.0 / 3.0) * (1.0 + x * (1.0 / 4.0)));
+    }
+
+}
@@ -0,0 +1,118 @@
+package querqy.benchmarks;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import querqy.model.ExpandedQuery;
+import querqy.parser.WhiteSpaceQuerqyParser;
+import querqy.rewrite.RewriteChain;
+import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+import querqy.rewrite.commonrules.model.RulesCollection;
+
+public class SyntheticRulesTest {
+
+    @Test
+    public void testThatRulesOfEachTypeAreCreated() throws Exception {
+
+        final SyntheticRules syntheticRules = new SyntheticRules.Builder()
+                .singleTermRules(100)
+                .multiTermRules(50)
+                .boundaryRules(20)
+                .prefixRules(10)
+                .placeholderRules(5)
+                .build();
+
+        assertEquals(185, syntheticRules.getNumRules());
+
+        int inputs = 0;
+        int singleTerm = 0;
+        int prefix = 0;
+        int placeholders = 0;
+        int boundaries = 0;
+        for (final String line : syntheticRules.createRules().split("\n")) {
+            if (line.endsWith("=>")) {
+                inputs++;
+                final String input = line.substring(0, line.length() - 2).trim();
+                if (input.indexOf('"') > -1) {
+                    boundaries++;
+                } else if (input.endsWith("*")) {
+                    prefix++;
+                } else if (input.indexOf(' ') < 0) {
+                    singleTerm++;
+                }
+            } else if (line.contains("$1")) {
+                placeholders++;
+            }
+        }
+
+        assertEquals(185, inputs);
+        assertEquals(100, singleTerm);
+        assertEquals(20, boundaries);
+        assertEquals(15, prefix);
+        assertEquals(5, placeholders);
+    }
+
+    @Test
+    public void testThatRulesAndQueriesAreReproducible() throws Exception {
+
+        final SyntheticRules rules1 = new SyntheticRules(1000, 7L);
+        final SyntheticRules rules2 = new SyntheticRules(1000, 7L);
+        final SyntheticRules rules3 = new SyntheticRules(1000, 8L);
+
+        assertEquals(rules1.createRules(), rules2.createRules());
+        assertNotEquals(rules1.createRules(), rules3.createRules());
+        assertEquals(rules1.createQueries(100, 3), rules2.createQueries(100, 3));
+
+        final StringWriter writer = new StringWriter();
+        rules1.writeQueries(writer, 100, 3);
+        assertEquals(String.join("\n", rules1.createQueries(100, 3)) + "\n", writer.toString());
+    }
+
+    @Test
+    public void testThatSomeButNotAllQueriesMatchRules() throws Exception {
+
+        final SyntheticRules syntheticRules = new SyntheticRules(10000, 42L);
+        final RulesCollection rules = syntheticRules.createRulesCollection();
+        final List<String> queries = syntheticRules.createQueries(1000, 4);
+
+        int matching = 0;
+        int matchingCompounds = 0;
+        for (final String query : queries) {
+            if (!rules.getRewriteActions(RulesLookupBenchmark.toSequence(query)).isEmpty()) {
+                matching++;
+                if (query.contains("c")) {
+                    matchingCompounds++;
+                }
+            }
+        }
+
+        assertThat(matching, greaterThan(100));
+        assertThat(matching, lessThan(1000));
+        assertThat(matchingCompounds, greaterThan(0));
+    }
+
+    @Test
+    public void testThatQueriesCanBeRewritten() throws Exception {
+
+        final SyntheticRules syntheticRules = new SyntheticRules(10000, 42L);
+        final RewriteChain rewriteChain = new RewriteChain(Collections.<RewriterFactory>singletonList(
+                new SimpleCommonRulesRewriterFactory(syntheticRules.createRulesCollection())));
+
+        for (final String query : syntheticRules.createQueries(1000, 4)) {
+            final ExpandedQuery expandedQuery = new ExpandedQuery(new WhiteSpaceQuerqyParser().parse(query));
+            rewriteChain.rewrite(expandedQuery,
+                    new BenchmarkRequestAdapter(query, rewriteChain, null, Collections.emptyMap(), null));
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package querqy.benchmarks;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ZipfSamplerTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatNumberOfElementsMustBePositive() {
+        new ZipfSampler(0, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatExponentMustBePositive() {
+        new ZipfSampler(10, 0.0);
+    }
+
+    @Test
+    public void testThatSamplesFollowZipfDistribution() {
+
+        final int n = 100;
+        final int numSamples = 1000000;
+        final ZipfSampler sampler = new ZipfSampler(n, 1.0);
+        final Random random = new Random(42L);
+
+        final int[] counts = new int[n + 1];
+        for (int i = 0; i < numSamples; i++) {
+            final int k = sampler.sample(random);
+            assertTrue(k >= 1 && k <= n);
+            counts[k]++;
+        }
+
+        double harmonic = 0.0;
+        for (int k = 1; k <= n; k++) {
+            harmonic += 1.0 / k;
+        }
+
+        for (final int k : new int[] {1, 2, 10, 100}) {
+            final double expected = 1.0 / (k * harmonic);
+            assertThat((double) counts[k] / numSamples, closeTo(expected, expected * 0.1));
+        }
+        assertThat(counts[1], greaterThan(counts[2]));
+    }
+
+    @Test
+    public void testThatSingleElementIsAlwaysSampled() {
+        final ZipfSampler sampler = new ZipfSampler(1, 1.2);
+        final Random random = new Random(42L);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sampler.sample(random) == 1);
+        }
+    }
+
+}
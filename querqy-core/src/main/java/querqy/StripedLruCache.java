@@ -0,0 +1,127 @@
+package querqy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A bounded cache that evicts the least recently used entries once it is full.</p>
+ *
+ * <p>The cache is split into stripes that are locked independently to reduce contention between concurrent threads.
+ * Each stripe holds an equal share of the max. size and evicts its own least recently used entries. Caches that need
+ * another eviction policy per stripe can use {@link #stripeSizes(int, int)} and {@link #stripeIndex(int, int)} to
+ * split their entries in the same way.</p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public class StripedLruCache<K, V> {
+
+    public static final int MAX_STRIPES = 16;
+
+    final Stripe<K, V>[] stripes;
+
+    /**
+     * @param maxSize The max. number of entries
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        final int[] stripeSizes = stripeSizes(maxSize, Math.min(MAX_STRIPES, maxSize));
+        stripes = new Stripe[stripeSizes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe<>(stripeSizes[i]);
+        }
+    }
+
+    /**
+     * @param key The key
+     * @return The value or null if there is no entry for this key
+     */
+    public V get(final K key) {
+        final Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * @param key The key
+     * @param value The value
+     */
+    public void put(final K key, final V value) {
+        final Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    /**
+     * @return The number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (final Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    Stripe<K, V> stripe(final K key) {
+        return stripes[stripeIndex(key.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Split a max. size into the max. sizes of the stripes. The remainder is distributed over the first stripes.
+     *
+     * @param maxSize The max. number of entries of the cache
+     * @param numStripes The number of stripes
+     * @return The max. number of entries per stripe
+     */
+    public static int[] stripeSizes(final int maxSize, final int numStripes) {
+        if (numStripes < 1 || numStripes > maxSize) {
+            throw new IllegalArgumentException("numStripes must be > 0 and <= maxSize");
+        }
+        final int[] sizes = new int[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            sizes[i] = maxSize / numStripes + (i < maxSize % numStripes ? 1 : 0);
+        }
+        return sizes;
+    }
+
+    /**
+     * @param hash The hash code of a key
+     * @param numStripes The number of stripes
+     * @return The index of the stripe that holds the key
+     */
+    public static int stripeIndex(final int hash, final int numStripes) {
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % numStripes;
+    }
+
+    static class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        final int maxSize;
+
+        Stripe(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+}
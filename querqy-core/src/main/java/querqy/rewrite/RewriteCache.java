@@ -0,0 +1,272 @@
+package querqy.rewrite;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import querqy.StripedLruCache;
+import querqy.model.BooleanClause;
+import querqy.model.BooleanParent;
+import querqy.model.BooleanQuery;
+import querqy.model.BoostQuery;
+import querqy.model.DisjunctionMaxClause;
+import querqy.model.DisjunctionMaxQuery;
+import querqy.model.ExpandedQuery;
+import querqy.model.MatchAllQuery;
+import querqy.model.QuerqyQuery;
+import querqy.model.Query;
+import querqy.model.RawQuery;
+import querqy.model.Term;
+
+/**
+ * <p>A bounded cache of rewrite results for a {@link RewriteChain}.</p>
+ *
+ * <p>The cache maps a key that consists of the normalized input query and of the key elements that the
+ * {@link RewriterFactory}s add in {@link RewriterFactory#addToRewriteCacheKey(SearchEngineRequestAdapter, List)} to
+ * the rewritten query and to the entries that the rewriters put into the context. Cached queries are never handed out
+ * to callers: each hit returns a deep copy, so that callers can modify the query like a query that was rewritten by
+ * the rewriters.</p>
+ *
+ * <p>The least recently used entries are evicted once the cache is full. The cache is split into stripes that are
+ * locked independently to reduce contention between request threads (see {@link StripedLruCache}).</p>
+ */
+public class RewriteCache {
+
+    final StripedLruCache<Object, Entry> entries;
+
+    /**
+     * @param maxSize The max. number of cached rewrite results
+     */
+    public RewriteCache(final int maxSize) {
+        entries = new StripedLruCache<>(maxSize);
+    }
+
+    /**
+     * @param key The cache key
+     * @return The cached entry or null if there is no entry for this key
+     */
+    public Entry get(final Object key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Cache a rewrite result. The query and the context entries are copied, the caller can continue to use them.
+     *
+     * @param key The cache key
+     * @param rewrittenQuery The query as returned by the rewrite chain
+     * @param context The context after rewriting. It must have been empty before rewriting.
+     */
+    public void put(final Object key, final ExpandedQuery rewrittenQuery, final Map<String, Object> context) {
+        entries.put(key, new Entry(copy(rewrittenQuery), copyContext(context)));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * <p>Create the part of the cache key that represents the input query.</p>
+     *
+     * <p>The key reflects the structure of the user query (occur, generated flags, fields and term values) so that
+     * queries that were parsed into the same query model get the same key, independent from whitespace etc. in the
+     * query string.</p>
+     *
+     * @param query The query that is passed to the rewrite chain
+     * @return The key or null if the query cannot be cached, for example because it already has filter or boost queries
+     */
+    public static String createQueryKey(final ExpandedQuery query) {
+
+        if (query.getFilterQueries() != null && !query.getFilterQueries().isEmpty()) {
+            return null;
+        }
+        if (query.getBoostUpQueries() != null && !query.getBoostUpQueries().isEmpty()) {
+            return null;
+        }
+        if (query.getBoostDownQueries() != null && !query.getBoostDownQueries().isEmpty()) {
+            return null;
+        }
+
+        final QuerqyQuery<?> userQuery = query.getUserQuery();
+        if (!(userQuery instanceof Query)) {
+            return null;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        return appendKey(sb, (BooleanQuery) userQuery) ? sb.toString() : null;
+    }
+
+    static boolean appendKey(final StringBuilder sb, final BooleanQuery booleanQuery) {
+        sb.append("B(").append(booleanQuery.getOccur().name().charAt(0)).append(booleanQuery.isGenerated() ? 'g' : 'u');
+        for (final BooleanClause clause : booleanQuery.getClauses()) {
+            if (clause instanceof BooleanQuery) {
+                if (!appendKey(sb, (BooleanQuery) clause)) {
+                    return false;
+                }
+            } else if (clause instanceof DisjunctionMaxQuery) {
+                if (!appendKey(sb, (DisjunctionMaxQuery) clause)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        sb.append(')');
+        return true;
+    }
+
+    static boolean appendKey(final StringBuilder sb, final DisjunctionMaxQuery dmq) {
+        sb.append("D(").append(dmq.getOccur().name().charAt(0)).append(dmq.isGenerated() ? 'g' : 'u');
+        for (final DisjunctionMaxClause clause : dmq.getClauses()) {
+            if (clause instanceof Term) {
+                final Term term = (Term) clause;
+                final String field = term.getField();
+                final CharSequence value = term.getValue();
+                sb.append('T').append(term.isGenerated() ? 'g' : 'u');
+                if (field == null) {
+                    sb.append('*');
+                } else {
+                    sb.append(field.length()).append(':').append(field);
+                }
+                sb.append(value.length()).append(':').append(value);
+            } else if (clause instanceof BooleanQuery) {
+                if (!appendKey(sb, (BooleanQuery) clause)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        sb.append(')');
+        return true;
+    }
+
+    /**
+     * Create a deep copy of an {@link ExpandedQuery}. Unlike {@link QuerqyQuery#clone(querqy.model.Node)}, this keeps
+     * the generated flag of each node.
+     *
+     * @param query The query
+     * @return The copy
+     */
+    public static ExpandedQuery copy(final ExpandedQuery query) {
+        final ExpandedQuery copy = new ExpandedQuery(copy(query.getUserQuery()));
+        if (query.getFilterQueries() != null) {
+            for (final QuerqyQuery<?> filterQuery : query.getFilterQueries()) {
+                copy.addFilterQuery(copy(filterQuery));
+            }
+        }
+        if (query.getBoostUpQueries() != null) {
+            for (final BoostQuery boostQuery : query.getBoostUpQueries()) {
+                copy.addBoostUpQuery(new BoostQuery(copy(boostQuery.getQuery()), boostQuery.getBoost()));
+            }
+        }
+        if (query.getBoostDownQueries() != null) {
+            for (final BoostQuery boostQuery : query.getBoostDownQueries()) {
+                copy.addBoostDownQuery(new BoostQuery(copy(boostQuery.getQuery()), boostQuery.getBoost()));
+            }
+        }
+        return copy;
+    }
+
+    static QuerqyQuery<?> copy(final QuerqyQuery<?> query) {
+        if (query instanceof BooleanQuery) {
+            return copy((BooleanQuery) query, null);
+        }
+        if (query instanceof RawQuery) {
+            return ((RawQuery) query).clone(null);
+        }
+        if (query instanceof MatchAllQuery) {
+            return ((MatchAllQuery) query).clone(null);
+        }
+        throw new IllegalArgumentException("Cannot copy " + query.getClass().getName());
+    }
+
+    static BooleanQuery copy(final BooleanQuery booleanQuery, final BooleanParent parent) {
+        final BooleanQuery copy = (booleanQuery instanceof Query)
+                ? new Query(booleanQuery.isGenerated())
+                : new BooleanQuery(parent, booleanQuery.getOccur(), booleanQuery.isGenerated());
+        for (final BooleanClause clause : booleanQuery.getClauses()) {
+            if (clause instanceof BooleanQuery) {
+                copy.addClause(copy((BooleanQuery) clause, copy));
+            } else if (clause instanceof DisjunctionMaxQuery) {
+                copy.addClause(copy((DisjunctionMaxQuery) clause, copy));
+            } else {
+                throw new IllegalArgumentException("Cannot copy " + clause.getClass().getName());
+            }
+        }
+        return copy;
+    }
+
+    static DisjunctionMaxQuery copy(final DisjunctionMaxQuery dmq, final BooleanQuery parent) {
+        final DisjunctionMaxQuery copy = new DisjunctionMaxQuery(parent, dmq.getOccur(), dmq.isGenerated());
+        for (final DisjunctionMaxClause clause : dmq.getClauses()) {
+            if (clause instanceof Term) {
+                copy.addClause(((Term) clause).clone(copy));
+            } else if (clause instanceof BooleanQuery) {
+                copy.addClause(copy((BooleanQuery) clause, copy));
+            } else {
+                throw new IllegalArgumentException("Cannot copy " + clause.getClass().getName());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Make the context values read-only, as they will be shared between all requests that hit the cache entry.
+     *
+     * @param context The context after rewriting
+     * @return A copy of the context with read-only values
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> copyContext(final Map<String, Object> context) {
+        if (context.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Object> copy = new HashMap<>(context.size());
+        for (final Map.Entry<String, Object> entry : context.entrySet()) {
+            final Object value = entry.getValue();
+            if (value instanceof Set) {
+                copy.put(entry.getKey(), Collections.unmodifiableSet((Set<Object>) value));
+            } else if (value instanceof List) {
+                copy.put(entry.getKey(), Collections.unmodifiableList((List<Object>) value));
+            } else if (value instanceof Map) {
+                copy.put(entry.getKey(), Collections.unmodifiableMap((Map<Object, Object>) value));
+            } else {
+                copy.put(entry.getKey(), value);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * A cached rewrite result
+     */
+    public static class Entry {
+
+        final ExpandedQuery rewrittenQuery;
+        final Map<String, Object> contextEntries;
+
+        Entry(final ExpandedQuery rewrittenQuery, final Map<String, Object> contextEntries) {
+            this.rewrittenQuery = rewrittenQuery;
+            this.contextEntries = contextEntries;
+        }
+
+        /**
+         * Get a copy of the rewritten query and put the cached context entries into the context.
+         *
+         * @param context The context of the current request
+         * @return A copy of the rewritten query
+         */
+        public ExpandedQuery apply(final Map<String, Object> context) {
+            context.putAll(contextEntries);
+            return copy(rewrittenQuery);
+        }
+
+    }
+
+}
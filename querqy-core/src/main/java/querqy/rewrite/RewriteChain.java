@@ -1,8 +1,9 @@
 /**
- * 
+ *
  */
 package querqy.rewrite;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -12,40 +13,153 @@ import querqy.model.Query;
 
 /**
  * The chain of rewriters to manipulate a {@link Query}.
- * 
+ *
+ * <p>The chain can use a {@link RewriteCache}. The cache is bypassed if the request asks for debug information, if
+ * the context is not empty before rewriting, if the query cannot be cached (see
+ * {@link RewriteCache#createQueryKey(ExpandedQuery)}) or if one of the factories returns false from
+ * {@link RewriterFactory#addToRewriteCacheKey(SearchEngineRequestAdapter, List)}.</p>
+ *
  * @author rene
  *
  */
 public class RewriteChain {
 
     final List<RewriterFactory> factories;
+    final RewriteCache rewriteCache;
+    volatile RewriteChainMetrics metrics = null;
 
     public RewriteChain() {
         this(Collections.emptyList());
     }
 
     public RewriteChain(List<RewriterFactory> factories) {
+        this(factories, null);
+    }
+
+    /**
+     * @param factories The rewriter factories
+     * @param rewriteCache The cache for rewrite results, or null to always apply the rewriters
+     */
+    public RewriteChain(final List<RewriterFactory> factories, final RewriteCache rewriteCache) {
         this.factories = factories;
+        this.rewriteCache = rewriteCache;
     }
 
     public ExpandedQuery rewrite(final ExpandedQuery query,
                                  final SearchEngineRequestAdapter searchEngineRequestAdapter) {
-      
+
+        if (rewriteCache == null) {
+            return applyRewriters(query, searchEngineRequestAdapter);
+        }
+
+        final List<Object> key = createCacheKey(query, searchEngineRequestAdapter);
+        if (key == null) {
+            return applyRewriters(query, searchEngineRequestAdapter);
+        }
+
+        final Map<String, Object> context = searchEngineRequestAdapter.getContext();
+
+        final RewriteCache.Entry entry = rewriteCache.get(key);
+
+        final RewriteChainMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.rewriteCacheLookup(entry != null);
+        }
+
+        if (entry != null) {
+            return entry.apply(context);
+        }
+
+        final ExpandedQuery rewritten = applyRewriters(query, searchEngineRequestAdapter);
+        rewriteCache.put(key, rewritten, context);
+        return rewritten;
+    }
+
+    protected ExpandedQuery applyRewriters(final ExpandedQuery query,
+                                           final SearchEngineRequestAdapter searchEngineRequestAdapter) {
+
         ExpandedQuery work = query;
-      
+
+        final RewriteChainMetrics metrics = this.metrics;
+        int position = 0;
+
         for (final RewriterFactory factory : factories) {
-         
+
+            final long start = metrics == null ? 0L : System.nanoTime();
+
             final QueryRewriter rewriter = factory.createRewriter(work, searchEngineRequestAdapter);
-         
+
             work = (rewriter instanceof ContextAwareQueryRewriter)
                  ? ((ContextAwareQueryRewriter) rewriter).rewrite(work, searchEngineRequestAdapter)
                  : rewriter.rewrite(work);
-         
+
+            if (metrics != null) {
+                metrics.rewriterApplied(position, factory, System.nanoTime() - start);
+            }
+            position++;
+
         }
         return work;
     }
-    
+
+    /**
+     * @param query The input query
+     * @param searchEngineRequestAdapter The request adapter
+     * @return The key for the {@link RewriteCache} or null if the rewriting cannot be cached
+     */
+    protected List<Object> createCacheKey(final ExpandedQuery query,
+                                          final SearchEngineRequestAdapter searchEngineRequestAdapter) {
+
+        // only cache if we can capture all context entries that the rewriters create
+        if (searchEngineRequestAdapter.isDebugQuery() || !searchEngineRequestAdapter.getContext().isEmpty()) {
+            return null;
+        }
+
+        final String queryKey = RewriteCache.createQueryKey(query);
+        if (queryKey == null) {
+            return null;
+        }
+
+        final List<Object> key = new ArrayList<>();
+        key.add(queryKey);
+        return addToCacheKey(searchEngineRequestAdapter, key) ? key : null;
+    }
+
+    /**
+     * Add the cache key elements of all factories in this chain to a cache key. Caches of objects that are derived from
+     * rewrite results can use this to make sure that their entries are invalidated together with the rewrite results.
+     *
+     * @param searchEngineRequestAdapter The request adapter
+     * @param key The key to which the elements will be added
+     * @return true if the key was completed, false if one of the factories does not allow caching for this request
+     */
+    public boolean addToCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter, final List<Object> key) {
+        for (final RewriterFactory factory : factories) {
+            if (!factory.addToRewriteCacheKey(searchEngineRequestAdapter, key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public List<RewriterFactory> getRewriterFactories() {
         return factories;
     }
+
+    public RewriteCache getRewriteCache() {
+        return rewriteCache;
+    }
+
+    public RewriteChainMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics that receive measurements from this chain. This can be called while queries are being rewritten.
+     *
+     * @param metrics The metrics or null to stop recording measurements
+     */
+    public void setMetrics(final RewriteChainMetrics metrics) {
+        this.metrics = metrics;
+    }
 }
@@ -0,0 +1,28 @@
+package querqy.rewrite;
+
+/**
+ * <p>Receives measurements from a {@link RewriteChain}.</p>
+ *
+ * <p>Implementations are called from all request threads and should use counters that don't serialize these threads,
+ * like {@link java.util.concurrent.atomic.LongAdder}.</p>
+ */
+public interface RewriteChainMetrics {
+
+    /**
+     * Called after a rewriter has rewritten a query.
+     *
+     * @param position The position of the rewriter factory in the chain, starting at 0
+     * @param factory The factory that created the rewriter
+     * @param durationNanos The time it took to create the rewriter and to rewrite the query in nanoseconds
+     */
+    void rewriterApplied(int position, RewriterFactory factory, long durationNanos);
+
+    /**
+     * Called for each query that the chain rewrites while it has a {@link RewriteCache}
+     *
+     * @param hit true if the rewrite result was taken from the cache
+     */
+    default void rewriteCacheLookup(final boolean hit) {
+    }
+
+}
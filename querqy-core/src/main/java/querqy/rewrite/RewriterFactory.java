@@ -3,6 +3,7 @@
  */
 package querqy.rewrite;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,4 +28,22 @@ public interface RewriterFactory {
 
     Set<Term> getGenerableTerms();
 
+    /**
+     * <p>Add the state on which the rewriting depends, other than the input query, to the key of the
+     * {@link RewriteCache}. Factories whose rewriters depend on request parameters should add the parameter values,
+     * factories whose rewriters depend on the index could add the version of the index reader.</p>
+     *
+     * <p>The default implementation adds nothing and returns false, so that rewriters are not cached unless their
+     * factory declares that they can be. Factories whose rewriters only depend on the input query and on the state of
+     * the factory should override this method to return true.</p>
+     *
+     * @param searchEngineRequestAdapter Encapsulates the request context.
+     * @param key The key elements. Elements must implement equals() and hashCode().
+     * @return false if the rewriting cannot be cached, which disables caching for the whole request
+     */
+    default boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                         final List<Object> key) {
+        return false;
+    }
+
 }
@@ -0,0 +1,66 @@
+package querqy.rewrite.commonrules;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import querqy.rewrite.commonrules.model.Instruction;
+
+/**
+ * <p>Counts how often the rules of a {@link SimpleCommonRulesRewriterFactory} are applied.</p>
+ *
+ * <p>The counters are {@link LongAdder}s, which can be incremented concurrently by all request threads without
+ * contention.</p>
+ */
+public class CommonRulesMetrics {
+
+    final LongAdder sequencesLookedUp = new LongAdder();
+    final LongAdder actionsMatched = new LongAdder();
+    final ConcurrentMap<Class<?>, LongAdder> instructionsApplied = new ConcurrentHashMap<>();
+
+    public void sequenceLookedUp() {
+        sequencesLookedUp.increment();
+    }
+
+    public void actionMatched() {
+        actionsMatched.increment();
+    }
+
+    public void instructionApplied(final Instruction instruction) {
+        final Class<?> type = instruction.getClass();
+        LongAdder counter = instructionsApplied.get(type);
+        if (counter == null) {
+            counter = instructionsApplied.computeIfAbsent(type, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return The number of input sequences (query and sub-queries) that were looked up in the rules
+     */
+    public long getSequencesLookedUp() {
+        return sequencesLookedUp.sum();
+    }
+
+    /**
+     * @return The number of matching rule inputs
+     */
+    public long getActionsMatched() {
+        return actionsMatched.sum();
+    }
+
+    /**
+     * @return The number of applied instructions by the simple class name of the instruction (SynonymInstruction,
+     * BoostInstruction etc.)
+     */
+    public Map<String, Long> getInstructionsApplied() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<Class<?>, LongAdder> entry : instructionsApplied.entrySet()) {
+            result.merge(entry.getKey().getSimpleName(), entry.getValue().sum(), Long::sum);
+        }
+        return result;
+    }
+
+}
@@ -9,7 +9,9 @@ import java.util.List;
 import java.util.Map;
 
 import querqy.model.AbstractNodeVisitor;
+import querqy.model.BooleanClause;
 import querqy.model.BooleanQuery;
+import querqy.model.DisjunctionMaxClause;
 import querqy.model.DisjunctionMaxQuery;
 import querqy.model.ExpandedQuery;
 import querqy.model.InputSequenceElement;
@@ -40,12 +42,22 @@ public class CommonRulesRewriter extends AbstractNodeVisitor<Node> implements Co
     protected final LinkedList<PositionSequence<Term>> sequencesStack;
     protected ExpandedQuery expandedQuery;
     protected Map<String, Object> context;
+    protected final CommonRulesMetrics metrics;
 
    /**
      * 
      */
    public CommonRulesRewriter(RulesCollection rules) {
+      this(rules, null);
+   }
+
+   /**
+    * @param rules The rules
+    * @param metrics The metrics to record matched actions and applied instructions, or null
+    */
+   public CommonRulesRewriter(RulesCollection rules, CommonRulesMetrics metrics) {
       this.rules = rules;
+      this.metrics = metrics;
       sequencesStack = new LinkedList<>();
    }
    
@@ -59,7 +71,7 @@ public class CommonRulesRewriter extends AbstractNodeVisitor<Node> implements Co
 
       QuerqyQuery<?> userQuery = query.getUserQuery();
       
-      if (userQuery instanceof Query) {
+      if (userQuery instanceof Query && isLookupRequired((Query) userQuery)) {
           
          this.expandedQuery = query;
          this.context = context;
@@ -74,6 +86,42 @@ public class CommonRulesRewriter extends AbstractNodeVisitor<Node> implements Co
       return query;
    }
 
+   /**
+    * Check whether any rule can match the query before building the sequences for the lookup. Most queries don't
+    * contain any term that starts a rule input (see {@link RulesCollection#mightStartInput(Term)}), which makes
+    * applying the rules nearly free for them.
+    *
+    * @param query The user query
+    * @return false if no rule can match the query
+    */
+   protected boolean isLookupRequired(Query query) {
+      // an empty query can still match a rule for the empty input
+      return query.getClauses().isEmpty() || anyTermMightStartInput(query);
+   }
+
+   protected boolean anyTermMightStartInput(BooleanQuery booleanQuery) {
+      for (BooleanClause clause : booleanQuery.getClauses()) {
+         if (clause instanceof BooleanQuery) {
+            if (anyTermMightStartInput((BooleanQuery) clause)) {
+               return true;
+            }
+         } else if (clause instanceof DisjunctionMaxQuery) {
+            for (DisjunctionMaxClause dmqClause : ((DisjunctionMaxQuery) clause).getClauses()) {
+               if (dmqClause instanceof Term) {
+                  if (rules.mightStartInput((Term) dmqClause)) {
+                     return true;
+                  }
+               } else if (!(dmqClause instanceof BooleanQuery) || anyTermMightStartInput((BooleanQuery) dmqClause)) {
+                  return true;
+               }
+            }
+         } else {
+            return true;
+         }
+      }
+      return false;
+   }
+
    @Override
    public Node visit(BooleanQuery booleanQuery) {
 
@@ -98,12 +146,22 @@ public class CommonRulesRewriter extends AbstractNodeVisitor<Node> implements Co
            context.put(CONTEXT_KEY_DEBUG_DATA, actionsDebugInfo);
        }
 
+       if (metrics != null) {
+           metrics.sequenceLookedUp();
+       }
+
        for (Action action : rules.getRewriteActions(sequenceForLookUp)) {
            if (isDebug) {
                actionsDebugInfo.add(action.toString());
            }
+           if (metrics != null) {
+               metrics.actionMatched();
+           }
            for (Instructions instructions : action.getInstructions()) {
               for (Instruction instruction : instructions) {
+                 if (metrics != null) {
+                    metrics.instructionApplied(instruction);
+                 }
                  instruction.apply(sequence, action.getTermMatches(), action.getStartPosition(),
                        action.getEndPosition(), expandedQuery, context);
               }
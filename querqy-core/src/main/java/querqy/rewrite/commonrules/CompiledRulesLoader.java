@@ -0,0 +1,291 @@
+package querqy.rewrite.commonrules;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+import querqy.rewrite.commonrules.model.Input;
+import querqy.rewrite.commonrules.model.Instruction;
+import querqy.rewrite.commonrules.model.Instructions;
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollection;
+import querqy.trie.CompactTrieMap;
+
+/**
+ * <p>Loads rules that were compiled by the {@link RulesCompiler}.</p>
+ *
+ * <p>The file is memory-mapped and the trie is used directly from the mapped file. Loading verifies the checksum and
+ * the structure of the file, so that a corrupt file is rejected with an IOException at load time.</p>
+ *
+ * <p>The instructions of a rule are parsed when the rule is needed for the first time and then kept in memory.
+ * {@link RulesCollection#getRewriteActions(querqy.rewrite.commonrules.model.PositionSequence)} only parses the rules
+ * that match the query. The following APIs need all rules and parse them on their first call:</p>
+ * <ul>
+ *     <li>{@link RulesCollection#getInstructions()}, which is used by
+ *     {@link SimpleCommonRulesRewriterFactory#getGenerableTerms()} (for example, when a Solr TermQueryCachePreloader
+ *     preloads the generable terms)</li>
+ *     <li>{@link TrieMapRulesCollection#getRules()} (for example, for rule hit statistics) and iterating the
+ *     {@link TrieMapRulesCollection#getTrieMap()}</li>
+ * </ul>
+ *
+ * <p>The {@link QuerqyParserFactory} must be compatible with the one that was used to compile the rules. If a rule
+ * cannot be parsed, the lookup that needs it throws an IllegalStateException. Create the loader with
+ * <code>parseEagerly</code> to parse all rules at load time instead, which rejects such rules with an IOException
+ * but gives up the fast loading.</p>
+ *
+ * @see RulesCompiler
+ */
+public class CompiledRulesLoader {
+
+    final QuerqyParserFactory querqyParserFactory;
+    final boolean parseEagerly;
+
+    public CompiledRulesLoader(final QuerqyParserFactory querqyParserFactory) {
+        this(querqyParserFactory, false);
+    }
+
+    /**
+     * @param querqyParserFactory The parser factory for queries in instructions
+     * @param parseEagerly If true, all rules are parsed when they are loaded
+     */
+    public CompiledRulesLoader(final QuerqyParserFactory querqyParserFactory, final boolean parseEagerly) {
+        this.querqyParserFactory = querqyParserFactory;
+        this.parseEagerly = parseEagerly;
+    }
+
+    /**
+     * Memory-map a compiled rules file.
+     *
+     * @param file The file
+     * @return The rules
+     * @throws IOException if the file cannot be read or if it is not a compiled rules file of a supported version
+     */
+    public RulesCollection load(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after closing the channel
+            return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Load compiled rules from a buffer
+     *
+     * @param buffer The buffer holding the compiled rules
+     * @return The rules
+     * @throws IOException if the buffer does not contain compiled rules of a supported version, if the data is corrupt
+     *                     or, if the rules are parsed eagerly, if a rule cannot be parsed
+     */
+    public RulesCollection load(final ByteBuffer buffer) throws IOException {
+
+        if (buffer.limit() < RulesCompiler.HEADER_INTS * 4) {
+            throw new IOException("Not a compiled rules file");
+        }
+
+        final IntBuffer header = slice(buffer, 0, RulesCompiler.HEADER_INTS * 4).asIntBuffer();
+        if (header.get(0) != RulesCompiler.MAGIC) {
+            throw new IOException("Not a compiled rules file");
+        }
+        final int version = header.get(1);
+        if (version != RulesCompiler.VERSION) {
+            throw new IOException("Unsupported version of compiled rules: " + version + ", expected: "
+                    + RulesCompiler.VERSION);
+        }
+
+        final boolean ignoreCase = (header.get(2) & RulesCompiler.FLAG_IGNORE_CASE) != 0;
+        final int numNodes = header.get(3);
+        final int numValues = header.get(4);
+        final int numValueRules = header.get(5);
+        final int numRules = header.get(6);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(slice(buffer, RulesCompiler.HEADER_INTS * 4,
+                buffer.limit() - RulesCompiler.HEADER_INTS * 4));
+        if ((int) checksum.getValue() != header.get(7)) {
+            throw new IOException("Corrupt compiled rules file: checksum mismatch");
+        }
+
+        int pos = RulesCompiler.HEADER_INTS * 4;
+        final IntBuffer firstChild = slice(buffer, pos, numNodes * 4).asIntBuffer();
+        pos += numNodes * 4;
+        final IntBuffer numChildren = slice(buffer, pos, numNodes * 4).asIntBuffer();
+        pos += numNodes * 4;
+        final IntBuffer valueIds = slice(buffer, pos, numNodes * 4).asIntBuffer();
+        pos += numNodes * 4;
+        final IntBuffer prefixValueIds = slice(buffer, pos, numNodes * 4).asIntBuffer();
+        pos += numNodes * 4;
+        final IntBuffer valueRuleOffsets = slice(buffer, pos, (numValues + 1) * 4).asIntBuffer();
+        pos += (numValues + 1) * 4;
+        final IntBuffer valueRuleIds = slice(buffer, pos, numValueRules * 4).asIntBuffer();
+        pos += numValueRules * 4;
+        final IntBuffer ruleTextOffsets = slice(buffer, pos, (numRules + 1) * 4).asIntBuffer();
+        pos += (numRules + 1) * 4;
+        final ByteBuffer chars = slice(buffer, pos, numNodes * 2);
+        pos += numNodes * 2;
+        final ByteBuffer ruleText = slice(buffer, pos, ruleTextOffsets.get(numRules));
+
+        checkNodes(firstChild, numChildren, valueIds, prefixValueIds, numNodes, numValues);
+        checkOffsets(valueRuleOffsets, numValueRules, "value rule");
+        checkOffsets(ruleTextOffsets, ruleText.limit(), "rule text");
+        for (int i = 0; i < numValueRules; i++) {
+            final int ruleId = valueRuleIds.get(i);
+            if (ruleId < 0 || ruleId >= numRules) {
+                throw new IOException("Corrupt compiled rules file: invalid rule id " + ruleId);
+            }
+        }
+
+        final Rules rules = new Rules(valueRuleOffsets, valueRuleIds, ruleTextOffsets, ruleText, numValues,
+                numRules);
+
+        final CompactTrieMap<List<Instructions>> trieMap = new CompactTrieMap<>(chars.asCharBuffer(), firstChild,
+                numChildren, valueIds, prefixValueIds, numValues, rules::getInstructionsList);
+
+        if (parseEagerly) {
+            for (int ruleId = 0; ruleId < numRules; ruleId++) {
+                try {
+                    rules.getInstructions(ruleId);
+                } catch (final RuntimeException e) {
+                    throw new IOException("Cannot parse compiled rule " + ruleId, e);
+                }
+            }
+        }
+
+        return new TrieMapRulesCollection(trieMap, ignoreCase);
+
+    }
+
+    private static void checkNodes(final IntBuffer firstChild, final IntBuffer numChildren, final IntBuffer valueIds,
+                                   final IntBuffer prefixValueIds, final int numNodes, final int numValues)
+            throws IOException {
+        for (int node = 0; node < numNodes; node++) {
+            final int first = firstChild.get(node);
+            final int num = numChildren.get(node);
+            if (num < 0 || (num > 0 && (first <= node || first + num > numNodes))) {
+                throw new IOException("Corrupt compiled rules file: invalid children of node " + node);
+            }
+            final int valueId = valueIds.get(node);
+            final int prefixValueId = prefixValueIds.get(node);
+            if (valueId < -1 || valueId >= numValues || prefixValueId < -1 || prefixValueId >= numValues) {
+                throw new IOException("Corrupt compiled rules file: invalid value id at node " + node);
+            }
+        }
+    }
+
+    private static void checkOffsets(final IntBuffer offsets, final int end, final String name) throws IOException {
+        final int last = offsets.limit() - 1;
+        if (offsets.get(0) != 0 || offsets.get(last) != end) {
+            throw new IOException("Corrupt compiled rules file: invalid " + name + " offsets");
+        }
+        for (int i = 1; i <= last; i++) {
+            if (offsets.get(i) < offsets.get(i - 1)) {
+                throw new IOException("Corrupt compiled rules file: invalid " + name + " offsets");
+            }
+        }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int position, final int length) throws IOException {
+        if (length < 0 || position + length > buffer.limit()) {
+            throw new IOException("Truncated compiled rules file");
+        }
+        final ByteBuffer duplicate = buffer.duplicate();
+        // call the methods of Buffer: ByteBuffer overrides them with a covariant return type since Java 9, which
+        // would not link on Java 8 if compiled by a newer JDK
+        ((Buffer) duplicate).position(position);
+        ((Buffer) duplicate).limit(position + length);
+        return duplicate.slice();
+    }
+
+    /**
+     * Parses the rules from the rule text on demand and keeps them.
+     */
+    class Rules {
+
+        final IntBuffer valueRuleOffsets;
+        final IntBuffer valueRuleIds;
+        final IntBuffer ruleTextOffsets;
+        final ByteBuffer ruleText;
+        final AtomicReferenceArray<List<Instructions>> instructionsLists;
+        final AtomicReferenceArray<Instructions> instructionsByRule;
+
+        Rules(final IntBuffer valueRuleOffsets, final IntBuffer valueRuleIds, final IntBuffer ruleTextOffsets,
+              final ByteBuffer ruleText, final int numValues, final int numRules) {
+            this.valueRuleOffsets = valueRuleOffsets;
+            this.valueRuleIds = valueRuleIds;
+            this.ruleTextOffsets = ruleTextOffsets;
+            this.ruleText = ruleText;
+            this.instructionsLists = new AtomicReferenceArray<>(numValues);
+            this.instructionsByRule = new AtomicReferenceArray<>(numRules);
+        }
+
+        List<Instructions> getInstructionsList(final int valueId) {
+            List<Instructions> instructionsList = instructionsLists.get(valueId);
+            if (instructionsList == null) {
+                final int from = valueRuleOffsets.get(valueId);
+                final int to = valueRuleOffsets.get(valueId + 1);
+                final List<Instructions> list = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    list.add(getInstructions(valueRuleIds.get(i)));
+                }
+                instructionsList = Collections.unmodifiableList(list);
+                // if another thread won the race, we use its list
+                if (!instructionsLists.compareAndSet(valueId, null, instructionsList)) {
+                    instructionsList = instructionsLists.get(valueId);
+                }
+            }
+            return instructionsList;
+        }
+
+        Instructions getInstructions(final int ruleId) {
+            Instructions instructions = instructionsByRule.get(ruleId);
+            if (instructions == null) {
+                instructions = parseRule(ruleId);
+                if (!instructionsByRule.compareAndSet(ruleId, null, instructions)) {
+                    instructions = instructionsByRule.get(ruleId);
+                }
+            }
+            return instructions;
+        }
+
+        Instructions parseRule(final int ruleId) {
+
+            final int from = ruleTextOffsets.get(ruleId);
+            final byte[] bytes = new byte[ruleTextOffsets.get(ruleId + 1) - from];
+            final ByteBuffer text = ruleText.duplicate();
+            ((Buffer) text).position(from); // see slice()
+            text.get(bytes);
+
+            final String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\n");
+
+            final Object inputObject = LineParser.parse(lines[0], null, querqyParserFactory);
+            if (!(inputObject instanceof Input)) {
+                throw new IllegalStateException("Cannot parse input of compiled rule " + ruleId + ": " + lines[0]);
+            }
+            final Input input = (Input) inputObject;
+
+            // the compiled rules don't keep line numbers
+            final Instructions instructions = new Instructions(-1,
+                    lines[0].substring(0, lines[0].length() - SimpleCommonRulesParser.ARROW_OP.length()).trim());
+            for (int i = 1; i < lines.length; i++) {
+                final Object instruction = LineParser.parse(lines[i], input, querqyParserFactory);
+                if (instruction instanceof Instruction) {
+                    instructions.add((Instruction) instruction);
+                } else {
+                    throw new IllegalStateException("Cannot parse instruction of compiled rule " + ruleId + ": "
+                            + lines[i]);
+                }
+            }
+            return instructions;
+        }
+
+    }
+
+}
@@ -0,0 +1,248 @@
+package querqy.rewrite.commonrules;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import querqy.rewrite.commonrules.model.Instructions;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollectionBuilder;
+import querqy.trie.CompactTrieMap;
+
+/**
+ * <p>Compiles a set of rules in the Common Rules format into a binary file that can be memory-mapped using a
+ * {@link CompiledRulesLoader}. Loading the binary file doesn't need to parse the rules or to build the trie.</p>
+ *
+ * <p>The file contains the nodes of the {@link CompactTrieMap} and, for each rule, the (normalised) lines of the rule
+ * definition. The instructions of a rule are only parsed when the rule matches for the first time.</p>
+ *
+ * <p>Layout (big-endian):</p>
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * int    flags (bit 0: ignoreCase)
+ * int    numNodes
+ * int    numValues
+ * int    numValueRules
+ * int    numRules
+ * int    checksum (CRC32 of all data after the header)
+ * int[numNodes]      first child per node
+ * int[numNodes]      number of children per node
+ * int[numNodes]      value id per node (-1: no value)
+ * int[numNodes]      prefix value id per node (-1: no prefix value)
+ * int[numValues + 1] offsets into value rule ids per value id
+ * int[numValueRules] value rule ids
+ * int[numRules + 1]  offsets into rule text per rule id
+ * char[numNodes]     character per node
+ * byte[]             rule text (UTF-8)
+ * </pre>
+ *
+ * <p>Usage from the command line:</p>
+ * <pre>
+ * java -cp querqy-core.jar querqy.rewrite.commonrules.RulesCompiler rules.txt rules.bin [ignoreCase [querqyParserFactoryClass]]
+ * </pre>
+ *
+ * @see CompiledRulesLoader
+ */
+public class RulesCompiler {
+
+    public static final int MAGIC = 0x5152554C; // QRUL
+    public static final int VERSION = 2;
+
+    static final int FLAG_IGNORE_CASE = 1;
+    static final int HEADER_INTS = 8;
+
+    final QuerqyParserFactory querqyParserFactory;
+    final boolean ignoreCase;
+
+    public RulesCompiler(final QuerqyParserFactory querqyParserFactory, final boolean ignoreCase) {
+        this.querqyParserFactory = querqyParserFactory;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Parse the rules and write them to a binary file.
+     *
+     * @param rules The rules in Common Rules format
+     * @param file The output file
+     * @throws IOException if the rules cannot be read or the file cannot be written
+     * @throws RuleParseException if the rules are invalid
+     */
+    public void compile(final Reader rules, final Path file) throws IOException, RuleParseException {
+        try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            compile(rules, out);
+        }
+    }
+
+    /**
+     * Parse the rules and write them in the binary format to the output stream.
+     *
+     * @param rules The rules in Common Rules format
+     * @param out The output stream
+     * @throws IOException if the rules cannot be read or the output cannot be written
+     * @throws RuleParseException if the rules are invalid
+     */
+    public void compile(final Reader rules, final OutputStream out) throws IOException, RuleParseException {
+
+        final RecordingParser parser = new RecordingParser(rules, querqyParserFactory,
+                new TrieMapRulesCollectionBuilder(ignoreCase));
+
+        final TrieMapRulesCollection rulesCollection = (TrieMapRulesCollection) parser.parse();
+        final CompactTrieMap<List<Instructions>> trieMap = rulesCollection.getTrieMap();
+
+        final int numNodes = trieMap.size();
+        final int numValues = trieMap.getNumValues();
+        final int numRules = parser.ruleTexts.size();
+
+        final int[] valueRuleOffsets = new int[numValues + 1];
+        final List<Integer> valueRuleIds = new ArrayList<>();
+        for (int valueId = 0; valueId < numValues; valueId++) {
+            valueRuleOffsets[valueId] = valueRuleIds.size();
+            final List<Instructions> instructionsList = trieMap.getValue(valueId);
+            if (instructionsList != null) {
+                for (final Instructions instructions : instructionsList) {
+                    final Integer ruleId = parser.ruleIds.get(instructions);
+                    if (ruleId == null) {
+                        throw new IllegalStateException("Unknown rule: " + instructions);
+                    }
+                    valueRuleIds.add(ruleId);
+                }
+            }
+        }
+        valueRuleOffsets[numValues] = valueRuleIds.size();
+
+        final List<byte[]> ruleTexts = new ArrayList<>(numRules);
+        for (final String text : parser.ruleTexts) {
+            ruleTexts.add(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // the checksum in the header covers the data after the header
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(body);
+
+        for (int node = 0; node < numNodes; node++) {
+            data.writeInt(trieMap.getFirstChild(node));
+        }
+        for (int node = 0; node < numNodes; node++) {
+            data.writeInt(trieMap.getNumChildren(node));
+        }
+        for (int node = 0; node < numNodes; node++) {
+            data.writeInt(trieMap.getValueId(node));
+        }
+        for (int node = 0; node < numNodes; node++) {
+            data.writeInt(trieMap.getPrefixValueId(node));
+        }
+        for (final int offset : valueRuleOffsets) {
+            data.writeInt(offset);
+        }
+        for (final int ruleId : valueRuleIds) {
+            data.writeInt(ruleId);
+        }
+        int textOffset = 0;
+        for (final byte[] text : ruleTexts) {
+            data.writeInt(textOffset);
+            textOffset += text.length;
+        }
+        data.writeInt(textOffset);
+        for (int node = 0; node < numNodes; node++) {
+            data.writeChar(trieMap.getChar(node));
+        }
+        for (final byte[] text : ruleTexts) {
+            data.write(text);
+        }
+        data.flush();
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray());
+
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(ignoreCase ? FLAG_IGNORE_CASE : 0);
+        header.writeInt(numNodes);
+        header.writeInt(numValues);
+        header.writeInt(valueRuleIds.size());
+        header.writeInt(numRules);
+        header.writeInt((int) checksum.getValue());
+        body.writeTo(header);
+
+        header.flush();
+
+    }
+
+    /**
+     * A parser that keeps the normalised lines of each rule.
+     */
+    static class RecordingParser extends SimpleCommonRulesParser {
+
+        final Map<Instructions, Integer> ruleIds = new IdentityHashMap<>();
+        final List<String> ruleTexts = new ArrayList<>();
+        StringBuilder currentRuleText = null;
+
+        RecordingParser(final Reader in, final QuerqyParserFactory querqyParserFactory,
+                        final TrieMapRulesCollectionBuilder builder) {
+            super(in, querqyParserFactory, builder);
+        }
+
+        @Override
+        public void nextLine(final String line) throws RuleParseException {
+            final String stripped = stripLine(line);
+            // the previous rule will be put when we see the next input
+            super.nextLine(line);
+            if (stripped.length() > 0) {
+                if (input != null && instructions.isEmpty()) {
+                    currentRuleText = new StringBuilder(stripped);
+                } else {
+                    currentRuleText.append('\n').append(stripped);
+                }
+            }
+        }
+
+        @Override
+        public void putRule() throws RuleParseException {
+            if (input != null && !instructions.isEmpty()) {
+                ruleIds.put(instructions, ruleTexts.size());
+                ruleTexts.add(currentRuleText.toString());
+            }
+            super.putRule();
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: RulesCompiler <rules file> <output file> [ignoreCase (default: true)] "
+                    + "[querqy parser factory class (default: " + WhiteSpaceQuerqyParserFactory.class.getName() + ")]");
+            System.exit(1);
+        }
+
+        final boolean ignoreCase = args.length < 3 || Boolean.parseBoolean(args[2]);
+        final QuerqyParserFactory querqyParserFactory = args.length < 4
+                ? new WhiteSpaceQuerqyParserFactory()
+                : (QuerqyParserFactory) Class.forName(args[3]).newInstance();
+
+        final long start = System.currentTimeMillis();
+
+        try (final Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(args[0])),
+                StandardCharsets.UTF_8)) {
+            new RulesCompiler(querqyParserFactory, ignoreCase).compile(reader, Paths.get(args[1]));
+        }
+
+        System.out.println("Compiled " + args[0] + " to " + args[1] + " in " + (System.currentTimeMillis() - start)
+                + "ms");
+    }
+
+}
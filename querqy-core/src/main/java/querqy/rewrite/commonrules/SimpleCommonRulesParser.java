@@ -6,6 +6,13 @@ package querqy.rewrite.commonrules;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
 
 import querqy.rewrite.commonrules.model.Input;
 import querqy.rewrite.commonrules.model.Instruction;
@@ -25,17 +32,35 @@ public class SimpleCommonRulesParser {
    static final String EMPTY = "".intern();
    static final String ARROW_OP = "=>";
 
+   /**
+    * The minimum number of lines that are parsed in one task by {@link #parse(ForkJoinPool)}
+    */
+   static final int MIN_LINES_PER_CHUNK = 1000;
+
    final BufferedReader reader;
    final QuerqyParserFactory querqyParserFactory;
    int lineNumber = 0;
    final RulesCollectionBuilder builder;
+   // receives the parsed rules
+   final BiConsumer<Input, Instructions> ruleConsumer;
    Input input = null;
    Instructions instructions = null;
 
    public SimpleCommonRulesParser(Reader in, QuerqyParserFactory querqyParserFactory, boolean ignoreCase) {
+      this(in, querqyParserFactory, new TrieMapRulesCollectionBuilder(ignoreCase));
+   }
+
+   public SimpleCommonRulesParser(Reader in, QuerqyParserFactory querqyParserFactory,
+                                  RulesCollectionBuilder builder) {
+      this(in, querqyParserFactory, builder, builder::addRule);
+   }
+
+   private SimpleCommonRulesParser(Reader in, QuerqyParserFactory querqyParserFactory,
+                                   RulesCollectionBuilder builder, BiConsumer<Input, Instructions> ruleConsumer) {
       this.reader = new BufferedReader(in);
       this.querqyParserFactory = querqyParserFactory;
-      builder = new TrieMapRulesCollectionBuilder(ignoreCase);
+      this.builder = builder;
+      this.ruleConsumer = ruleConsumer;
      // instructions = new Instructions();
    }
 
@@ -50,12 +75,114 @@ public class SimpleCommonRulesParser {
          putRule();
          return builder.build();
       } finally {
-         try {
-            reader.close();
-         } catch (Exception e) {
-            // TODO: log
+         closeReader();
+      }
+   }
+
+   private void closeReader() {
+      try {
+         reader.close();
+      } catch (Exception e) {
+         // TODO: log
+      }
+   }
+
+   /**
+    * <p>Parse the rules using the threads of a {@link ForkJoinPool}. The result is the same as for {@link #parse()}
+    * but parsing large rule files is faster on multi-core machines.</p>
+    *
+    * <p>The rules are split into chunks at the input lines. The chunks are parsed in parallel and the rules are then
+    * added to the {@link RulesCollectionBuilder} in the order of the input. If the rules contain errors, the exception
+    * reports the first erroneous line, as in {@link #parse()}. The {@link QuerqyParserFactory} must be thread-safe.</p>
+    *
+    * @param pool The pool that parses the chunks
+    * @return The rules
+    * @throws IOException if the rules cannot be read
+    * @throws RuleParseException if the rules contain an error
+    */
+   public RulesCollection parse(final ForkJoinPool pool) throws IOException, RuleParseException {
+
+      final List<String> lines = new ArrayList<>();
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            lines.add(line);
+         }
+      } finally {
+         closeReader();
+      }
+
+      final int numLines = lines.size();
+      final int chunkSize = Math.max(MIN_LINES_PER_CHUNK, numLines / (pool.getParallelism() * 4) + 1);
+
+      final List<ForkJoinTask<RulesChunk>> tasks = new ArrayList<>();
+
+      int from = 0;
+      while (from < numLines) {
+         int to = Math.min(from + chunkSize, numLines);
+         // a chunk must end before an input line, so that each chunk starts with a new rule
+         while (to < numLines && !stripLine(lines.get(to)).endsWith(ARROW_OP)) {
+            to++;
          }
+         final int chunkFrom = from;
+         final int chunkTo = to;
+         tasks.add(pool.submit(() -> parseChunk(lines, chunkFrom, chunkTo)));
+         from = to;
       }
+
+      try {
+         for (final ForkJoinTask<RulesChunk> task : tasks) {
+            final RulesChunk chunk = task.get();
+            if (chunk.error != null) {
+               for (final ForkJoinTask<RulesChunk> other : tasks) {
+                  other.cancel(false);
+               }
+               throw chunk.error;
+            }
+            for (int i = 0, len = chunk.inputs.size(); i < len; i++) {
+               builder.addRule(chunk.inputs.get(i), chunk.instructions.get(i));
+            }
+         }
+      } catch (final ExecutionException e) {
+         final Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new RuleParseException(cause);
+      } catch (final InterruptedException e) {
+         for (final ForkJoinTask<RulesChunk> task : tasks) {
+            task.cancel(false);
+         }
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing rules", e);
+      }
+
+      return builder.build();
+
+   }
+
+   /**
+    * Parse the lines [from, to) into a {@link RulesChunk}. Line numbers in errors relate to all lines.
+    */
+   RulesChunk parseChunk(final List<String> lines, final int from, final int to) {
+      final RulesChunk chunk = new RulesChunk();
+      final SimpleCommonRulesParser parser = new SimpleCommonRulesParser(new StringReader(EMPTY),
+              querqyParserFactory, null, chunk::add);
+      try {
+         for (int i = from; i < to; i++) {
+            parser.lineNumber = i + 1;
+            parser.nextLine(lines.get(i));
+         }
+         // the last rule of the chunk ends at the next input line or at the end of the file
+         parser.lineNumber = (to < lines.size()) ? to + 1 : to;
+         parser.putRule();
+      } catch (final RuleParseException e) {
+         chunk.error = e;
+      }
+      return chunk;
    }
 
    public void putRule() throws RuleParseException {
@@ -63,7 +190,7 @@ public class SimpleCommonRulesParser {
          if (instructions.isEmpty()) {
             throw new RuleParseException(lineNumber, "Instruction expected");
          }
-         builder.addRule(input, instructions);
+         ruleConsumer.accept(input, instructions);
          input = null;
        //  instructions = new Instructions();
       }
@@ -76,7 +203,7 @@ public class SimpleCommonRulesParser {
          if (lineObject instanceof Input) {
             putRule();
             input = (Input) lineObject;
-            instructions = new Instructions();
+            instructions = new Instructions(lineNumber, line.substring(0, line.length() - ARROW_OP.length()).trim());
          } else if (lineObject instanceof ValidationError) {
             throw new RuleParseException(lineNumber, ((ValidationError) lineObject).getMessage());
          } else {
@@ -100,4 +227,20 @@ public class SimpleCommonRulesParser {
       return line;
    }
 
+   /**
+    * Collects the rules of a chunk in the order of the input
+    */
+   static class RulesChunk {
+
+      final List<Input> inputs = new ArrayList<>();
+      final List<Instructions> instructions = new ArrayList<>();
+      RuleParseException error = null;
+
+      void add(Input input, Instructions instructions) {
+         inputs.add(input);
+         this.instructions.add(instructions);
+      }
+
+   }
+
 }
@@ -6,15 +6,20 @@ package querqy.rewrite.commonrules;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import querqy.model.ExpandedQuery;
 import querqy.model.Term;
 import querqy.rewrite.QueryRewriter;
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 import querqy.rewrite.commonrules.model.Instruction;
 import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.RulesCollectionBuilder;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollectionBuilder;
 
 /**
  * @author René Kriegler, @renekrie
@@ -22,7 +27,12 @@ import querqy.rewrite.commonrules.model.RulesCollection;
  */
 public class SimpleCommonRulesRewriterFactory implements RewriterFactory {
 
-    final RulesCollection rules;
+    volatile RulesCollection rules;
+
+    // incremented after the rules have been replaced, so that cached rewrite results of previous rules don't match
+    final AtomicInteger rulesVersion = new AtomicInteger();
+
+    final CommonRulesMetrics metrics = new CommonRulesMetrics();
 
     /**
      * 
@@ -33,8 +43,22 @@ public class SimpleCommonRulesRewriterFactory implements RewriterFactory {
      */
     public SimpleCommonRulesRewriterFactory(final Reader reader, final QuerqyParserFactory querqyParserFactory,
                                             final boolean ignoreCase) throws IOException {
+        this(reader, querqyParserFactory, new TrieMapRulesCollectionBuilder(ignoreCase));
+    }
+
+    /**
+     * Create a factory using a specific {@link RulesCollectionBuilder}, for example an
+     * {@link querqy.rewrite.commonrules.model.AhoCorasickRulesCollectionBuilder}.
+     *
+     * @param reader The rules
+     * @param querqyParserFactory The parser factory for queries in instructions
+     * @param rulesCollectionBuilder The builder for the RulesCollection
+     * @throws IOException if the rules cannot be read or parsed
+     */
+    public SimpleCommonRulesRewriterFactory(final Reader reader, final QuerqyParserFactory querqyParserFactory,
+                                            final RulesCollectionBuilder rulesCollectionBuilder) throws IOException {
         try {
-            rules = new SimpleCommonRulesParser(reader, querqyParserFactory, ignoreCase).parse();
+            rules = new SimpleCommonRulesParser(reader, querqyParserFactory, rulesCollectionBuilder).parse();
         } catch (final RuleParseException e) {
             throw new IOException(e);
         } finally {
@@ -46,6 +70,40 @@ public class SimpleCommonRulesRewriterFactory implements RewriterFactory {
         }
     }
 
+    /**
+     * Create a factory for rules that have already been parsed or loaded, for example using a
+     * {@link CompiledRulesLoader}.
+     *
+     * @param rules The rules
+     */
+    public SimpleCommonRulesRewriterFactory(final RulesCollection rules) {
+        if (rules == null) {
+            throw new IllegalArgumentException("rules must not be null");
+        }
+        this.rules = rules;
+    }
+
+    /**
+     * <p>Replace the rules of this factory.</p>
+     *
+     * <p>Rewriters that were created before keep using the previous rules, rewriters that are created after this method
+     * returned use the new rules. The rules should be parsed before calling this method so that queries can be
+     * rewritten using the previous rules in the meantime.</p>
+     *
+     * @param rules The new rules
+     */
+    public void setRules(final RulesCollection rules) {
+        if (rules == null) {
+            throw new IllegalArgumentException("rules must not be null");
+        }
+        this.rules = rules;
+        rulesVersion.incrementAndGet();
+    }
+
+    public RulesCollection getRules() {
+        return rules;
+    }
+
     /*
      * (non-Javadoc)
      *     
@@ -55,7 +113,21 @@ public class SimpleCommonRulesRewriterFactory implements RewriterFactory {
      */
     @Override
     public QueryRewriter createRewriter(final ExpandedQuery input, final Map<String, ?> context) {
-        return new CommonRulesRewriter(rules);
+        return new CommonRulesRewriter(rules, metrics);
+    }
+
+    /**
+     * @return The counters of matched rules and applied instructions of all rewriters created by this factory
+     */
+    public CommonRulesMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                        final List<Object> key) {
+        key.add(rulesVersion.get());
+        return true;
     }
 
     @Override
@@ -0,0 +1,364 @@
+package querqy.rewrite.commonrules.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import querqy.ComparableCharSequence;
+import querqy.model.InputSequenceElement;
+import querqy.model.Term;
+
+/**
+ * <p>A {@link RulesCollection} that finds the matching rules using a token-level Aho-Corasick automaton.</p>
+ *
+ * <p>The tokens of the rule inputs are mapped to int ids. An input is a sequence of token ids, the automaton
+ * transitions on these ids and uses failure links to continue with the longest suffix of the current match when the
+ * next token doesn't extend the match. This allows to find all matching rules in a single pass over the positions of
+ * the input sequence, while the {@link TrieMapRulesCollection} has to start a new lookup for each term and to combine
+ * each term with all partial matches that end at the previous position.</p>
+ *
+ * <p>As there can be more than one term per position (DisMax alternatives), the matcher keeps a set of paths through
+ * the automaton. Each path is a partial match together with the terms that make up the match. Paths that end up in the
+ * same state for the same terms are merged.</p>
+ *
+ * <p>Given the same rules, this collection returns the same actions as the {@link TrieMapRulesCollection}, though not
+ * necessarily in the same order. Use the {@link AhoCorasickRulesCollectionBuilder} to create it.</p>
+ */
+public class AhoCorasickRulesCollection implements RulesCollection {
+
+    /**
+     * The token id of an {@link InputBoundary}
+     */
+    public static final int BOUNDARY_TOKEN = 0;
+
+    static final int ROOT = 0;
+    static final int NO_STATE = -1;
+
+    final TermDictionary termDictionary;
+    final boolean ignoreCase;
+
+    // the automaton
+    final int[] firstEdge;
+    final int[] numEdges;
+    final int[] edgeTokens; // sorted per state
+    final int[] edgeTargets;
+    final int[] fail;
+    final int[] output; // the next state with instructions in the failure chain, including the state itself
+    final int[] depth;
+    final List<List<Instructions>> values;
+
+    AhoCorasickRulesCollection(final TermDictionary termDictionary, final boolean ignoreCase,
+                               final int[] firstEdge, final int[] numEdges, final int[] edgeTokens,
+                               final int[] edgeTargets, final int[] fail, final int[] output, final int[] depth,
+                               final List<List<Instructions>> values) {
+        this.termDictionary = termDictionary;
+        this.ignoreCase = ignoreCase;
+        this.firstEdge = firstEdge;
+        this.numEdges = numEdges;
+        this.edgeTokens = edgeTokens;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+        this.depth = depth;
+        this.values = values;
+    }
+
+    /* (non-Javadoc)
+     * @see querqy.rewrite.commonrules.model.RulesCollection#getRewriteActions(querqy.rewrite.commonrules.model.PositionSequence)
+     */
+    @Override
+    public List<Action> getRewriteActions(final PositionSequence<InputSequenceElement> sequence) {
+
+        final List<Action> result = new ArrayList<>();
+        if (sequence.isEmpty()) {
+            return result;
+        }
+
+        final Matcher matcher = new Matcher(result);
+
+        for (final List<InputSequenceElement> position : sequence) {
+
+            boolean anyTermAtPosition = false;
+
+            for (final InputSequenceElement element : position) {
+
+                if (element instanceof Term) {
+                    anyTermAtPosition = true;
+                    matcher.nextTerm((Term) element);
+                } else if (element instanceof InputBoundary) {
+                    matcher.next(element, null, BOUNDARY_TOKEN, false);
+                } else {
+                    throw new IllegalArgumentException("Cannot handle type of element in sequence " + element);
+                }
+
+            }
+
+            matcher.nextPosition(anyTermAtPosition);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<Instruction> getInstructions() {
+
+        final Set<Instruction> result = new HashSet<>();
+
+        for (final List<Instructions> instructionsList : values) {
+            if (instructionsList != null) {
+                for (final Instructions instructions : instructionsList) {
+                    result.addAll(instructions);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The dictionary of the input tokens
+     */
+    public TermDictionary getTermDictionary() {
+        return termDictionary;
+    }
+
+    /**
+     * @return The number of states of the automaton
+     */
+    public int getNumStates() {
+        return fail.length;
+    }
+
+    int transition(final int state, final int token) {
+        int lo = firstEdge[state];
+        int hi = lo + numEdges[state] - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midToken = edgeTokens[mid];
+            if (midToken < token) {
+                lo = mid + 1;
+            } else if (midToken > token) {
+                hi = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NO_STATE;
+    }
+
+    /**
+     * The state after consuming the token in the given state, following the failure links if needed
+     */
+    int next(final int state, final int token) {
+        int current = state;
+        while (true) {
+            final int target = transition(current, token);
+            if (target != NO_STATE) {
+                return target;
+            }
+            if (current == ROOT) {
+                return ROOT;
+            }
+            current = fail[current];
+        }
+    }
+
+    /**
+     * Keeps the paths through the automaton while iterating over the input sequence
+     */
+    class Matcher {
+
+        final List<Action> result;
+        final TermDictionary.Lookup lookup = termDictionary.lookup();
+        final Set<Window> emitted = new HashSet<>();
+
+        List<Path> paths = new ArrayList<>();
+        List<Path> nextPaths = new ArrayList<>();
+        final Set<Window> nextPathWindows = new HashSet<>();
+
+        int pos = 0;
+
+        Matcher(final List<Action> result) {
+            this.result = result;
+            paths.add(Path.ROOT);
+        }
+
+        void nextTerm(final Term term) {
+
+            final ComparableCharSequence seq = term.toCharSequenceWithField(ignoreCase);
+
+            if (!lookup.seek(seq)) {
+                // unknown token - all paths fall back to the root
+                addPath(Path.ROOT);
+                return;
+            }
+
+            final int termId = lookup.getTermId();
+            if (termId != TermDictionary.NO_TERM) {
+                next(term, new TermMatch(term, termId), termId, false);
+            } else {
+                addPath(Path.ROOT);
+            }
+
+            // the lookup sequence might start with the field name
+            final int offset = seq.length() - term.length();
+            for (int i = 0, len = lookup.getPrefixCount(); i < len; i++) {
+                final int prefixIndex = lookup.getPrefixIndex(i) - offset;
+                final int prefixTermId = lookup.getPrefixTermId(i);
+                next(term, new TermMatch(term, true, term.subSequence(prefixIndex + 1, term.length()), prefixTermId),
+                        prefixTermId, true);
+            }
+        }
+
+        void next(final InputSequenceElement element, final TermMatch match, final int token,
+                  final boolean isPrefixToken) {
+
+            final int end = match == null ? pos : pos + 1;
+
+            for (final Path path : paths) {
+
+                final int state = AhoCorasickRulesCollection.this.next(path.state, token);
+                if (state == ROOT) {
+                    addPath(Path.ROOT);
+                    continue;
+                }
+
+                final Path newPath = new Path(state, element, match, path);
+
+                for (int out = output[state]; out != NO_STATE; out = output[fail[out]]) {
+                    emit(out, newPath, end);
+                }
+
+                if (!isPrefixToken) {
+                    addPath(newPath);
+                }
+            }
+
+        }
+
+        void addPath(final Path path) {
+            if (nextPathWindows.add(new Window(path.state, path))) {
+                nextPaths.add(path);
+            }
+        }
+
+        void emit(final int state, final Path path, final int end) {
+
+            if (!emitted.add(new Window(state, path))) {
+                return;
+            }
+
+            final int len = depth[state];
+            final TermMatch[] matches = new TermMatch[len];
+            int numTerms = 0;
+            Path current = path;
+            for (int i = len - 1; i >= 0; i--) {
+                if (current.match != null) {
+                    matches[i] = current.match;
+                    numTerms++;
+                }
+                current = current.prev;
+            }
+
+            final TermMatches termMatches = new TermMatches();
+            for (final TermMatch match : matches) {
+                if (match != null) {
+                    termMatches.add(match);
+                }
+            }
+
+            result.add(new Action(values.get(state), termMatches, end - numTerms, end));
+        }
+
+        void nextPosition(final boolean anyTermAtPosition) {
+            final List<Path> tmp = paths;
+            paths = nextPaths;
+            nextPaths = tmp;
+            nextPaths.clear();
+            nextPathWindows.clear();
+            if (paths.isEmpty()) {
+                // empty position
+                paths.add(Path.ROOT);
+            }
+            if (anyTermAtPosition) {
+                pos++;
+            }
+        }
+
+    }
+
+    /**
+     * A path through the automaton. The path is linked to the path of the previous position, the last
+     * {@link #depth} elements of this chain are the elements that led to the state.
+     */
+    static class Path {
+
+        static final Path ROOT = new Path(AhoCorasickRulesCollection.ROOT, null, null, null);
+
+        final int state;
+        final InputSequenceElement element;
+        final TermMatch match; // null for boundaries
+        final Path prev;
+
+        Path(final int state, final InputSequenceElement element, final TermMatch match, final Path prev) {
+            this.state = state;
+            this.element = element;
+            this.match = match;
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * A state together with the elements that led to it.
+     */
+    class Window {
+
+        final int state;
+        final Path end;
+
+        Window(final int state, final Path end) {
+            this.state = state;
+            this.end = end;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = state;
+            Path current = end;
+            for (int i = depth[state]; i > 0; i--) {
+                result = 31 * result + System.identityHashCode(current.element);
+                current = current.prev;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Window)) {
+                return false;
+            }
+            final Window other = (Window) obj;
+            if (state != other.state) {
+                return false;
+            }
+            Path current = end;
+            Path otherCurrent = other.end;
+            for (int i = depth[state]; i > 0; i--) {
+                if (current == otherCurrent) {
+                    return true;
+                }
+                if (current.element != otherCurrent.element) {
+                    return false;
+                }
+                current = current.prev;
+                otherCurrent = otherCurrent.prev;
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package querqy.rewrite.commonrules.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import querqy.ComparableCharSequence;
+
+/**
+ * <p>Builds an {@link AhoCorasickRulesCollection}.</p>
+ *
+ * <p>Each input is translated into one or more sequences of token ids (one per combination of field names). Boundaries
+ * are represented by {@link AhoCorasickRulesCollection#BOUNDARY_TOKEN}. The last term of an input can be a
+ * {@link PrefixTerm}, which is mapped to a token id of its own. The token ids are kept in a {@link TermDictionary}.</p>
+ */
+public class AhoCorasickRulesCollectionBuilder implements RulesCollectionBuilder {
+
+    final boolean ignoreCase;
+
+    final TermDictionary.Builder termDictionaryBuilder =
+            new TermDictionary.Builder(AhoCorasickRulesCollection.BOUNDARY_TOKEN + 1);
+
+    final BuilderState root = new BuilderState(0);
+
+    public AhoCorasickRulesCollectionBuilder(final boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /* (non-Javadoc)
+     * @see querqy.rewrite.commonrules.model.RulesCollectionBuilder#addRule(querqy.rewrite.commonrules.model.Input, querqy.rewrite.commonrules.model.Instructions)
+     */
+    @Override
+    public void addRule(final Input input, final Instructions instructions) {
+
+        final List<Term> inputTerms = input.getInputTerms();
+
+        if (inputTerms.isEmpty() && !(input.requiresLeftBoundary && input.requiresRightBoundary)) {
+            throw new IllegalArgumentException("Empty input!");
+        }
+
+        final List<int[]> slots = new ArrayList<>(inputTerms.size() + 2);
+
+        if (input.requiresLeftBoundary) {
+            slots.add(new int[] {AhoCorasickRulesCollection.BOUNDARY_TOKEN});
+        }
+
+        for (int i = 0, last = inputTerms.size() - 1; i <= last; i++) {
+            final Term term = inputTerms.get(i);
+            final boolean isPrefix = i == last && term instanceof PrefixTerm;
+            final List<ComparableCharSequence> seqs = term.getCharSequences(ignoreCase);
+            final int[] slot = new int[seqs.size()];
+            int j = 0;
+            for (final ComparableCharSequence seq : seqs) {
+                slot[j++] = termDictionaryBuilder.add(seq, isPrefix);
+            }
+            slots.add(slot);
+        }
+
+        if (input.requiresRightBoundary) {
+            slots.add(new int[] {AhoCorasickRulesCollection.BOUNDARY_TOKEN});
+        }
+
+        addSequences(root, slots, 0, instructions);
+
+    }
+
+    void addSequences(final BuilderState state, final List<int[]> slots, final int slot,
+                      final Instructions instructions) {
+        if (slot == slots.size()) {
+            if (state.value == null) {
+                state.value = new LinkedList<>();
+            }
+            state.value.add(instructions);
+        } else {
+            for (final int token : slots.get(slot)) {
+                addSequences(state.child(token), slots, slot + 1, instructions);
+            }
+        }
+    }
+
+    /**
+     * Creates the {@link RulesCollection} from the rules that were added so far. Rules that are added after calling
+     * this method will not be visible in the returned RulesCollection.
+     *
+     * @see querqy.rewrite.commonrules.model.RulesCollectionBuilder#build()
+     */
+    @Override
+    public RulesCollection build() {
+
+        // number the states breadth-first and set the failure links
+        final List<BuilderState> states = new ArrayList<>();
+        final Deque<BuilderState> queue = new ArrayDeque<>();
+        root.fail = root;
+        queue.add(root);
+
+        while (!queue.isEmpty()) {
+
+            final BuilderState state = queue.poll();
+            state.id = states.size();
+            states.add(state);
+
+            for (final Map.Entry<Integer, BuilderState> entry : state.children.entrySet()) {
+
+                final int token = entry.getKey();
+                final BuilderState child = entry.getValue();
+
+                if (state == root) {
+                    child.fail = root;
+                } else {
+                    BuilderState fail = state.fail;
+                    while (fail != root && !fail.children.containsKey(token)) {
+                        fail = fail.fail;
+                    }
+                    final BuilderState target = fail.children.get(token);
+                    child.fail = target == null ? root : target;
+                }
+
+                queue.add(child);
+            }
+        }
+
+        final int numStates = states.size();
+        final int[] firstEdge = new int[numStates];
+        final int[] numEdges = new int[numStates];
+        final int[] edgeTokens = new int[numStates - 1];
+        final int[] edgeTargets = new int[numStates - 1];
+        final int[] fail = new int[numStates];
+        final int[] output = new int[numStates];
+        final int[] depth = new int[numStates];
+        final List<List<Instructions>> values = new ArrayList<>(numStates);
+
+        int edge = 0;
+        for (final BuilderState state : states) {
+
+            final int id = state.id;
+
+            firstEdge[id] = edge;
+            numEdges[id] = state.children.size();
+            for (final Map.Entry<Integer, BuilderState> entry : state.children.entrySet()) {
+                edgeTokens[edge] = entry.getKey();
+                edgeTargets[edge] = entry.getValue().id;
+                edge++;
+            }
+
+            fail[id] = state.fail.id;
+            depth[id] = state.depth;
+            values.add(state.value);
+
+            // the failure state has a lower id, its output is already known
+            if (state.value != null) {
+                output[id] = id;
+            } else if (state == root) {
+                output[id] = AhoCorasickRulesCollection.NO_STATE;
+            } else {
+                output[id] = output[fail[id]];
+            }
+
+        }
+
+        return new AhoCorasickRulesCollection(termDictionaryBuilder.build(), ignoreCase, firstEdge, numEdges,
+                edgeTokens, edgeTargets, fail, output, depth, values);
+
+    }
+
+    static class BuilderState {
+
+        final int depth;
+        final TreeMap<Integer, BuilderState> children = new TreeMap<>();
+        List<Instructions> value = null;
+        BuilderState fail = null;
+        int id = -1;
+
+        BuilderState(final int depth) {
+            this.depth = depth;
+        }
+
+        BuilderState child(final int token) {
+            BuilderState child = children.get(token);
+            if (child == null) {
+                child = new BuilderState(depth + 1);
+                children.put(token, child);
+            }
+            return child;
+        }
+
+    }
+
+}
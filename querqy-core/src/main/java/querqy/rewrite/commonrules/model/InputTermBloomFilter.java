@@ -0,0 +1,121 @@
+package querqy.rewrite.commonrules.model;
+
+import java.util.Arrays;
+
+/**
+ * <p>A Bloom filter over the terms with which rule inputs start.</p>
+ *
+ * <p>The filter answers whether a query term can start a rule input. It can return false positives, but it never
+ * returns false for a term that was added to the filter, or for a term that starts with a prefix that was added using
+ * {@link #addPrefix(CharSequence)} and that is longer than this prefix. Terms must be added in the same form in which
+ * they are looked up in the rules, i.e. including the field name and lower-cased if the rules ignore case.</p>
+ *
+ * <p>The filter is filled before it is published to request threads and it is read-only afterwards.</p>
+ */
+public class InputTermBloomFilter {
+
+    static final int BITS_PER_TERM = 10;
+    static final int NUM_HASHES = 5;
+    static final long PREFIX_SALT = 0x9e3779b97f4a7c15L;
+
+    final long[] bits;
+    final int mask;
+    boolean[] isPrefixLength = new boolean[0];
+    int numTerms = 0;
+
+    /**
+     * @param expectedNumTerms The expected number of terms and prefixes. The filter gets about
+     *                         {@value #BITS_PER_TERM} bits per term.
+     */
+    public InputTermBloomFilter(final int expectedNumTerms) {
+        final long minBits = Math.max(64L, (long) Math.max(1, expectedNumTerms) * BITS_PER_TERM);
+        final int numBits = (int) Math.min(1L << 30, Long.highestOneBit(minBits - 1) << 1);
+        bits = new long[numBits >>> 6];
+        mask = numBits - 1;
+    }
+
+    /**
+     * @param term A term that starts a rule input
+     */
+    public void add(final CharSequence term) {
+        set(mix(hash(term, term.length())));
+        numTerms++;
+    }
+
+    /**
+     * @param prefix A prefix that starts a rule input (like 'abc' for input 'abc*')
+     */
+    public void addPrefix(final CharSequence prefix) {
+        final int length = prefix.length();
+        set(mix(hash(prefix, length) ^ PREFIX_SALT));
+        if (length >= isPrefixLength.length) {
+            isPrefixLength = Arrays.copyOf(isPrefixLength, length + 1);
+        }
+        isPrefixLength[length] = true;
+        numTerms++;
+    }
+
+    /**
+     * @param term The term as it would be looked up in the rules
+     * @return false if no rule input can start with this term, true if a rule input might start with it
+     */
+    public boolean mightStartInput(final CharSequence term) {
+
+        final int length = term.length();
+        final boolean[] isPrefixLength = this.isPrefixLength;
+
+        // FNV-1a, so that we get the hash of each prefix on the way
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            // a prefix must be followed by at least one more char
+            if (i > 0 && i < isPrefixLength.length && isPrefixLength[i] && isSet(mix(h ^ PREFIX_SALT))) {
+                return true;
+            }
+            h = (h ^ term.charAt(i)) * 0x100000001b3L;
+        }
+        return isSet(mix(h));
+    }
+
+    /**
+     * @return The number of terms and prefixes that were added
+     */
+    public int getNumTerms() {
+        return numTerms;
+    }
+
+    static long hash(final CharSequence seq, final int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ seq.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    void set(final long hash) {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            final int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    boolean isSet(final long hash) {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            final int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
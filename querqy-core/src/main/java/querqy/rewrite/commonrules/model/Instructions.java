@@ -5,11 +5,18 @@ package querqy.rewrite.commonrules.model;
 
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A list of Instructions. This represents all actions that are triggered by a
  * single matching rule.
  * 
+ * <p>The list can carry the position of the rule in the rules file and the rule input, and it counts how often the rule
+ * matched if the {@link RulesCollection} keeps hit statistics (see
+ * {@link TrieMapRulesCollection#setHitStatisticsEnabled(boolean)}). The hit counter is only created when the rule
+ * matches for the first time.</p>
+ *
  * @author rene
  *
  */
@@ -20,12 +27,65 @@ public class Instructions extends LinkedList<Instruction> {
      */
    private static final long serialVersionUID = 1L;
 
+   private static final AtomicReferenceFieldUpdater<Instructions, LongAdder> HITS_UPDATER =
+           AtomicReferenceFieldUpdater.newUpdater(Instructions.class, LongAdder.class, "hits");
+
+   private final int lineNumber;
+   private final String input;
+   private transient volatile LongAdder hits = null;
+
    public Instructions() {
-      super();
+      this(-1, null);
    }
 
    public Instructions(Collection<Instruction> instructions) {
       super(instructions);
+      this.lineNumber = -1;
+      this.input = null;
+   }
+
+   /**
+    * @param lineNumber The line number of the rule input in the rules file or -1 if unknown
+    * @param input The rule input as defined in the rules file or null if unknown
+    */
+   public Instructions(int lineNumber, String input) {
+      super();
+      this.lineNumber = lineNumber;
+      this.input = input;
+   }
+
+   /**
+    * @return The line number of the rule input in the rules file or -1 if unknown
+    */
+   public int getLineNumber() {
+      return lineNumber;
+   }
+
+   /**
+    * @return The rule input as defined in the rules file or null if unknown
+    */
+   public String getInput() {
+      return input;
+   }
+
+   /**
+    * Count a match of this rule.
+    */
+   public void recordHit() {
+      LongAdder counter = hits;
+      if (counter == null) {
+         HITS_UPDATER.compareAndSet(this, null, new LongAdder());
+         counter = hits;
+      }
+      counter.increment();
+   }
+
+   /**
+    * @return The number of recorded matches of this rule
+    */
+   public long getHitCount() {
+      final LongAdder counter = hits;
+      return counter == null ? 0L : counter.sum();
    }
 
 }
@@ -0,0 +1,499 @@
+package querqy.rewrite.commonrules.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import querqy.ComparableCharSequence;
+import querqy.model.InputSequenceElement;
+import querqy.trie.CompactTrieMap;
+import querqy.trie.TrieCursor;
+import querqy.trie.TrieMap;
+
+/**
+ * <p>An immutable {@link RulesCollection} that allows to add, replace and remove the rules for single inputs without
+ * rebuilding the complete collection.</p>
+ *
+ * <p>Each update returns a new version and leaves the current version unchanged, so that rewriters that are using the
+ * current version are not affected. All versions share the trie of the {@link TrieMapRulesCollection} that they were
+ * created from. The rules of the keys that were changed are kept in a small trie on top of the shared trie.</p>
+ *
+ * <p>Each update copies the changes since the base collection was built and rebuilds the small trie from them. The
+ * cost of an update thus grows with the number of changed keys and not with the size of the collection. Once the
+ * number of changed keys reaches the compaction threshold, the update merges the changes into a new base collection
+ * (see {@link #compact()}), which costs as much as building the collection from scratch. With a threshold of
+ * <i>t</i>, an update costs O(<i>t</i>) plus, every <i>t</i> updates, the cost of a full build.</p>
+ *
+ * <p>Rules are keyed by their input: {@link #replaceRules(Input, Instructions)} and {@link #removeRules(Input)} affect
+ * all rules that were added for the same input. Inputs are the same if they are stored under the same keys, the rules
+ * of other inputs that share a key with the updated input (for example, <code>f1:a</code> and
+ * <code>{f1,f2}:a</code>) are kept. A replaced rule takes the place of the first rule that it replaces, new rules are
+ * added after the existing rules of their keys. The actions of a version are the same and in the same order as the
+ * actions of a collection that was built from scratch from the rules of that version.</p>
+ *
+ */
+public class LayeredTrieMapRulesCollection implements RulesCollection {
+
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    final TrieMapRulesCollection base;
+
+    /**
+     * The number of changed keys at which an update compacts the changes into a new base
+     */
+    final int compactionThreshold;
+
+    /**
+     * The changed exact keys and their rules. An empty list marks a removed key.
+     */
+    final Map<String, List<Instructions>> changes;
+
+    /**
+     * The changed prefix keys and their rules. An empty list marks a removed key.
+     */
+    final Map<String, List<Instructions>> prefixChanges;
+
+    /**
+     * The changed rules in a trie (null if there are no rules in the changes)
+     */
+    final TrieMapRulesCollection changed;
+
+    /**
+     * The values of the base trie that must no longer be used, compared by identity
+     */
+    final Set<List<Instructions>> hidden;
+
+    /**
+     * The number of keys under which the rules of the base collection are stored, shared by all versions
+     */
+    final BaseKeyCounts baseKeyCounts;
+
+    /**
+     * The number of keys under which the rules are stored that were added in this or in a previous version
+     */
+    final Map<Instructions, Integer> addedKeyCounts;
+
+    public LayeredTrieMapRulesCollection(final TrieMapRulesCollection base) {
+        this(base, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param base The collection to start from
+     * @param compactionThreshold The number of changed exact and prefix keys at which an update merges the changes into
+     *                            a new base collection
+     */
+    public LayeredTrieMapRulesCollection(final TrieMapRulesCollection base, final int compactionThreshold) {
+        this(base, compactionThreshold, Collections.<String, List<Instructions>>emptyMap(),
+                Collections.<String, List<Instructions>>emptyMap(), new BaseKeyCounts(base),
+                Collections.<Instructions, Integer>emptyMap());
+    }
+
+    protected LayeredTrieMapRulesCollection(final TrieMapRulesCollection base, final int compactionThreshold,
+                                            final Map<String, List<Instructions>> changes,
+                                            final Map<String, List<Instructions>> prefixChanges,
+                                            final BaseKeyCounts baseKeyCounts,
+                                            final Map<Instructions, Integer> addedKeyCounts) {
+        if (base == null) {
+            throw new IllegalArgumentException("base must not be null");
+        }
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("compactionThreshold must be > 0");
+        }
+        this.base = base;
+        this.compactionThreshold = compactionThreshold;
+        this.changes = changes;
+        this.prefixChanges = prefixChanges;
+        this.baseKeyCounts = baseKeyCounts;
+        this.addedKeyCounts = addedKeyCounts;
+
+        hidden = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        final TrieMap<List<Instructions>> trieMap = new TrieMap<>();
+        boolean hasRules = false;
+
+        final TrieCursor<List<Instructions>> cursor = base.trieMap.cursor();
+
+        for (final Map.Entry<String, List<Instructions>> entry : changes.entrySet()) {
+            final List<Instructions> baseValue = getBaseValue(cursor, entry.getKey(), false);
+            if (baseValue != null) {
+                hidden.add(baseValue);
+            }
+            if (!entry.getValue().isEmpty()) {
+                trieMap.put(entry.getKey(), entry.getValue());
+                hasRules = true;
+            }
+        }
+
+        for (final Map.Entry<String, List<Instructions>> entry : prefixChanges.entrySet()) {
+            final List<Instructions> baseValue = getBaseValue(cursor, entry.getKey(), true);
+            if (baseValue != null) {
+                hidden.add(baseValue);
+            }
+            if (!entry.getValue().isEmpty()) {
+                trieMap.putPrefix(entry.getKey(), entry.getValue());
+                hasRules = true;
+            }
+        }
+
+        changed = hasRules ? new TrieMapRulesCollection(trieMap, base.ignoreCase) : null;
+
+    }
+
+    /**
+     * Create a new version that contains an additional rule. Existing rules for the same input are kept.
+     *
+     * @param input The input of the rule
+     * @param instructions The instructions of the rule
+     * @return The new version
+     */
+    public LayeredTrieMapRulesCollection addRule(final Input input, final Instructions instructions) {
+        if (instructions == null) {
+            throw new IllegalArgumentException("instructions must not be null");
+        }
+        return update(input, instructions, false);
+    }
+
+    /**
+     * Create a new version in which the given rule replaces all rules for the same input.
+     *
+     * @param input The input of the rule
+     * @param instructions The instructions of the rule
+     * @return The new version
+     */
+    public LayeredTrieMapRulesCollection replaceRules(final Input input, final Instructions instructions) {
+        if (instructions == null) {
+            throw new IllegalArgumentException("instructions must not be null");
+        }
+        return update(input, instructions, true);
+    }
+
+    /**
+     * Create a new version without the rules for the given input.
+     *
+     * @param input The input of the rules
+     * @return The new version
+     */
+    public LayeredTrieMapRulesCollection removeRules(final Input input) {
+        return update(input, null, true);
+    }
+
+    protected LayeredTrieMapRulesCollection update(final Input input, final Instructions instructions,
+                                                   final boolean replace) {
+        if (input == null) {
+            throw new IllegalArgumentException("input must not be null");
+        }
+
+        final boolean isPrefix = TrieMapRulesCollectionBuilder.isPrefixInput(input);
+
+        final Map<String, List<Instructions>> newChanges = new HashMap<>(changes);
+        final Map<String, List<Instructions>> newPrefixChanges = new HashMap<>(prefixChanges);
+        final Map<String, List<Instructions>> target = isPrefix ? newPrefixChanges : newChanges;
+
+        final TrieCursor<List<Instructions>> cursor = base.trieMap.cursor();
+
+        final List<String> keys = new ArrayList<>();
+        for (final ComparableCharSequence seq : TrieMapRulesCollectionBuilder.getKeys(input, base.ignoreCase)) {
+            final String key = new StringBuilder(seq.length()).append(seq).toString();
+            if (!keys.contains(key)) {
+                keys.add(key);
+            }
+        }
+
+        final Map<String, List<Instructions>> currentValues = new HashMap<>();
+        for (final String key : keys) {
+            final List<Instructions> current = target.containsKey(key)
+                    ? target.get(key) : getBaseValue(cursor, key, isPrefix);
+            currentValues.put(key, current == null ? Collections.<Instructions>emptyList() : current);
+        }
+
+        for (final String key : keys) {
+
+            final List<Instructions> value = new LinkedList<>();
+            boolean inserted = false;
+
+            for (final Instructions current : currentValues.get(key)) {
+                if (replace && isRuleForKeys(current, keys, currentValues)) {
+                    // the new rule takes the place of the first rule that it replaces
+                    if (instructions != null && !inserted) {
+                        value.add(instructions);
+                        inserted = true;
+                    }
+                } else {
+                    value.add(current);
+                }
+            }
+
+            if (instructions != null && !inserted) {
+                value.add(instructions);
+            }
+
+            target.put(key, Collections.unmodifiableList(value));
+        }
+
+        final Map<Instructions, Integer> newAddedKeyCounts;
+        if (instructions != null) {
+            newAddedKeyCounts = new IdentityHashMap<>(addedKeyCounts);
+            newAddedKeyCounts.put(instructions, keys.size());
+        } else {
+            newAddedKeyCounts = addedKeyCounts;
+        }
+
+        final LayeredTrieMapRulesCollection result = new LayeredTrieMapRulesCollection(base, compactionThreshold,
+                newChanges, newPrefixChanges, baseKeyCounts, newAddedKeyCounts);
+
+        return result.getNumChanges() < compactionThreshold
+                ? result
+                : new LayeredTrieMapRulesCollection(result.compact(), compactionThreshold);
+    }
+
+    /**
+     * Check whether a rule was added for an input that is stored under exactly the given keys.
+     */
+    private boolean isRuleForKeys(final Instructions instructions, final List<String> keys,
+                                  final Map<String, List<Instructions>> currentValues) {
+
+        final Integer addedKeyCount = addedKeyCounts.get(instructions);
+        final int keyCount = addedKeyCount != null ? addedKeyCount : baseKeyCounts.get(instructions);
+        if (keyCount != keys.size()) {
+            return false;
+        }
+
+        for (final String key : keys) {
+            if (!containsIdentical(currentValues.get(key), instructions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIdentical(final List<Instructions> list, final Instructions instructions) {
+        for (final Instructions element : list) {
+            if (element == instructions) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merge the changes into a new {@link TrieMapRulesCollection}. This requires to rebuild the complete trie. The new
+     * collection counts rule hits if the base collection does.
+     *
+     * @return A new collection that contains the same rules as this version
+     */
+    public TrieMapRulesCollection compact() {
+
+        final TrieMap<List<Instructions>> trieMap = new TrieMap<>();
+        collect(base.trieMap, CompactTrieMap.ROOT, new StringBuilder(), trieMap);
+
+        for (final Map.Entry<String, List<Instructions>> entry : changes.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                trieMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (final Map.Entry<String, List<Instructions>> entry : prefixChanges.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                trieMap.putPrefix(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final TrieMapRulesCollection result = new TrieMapRulesCollection(trieMap, base.ignoreCase);
+        result.setHitStatisticsEnabled(base.isHitStatisticsEnabled());
+        return result;
+    }
+
+    private void collect(final CompactTrieMap<List<Instructions>> source, final int node, final StringBuilder key,
+                         final TrieMap<List<Instructions>> target) {
+
+        final int firstChild = source.getFirstChild(node);
+        for (int child = firstChild, last = firstChild + source.getNumChildren(node); child < last; child++) {
+
+            key.append(source.getChar(child));
+
+            final String childKey = key.toString();
+
+            final int valueId = source.getValueId(child);
+            if (valueId != CompactTrieMap.NO_VALUE && !changes.containsKey(childKey)) {
+                target.put(childKey, source.getValue(valueId));
+            }
+
+            final int prefixValueId = source.getPrefixValueId(child);
+            if (prefixValueId != CompactTrieMap.NO_VALUE && !prefixChanges.containsKey(childKey)) {
+                target.putPrefix(childKey, source.getValue(prefixValueId));
+            }
+
+            collect(source, child, key, target);
+
+            key.setLength(key.length() - 1);
+        }
+    }
+
+    private List<Instructions> getBaseValue(final TrieCursor<List<Instructions>> cursor, final String key,
+                                                   final boolean isPrefix) {
+        if (!cursor.seek(key)) {
+            return null;
+        }
+        if (isPrefix) {
+            final CompactTrieMap<List<Instructions>> trieMap = base.trieMap;
+            return trieMap.getValue(trieMap.getPrefixValueId(cursor.getNode()));
+        }
+        return cursor.getValue();
+    }
+
+    /**
+     * @return The number of exact and prefix keys that were changed in comparison to the base collection
+     */
+    public int getNumChanges() {
+        return changes.size() + prefixChanges.size();
+    }
+
+    public TrieMapRulesCollection getBase() {
+        return base;
+    }
+
+    /* (non-Javadoc)
+     * @see querqy.rewrite.commonrules.model.RulesCollection#getRewriteActions(querqy.rewrite.commonrules.model.PositionSequence)
+     */
+    @Override
+    public List<Action> getRewriteActions(final PositionSequence<InputSequenceElement> sequence) {
+
+        if (changed == null && hidden.isEmpty()) {
+            return base.getRewriteActions(sequence);
+        }
+
+        final List<Action> baseActions = new ArrayList<>();
+        final List<int[]> baseOrder = new ArrayList<>();
+        base.collectRewriteActions(sequence, baseActions, baseOrder);
+
+        final List<Action> changedActions = new ArrayList<>();
+        final List<int[]> changedOrder = new ArrayList<>();
+        if (changed != null) {
+            changed.collectRewriteActions(sequence, changedActions, changedOrder);
+        }
+
+        // merge the actions in the order in which a single collection would have found them
+        final List<Action> actions = new ArrayList<>(baseActions.size() + changedActions.size());
+        int c = 0;
+        for (int b = 0; b < baseActions.size(); b++) {
+            final Action action = baseActions.get(b);
+            if (hidden.contains(action.getInstructions())) {
+                continue;
+            }
+            while (c < changedActions.size()
+                    && TrieMapRulesCollection.compareLookupOrder(changedOrder.get(c), baseOrder.get(b)) < 0) {
+                actions.add(changedActions.get(c++));
+            }
+            actions.add(action);
+        }
+        while (c < changedActions.size()) {
+            actions.add(changedActions.get(c++));
+        }
+
+        if (base.isHitStatisticsEnabled()) {
+            for (final Action action : actions) {
+                for (final Instructions instructions : action.getInstructions()) {
+                    instructions.recordHit();
+                }
+            }
+        }
+
+        return actions;
+    }
+
+    /**
+     * The number of keys per rule of a base collection, created when it is needed for the first time.
+     */
+    protected static class BaseKeyCounts {
+
+        private final TrieMapRulesCollection base;
+        private volatile Map<Instructions, Integer> counts = null;
+
+        BaseKeyCounts(final TrieMapRulesCollection base) {
+            this.base = base;
+        }
+
+        int get(final Instructions instructions) {
+            Map<Instructions, Integer> result = counts;
+            if (result == null) {
+                synchronized (this) {
+                    result = counts;
+                    if (result == null) {
+                        result = new IdentityHashMap<>();
+                        for (final List<Instructions> instructionsList : base.trieMap) {
+                            // count a rule once per key
+                            final Set<Instructions> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                            for (final Instructions element : instructionsList) {
+                                if (seen.add(element)) {
+                                    result.merge(element, 1, Integer::sum);
+                                }
+                            }
+                        }
+                        counts = result;
+                    }
+                }
+            }
+            final Integer count = result.get(instructions);
+            return count == null ? 0 : count;
+        }
+    }
+
+    /**
+     * Get all rules of this version, ordered by their line number in the rules file. Rules without a line number come
+     * last.
+     *
+     * @return The rules
+     * @see TrieMapRulesCollection#getRules()
+     */
+    public List<Instructions> getRules() {
+
+        final Set<Instructions> rules = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final List<Instructions> instructionsList : base.trieMap) {
+            if (!hidden.contains(instructionsList)) {
+                rules.addAll(instructionsList);
+            }
+        }
+
+        if (changed != null) {
+            for (final List<Instructions> instructionsList : changed.trieMap) {
+                rules.addAll(instructionsList);
+            }
+        }
+
+        return TrieMapRulesCollection.sortByLineNumber(rules);
+    }
+
+    /**
+     * @return true iff rule matches are counted, which is the case if the base collection counts them
+     * @see TrieMapRulesCollection#setHitStatisticsEnabled(boolean)
+     */
+    public boolean isHitStatisticsEnabled() {
+        return base.isHitStatisticsEnabled();
+    }
+
+    @Override
+    public Set<Instruction> getInstructions() {
+
+        final Set<Instruction> result = new HashSet<>();
+
+        for (final List<Instructions> instructionsList : base.trieMap) {
+            if (!hidden.contains(instructionsList)) {
+                for (final Instructions instructions : instructionsList) {
+                    result.addAll(instructions);
+                }
+            }
+        }
+
+        if (changed != null) {
+            result.addAll(changed.getInstructions());
+        }
+
+        return result;
+    }
+
+}
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Set;
 
 import querqy.model.InputSequenceElement;
+import querqy.model.Term;
 
 public interface RulesCollection {
 
@@ -21,6 +22,18 @@ public interface RulesCollection {
      * @return
      */
     Set<Instruction> getInstructions();
+
+    /**
+     * Check whether a query term can be the first term of a matching rule input. Implementations can return true for
+     * terms that don't start any rule input but they must never return false for a term that does. Callers can use
+     * this to skip the lookup of sequences in which no term can start a rule input.
+     *
+     * @param term The query term
+     * @return false if no rule input starts with this term
+     */
+    default boolean mightStartInput(Term term) {
+        return true;
+    }
     
 
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package querqy.rewrite.commonrules.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import querqy.trie.CompactTrieMap;
+import querqy.trie.TrieCursor;
+import querqy.trie.TrieMap;
+
+/**
+ * <p>Maps the tokens of rule inputs to int ids.</p>
+ *
+ * <p>The dictionary is created once when the rules are built. Query tokens are looked up using a {@link Lookup}, which
+ * walks the characters of the token only once and doesn't allocate objects, so that matching can continue on the ids
+ * instead of comparing and hashing character sequences.</p>
+ *
+ * <p>Tokens of {@link PrefixTerm}s get ids of their own. A lookup returns the id of the complete token (if known) and
+ * the ids of all prefix tokens that match the beginning of the token.</p>
+ *
+ * <p>The dictionary is only used by the {@link AhoCorasickRulesCollection}, which matches rule inputs on token ids.
+ * The default {@link TrieMapRulesCollection} (which is also used by the Solr integration) matches character
+ * sequences and doesn't assign token ids. The instructions don't use token ids either: {@link DeleteInstruction} and
+ * {@link SynonymInstruction} compare the character sequences of the terms, as instructions can be shared between
+ * rules collections with different dictionaries.</p>
+ */
+public class TermDictionary {
+
+    public static final int NO_TERM = -1;
+
+    final CompactTrieMap<Integer> terms;
+    final int size;
+
+    TermDictionary(final CompactTrieMap<Integer> terms, final int size) {
+        this.terms = terms;
+        this.size = size;
+    }
+
+    /**
+     * @return The number of ids in this dictionary, including reserved ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the id of a complete token. Use a {@link Lookup} to look up many tokens.
+     *
+     * @param token The token
+     * @return The token id or {@link #NO_TERM} if the token is not in the dictionary
+     */
+    public int getTermId(final CharSequence token) {
+        final Lookup lookup = lookup();
+        lookup.seek(token);
+        return lookup.getTermId();
+    }
+
+    /**
+     * @return A new lookup. Lookups are not thread-safe.
+     */
+    public Lookup lookup() {
+        return new Lookup(terms.cursor());
+    }
+
+    /**
+     * A reusable lookup of query tokens in a {@link TermDictionary}
+     */
+    public static class Lookup {
+
+        final TrieCursor<Integer> cursor;
+
+        Lookup(final TrieCursor<Integer> cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Look up a token
+         *
+         * @param token The token
+         * @return true iff the complete token or a prefix of it is in the dictionary
+         */
+        public boolean seek(final CharSequence token) {
+            cursor.seek(token);
+            return cursor.isFinal() || cursor.getPrefixCount() > 0;
+        }
+
+        /**
+         * @return The id of the complete token of the last lookup or {@link TermDictionary#NO_TERM}
+         */
+        public int getTermId() {
+            return cursor.isFinal() ? cursor.getValue() : NO_TERM;
+        }
+
+        /**
+         * @return The number of prefix tokens that matched in the last lookup
+         */
+        public int getPrefixCount() {
+            return cursor.getPrefixCount();
+        }
+
+        /**
+         * @param i The ordinal of the prefix match, 0 is the longest prefix
+         * @return The id of the prefix token
+         */
+        public int getPrefixTermId(final int i) {
+            return cursor.getPrefixValue(i);
+        }
+
+        /**
+         * @param i The ordinal of the prefix match, 0 is the longest prefix
+         * @return The index of the last char of the looked up token that matched the prefix
+         */
+        public int getPrefixIndex(final int i) {
+            return cursor.getPrefixIndex(i);
+        }
+    }
+
+    /**
+     * Assigns the ids while the rules are added.
+     */
+    public static class Builder {
+
+        final Map<String, Integer> termIds = new HashMap<>();
+        final Map<String, Integer> prefixTermIds = new HashMap<>();
+        int nextTermId;
+
+        /**
+         * @param numReservedIds The number of ids that will not be assigned to tokens, starting from 0
+         */
+        public Builder(final int numReservedIds) {
+            if (numReservedIds < 0) {
+                throw new IllegalArgumentException("numReservedIds must not be negative");
+            }
+            nextTermId = numReservedIds;
+        }
+
+        /**
+         * Add a token to the dictionary if it isn't contained yet.
+         *
+         * @param token The token
+         * @param isPrefix true iff the token is the prefix of a {@link PrefixTerm}
+         * @return The id of the token
+         */
+        public int add(final CharSequence token, final boolean isPrefix) {
+            if (token.length() == 0) {
+                throw new IllegalArgumentException("token must not be empty");
+            }
+            final Map<String, Integer> ids = isPrefix ? prefixTermIds : termIds;
+            // use charAt() to create the key, just like the lookup in the CompactTrieMap does
+            final String key = new StringBuilder(token.length()).append(token).toString();
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = nextTermId++;
+                ids.put(key, id);
+            }
+            return id;
+        }
+
+        public TermDictionary build() {
+            final TrieMap<Integer> trieMap = new TrieMap<>();
+            for (final Map.Entry<String, Integer> entry : termIds.entrySet()) {
+                trieMap.put(entry.getKey(), entry.getValue());
+            }
+            for (final Map.Entry<String, Integer> entry : prefixTermIds.entrySet()) {
+                trieMap.putPrefix(entry.getKey(), entry.getValue());
+            }
+            return new TermDictionary(new CompactTrieMap<>(trieMap), nextTermId);
+        }
+    }
+
+}
@@ -14,13 +14,31 @@ public class TermMatch {
     final querqy.model.Term queryTerm;
     final boolean isPrefix;
     final ComparableCharSequence wildcardMatch;
+    final int termId;
     //final Term ruleInputTerm;
     
     public TermMatch(querqy.model.Term queryTerm) {
         this(queryTerm, false, null);
     }
-    
+
+    public TermMatch(querqy.model.Term queryTerm, int termId) {
+        this(queryTerm, false, null, termId);
+    }
+
     public TermMatch(querqy.model.Term queryTerm, boolean isPrefix, ComparableCharSequence wildcardMatch) {
+        this(queryTerm, isPrefix, wildcardMatch, TermDictionary.NO_TERM);
+    }
+
+    /**
+     *
+     * @param queryTerm The matching query term
+     * @param isPrefix true iff the query term matched a {@link PrefixTerm}
+     * @param wildcardMatch The part of the query term that matched the wildcard if isPrefix
+     * @param termId The id of the matching rule token in the {@link TermDictionary} or
+     *               {@link TermDictionary#NO_TERM}
+     */
+    public TermMatch(querqy.model.Term queryTerm, boolean isPrefix, ComparableCharSequence wildcardMatch,
+                     int termId) {
         if (isPrefix) {
             if ((wildcardMatch == null) || (wildcardMatch.length() == 0)) {
                 throw new IllegalArgumentException("Need a wildcard match if isPrefix for " + queryTerm.toString());
@@ -29,6 +47,7 @@ public class TermMatch {
         this.queryTerm = queryTerm;
         this.isPrefix = isPrefix;
         this.wildcardMatch = wildcardMatch;
+        this.termId = termId;
     }
 
     public querqy.model.Term getQueryTerm() {
@@ -43,6 +62,15 @@ public class TermMatch {
         return wildcardMatch;
     }
 
+    /**
+     * @return The id of the matching rule token in the {@link TermDictionary} or {@link TermDictionary#NO_TERM} if
+     * the RulesCollection doesn't use a TermDictionary. Only the {@link AhoCorasickRulesCollection} sets token ids,
+     * the {@link TrieMapRulesCollection} always returns NO_TERM.
+     */
+    public int getTermId() {
+        return termId;
+    }
+
     @Override
     public String toString() {
         return "TermMatch{" +
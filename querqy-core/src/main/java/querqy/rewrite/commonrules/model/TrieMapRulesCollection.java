@@ -4,19 +4,30 @@
 package querqy.rewrite.commonrules.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import querqy.CompoundCharSequence;
 import querqy.model.InputSequenceElement;
 import querqy.model.Term;
-import querqy.trie.State;
-import querqy.trie.States;
+import querqy.trie.CompactTrieMap;
+import querqy.trie.TrieCursor;
 import querqy.trie.TrieMap;
 
 /**
+ * <p>A {@link RulesCollection} that keeps the rules in a {@link CompactTrieMap}.</p>
+ *
+ * <p>Rules that must match the complete query (with a left and a right boundary, like <code>"a b"</code>) are
+ * additionally indexed by their complete input in a hash map. If each position of a query holds exactly one term,
+ * these rules are found by a single hash lookup, and the trie is only walked for the remaining rules.</p>
+ *
  * @author René Kriegler, @renekrie
  *
  */
@@ -24,15 +35,242 @@ public class TrieMapRulesCollection implements RulesCollection {
     
     public static final String BOUNDARY_WORD = "\u0002";
     
-    final TrieMap<List<Instructions>> trieMap;
+    final CompactTrieMap<List<Instructions>> trieMap;
     final boolean ignoreCase;
+    final InputTermBloomFilter inputTermFilter;
+
+    /**
+     * The value ids of the keys that have a left and a right boundary, by the input between the boundaries
+     */
+    final Map<String, Integer> fullQueryValueIds;
+
+    /**
+     * true iff there are keys that start with a left boundary but don't end with a right boundary
+     */
+    final boolean hasLeftBoundaryOnlyKeys;
+    volatile boolean hitStatisticsEnabled = false;
     
     public TrieMapRulesCollection(TrieMap<List<Instructions>> trieMap, boolean ignoreCase) {
+        this(compact(trieMap), ignoreCase);
+    }
+
+    public TrieMapRulesCollection(CompactTrieMap<List<Instructions>> trieMap, boolean ignoreCase) {
         if (trieMap == null) {
             throw new IllegalArgumentException("trieMap must not be null");
         }
         this.trieMap = trieMap;
         this.ignoreCase = ignoreCase;
+        this.inputTermFilter = createInputTermFilter(trieMap);
+        this.fullQueryValueIds = new HashMap<>();
+        this.hasLeftBoundaryOnlyKeys = collectFullQueryKeys(trieMap, fullQueryValueIds);
+    }
+
+    public CompactTrieMap<List<Instructions>> getTrieMap() {
+        return trieMap;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * <p>Switch counting of rule matches on or off.</p>
+     *
+     * <p>If enabled, each rule that is returned from {@link #getRewriteActions(PositionSequence)} is counted using
+     * {@link Instructions#recordHit()}. The counters don't serialize the request threads. Note that the counts are kept
+     * in the rules, so that they are shared by all users of this collection.</p>
+     *
+     * @param hitStatisticsEnabled true to count rule matches
+     */
+    public void setHitStatisticsEnabled(final boolean hitStatisticsEnabled) {
+        this.hitStatisticsEnabled = hitStatisticsEnabled;
+    }
+
+    public boolean isHitStatisticsEnabled() {
+        return hitStatisticsEnabled;
+    }
+
+    /**
+     * Get all rules of this collection, ordered by their line number in the rules file. Rules without a line number
+     * come last.
+     *
+     * @return The rules
+     */
+    public List<Instructions> getRules() {
+
+        final Set<Instructions> rules = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final List<Instructions> instructionsList : trieMap) {
+            rules.addAll(instructionsList);
+        }
+
+        return sortByLineNumber(rules);
+    }
+
+    static List<Instructions> sortByLineNumber(final Set<Instructions> rules) {
+        final List<Instructions> result = new ArrayList<>(rules);
+        result.sort(Comparator.comparingInt(instructions -> instructions.getLineNumber() < 0
+                ? Integer.MAX_VALUE : instructions.getLineNumber()));
+        return result;
+    }
+
+    /**
+     * Create a filter over the first terms of the keys in a trie. If the key starts with a boundary, the term after the
+     * boundary is the first term.
+     *
+     * @param trieMap The trie
+     * @return The filter
+     */
+    public static InputTermBloomFilter createInputTermFilter(final CompactTrieMap<?> trieMap) {
+        final InputTermBloomFilter filter = new InputTermBloomFilter(trieMap.getNumValues());
+        addFirstTerms(trieMap, CompactTrieMap.ROOT, new StringBuilder(), true, filter);
+        return filter;
+    }
+
+    private static void addFirstTerms(final CompactTrieMap<?> trieMap, final int node, final StringBuilder term,
+                                      final boolean atKeyStart, final InputTermBloomFilter filter) {
+
+        final int firstChild = trieMap.getFirstChild(node);
+
+        for (int child = firstChild, end = firstChild + trieMap.getNumChildren(node); child < end; child++) {
+
+            final char ch = trieMap.getChar(child);
+
+            if (term.length() == 0 && (ch == ' ' || (atKeyStart && ch == BOUNDARY_WORD.charAt(0)))) {
+                // skip the left boundary and the space that follows it
+                addFirstTerms(trieMap, child, term, false, filter);
+            } else if (ch == ' ') {
+                filter.add(term);
+            } else {
+                term.append(ch);
+                if (trieMap.getValueId(child) != CompactTrieMap.NO_VALUE) {
+                    filter.add(term);
+                }
+                if (trieMap.getPrefixValueId(child) != CompactTrieMap.NO_VALUE) {
+                    filter.addPrefix(term);
+                }
+                addFirstTerms(trieMap, child, term, false, filter);
+                term.setLength(term.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * Collect the keys that start with a left boundary and that end with a right boundary.
+     *
+     * @param trieMap The trie
+     * @param valueIds Receives the value id per key, keyed by the terms between the boundaries
+     * @return true iff there are keys that start with a left boundary but don't end with a right boundary
+     */
+    static boolean collectFullQueryKeys(final CompactTrieMap<?> trieMap, final Map<String, Integer> valueIds) {
+
+        final char boundary = BOUNDARY_WORD.charAt(0);
+
+        final int firstChild = trieMap.getFirstChild(CompactTrieMap.ROOT);
+        for (int child = firstChild, end = firstChild + trieMap.getNumChildren(CompactTrieMap.ROOT); child < end;
+             child++) {
+            if (trieMap.getChar(child) == boundary) {
+                final int spaceFirst = trieMap.getFirstChild(child);
+                for (int space = spaceFirst, spaceEnd = spaceFirst + trieMap.getNumChildren(child); space < spaceEnd;
+                     space++) {
+                    if (trieMap.getChar(space) == ' ') {
+                        return collectFullQueryKeys(trieMap, space, new StringBuilder(), valueIds);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean collectFullQueryKeys(final CompactTrieMap<?> trieMap, final int node,
+                                                final StringBuilder key, final Map<String, Integer> valueIds) {
+
+        boolean hasLeftBoundaryOnlyKeys = false;
+
+        final int firstChild = trieMap.getFirstChild(node);
+        for (int child = firstChild, end = firstChild + trieMap.getNumChildren(node); child < end; child++) {
+
+            final char ch = trieMap.getChar(child);
+            final int valueId = trieMap.getValueId(child);
+
+            if (ch == BOUNDARY_WORD.charAt(0) && (key.length() == 0 || key.charAt(key.length() - 1) == ' ')) {
+                if (valueId != CompactTrieMap.NO_VALUE) {
+                    // strip the space before the boundary
+                    valueIds.put(key.length() == 0 ? "" : key.substring(0, key.length() - 1), valueId);
+                }
+            } else {
+                if (trieMap.getPrefixValueId(child) != CompactTrieMap.NO_VALUE
+                        || (valueId != CompactTrieMap.NO_VALUE)) {
+                    hasLeftBoundaryOnlyKeys = true;
+                }
+                key.append(ch);
+                hasLeftBoundaryOnlyKeys |= collectFullQueryKeys(trieMap, child, key, valueIds);
+                key.setLength(key.length() - 1);
+            }
+        }
+
+        return hasLeftBoundaryOnlyKeys;
+    }
+
+    /**
+     * Create the key for the lookup of full-query rules
+     *
+     * @param sequence The sequence
+     * @param ignoreCase true iff the key shall be lower-cased
+     * @return The key or null if the sequence doesn't start with a left boundary, doesn't end with a right boundary
+     *         or if there isn't exactly one term at each position between the boundaries
+     */
+    static String createFullQueryKey(final PositionSequence<InputSequenceElement> sequence,
+                                     final boolean ignoreCase) {
+
+        if (sequence.size() < 2 || !isBoundary(sequence.getFirst(), InputBoundary.Type.LEFT)
+                || !isBoundary(sequence.getLast(), InputBoundary.Type.RIGHT)) {
+            return null;
+        }
+
+        final StringBuilder key = new StringBuilder();
+        final Iterator<List<InputSequenceElement>> positions = sequence.iterator();
+        positions.next();
+        for (int i = 1, last = sequence.size() - 1; i < last; i++) {
+            final List<InputSequenceElement> position = positions.next();
+            if (position.size() != 1 || !(position.get(0) instanceof Term)) {
+                return null;
+            }
+            if (i > 1) {
+                key.append(' ');
+            }
+            key.append(((Term) position.get(0)).toCharSequenceWithField(ignoreCase));
+        }
+        return key.toString();
+    }
+
+    private static boolean isBoundary(final List<InputSequenceElement> position, final InputBoundary.Type type) {
+        return position.size() == 1 && position.get(0) instanceof InputBoundary
+                && ((InputBoundary) position.get(0)).type == type;
+    }
+
+    /**
+     * @return The number of rule keys that must match the complete query
+     */
+    public int getNumFullQueryKeys() {
+        return fullQueryValueIds.size();
+    }
+
+    /**
+     * Check whether a term can start a rule input using a Bloom filter over the first terms of all rule inputs. This
+     * only costs hashing the term and works for prefix rules like 'abc*' as well.
+     *
+     * @see RulesCollection#mightStartInput(Term)
+     */
+    @Override
+    public boolean mightStartInput(final Term term) {
+        return inputTermFilter.mightStartInput(term.toCharSequenceWithField(ignoreCase));
+    }
+
+    private static CompactTrieMap<List<Instructions>> compact(TrieMap<List<Instructions>> trieMap) {
+        if (trieMap == null) {
+            throw new IllegalArgumentException("trieMap must not be null");
+        }
+        return new CompactTrieMap<>(trieMap);
     }
 
     /* (non-Javadoc)
@@ -40,55 +278,103 @@ public class TrieMapRulesCollection implements RulesCollection {
      */
     @Override
     public List<Action> getRewriteActions(final PositionSequence<InputSequenceElement> sequence) {
+
         final List<Action> result = new ArrayList<>();
+        collectRewriteActions(sequence, result, null);
+
+        if (hitStatisticsEnabled) {
+            for (final Action action : result) {
+                for (final Instructions instructions : action.getInstructions()) {
+                    instructions.recordHit();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Find the actions for a sequence.</p>
+     *
+     * <p>If <code>lookupOrder</code> is not null, it receives a key per action that describes at which step of the
+     * lookup the action was found. Comparing these keys with {@link #compareLookupOrder(int[], int[])} yields the
+     * order in which the actions would have been found if the rules of two collections had been put into a single
+     * collection.</p>
+     *
+     * @param sequence The sequence
+     * @param result Receives the actions
+     * @param lookupOrder Receives the lookup order keys of the actions or null
+     */
+    void collectRewriteActions(final PositionSequence<InputSequenceElement> sequence, final List<Action> result,
+                               final List<int[]> lookupOrder) {
         if (sequence.isEmpty()) {
-            return result;
+            return;
         }
 
+        // one cursor for all lookups in this sequence
+        final TrieCursor<List<Instructions>> cursor = trieMap.cursor();
+
         // We have a list of terms (resulting from DisMax alternatives) per
         // position. We now find all the combinations of terms in different 
         // positions and look them up as rules input in the dictionary
         // LinkedList<List<Term>> positions = sequence.getPositions();
         if (sequence.size() == 1) {
-            for (final Term term : new ClassFilter<>(sequence.getFirst(), Term.class)) {
+            int element = -1;
+            for (final InputSequenceElement inputSequenceElement : sequence.getFirst()) {
 
-                final States<List<Instructions>> states = trieMap.get(term.toCharSequenceWithField(ignoreCase));
+                element++;
+                if (!(inputSequenceElement instanceof Term)) {
+                    continue;
+                }
+                final Term term = (Term) inputSequenceElement;
 
-                final State<List<Instructions>> stateExactMatch = states.getStateForCompleteSequence();
-                if (stateExactMatch.isFinal() && stateExactMatch.value != null) {
-                    result.add(new Action(stateExactMatch.value, new TermMatches(new TermMatch(term)), 0, 1));
+                cursor.seek(term.toCharSequenceWithField(ignoreCase));
+
+                if (cursor.isFinal()) {
+                    result.add(new Action(cursor.getValue(), new TermMatches(new TermMatch(term)), 0, 1));
+                    addLookupOrder(lookupOrder, null, element, 0);
                 }
 
-                final List<State<List<Instructions>>> statesForPrefixes = states.getPrefixes();
-                if (statesForPrefixes != null) {
-                    for (final State<List<Instructions>> stateForPrefix: statesForPrefixes) {
-                        
-                        if (stateForPrefix.isFinal() && stateForPrefix.value != null) {
-                            result.add(
-                                    new Action(stateForPrefix.value, 
-                                            new TermMatches(
-                                                    new TermMatch(term, 
-                                                            true, 
-                                                            term.subSequence(stateForPrefix.index + 1, term.length()))), 
-                                                0, 1));
-                        }
+                for (int i = 0, len = cursor.getPrefixCount(); i < len; i++) {
+
+                    final List<Instructions> prefixValue = cursor.getPrefixValue(i);
+                    if (prefixValue != null) {
+                        result.add(
+                                new Action(prefixValue,
+                                        new TermMatches(
+                                                new TermMatch(term,
+                                                        true,
+                                                        term.subSequence(cursor.getPrefixIndex(i) + 1, term.length()))),
+                                            0, 1));
+                        addLookupOrder(lookupOrder, null, element, i + 1);
                     }
                 }
                 
             }
         } else {
 
-            List<Prefix<List<Instructions>>> prefixes = new LinkedList<>();
-            List<Prefix<List<Instructions>>> newPrefixes = new LinkedList<>();
+            // rules for the complete query are looked up in the hash map if possible, the trie walk then skips them
+            final String fullQueryKey = fullQueryValueIds.isEmpty() ? null : createFullQueryKey(sequence, ignoreCase);
+            final boolean skipLeftBoundary = fullQueryKey != null && !hasLeftBoundaryOnlyKeys;
+
+            List<Prefix> prefixes = new LinkedList<>();
+            List<Prefix> newPrefixes = new LinkedList<>();
 
             int pos = 0;
+            // the number of the element in the sequence, counting all elements at all positions
+            int elementNumber = -1;
+            // the number of actions that were found before the current position
+            int numActionsBeforePosition = 0;
 
             for (final List<InputSequenceElement> position : sequence) {
                 
                 boolean anyTermAtPosition = false;
+                numActionsBeforePosition = result.size();
 
                 for (final InputSequenceElement element : position) {
 
+                    elementNumber++;
+
                     final boolean isTerm = element instanceof Term;
                     anyTermAtPosition |= isTerm;
 
@@ -96,30 +382,34 @@ public class TrieMapRulesCollection implements RulesCollection {
                     if (isTerm) {
                         charSequenceForLookup = ((Term) element).toCharSequenceWithField(ignoreCase);
                     } else if (element instanceof InputBoundary) {
+                        if (skipLeftBoundary && ((InputBoundary) element).type == InputBoundary.Type.LEFT) {
+                            continue;
+                        }
                         charSequenceForLookup = BOUNDARY_WORD;
                     } else {
                         throw new IllegalArgumentException("Cannot handle type of element in sequence " + element);
                     }
 
-                    // combine term with prefixes (= sequences of terms) that brought us here
-                    for (final Prefix<List<Instructions>> prefix : prefixes) {
+                    final int ofs = isTerm ? 1 : 0;
 
-                        final States<List<Instructions>> states = trieMap.get(
-                                new CompoundCharSequence(null, " ", charSequenceForLookup), prefix.stateInfo);
+                    // combine term with prefixes (= sequences of terms) that brought us here
+                    for (final Prefix prefix : prefixes) {
 
-                        final int ofs = isTerm ? 1 : 0;
-                        
                         // exact matches 
-                        final State<List<Instructions>> stateExactMatch = states.getStateForCompleteSequence();
-                        if (stateExactMatch.isKnown()) {
-                            if (stateExactMatch.isFinal()) {
+                        if (cursor.seekNextWord(prefix.node, charSequenceForLookup)) {
+                            // full-query rules were looked up in the hash map
+                            final boolean isFullQueryMatch = fullQueryKey != null && !isTerm
+                                    && prefix.startsAtLeftBoundary;
+                            if (cursor.isFinal() && !isFullQueryMatch) {
                                 final TermMatches matches = new TermMatches(prefix.matches);
                                  if (isTerm) {
                                      matches.add(new TermMatch((Term) element));
                                  }
-                                 result.add(new Action( stateExactMatch.value, matches, pos - matches.size() + ofs, pos + ofs));
+                                 result.add(new Action(cursor.getValue(), matches, pos - matches.size() + ofs,
+                                         pos + ofs));
+                                 addLookupOrder(lookupOrder, prefix, elementNumber, 0);
                             }
-                            final Prefix<List<Instructions>> newPrefix = new Prefix<List<Instructions>>(prefix, stateExactMatch);
+                            final Prefix newPrefix = new Prefix(prefix, cursor.getNode(), elementNumber);
                             if (isTerm) {
                                 newPrefix.addTerm(new TermMatch((Term) element));
                             }
@@ -128,55 +418,52 @@ public class TrieMapRulesCollection implements RulesCollection {
                         }
                         
                         // matches for prefixes (= beginnings of terms)
-                        final List<State<List<Instructions>>> statesForPrefixes = states.getPrefixes();
-                        if (statesForPrefixes != null) {
-                            for (final State<List<Instructions>> stateForPrefix: statesForPrefixes) {
-                                
-                                if (stateForPrefix.isFinal() && stateForPrefix.value != null) {
-                                    final TermMatches matches = new TermMatches(prefix.matches);
-                                    if (isTerm) {
-                                        final Term term = (Term) element;
-                                        matches.add(
-                                            new TermMatch(term, 
-                                                    true, 
-                                                    term.subSequence(stateForPrefix.index + 1, term.length())));
-                                    }
-                                    
-                                    result.add(new Action( stateForPrefix.value, matches, pos - matches.size() + ofs, pos + ofs));
+                        for (int i = 0, len = cursor.getPrefixCount(); i < len; i++) {
+
+                            final List<Instructions> prefixValue = cursor.getPrefixValue(i);
+                            if (prefixValue != null) {
+                                final TermMatches matches = new TermMatches(prefix.matches);
+                                if (isTerm) {
+                                    final Term term = (Term) element;
+                                    matches.add(
+                                        new TermMatch(term,
+                                                true,
+                                                term.subSequence(cursor.getPrefixIndex(i) + 1, term.length())));
                                 }
-                                
-                                // TODO: continue with next match after prefix match
+
+                                result.add(new Action(prefixValue, matches, pos - matches.size() + ofs, pos + ofs));
+                                addLookupOrder(lookupOrder, prefix, elementNumber, i + 1);
                             }
+
+                            // TODO: continue with next match after prefix match
                         }
                     }
 
                     // now see whether the term matches on its own...
-                    final States<List<Instructions>> states = trieMap.get(charSequenceForLookup);
-
-                    final State<List<Instructions>> stateExactMatch = states.getStateForCompleteSequence();
-                    if (stateExactMatch.isKnown()) {
-                        if (stateExactMatch.isFinal()) {
+                    if (cursor.seek(charSequenceForLookup)) {
+                        if (cursor.isFinal()) {
                             // we do not let match the boundary on its own:
                             if (isTerm) {
-                                result.add(new Action( stateExactMatch.value, new TermMatches(new TermMatch((Term) element)), pos, pos + 1));
+                                result.add(new Action(cursor.getValue(), new TermMatches(new TermMatch((Term) element)),
+                                        pos, pos + 1));
+                                addLookupOrder(lookupOrder, null, elementNumber, 0);
                             }
                         }
                         // ... and save it as a prefix to the following term
-                        final Prefix<List<Instructions>> newPrefix = isTerm
-                                ? new Prefix<>(new TermMatch((Term) element), stateExactMatch)
-                                : new Prefix<>(stateExactMatch);
-                        newPrefixes.add(new Prefix<>(newPrefix, stateExactMatch));
+                        newPrefixes.add(isTerm
+                                ? new Prefix(new TermMatch((Term) element), cursor.getNode(), elementNumber)
+                                : new Prefix(cursor.getNode(), elementNumber));
                     }
 
-                    final List<State<List<Instructions>>> statesForPrefixes = states.getPrefixes();
-                    if (statesForPrefixes != null) {
-                        for (final State<List<Instructions>> stateForPrefix: statesForPrefixes) {
-                            if (stateForPrefix.isFinal() && stateForPrefix.value != null) {
-                                if (isTerm) {
-                                    final Term term = (Term) element;
-                                    result.add(new Action( stateForPrefix.value, new TermMatches(new TermMatch(term, true, term.subSequence(stateForPrefix.index + 1, term.length()))), pos, pos + 1));
-                                    // TODO: continue with next match after prefix match
-                                }
+                    if (isTerm) {
+                        for (int i = 0, len = cursor.getPrefixCount(); i < len; i++) {
+                            final List<Instructions> prefixValue = cursor.getPrefixValue(i);
+                            if (prefixValue != null) {
+                                final Term term = (Term) element;
+                                result.add(new Action(prefixValue, new TermMatches(new TermMatch(term, true,
+                                        term.subSequence(cursor.getPrefixIndex(i) + 1, term.length()))), pos, pos + 1));
+                                addLookupOrder(lookupOrder, null, elementNumber, i + 1);
+                                // TODO: continue with next match after prefix match
                             }
                         }
                     }
@@ -191,9 +478,78 @@ public class TrieMapRulesCollection implements RulesCollection {
                 }
             }
 
+            if (fullQueryKey != null) {
+                final Integer valueId = fullQueryValueIds.get(fullQueryKey);
+                if (valueId != null) {
+                    final TermMatches matches = new TermMatches();
+                    final Iterator<List<InputSequenceElement>> positions = sequence.iterator();
+                    positions.next();
+                    for (int i = 1, last = sequence.size() - 1; i < last; i++) {
+                        matches.add(new TermMatch((Term) positions.next().get(0)));
+                    }
+                    // The trie walk would have found the full-query match at the right boundary, following the prefix
+                    // that started at the left boundary. This prefix started before all other prefixes, so the walk
+                    // would have found this match first at the right boundary, which is the last position.
+                    result.add(numActionsBeforePosition, new Action(trieMap.getValue(valueId), matches, 0,
+                            matches.size()));
+                    if (lookupOrder != null) {
+                        // one element per position: the boundaries and the terms between them
+                        final int[] order = new int[sequence.size() + 2];
+                        for (int i = 0; i < sequence.size(); i++) {
+                            order[i] = sequence.size() - 1 - i;
+                        }
+                        order[sequence.size()] = Integer.MAX_VALUE;
+                        order[sequence.size() + 1] = 0;
+                        lookupOrder.add(numActionsBeforePosition, order);
+                    }
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Record the lookup step of an action: the numbers of the sequence elements that matched, starting from the last
+     * element, followed by a marker for the end of the elements and by the kind of the match (0 for a complete match,
+     * i + 1 for the i-th prefix match at the last element).
+     */
+    private static void addLookupOrder(final List<int[]> lookupOrder, final Prefix prefix, final int elementNumber,
+                                       final int kind) {
+        if (lookupOrder == null) {
+            return;
+        }
+        int length = 3;
+        for (Prefix p = prefix; p != null; p = p.previous) {
+            length++;
         }
+        final int[] order = new int[length];
+        order[0] = elementNumber;
+        int i = 1;
+        for (Prefix p = prefix; p != null; p = p.previous) {
+            order[i++] = p.elementNumber;
+        }
+        order[i++] = Integer.MAX_VALUE;
+        order[i] = kind;
+        lookupOrder.add(order);
+    }
 
-        return result;    
+    /**
+     * <p>Compare the lookup order keys of two actions (see
+     * {@link #collectRewriteActions(PositionSequence, List, List)}).</p>
+     *
+     * <p>Actions are found element by element. At each element, matches that started at an earlier element are found
+     * before matches that start at this element. The prefixes that lead to an element are ordered by the element
+     * before, then by the element before that etc., and prefixes that started earlier come first.</p>
+     */
+    static int compareLookupOrder(final int[] order1, final int[] order2) {
+        for (int i = 0, len = Math.min(order1.length, order2.length); i < len; i++) {
+            final int c = Integer.compare(order1[i], order2[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(order1.length, order2.length);
     }
     
     @Override
@@ -210,30 +566,63 @@ public class TrieMapRulesCollection implements RulesCollection {
         return result;
     }
 
-    public static class Prefix<T> {
-        final State<T> stateInfo;
+    /**
+     * A sequence of matching terms together with the trie node at which the sequence ended
+     */
+    public static class Prefix {
+        final int node;
         final List<TermMatch> matches;
+        final boolean startsAtLeftBoundary;
+        // the prefix that was extended by this prefix and the number of the sequence element that was added, only
+        // used for ordering
+        final Prefix previous;
+        final int elementNumber;
 
-        public Prefix(final Prefix<T> prefix, final TermMatch match, final State<T> stateInfo) {
+        public Prefix(final Prefix prefix, final TermMatch match, final int node) {
             matches = new LinkedList<>(prefix.matches);
             addTerm(match);
-            this.stateInfo = stateInfo;
+            this.node = node;
+            startsAtLeftBoundary = prefix.startsAtLeftBoundary;
+            previous = null;
+            elementNumber = -1;
         }
         
-        public Prefix(final Prefix<T> prefix, final State<T> stateInfo) {
+        public Prefix(final Prefix prefix, final int node) {
+            this(prefix, node, -1);
+        }
+
+        Prefix(final Prefix prefix, final int node, final int elementNumber) {
             matches = new LinkedList<>(prefix.matches);
-            this.stateInfo = stateInfo;
+            this.node = node;
+            startsAtLeftBoundary = prefix.startsAtLeftBoundary;
+            previous = prefix;
+            this.elementNumber = elementNumber;
         }
 
-        public Prefix(final TermMatch match, final State<T> stateInfo) {
+        public Prefix(final TermMatch match, final int node) {
+            this(match, node, -1);
+        }
+
+        Prefix(final TermMatch match, final int node, final int elementNumber) {
             matches = new LinkedList<>();
             matches.add(match);
-            this.stateInfo = stateInfo;
+            this.node = node;
+            startsAtLeftBoundary = false;
+            previous = null;
+            this.elementNumber = elementNumber;
         }
         
-        public Prefix(final State<T> stateInfo) {
+        public Prefix(final int node) {
+            this(node, -1);
+        }
+
+        Prefix(final int node, final int elementNumber) {
             matches = new LinkedList<>();
-            this.stateInfo = stateInfo;
+            this.node = node;
+            // a sequence only continues after a boundary if it is the left boundary
+            startsAtLeftBoundary = true;
+            previous = null;
+            this.elementNumber = elementNumber;
         }
 
 
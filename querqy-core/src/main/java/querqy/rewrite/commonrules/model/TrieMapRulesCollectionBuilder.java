@@ -3,11 +3,14 @@
  */
 package querqy.rewrite.commonrules.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import querqy.ComparableCharSequence;
 import querqy.CompoundCharSequence;
+import querqy.trie.CompactTrieMap;
 import querqy.trie.State;
 import querqy.trie.States;
 import querqy.trie.TrieMap;
@@ -32,126 +35,86 @@ public class TrieMapRulesCollectionBuilder implements RulesCollectionBuilder {
     @Override
     public void addRule(Input input, Instructions instructions) {
         
-        List<Term> inputTerms = input.getInputTerms();
-        
-        switch (inputTerms.size()) {
+        final boolean isPrefix = isPrefixInput(input);
         
-        case 0: {
-            if (!(input.requiresLeftBoundary && input.requiresRightBoundary)) {
-                throw new IllegalArgumentException("Empty input!");
-            }
+        for (ComparableCharSequence seq : getKeys(input, ignoreCase)) {
             
-            ComparableCharSequence seq = new CompoundCharSequence(" ", TrieMapRulesCollection.BOUNDARY_WORD, TrieMapRulesCollection.BOUNDARY_WORD);
             States<List<Instructions>> states = map.get(seq);
-            State<List<Instructions>> state = states.getStateForCompleteSequence();
-            if (state.value != null) {
-                state.value.add(instructions);
-            } else {
-                List<Instructions> instructionsList = new LinkedList<>();
-                instructionsList.add(instructions);
-                map.put(seq, instructionsList);
-            }
-            
-        }
-        break;
-        
-        case 1: {
-            
-            Term term = inputTerms.get(0);
-            
-            boolean isPrefix = term instanceof PrefixTerm;
             
-            for (ComparableCharSequence seq: term.getCharSequences(ignoreCase)) {
+            if (isPrefix) { 
                 
-                seq = applyBoundaries(seq, input.requiresLeftBoundary, input.requiresRightBoundary);
+                boolean added = false;
                 
-                States<List<Instructions>> states = map.get(seq);
+                List<State<List<Instructions>>> prefixes = states.getPrefixes();
                 
-                if (isPrefix) {
-                    boolean added = false;
-                    
-                    List<State<List<Instructions>>> prefixes = states.getPrefixes();
-                    
-                    if (prefixes != null) {
-                        for (State<List<Instructions>> state: prefixes) {
-                            if (state.isFinal() && state.index == (seq.length() - 1) && state.value != null) {
-                                state.value.add(instructions);
-                                added = true;
-                                break;
-                            }
-                            
+                if (prefixes != null) {
+                    for (State<List<Instructions>> state: prefixes) {
+                        if (state.isFinal() && state.index == (seq.length() - 1) && state.value != null) {
+                            state.value.add(instructions);
+                            added = true;
+                            break;
                         }
+                        
                     }
-                    
-                    if (!added) {
-                        List<Instructions> instructionsList = new LinkedList<>();
-                        instructionsList.add(instructions);
-                        map.putPrefix(seq, instructionsList);
-                    }
+                }
                 
+                if (!added) {
+                    List<Instructions> instructionsList = new LinkedList<>();
+                    instructionsList.add(instructions);
+                    map.putPrefix(seq, instructionsList);
+                }
+            } else {
+                State<List<Instructions>> state = states.getStateForCompleteSequence();
+                if (state.value != null) {
+                    state.value.add(instructions);
                 } else {
-                    State<List<Instructions>> state = states.getStateForCompleteSequence();
-                    if (state.value != null) {
-                        state.value.add(instructions);
-                    } else {
-                        List<Instructions> instructionsList = new LinkedList<>();
-                        instructionsList.add(instructions);
-                        map.put(seq, instructionsList);
-                    }
-                    
+                    List<Instructions> instructionsList = new LinkedList<>();
+                    instructionsList.add(instructions);
+                    map.put(seq, instructionsList);
                 }
             }
+            
+        } 
+
+    }
+
+    /**
+     * Get the sequences under which the instructions for an input are stored in the trie. There is more than one
+     * sequence if the input contains terms with more than one field name.
+     *
+     * @param input The input
+     * @param ignoreCase true iff the sequences shall be lower-cased
+     * @return The sequences
+     */
+    public static List<ComparableCharSequence> getKeys(Input input, boolean ignoreCase) {
+
+        List<Term> inputTerms = input.getInputTerms();
+
+        if (inputTerms.isEmpty()) {
+            if (!(input.requiresLeftBoundary && input.requiresRightBoundary)) {
+                throw new IllegalArgumentException("Empty input!");
+            }
+            return Collections.<ComparableCharSequence>singletonList(new CompoundCharSequence(" ",
+                    TrieMapRulesCollection.BOUNDARY_WORD, TrieMapRulesCollection.BOUNDARY_WORD));
         }
-        break;
-        
-        default:
-            Term lastTerm = input.inputTerms.get(input.inputTerms.size() -1);
-            boolean isPrefix = lastTerm instanceof PrefixTerm;
-            for (ComparableCharSequence seq : input.getInputSequences(ignoreCase)) {
-                
-                seq = applyBoundaries(seq, input.requiresLeftBoundary, input.requiresRightBoundary);
-                
-                States<List<Instructions>> states = map.get(seq);
-                
-                if (isPrefix) { 
-                    
-                    boolean added = false;
-                    
-                    List<State<List<Instructions>>> prefixes = states.getPrefixes();
-                    
-                    if (prefixes != null) {
-                        for (State<List<Instructions>> state: prefixes) {
-                            if (state.isFinal() && state.index == (seq.length() - 1) && state.value != null) {
-                                state.value.add(instructions);
-                                added = true;
-                                break;
-                            }
-                            
-                        }
-                    }
-                    
-                    if (!added) {
-                        List<Instructions> instructionsList = new LinkedList<>();
-                        instructionsList.add(instructions);
-                        map.putPrefix(seq, instructionsList);
-                    }
-                } else {
-                    State<List<Instructions>> state = states.getStateForCompleteSequence();
-                    if (state.value != null) {
-                        state.value.add(instructions);
-                    } else {
-                        List<Instructions> instructionsList = new LinkedList<>();
-                        instructionsList.add(instructions);
-                        map.put(seq, instructionsList);
-                    }
-                }
-                
-            } 
-       }
 
+        List<ComparableCharSequence> keys = new LinkedList<>();
+        for (ComparableCharSequence seq : input.getInputSequences(ignoreCase)) {
+            keys.add(applyBoundaries(seq, input.requiresLeftBoundary, input.requiresRightBoundary));
+        }
+        return keys;
+    }
+
+    /**
+     * @param input The input
+     * @return true iff the keys of the input are stored as prefixes, i.e. if the last term is a {@link PrefixTerm}
+     */
+    public static boolean isPrefixInput(Input input) {
+        List<Term> inputTerms = input.getInputTerms();
+        return !inputTerms.isEmpty() && inputTerms.get(inputTerms.size() - 1) instanceof PrefixTerm;
     }
     
-    ComparableCharSequence applyBoundaries(ComparableCharSequence seq, boolean requiresLeftBoundary, boolean requiresRightBoundary) {
+    static ComparableCharSequence applyBoundaries(ComparableCharSequence seq, boolean requiresLeftBoundary, boolean requiresRightBoundary) {
         if (requiresLeftBoundary == requiresRightBoundary) {
             if (requiresLeftBoundary) {
                 return new CompoundCharSequence(" ", TrieMapRulesCollection.BOUNDARY_WORD, seq, TrieMapRulesCollection.BOUNDARY_WORD);
@@ -166,12 +129,17 @@ public class TrieMapRulesCollectionBuilder implements RulesCollectionBuilder {
     }
     
 
-    /* (non-Javadoc)
+    /**
+     * Creates the {@link RulesCollection} from the rules that were added so far. The rules are frozen into a
+     * {@link CompactTrieMap} and the lists of instructions are copied, rules that are added after calling this method
+     * will not be visible in the returned RulesCollection.
+     *
      * @see querqy.rewrite.commonrules.model.RulesCollectionBuilder#build()
      */
     @Override
     public RulesCollection build() {
-        return new TrieMapRulesCollection(map, ignoreCase);
+        return new TrieMapRulesCollection(new CompactTrieMap<>(map,
+                instructionsList -> Collections.unmodifiableList(new ArrayList<>(instructionsList))), ignoreCase);
     }
 
 }
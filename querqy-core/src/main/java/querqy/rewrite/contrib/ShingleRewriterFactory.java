@@ -4,7 +4,9 @@ import querqy.model.ExpandedQuery;
 import querqy.model.Term;
 import querqy.rewrite.QueryRewriter;
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,4 +35,10 @@ public class ShingleRewriterFactory implements RewriterFactory {
         return QueryRewriter.EMPTY_GENERABLE_TERMS;
     }
 
+    @Override
+    public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                        final List<Object> key) {
+        return true;
+    }
+
 }
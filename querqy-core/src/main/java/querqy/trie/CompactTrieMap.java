@@ -0,0 +1,306 @@
+package querqy.trie;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>An immutable, array-backed version of a {@link TrieMap}.</p>
+ *
+ * <p>All nodes are kept in parallel buffers. The children of a node are stored next to each other and sorted by their
+ * character so that a lookup can use a binary search at each level instead of walking a linked list of siblings.
+ * The node at position 0 is a virtual root node that does not hold a character. Values are referenced by an int id
+ * per node, -1 meaning 'no value'.</p>
+ *
+ * <p>The buffers can either wrap heap arrays (see {@link #CompactTrieMap(TrieMap)}) or views of a memory-mapped
+ * file (see {@link #CompactTrieMap(CharBuffer, IntBuffer, IntBuffer, IntBuffer, IntBuffer, int, IntFunction)}).</p>
+ *
+ * <p>Lookups return the same {@link States} as the {@link TrieMap} from which this map was created. Known
+ * {@link State}s reference the position of the matching node via {@link State#nodeIndex}. Use a {@link TrieCursor}
+ * for lookups on the hot path, it provides the same information without allocating objects per lookup.</p>
+ *
+ * @param <T> The value type
+ */
+public class CompactTrieMap<T> implements Iterable<T> {
+
+    public static final int NO_VALUE = -1;
+
+    public static final int ROOT = 0;
+
+    final CharBuffer chars;
+    final IntBuffer firstChild;
+    final IntBuffer numChildren;
+    final IntBuffer valueIds;
+    final IntBuffer prefixValueIds;
+    final int numValues;
+    final IntFunction<T> values;
+
+    /**
+     * Create a CompactTrieMap from pre-built node buffers. All node buffers must have the same size and start with
+     * the root node at position 0.
+     *
+     * @param chars The character of each node
+     * @param firstChild The position of the first child of each node
+     * @param numChildren The number of children of each node
+     * @param valueIds The id of the value of each node or {@link #NO_VALUE}
+     * @param prefixValueIds The id of the prefix value of each node or {@link #NO_VALUE}
+     * @param numValues The number of value ids
+     * @param values Returns the value for a value id
+     */
+    public CompactTrieMap(final CharBuffer chars, final IntBuffer firstChild, final IntBuffer numChildren,
+                          final IntBuffer valueIds, final IntBuffer prefixValueIds, final int numValues,
+                          final IntFunction<T> values) {
+        final int size = chars.limit();
+        if (size < 1 || firstChild.limit() != size || numChildren.limit() != size || valueIds.limit() != size
+                || prefixValueIds.limit() != size) {
+            throw new IllegalArgumentException("Node buffers must have the same size > 0");
+        }
+        this.chars = chars;
+        this.firstChild = firstChild;
+        this.numChildren = numChildren;
+        this.valueIds = valueIds;
+        this.prefixValueIds = prefixValueIds;
+        this.numValues = numValues;
+        this.values = values;
+    }
+
+    public CompactTrieMap(final TrieMap<T> trieMap) {
+        this(trieMap, UnaryOperator.identity());
+    }
+
+    /**
+     * Create a CompactTrieMap from a TrieMap, mapping each value, for example, to copy it.
+     *
+     * @param trieMap The TrieMap
+     * @param valueMapper Maps the values of the TrieMap to the values of the CompactTrieMap
+     */
+    public CompactTrieMap(final TrieMap<T> trieMap, final UnaryOperator<T> valueMapper) {
+
+        final List<Node<T>> nodes = new ArrayList<>();
+        final List<int[]> childRanges = new ArrayList<>();
+
+        nodes.add(null); // root
+        childRanges.add(null);
+
+        // breadth-first, so that the children of each node get consecutive positions
+        final Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+
+        while (!queue.isEmpty()) {
+
+            final int parent = queue.poll();
+            final Node<T> parentNode = nodes.get(parent);
+
+            final List<Node<T>> children = new ArrayList<>();
+            for (Node<T> child = (parentNode == null) ? trieMap.root : parentNode.firstChild; child != null;
+                 child = child.next) {
+                children.add(child);
+            }
+            children.sort((n1, n2) -> Character.compare(n1.character, n2.character));
+
+            childRanges.set(parent, new int[] {nodes.size(), children.size()});
+
+            for (final Node<T> child : children) {
+                queue.add(nodes.size());
+                nodes.add(child);
+                childRanges.add(null);
+            }
+        }
+
+        final int size = nodes.size();
+        final char[] charArray = new char[size];
+        final int[] firstChildArray = new int[size];
+        final int[] numChildrenArray = new int[size];
+        final int[] valueIdArray = new int[size];
+        final int[] prefixValueIdArray = new int[size];
+        final List<Object> valueList = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            final int[] range = childRanges.get(i);
+            firstChildArray[i] = range[0];
+            numChildrenArray[i] = range[1];
+            valueIdArray[i] = NO_VALUE;
+            prefixValueIdArray[i] = NO_VALUE;
+            final Node<T> node = nodes.get(i);
+            if (node != null) {
+                charArray[i] = node.character;
+                if (node.value != null) {
+                    valueIdArray[i] = valueList.size();
+                    valueList.add(valueMapper.apply(node.value));
+                }
+                if (node.hasPrefix) {
+                    prefixValueIdArray[i] = valueList.size();
+                    valueList.add(valueMapper.apply(node.prefixValue));
+                }
+            }
+        }
+
+        final Object[] valueArray = valueList.toArray();
+
+        chars = CharBuffer.wrap(charArray);
+        firstChild = IntBuffer.wrap(firstChildArray);
+        numChildren = IntBuffer.wrap(numChildrenArray);
+        valueIds = IntBuffer.wrap(valueIdArray);
+        prefixValueIds = IntBuffer.wrap(prefixValueIdArray);
+        numValues = valueArray.length;
+        values = valueId -> {
+            @SuppressWarnings("unchecked")
+            final T value = (T) valueArray[valueId];
+            return value;
+        };
+    }
+
+    public States<T> get(final CharSequence seq) {
+        return get(seq, ROOT);
+    }
+
+    public States<T> get(final CharSequence seq, final State<T> stateInfo) {
+        if (!stateInfo.isKnown()) {
+            throw new IllegalArgumentException("Known state expected");
+        }
+        if (stateInfo.nodeIndex < 0) {
+            throw new IllegalArgumentException("State does not belong to a CompactTrieMap");
+        }
+        return get(seq, stateInfo.nodeIndex);
+    }
+
+    protected States<T> get(final CharSequence seq, final int startNode) {
+
+        final TrieCursor<T> cursor = cursor();
+        cursor.seek(startNode, false, seq, (seq.length() > 0 && seq.charAt(0) == ' ') ? -1 : 0);
+
+        final States<T> states = new States<>(cursor.isKnown()
+                ? new State<>(true, cursor.getValue(), cursor.getNode(), cursor.getIndex())
+                : new State<T>(false, null, null));
+
+        for (int i = 0, len = cursor.getPrefixCount(); i < len; i++) {
+            states.addPrefix(new State<>(true, cursor.getPrefixValue(i), cursor.getPrefixNode(i),
+                    cursor.getPrefixIndex(i)));
+        }
+
+        return states;
+    }
+
+    /**
+     * Create a lookup cursor for this map. The cursor can be reused for lookups without creating {@link States}
+     * objects. It must not be shared between threads.
+     *
+     * @return A new cursor
+     */
+    public TrieCursor<T> cursor() {
+        return new TrieCursor<>(this);
+    }
+
+    /**
+     * Find the child of a node by its character
+     *
+     * @param node The parent node
+     * @param ch The character
+     * @return The position of the child node or -1 if the node has no child for this character
+     */
+    int findChild(final int node, final char ch) {
+        int low = firstChild.get(node);
+        int high = low + numChildren.get(node) - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = chars.get(mid);
+            if (midChar < ch) {
+                low = mid + 1;
+            } else if (midChar > ch) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of nodes, including the root node
+     */
+    public int size() {
+        return chars.limit();
+    }
+
+    public char getChar(final int node) {
+        return chars.get(node);
+    }
+
+    public int getFirstChild(final int node) {
+        return firstChild.get(node);
+    }
+
+    public int getNumChildren(final int node) {
+        return numChildren.get(node);
+    }
+
+    public int getValueId(final int node) {
+        return valueIds.get(node);
+    }
+
+    public int getPrefixValueId(final int node) {
+        return prefixValueIds.get(node);
+    }
+
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /**
+     * @param valueId The value id
+     * @return The value for the id or null if valueId is {@link #NO_VALUE}
+     */
+    public T getValue(final int valueId) {
+        return valueId == NO_VALUE ? null : values.apply(valueId);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ValueIterator();
+    }
+
+    class ValueIterator implements Iterator<T> {
+
+        int valueId = -1;
+        T next = null;
+
+        ValueIterator() {
+            moveToNextValue();
+        }
+
+        private void moveToNextValue() {
+            next = null;
+            while (next == null && ++valueId < numValues) {
+                next = values.apply(valueId);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T value = next;
+            moveToNextValue();
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -12,6 +12,10 @@ public class State<T> {
     public final T value;
     public final boolean isKnown;
     public final Node<T> node;
+    /**
+     * The position of the matching node in a {@link CompactTrieMap}, -1 for states of a {@link TrieMap}
+     */
+    public final int nodeIndex;
     /**
      * The index of the last matching char
      */
@@ -22,9 +26,18 @@ public class State<T> {
     }
     
     public State(boolean isKnown, T value, Node<T> node, int index) {
+        this(isKnown, value, node, -1, index);
+    }
+
+    public State(boolean isKnown, T value, int nodeIndex, int index) {
+        this(isKnown, value, null, nodeIndex, index);
+    }
+
+    private State(boolean isKnown, T value, Node<T> node, int nodeIndex, int index) {
         this.isKnown = isKnown;
         this.value = value;
         this.node = node;
+        this.nodeIndex = nodeIndex;
         this.index = index;
     }
     
@@ -0,0 +1,193 @@
+package querqy.trie;
+
+import java.util.Arrays;
+
+/**
+ * <p>A mutable lookup cursor for a {@link CompactTrieMap}.</p>
+ *
+ * <p>A cursor holds the result of the last lookup: the state for the complete sequence and the states for prefixes of
+ * the sequence (longest prefix first). Lookups do not allocate objects apart from growing the internal prefix buffers
+ * so that a single cursor can be reused for all lookups while handling a query.</p>
+ *
+ * <p>Cursors are not thread-safe. Create one per thread or per rewriter instance using {@link CompactTrieMap#cursor()}.
+ * </p>
+ *
+ * @param <T> The value type
+ */
+public class TrieCursor<T> {
+
+    private static final int INITIAL_PREFIX_CAPACITY = 8;
+
+    final CompactTrieMap<T> trieMap;
+
+    int node = -1;
+    int index = -1;
+    int[] prefixNodes = new int[INITIAL_PREFIX_CAPACITY];
+    int[] prefixIndexes = new int[INITIAL_PREFIX_CAPACITY];
+    int numPrefixes = 0;
+
+    TrieCursor(final CompactTrieMap<T> trieMap) {
+        this.trieMap = trieMap;
+    }
+
+    /**
+     * Look up a sequence, starting at the root of the trie.
+     *
+     * @param seq The sequence
+     * @return true iff the complete sequence is known
+     */
+    public boolean seek(final CharSequence seq) {
+        return seek(CompactTrieMap.ROOT, false, seq, (seq.length() > 0 && seq.charAt(0) == ' ') ? -1 : 0);
+    }
+
+    /**
+     * Look up a sequence, resuming from the node of a previous lookup.
+     *
+     * @param fromNode The node to start from, as returned by {@link #getNode()}
+     * @param seq The sequence
+     * @return true iff the complete sequence is known
+     */
+    public boolean seek(final int fromNode, final CharSequence seq) {
+        checkNode(fromNode);
+        return seek(fromNode, false, seq, (seq.length() > 0 && seq.charAt(0) == ' ') ? -1 : 0);
+    }
+
+    /**
+     * Look up a space followed by the sequence, resuming from the node of a previous lookup. This is the same as
+     * calling {@link #seek(int, CharSequence)} with " " + seq but it doesn't require to create a compound sequence.
+     * Prefix indexes relate to the sequence without the space.
+     *
+     * @param fromNode The node to start from, as returned by {@link #getNode()}
+     * @param seq The sequence that follows the space
+     * @return true iff the complete sequence is known
+     */
+    public boolean seekNextWord(final int fromNode, final CharSequence seq) {
+        checkNode(fromNode);
+        return seek(fromNode, true, seq, -1);
+    }
+
+    boolean seek(final int fromNode, final boolean leadingSpace, final CharSequence seq, final int prefixIndexOffset) {
+
+        node = -1;
+        index = -1;
+        numPrefixes = 0;
+
+        final int shift = leadingSpace ? 1 : 0;
+        final int length = seq.length() + shift;
+        if (length == 0) {
+            return false;
+        }
+        final int lastIndex = length - 1;
+
+        int current = fromNode;
+
+        for (int i = 0; i < length; i++) {
+
+            final char ch = (i < shift) ? ' ' : seq.charAt(i - shift);
+            final int child = trieMap.findChild(current, ch);
+            if (child < 0) {
+                break;
+            }
+
+            if (i == lastIndex) {
+                // do not add prefix match here, as we should have at least one char matching the wildcard
+                node = child;
+                index = i;
+            } else if (trieMap.prefixValueIds.get(child) != CompactTrieMap.NO_VALUE) {
+                addPrefix(child, i + prefixIndexOffset);
+            }
+
+            current = child;
+        }
+
+        return node > -1;
+
+    }
+
+    private void addPrefix(final int prefixNode, final int prefixIndex) {
+        if (numPrefixes == prefixNodes.length) {
+            prefixNodes = Arrays.copyOf(prefixNodes, numPrefixes * 2);
+            prefixIndexes = Arrays.copyOf(prefixIndexes, numPrefixes * 2);
+        }
+        prefixNodes[numPrefixes] = prefixNode;
+        prefixIndexes[numPrefixes++] = prefixIndex;
+    }
+
+    private void checkNode(final int fromNode) {
+        if (fromNode < 0 || fromNode >= trieMap.size()) {
+            throw new IllegalArgumentException("Known node expected");
+        }
+    }
+
+    /**
+     * @return true iff the complete sequence of the last lookup is known
+     */
+    public boolean isKnown() {
+        return node > -1;
+    }
+
+    /**
+     * @return true iff the complete sequence of the last lookup is known and has a value
+     */
+    public boolean isFinal() {
+        return node > -1 && trieMap.valueIds.get(node) != CompactTrieMap.NO_VALUE;
+    }
+
+    /**
+     * @return The node of the complete sequence of the last lookup or -1 if the sequence is unknown.
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * @return The index of the last matching char of the complete sequence or -1 if the sequence is unknown.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public T getValue() {
+        return node > -1 ? trieMap.getValue(trieMap.valueIds.get(node)) : null;
+    }
+
+    /**
+     * @return The number of prefix matches of the last lookup
+     */
+    public int getPrefixCount() {
+        return numPrefixes;
+    }
+
+    /**
+     * @param i The ordinal of the prefix match, 0 is the longest prefix
+     * @return The value of the prefix match
+     */
+    public T getPrefixValue(final int i) {
+        return trieMap.getValue(trieMap.prefixValueIds.get(prefixNodes[checkPrefix(i)]));
+    }
+
+    /**
+     * @param i The ordinal of the prefix match, 0 is the longest prefix
+     * @return The index of the last char that matched the prefix
+     */
+    public int getPrefixIndex(final int i) {
+        return prefixIndexes[checkPrefix(i)];
+    }
+
+    /**
+     * @param i The ordinal of the prefix match, 0 is the longest prefix
+     * @return The node of the prefix match
+     */
+    public int getPrefixNode(final int i) {
+        return prefixNodes[checkPrefix(i)];
+    }
+
+    private int checkPrefix(final int i) {
+        if (i < 0 || i >= numPrefixes) {
+            throw new IndexOutOfBoundsException(Integer.toString(i));
+        }
+        // prefixes are recorded from the shortest to the longest
+        return numPrefixes - 1 - i;
+    }
+
+}
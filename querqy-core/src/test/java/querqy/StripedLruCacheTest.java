@@ -0,0 +1,86 @@
+package querqy;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class StripedLruCacheTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatMaxSizeMustBePositive() {
+        new StripedLruCache<String, String>(0);
+    }
+
+    @Test
+    public void testThatStripeSizesAddUpToMaxSize() {
+        assertThat(Arrays.stream(StripedLruCache.stripeSizes(35, 16)).boxed().collect(Collectors.toList()),
+                contains(3, 3, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2));
+        assertThat(Arrays.stream(StripedLruCache.stripeSizes(3, 3)).sum(), is(3));
+        assertThat(Arrays.stream(StripedLruCache.stripeSizes(1000, 15)).sum(), is(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatThereMustNotBeMoreStripesThanEntries() {
+        StripedLruCache.stripeSizes(2, 3);
+    }
+
+    @Test
+    public void testThatStripeIndexIsInRange() {
+        for (final int hash : new int[] {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x10000, "abc".hashCode()}) {
+            final int index = StripedLruCache.stripeIndex(hash, 7);
+            assertThat(index >= 0, is(true));
+            assertThat(index, lessThan(7));
+        }
+    }
+
+    @Test
+    public void testThatLeastRecentlyUsedEntryIsEvicted() {
+
+        // a single stripe
+        final StripedLruCache<String, String> cache = new StripedLruCache<>(1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.get("b"), is("2"));
+
+        // 16 stripes with 2 entries each
+        final StripedLruCache<Integer, Integer> cache2 = new StripedLruCache<>(32);
+        assertThat(cache2.stripes.length, is(16));
+        // find three keys in the first stripe
+        final Integer[] keys = new Integer[3];
+        int found = 0;
+        for (int i = 0; found < keys.length; i++) {
+            if (StripedLruCache.stripeIndex(Integer.hashCode(i), 16) == 0) {
+                keys[found++] = i;
+            }
+        }
+        cache2.put(keys[0], 0);
+        cache2.put(keys[1], 1);
+        assertThat(cache2.get(keys[0]), is(0)); // keys[1] is now the least recently used entry of the stripe
+        cache2.put(keys[2], 2);
+        assertThat(cache2.get(keys[1]), nullValue());
+        assertThat(cache2.get(keys[0]), is(0));
+        assertThat(cache2.get(keys[2]), is(2));
+    }
+
+    @Test
+    public void testThatEntriesUpToMaxSizeAreKept() {
+        final StripedLruCache<Integer, Integer> cache = new StripedLruCache<>(100);
+        assertThat(cache.stripes.length, is(StripedLruCache.MAX_STRIPES));
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertThat(cache.size() <= 100, is(true));
+        cache.clear();
+        assertThat(cache.size(), is(0));
+    }
+
+}
@@ -0,0 +1,345 @@
+package querqy.rewrite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static querqy.QuerqyMatchers.bq;
+import static querqy.QuerqyMatchers.dmq;
+import static querqy.QuerqyMatchers.must;
+import static querqy.QuerqyMatchers.term;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.Test;
+
+import querqy.model.ExpandedQuery;
+import querqy.model.Query;
+import querqy.parser.WhiteSpaceQuerqyParser;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.DecorateInstruction;
+
+public class RewriteChainTest {
+
+    @Test
+    public void testThatRewritersAreAppliedOnceForRepeatedQuery() throws Exception {
+
+        final CountingFactory factory = new CountingFactory(commonRules("a =>\n SYNONYM: b"));
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory), new RewriteCache(10));
+
+        final ExpandedQuery first = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        final ExpandedQuery second = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        assertEquals(1, factory.count);
+        assertThat(second, not(sameInstance(first)));
+        assertThat((Query) second.getUserQuery(),
+                bq(
+                        dmq(
+                                term("a", false),
+                                term("b", true)
+                        )
+                ));
+
+        chain.rewrite(makeQuery("c"), new TestAdapter(chain));
+        assertEquals(2, factory.count);
+    }
+
+    @Test
+    public void testThatCachedQueryIsNotModifiedByCaller() throws Exception {
+
+        final RewriteChain chain = new RewriteChain(
+                Arrays.<RewriterFactory>asList(commonRules("a =>\n SYNONYM: b")), new RewriteCache(10));
+
+        final ExpandedQuery first = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        first.addFilterQuery(new WhiteSpaceQuerqyParser().parse("x"));
+
+        final ExpandedQuery second = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        assertNull(second.getFilterQueries());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThatContextEntriesAreRestoredFromCache() throws Exception {
+
+        final RewriteChain chain = new RewriteChain(
+                Arrays.<RewriterFactory>asList(commonRules("a =>\n DECORATE: deco1")), new RewriteCache(10));
+
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        final TestAdapter adapter = new TestAdapter(chain);
+        chain.rewrite(makeQuery("a"), adapter);
+
+        assertThat((Set<Object>) adapter.getContext().get(DecorateInstruction.CONTEXT_KEY),
+                contains(equalTo((Object) "deco1")));
+    }
+
+    @Test
+    public void testThatDebugQueryBypassesCache() throws Exception {
+
+        final CountingFactory factory = new CountingFactory(commonRules("a =>\n SYNONYM: b"));
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory), new RewriteCache(10));
+
+        final TestAdapter adapter = new TestAdapter(chain);
+        adapter.debug = true;
+        chain.rewrite(makeQuery("a"), adapter);
+        chain.rewrite(makeQuery("a"), adapter);
+
+        assertEquals(2, factory.count);
+        assertEquals(0, chain.getRewriteCache().size());
+    }
+
+    @Test
+    public void testThatFactoryCanOptOutOfCaching() throws Exception {
+
+        final CountingFactory factory = new CountingFactory(commonRules("a =>\n SYNONYM: b"));
+        factory.cacheable = false;
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory), new RewriteCache(10));
+
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        assertEquals(2, factory.count);
+    }
+
+    @Test
+    public void testThatFactoriesAreNotCachedByDefault() throws Exception {
+
+        final RewriterFactory notCacheable = new RewriterFactory() {
+            @Override
+            public QueryRewriter createRewriter(final ExpandedQuery input, final Map<String, ?> context) {
+                return query -> query;
+            }
+
+            @Override
+            public Set<querqy.model.Term> getGenerableTerms() {
+                return QueryRewriter.EMPTY_GENERABLE_TERMS;
+            }
+        };
+
+        final CountingFactory factory = new CountingFactory(notCacheable);
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory), new RewriteCache(10));
+
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        assertEquals(2, factory.count);
+        assertEquals(0, chain.getRewriteCache().size());
+    }
+
+    @Test
+    public void testThatReplacingRulesInvalidatesCachedResults() throws Exception {
+
+        final SimpleCommonRulesRewriterFactory factory = commonRules("a =>\n SYNONYM: b");
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory), new RewriteCache(10));
+
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        factory.setRules(commonRules("a =>\n SYNONYM: c").getRules());
+
+        final ExpandedQuery rewritten = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        assertThat((Query) rewritten.getUserQuery(),
+                bq(
+                        dmq(
+                                term("a", false),
+                                term("c", true)
+                        )
+                ));
+    }
+
+    @Test
+    public void testThatCacheIsBounded() throws Exception {
+
+        final RewriteChain chain = new RewriteChain(
+                Arrays.<RewriterFactory>asList(commonRules("a =>\n SYNONYM: b")), new RewriteCache(20));
+
+        for (int i = 0; i < 100; i++) {
+            chain.rewrite(makeQuery("q" + i), new TestAdapter(chain));
+        }
+
+        assertThat(chain.getRewriteCache().size(), lessThanOrEqualTo(20));
+        assertThat(chain.getRewriteCache().size(), greaterThan(10));
+    }
+
+    @Test
+    public void testThatQueriesWithSameStructureHaveSameKey() throws Exception {
+        assertEquals(RewriteCache.createQueryKey(makeQuery("a  b")), RewriteCache.createQueryKey(makeQuery("a b")));
+        assertThat(RewriteCache.createQueryKey(makeQuery("a b")),
+                not(equalTo(RewriteCache.createQueryKey(makeQuery("ab")))));
+        assertThat(RewriteCache.createQueryKey(makeQuery("a b")),
+                not(equalTo(RewriteCache.createQueryKey(makeQuery("a +b")))));
+    }
+
+    @Test
+    public void testThatCopyKeepsGeneratedFlags() throws Exception {
+
+        final RewriteChain chain = new RewriteChain(
+                Arrays.<RewriterFactory>asList(commonRules("a =>\n SYNONYM: b c\n UP(2): d")));
+        final ExpandedQuery query = chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        final ExpandedQuery copy = RewriteCache.copy(query);
+
+        assertThat((Query) copy.getUserQuery(), not(sameInstance(query.getUserQuery())));
+        assertThat((Query) copy.getUserQuery(),
+                bq(
+                        dmq(
+                                term("a", false),
+                                bq(
+                                        dmq(must(), term("b", true)),
+                                        dmq(must(), term("c", true))
+                                )
+                        )
+                ));
+        assertEquals(1, copy.getBoostUpQueries().size());
+        assertThat(copy.getBoostUpQueries().iterator().next().getQuery(),
+                not(sameInstance(query.getBoostUpQueries().iterator().next().getQuery())));
+    }
+
+    @Test
+    public void testThatMetricsAreRecordedForEachRewriter() throws Exception {
+
+        final SimpleCommonRulesRewriterFactory factory1 = commonRules("a =>\n SYNONYM: b");
+        final SimpleCommonRulesRewriterFactory factory2 = commonRules("b =>\n SYNONYM: c");
+        final RewriteChain chain = new RewriteChain(Arrays.<RewriterFactory>asList(factory1, factory2),
+                new RewriteCache(10));
+
+        final RecordingMetrics metrics = new RecordingMetrics();
+        chain.setMetrics(metrics);
+
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+        chain.rewrite(makeQuery("a"), new TestAdapter(chain));
+
+        assertEquals(Arrays.asList(0, 1), metrics.positions);
+        assertThat(metrics.factories, contains(sameInstance((RewriterFactory) factory1),
+                sameInstance((RewriterFactory) factory2)));
+        assertEquals(Arrays.asList(false, true), metrics.cacheLookups);
+
+        chain.setMetrics(null);
+        chain.rewrite(makeQuery("b"), new TestAdapter(chain));
+        assertEquals(2, metrics.positions.size());
+    }
+
+    static ExpandedQuery makeQuery(final String input) {
+        return new ExpandedQuery(new WhiteSpaceQuerqyParser().parse(input));
+    }
+
+    static SimpleCommonRulesRewriterFactory commonRules(final String rules) throws Exception {
+        return new SimpleCommonRulesRewriterFactory(new StringReader(rules), new WhiteSpaceQuerqyParserFactory(),
+                true);
+    }
+
+    static class CountingFactory implements RewriterFactory {
+
+        final RewriterFactory delegate;
+        int count = 0;
+        boolean cacheable = true;
+
+        CountingFactory(final RewriterFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public QueryRewriter createRewriter(final ExpandedQuery input, final Map<String, ?> context) {
+            count++;
+            return delegate.createRewriter(input, context);
+        }
+
+        @Override
+        public Set<querqy.model.Term> getGenerableTerms() {
+            return delegate.getGenerableTerms();
+        }
+
+        @Override
+        public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                            final List<Object> key) {
+            return cacheable && delegate.addToRewriteCacheKey(searchEngineRequestAdapter, key);
+        }
+    }
+
+    static class RecordingMetrics implements RewriteChainMetrics {
+
+        final List<Integer> positions = new ArrayList<>();
+        final List<RewriterFactory> factories = new ArrayList<>();
+        final List<Boolean> cacheLookups = new ArrayList<>();
+
+        @Override
+        public void rewriterApplied(final int position, final RewriterFactory factory, final long durationNanos) {
+            positions.add(position);
+            factories.add(factory);
+        }
+
+        @Override
+        public void rewriteCacheLookup(final boolean hit) {
+            cacheLookups.add(hit);
+        }
+    }
+
+    static class TestAdapter implements SearchEngineRequestAdapter {
+
+        final RewriteChain rewriteChain;
+        final Map<String, Object> context = new HashMap<>();
+        boolean debug = false;
+
+        TestAdapter(final RewriteChain rewriteChain) {
+            this.rewriteChain = rewriteChain;
+        }
+
+        @Override
+        public RewriteChain getRewriteChain() {
+            return rewriteChain;
+        }
+
+        @Override
+        public Map<String, Object> getContext() {
+            return context;
+        }
+
+        @Override
+        public Optional<String> getRequestParam(final String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public String[] getRequestParams(final String name) {
+            return new String[0];
+        }
+
+        @Override
+        public Optional<Boolean> getBooleanRequestParam(final String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Integer> getIntegerRequestParam(final String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Float> getFloatRequestParam(final String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Double> getDoubleRequestParam(final String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public boolean isDebugQuery() {
+            return debug;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package querqy.rewrite.commonrules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import querqy.model.ExpandedQuery;
+
+public class CommonRulesMetricsTest extends AbstractCommonRulesTest {
+
+    @Test
+    public void testThatMatchedActionsAndAppliedInstructionsAreCounted() throws Exception {
+
+        final SimpleCommonRulesRewriterFactory factory = new SimpleCommonRulesRewriterFactory(
+                new StringReader("a =>\n SYNONYM: b\n UP(10): c\nx =>\n DELETE"),
+                new WhiteSpaceQuerqyParserFactory(), true);
+
+        rewrite(factory, makeQuery("a x y"));
+        rewrite(factory, makeQuery("a"));
+        rewrite(factory, makeQuery("z"));
+
+        final CommonRulesMetrics metrics = factory.getMetrics();
+        // no rule can match "z", so that it is not looked up
+        assertEquals(2, metrics.getSequencesLookedUp());
+        assertEquals(3, metrics.getActionsMatched());
+
+        final Map<String, Long> instructions = metrics.getInstructionsApplied();
+        assertEquals(3, instructions.size());
+        assertEquals(Long.valueOf(2), instructions.get("SynonymInstruction"));
+        assertEquals(Long.valueOf(2), instructions.get("BoostInstruction"));
+        assertEquals(Long.valueOf(1), instructions.get("DeleteInstruction"));
+
+    }
+
+    private void rewrite(final SimpleCommonRulesRewriterFactory factory, final ExpandedQuery query) {
+        ((CommonRulesRewriter) factory.createRewriter(query, EMPTY_CONTEXT)).rewrite(query, new HashMap<>());
+    }
+
+}
@@ -0,0 +1,171 @@
+package querqy.rewrite.commonrules;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import querqy.model.InputSequenceElement;
+import querqy.model.Term;
+import querqy.rewrite.commonrules.model.Action;
+import querqy.rewrite.commonrules.model.InputBoundary;
+import querqy.rewrite.commonrules.model.InputBoundary.Type;
+import querqy.rewrite.commonrules.model.PositionSequence;
+import querqy.rewrite.commonrules.model.RulesCollection;
+
+public class RulesCompilerTest extends AbstractCommonRulesTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    QuerqyParserFactory querqyParserFactory = new WhiteSpaceQuerqyParserFactory();
+
+    @Test
+    public void testThatCompiledRulesReturnSameActionsAsParsedRules() throws Exception {
+
+        for (final boolean ignoreCase : new boolean[] {false, true}) {
+
+            final RulesCollection parsed = new SimpleCommonRulesParser(resourceReader("rules-test.txt"),
+                    querqyParserFactory, ignoreCase).parse();
+
+            final RulesCollection compiled = new CompiledRulesLoader(querqyParserFactory)
+                    .load(ByteBuffer.wrap(compile(resourceReader("rules-test.txt"), ignoreCase)));
+
+            for (final String query : new String[] {"aa l", "a b c l", "a b", "pf xp", "tf2", "t1 t2", "ts1 ts2",
+                    "ts6", "ts7 ts8 ts", "tS7 Ts8 TS", "tb1", "tb2", "tb3", "x tb2", "tb1 tb2 tb3", "none"}) {
+                final PositionSequence<InputSequenceElement> sequence = sequence(query);
+                assertEquals(query, parsed.getRewriteActions(sequence), compiled.getRewriteActions(sequence));
+            }
+
+            assertEquals(parsed.getInstructions(), compiled.getInstructions());
+        }
+    }
+
+    @Test
+    public void testPrefixAndFieldRules() throws Exception {
+
+        final String rules = "ab* =>\n SYNONYM: x $1\n\n{f1,f2}:c {f1,f2}:d =>\n DELETE\n UP(10): e\n\nabc =>\n DECORATE: dec";
+
+        final RulesCollection parsed = new SimpleCommonRulesParser(new StringReader(rules), querqyParserFactory,
+                true).parse();
+
+        final RulesCollection compiled = new CompiledRulesLoader(querqyParserFactory)
+                .load(ByteBuffer.wrap(compile(new StringReader(rules), true)));
+
+        for (final String query : new String[] {"abc", "abcd", "ab", "c d", "x abx c d"}) {
+            final PositionSequence<InputSequenceElement> sequence = sequence(query);
+            assertEquals(query, parsed.getRewriteActions(sequence), compiled.getRewriteActions(sequence));
+        }
+
+        final PositionSequence<InputSequenceElement> sequence = sequence("f2", "c d");
+        final List<Action> actions = compiled.getRewriteActions(sequence);
+        assertEquals(1, actions.size());
+        assertEquals(parsed.getRewriteActions(sequence), actions);
+    }
+
+    @Test
+    public void testThatCompiledFileIsMemoryMapped() throws Exception {
+
+        final Path file = tempFolder.newFile("rules.bin").toPath();
+        new RulesCompiler(querqyParserFactory, false).compile(resourceReader("rules-test.txt"), file);
+
+        final RulesCollection compiled = new CompiledRulesLoader(querqyParserFactory).load(file);
+        final RulesCollection parsed = new SimpleCommonRulesParser(resourceReader("rules-test.txt"),
+                querqyParserFactory, false).parse();
+
+        final PositionSequence<InputSequenceElement> sequence = sequence("a b c");
+        assertFalse(compiled.getRewriteActions(sequence).isEmpty());
+        assertEquals(parsed.getRewriteActions(sequence), compiled.getRewriteActions(sequence));
+    }
+
+    @Test
+    public void testThatUnknownVersionIsRejected() throws Exception {
+        final byte[] bytes = compile(new StringReader("a =>\n DELETE"), false);
+        bytes[7] = 99; // last byte of version
+        try {
+            new CompiledRulesLoader(querqyParserFactory).load(ByteBuffer.wrap(bytes));
+            fail("Unsupported version must not be loaded");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void testThatCorruptFileIsRejected() throws Exception {
+        final byte[] bytes = compile(new StringReader("a =>\n SYNONYM: b"), false);
+        bytes[bytes.length - 1] ^= 1;
+        try {
+            new CompiledRulesLoader(querqyParserFactory).load(ByteBuffer.wrap(bytes));
+            fail("Corrupt file must not be loaded");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void testThatRulesThatCannotBeParsedAreRejectedWhenParsedEagerly() throws Exception {
+        // a FILTER instruction cannot be parsed without a QuerqyParserFactory
+        final byte[] bytes = compile(new StringReader("a =>\n FILTER: b"), false);
+
+        final RulesCollection rules = new CompiledRulesLoader(null).load(ByteBuffer.wrap(bytes));
+        assertNotNull(rules);
+
+        try {
+            new CompiledRulesLoader(null, true).load(ByteBuffer.wrap(bytes));
+            fail("Rule that cannot be parsed must not be loaded");
+        } catch (final IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testThatOtherFilesAreRejected() throws Exception {
+        new CompiledRulesLoader(querqyParserFactory).load(
+                ByteBuffer.wrap("a =>\n DELETE\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = RuleParseException.class)
+    public void testThatInvalidRulesAreNotCompiled() throws Exception {
+        compile(new StringReader("a =>\n b =>\n DELETE"), false);
+    }
+
+    byte[] compile(final Reader reader, final boolean ignoreCase) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RulesCompiler(querqyParserFactory, ignoreCase).compile(reader, out);
+        return out.toByteArray();
+    }
+
+    Reader resourceReader(final String resourceName) {
+        return new InputStreamReader(getClass().getClassLoader().getResourceAsStream(resourceName),
+                StandardCharsets.UTF_8);
+    }
+
+    PositionSequence<InputSequenceElement> sequence(final String query) {
+        return sequence(null, query);
+    }
+
+    PositionSequence<InputSequenceElement> sequence(final String field, final String query) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(Type.LEFT));
+        for (final String token : query.split("\\s+")) {
+            sequence.nextPosition();
+            sequence.addElement(new Term(null, field, token));
+        }
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(Type.RIGHT));
+        return sequence;
+    }
+
+}
@@ -8,8 +8,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.After;
 import org.junit.Test;
@@ -591,7 +593,86 @@ ts6 =>
                     + "Term [fieldNames=null, value=c]", e.getMessage());
         }
     }
-    
 
+    @Test
+    public void testThatParallelParsingCreatesSameRulesAsSequentialParsing() throws Exception {
+
+        final StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            rules.append("w").append(i).append(" =>\n SYNONYM: s").append(i).append("\n");
+            if (i % 100 == 0) {
+                // the same input in many chunks
+                rules.append("# comment\ncommon =>\n SYNONYM: c").append(i).append("\n");
+            }
+        }
+
+        final RulesCollection sequential = new SimpleCommonRulesParser(new StringReader(rules.toString()),
+                querqyParserFactory, false).parse();
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+
+            final RulesCollection parallel = new SimpleCommonRulesParser(new StringReader(rules.toString()),
+                    querqyParserFactory, false).parse(pool);
+
+            assertEquals(sequential.getInstructions(), parallel.getInstructions());
+
+            for (final String word : Arrays.asList("common", "w0", "w1234", "w4999")) {
+                final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+                sequence.nextPosition();
+                sequence.addElement(new Term(null, word));
+                // instructions for the same input must be in the same order
+                assertEquals(sequential.getRewriteActions(sequence), parallel.getRewriteActions(sequence));
+            }
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatParallelParsingReportsFirstErrorLine() throws Exception {
+
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            lines.add("w" + i + " =>");
+            lines.add(" SYNONYM: s" + i);
+        }
+        // an input without instruction at the end of the first chunk
+        lines.set(998, " SYNONYM: t");
+        lines.set(999, "x =>");
+        lines.set(4001, " FOO");
+
+        assertSameParseError(String.join("\n", lines));
+
+        lines.set(999, " SYNONYM: s");
+        assertSameParseError(String.join("\n", lines));
+
+        // missing instruction at the end of the last chunk
+        lines.set(4001, " SYNONYM: s");
+        lines.add("y =>");
+        assertSameParseError(String.join("\n", lines));
+    }
+
+    void assertSameParseError(final String rules) throws Exception {
+
+        String expected = null;
+        try {
+            new SimpleCommonRulesParser(new StringReader(rules), querqyParserFactory, false).parse();
+            fail("Expected RuleParseException");
+        } catch (final RuleParseException e) {
+            expected = e.getMessage();
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new SimpleCommonRulesParser(new StringReader(rules), querqyParserFactory, false).parse(pool);
+            fail("Expected RuleParseException");
+        } catch (final RuleParseException e) {
+            assertEquals(expected, e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
 
 }
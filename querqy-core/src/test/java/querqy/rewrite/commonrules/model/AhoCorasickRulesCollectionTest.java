@@ -0,0 +1,248 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import querqy.model.InputSequenceElement;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+
+public class AhoCorasickRulesCollectionTest {
+
+    @Test
+    public void testOverlappingInputs() {
+
+        final RulesCollectionBuilder builder = new AhoCorasickRulesCollectionBuilder(false);
+
+        final Instructions instructions1 = instructions("i1");
+        final Instructions instructions2 = instructions("i2");
+        final Instructions instructions3 = instructions("i3");
+        final Instructions instructions4 = instructions("i4");
+
+        builder.addRule(new Input(inputTerms(null, "a", "b", "c")), instructions1);
+        builder.addRule(new Input(inputTerms(null, "b", "c")), instructions2);
+        builder.addRule(new Input(inputTerms(null, "c")), instructions3);
+        builder.addRule(new Input(inputTerms(null, "b", "c", "d", "e")), instructions4);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "x", "a", "b", "c", "d");
+
+        assertThat(builder.build().getRewriteActions(sequence), containsInAnyOrder(
+                new Action(Collections.singletonList(instructions1), termMatches(sequence, 1, 2, 3), 1, 4),
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 2, 3), 2, 4),
+                new Action(Collections.singletonList(instructions3), termMatches(sequence, 3), 3, 4)
+        ));
+    }
+
+    @Test
+    public void testThatSuffixIsMatchedOnceForTwoAlternatives() {
+
+        final RulesCollectionBuilder builder = new AhoCorasickRulesCollectionBuilder(false);
+
+        final Instructions instructions1 = instructions("i1");
+        final Instructions instructions2 = instructions("i2");
+        builder.addRule(new Input(inputTerms(null, "a1", "b", "c")), instructions1);
+        builder.addRule(new Input(inputTerms(null, "b", "c")), instructions2);
+
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new querqy.model.Term(null, "a1"));
+        sequence.addElement(new querqy.model.Term(null, "a2"));
+        sequence.nextPosition();
+        sequence.addElement(new querqy.model.Term(null, "b"));
+        sequence.nextPosition();
+        sequence.addElement(new querqy.model.Term(null, "c"));
+
+        final List<Action> actions = builder.build().getRewriteActions(sequence);
+        assertEquals(2, actions.size());
+        assertThat(actions, containsInAnyOrder(
+                new Action(Collections.singletonList(instructions1), termMatches(sequence, 0, 1, 2), 0, 3),
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 1, 2), 1, 3)
+        ));
+    }
+
+    @Test
+    public void testPrefixWithFieldName() {
+
+        final RulesCollectionBuilder builder = new AhoCorasickRulesCollectionBuilder(true);
+        final Instructions instructions = instructions("i1");
+        builder.addRule(new Input(Arrays.asList(term(null, "x"), new PrefixTerm("ab".toCharArray(), 0, 2,
+                Collections.singletonList("f1")))), instructions);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence("f1", "x", "AbCd");
+        final List<Action> actions = builder.build().getRewriteActions(sequence);
+
+        assertThat(actions, empty()); // x doesn't have a field name in the rule
+
+        final PositionSequence<InputSequenceElement> sequence2 = sequence(null, "x");
+        final querqy.model.Term term = new querqy.model.Term(null, "f1", "AbCd");
+        sequence2.nextPosition();
+        sequence2.addElement(term);
+
+        final TermMatches expected = new TermMatches(
+                new TermMatch((querqy.model.Term) sequence2.getFirst().get(0)));
+        expected.add(new TermMatch(term, true, term.subSequence(2, 4)));
+
+        assertThat(builder.build().getRewriteActions(sequence2), containsInAnyOrder(
+                new Action(Collections.singletonList(instructions), expected, 0, 2)));
+    }
+
+    @Test
+    public void testSameActionsAsTrieMapRulesCollectionForRulesFile() throws Exception {
+
+        for (final boolean ignoreCase : new boolean[] {false, true}) {
+
+            final RulesCollection trieMapRules = parse(new TrieMapRulesCollectionBuilder(ignoreCase));
+            final RulesCollection ahoCorasickRules = parse(new AhoCorasickRulesCollectionBuilder(ignoreCase));
+
+            assertEquals(trieMapRules.getInstructions(), ahoCorasickRules.getInstructions());
+
+            for (final String query : new String[] {"aa l", "a b c l", "a b", "pf xp", "tf2", "t1 t2", "ts1 ts2",
+                    "ts6", "ts7 ts8 ts", "tS7 Ts8 TS", "tb1", "tb2", "tb3", "x tb2", "tb1 tb2 tb3", "none",
+                    "p1 p2xyz", "a b c d e f g h"}) {
+
+                final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+                sequence.nextPosition();
+                sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+                for (final String token : query.split(" ")) {
+                    sequence.nextPosition();
+                    sequence.addElement(new querqy.model.Term(null, token));
+                }
+                sequence.nextPosition();
+                sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+
+                assertSameActions(trieMapRules.getRewriteActions(sequence),
+                        ahoCorasickRules.getRewriteActions(sequence));
+            }
+        }
+    }
+
+    @Test
+    public void testSameActionsAsTrieMapRulesCollectionForRandomRules() {
+
+        final Random random = new Random(2143);
+        final String[] vocabulary = {"a", "b", "c", "ab", "abc", "bc"};
+        final List<String> fields = Arrays.asList("f1", "f2");
+
+        for (int round = 0; round < 50; round++) {
+
+            final boolean ignoreCase = random.nextBoolean();
+            final RulesCollectionBuilder trieMapBuilder = new TrieMapRulesCollectionBuilder(ignoreCase);
+            final RulesCollectionBuilder ahoCorasickBuilder = new AhoCorasickRulesCollectionBuilder(ignoreCase);
+            final Set<String> prefixInputs = new HashSet<>();
+
+            for (int r = 0, numRules = 1 + random.nextInt(30); r < numRules; r++) {
+
+                final List<Term> terms = new ArrayList<>();
+                final int numTerms = 1 + random.nextInt(3);
+                for (int t = 0; t < numTerms; t++) {
+                    final char[] value = vocabulary[random.nextInt(vocabulary.length)].toCharArray();
+                    // TrieMapRulesCollection gets the wildcard match wrong for prefix terms with field names and
+                    // keeps only the last rule if the same prefix input is used twice, so avoid these cases
+                    if (t == numTerms - 1 && random.nextInt(4) == 0
+                            && prefixInputs.add(terms.toString() + new String(value))) {
+                        terms.add(new PrefixTerm(value, 0, value.length, null));
+                    } else {
+                        terms.add(new Term(value, 0, value.length, random.nextInt(5) == 0 ? fields : null));
+                    }
+                }
+                final boolean isPrefix = terms.get(numTerms - 1) instanceof PrefixTerm;
+                final Input input = new Input(terms, random.nextInt(4) == 0, !isPrefix && random.nextInt(4) == 0);
+                final Instructions instructions = instructions("r" + r);
+                trieMapBuilder.addRule(input, instructions);
+                ahoCorasickBuilder.addRule(input, instructions);
+            }
+
+            final RulesCollection trieMapRules = trieMapBuilder.build();
+            final RulesCollection ahoCorasickRules = ahoCorasickBuilder.build();
+
+            for (int q = 0; q < 20; q++) {
+
+                final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+                sequence.nextPosition();
+                sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+                for (int p = 0, numPositions = 1 + random.nextInt(6); p < numPositions; p++) {
+                    sequence.nextPosition();
+                    for (int t = 0, numTerms = 1 + random.nextInt(3); t < numTerms; t++) {
+                        final String value = vocabulary[random.nextInt(vocabulary.length)]
+                                + (random.nextInt(4) == 0 ? "x" : "");
+                        final String field = random.nextInt(4) == 0 ? fields.get(random.nextInt(2)) : null;
+                        sequence.addElement(new querqy.model.Term(null, field,
+                                random.nextBoolean() ? value : value.toUpperCase()));
+                    }
+                }
+                sequence.nextPosition();
+                sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+
+                assertSameActions(trieMapRules.getRewriteActions(sequence),
+                        ahoCorasickRules.getRewriteActions(sequence));
+            }
+        }
+    }
+
+    void assertSameActions(final List<Action> expected, final List<Action> actual) {
+        if (expected.isEmpty()) {
+            assertThat(actual, empty());
+        } else {
+            assertThat(actual, containsInAnyOrder(expected.toArray(new Action[expected.size()])));
+        }
+    }
+
+    RulesCollection parse(final RulesCollectionBuilder builder) throws Exception {
+        return new SimpleCommonRulesParser(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("rules-test.txt"), StandardCharsets.UTF_8),
+                new WhiteSpaceQuerqyParserFactory(), builder).parse();
+    }
+
+    PositionSequence<InputSequenceElement> sequence(final String field, final String... values) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        for (final String value : values) {
+            sequence.nextPosition();
+            sequence.addElement(new querqy.model.Term(null, field, value));
+        }
+        return sequence;
+    }
+
+    TermMatches termMatches(final PositionSequence<InputSequenceElement> sequence, final int... positions) {
+        final TermMatches termMatches = new TermMatches();
+        for (final int position : positions) {
+            termMatches.add(new TermMatch((querqy.model.Term) sequence.get(position).get(0)));
+        }
+        return termMatches;
+    }
+
+    List<Term> inputTerms(final List<String> fieldNames, final String... values) {
+        final List<Term> result = new ArrayList<>(values.length);
+        for (final String value : values) {
+            result.add(term(fieldNames, value));
+        }
+        return result;
+    }
+
+    Term term(final List<String> fieldNames, final String value) {
+        final char[] chars = value.toCharArray();
+        return new Term(chars, 0, chars.length, fieldNames);
+    }
+
+    Instructions instructions(final String... names) {
+        final List<Instruction> instructions = new ArrayList<>();
+        for (final String name : names) {
+            instructions.add(new RulesCollectionTest.SimpleInstruction(name));
+        }
+        return new Instructions(instructions);
+    }
+
+}
@@ -0,0 +1,150 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import querqy.model.ExpandedQuery;
+import querqy.model.Term;
+import querqy.rewrite.commonrules.AbstractCommonRulesTest;
+import querqy.rewrite.commonrules.CommonRulesMetrics;
+import querqy.rewrite.commonrules.CommonRulesRewriter;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+
+public class InputTermBloomFilterTest extends AbstractCommonRulesTest {
+
+    static final String RULES = "a b =>\n"
+            + " SYNONYM: x\n"
+            + "\"c =>\n"
+            + " SYNONYM: x\n"
+            + "d\" =>\n"
+            + " SYNONYM: x\n"
+            + "\"Ef\" =>\n"
+            + " SYNONYM: x\n"
+            + "pre* =>\n"
+            + " SYNONYM: x\n"
+            + "g h* =>\n"
+            + " SYNONYM: x\n"
+            + "f1:k =>\n"
+            + " SYNONYM: x\n"
+            + "\"\" =>\n"
+            + " DECORATE: empty\n";
+
+    @Test
+    public void testThatAddedTermsAndPrefixesAreFound() throws Exception {
+
+        final InputTermBloomFilter filter = new InputTermBloomFilter(3);
+        filter.add("abc");
+        filter.add("f:xyz");
+        filter.addPrefix("de");
+
+        assertEquals(3, filter.getNumTerms());
+        assertTrue(filter.mightStartInput("abc"));
+        assertTrue(filter.mightStartInput("f:xyz"));
+        assertTrue(filter.mightStartInput("def"));
+        assertTrue(filter.mightStartInput("dexyz"));
+
+        assertFalse(filter.mightStartInput("ab"));
+        assertFalse(filter.mightStartInput("xyz"));
+        // a prefix must be followed by at least one char
+        assertFalse(filter.mightStartInput("de"));
+        assertFalse(filter.mightStartInput("d"));
+    }
+
+    @Test
+    public void testThatFalsePositiveRateIsLow() throws Exception {
+
+        final int numTerms = 10000;
+        final InputTermBloomFilter filter = new InputTermBloomFilter(numTerms);
+        for (int i = 0; i < numTerms; i++) {
+            filter.add("term" + i);
+        }
+        for (int i = 0; i < numTerms; i++) {
+            assertTrue(filter.mightStartInput("term" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = numTerms; i < 11 * numTerms; i++) {
+            if (filter.mightStartInput("term" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives, lessThan(numTerms / 10));
+    }
+
+    @Test
+    public void testThatFirstInputTermsOfRulesCollectionAreFound() throws Exception {
+
+        final RulesCollection rules = parse(RULES, true);
+
+        assertTrue(rules.mightStartInput(term(null, "a")));
+        assertTrue(rules.mightStartInput(term(null, "A")));
+        assertTrue(rules.mightStartInput(term(null, "c")));
+        assertTrue(rules.mightStartInput(term(null, "d")));
+        assertTrue(rules.mightStartInput(term(null, "ef")));
+        assertTrue(rules.mightStartInput(term(null, "prefix")));
+        assertTrue(rules.mightStartInput(term(null, "g")));
+        assertTrue(rules.mightStartInput(term("f1", "k")));
+
+        // only the first term of an input is added
+        assertFalse(rules.mightStartInput(term(null, "b")));
+        assertFalse(rules.mightStartInput(term(null, "h")));
+        assertFalse(rules.mightStartInput(term(null, "hh")));
+        assertFalse(rules.mightStartInput(term(null, "pre")));
+        assertFalse(rules.mightStartInput(term(null, "k")));
+        assertFalse(rules.mightStartInput(term(null, "z")));
+    }
+
+    @Test
+    public void testThatCaseIsKeptIfRulesDoNotIgnoreCase() throws Exception {
+
+        final RulesCollection rules = parse(RULES, false);
+
+        assertTrue(rules.mightStartInput(term(null, "Ef")));
+        assertFalse(rules.mightStartInput(term(null, "ef")));
+    }
+
+    @Test
+    public void testThatRewriterSkipsLookupIfNoTermCanStartInput() throws Exception {
+
+        final RulesCollection rules = parse(RULES, true);
+        final CommonRulesMetrics metrics = new CommonRulesMetrics();
+
+        rewrite(rules, metrics, "y z");
+        assertEquals(0, metrics.getSequencesLookedUp());
+
+        rewrite(rules, metrics, "y a b");
+        assertEquals(1, metrics.getSequencesLookedUp());
+        assertEquals(1, metrics.getActionsMatched());
+
+        rewrite(rules, metrics, "y prefix");
+        assertEquals(2, metrics.getActionsMatched());
+
+        // the empty input
+        rewrite(rules, metrics, "");
+        assertEquals(3, metrics.getActionsMatched());
+    }
+
+    private Term term(final String field, final String value) {
+        return new Term(null, field, value);
+    }
+
+    private RulesCollection parse(final String rules, final boolean ignoreCase) throws Exception {
+        return new SimpleCommonRulesParser(new StringReader(rules), new WhiteSpaceQuerqyParserFactory(), ignoreCase)
+                .parse();
+    }
+
+    private void rewrite(final RulesCollection rules, final CommonRulesMetrics metrics, final String input) {
+        final ExpandedQuery query = makeQuery(input);
+        new CommonRulesRewriter(rules, metrics).rewrite(query, new HashMap<>());
+    }
+
+}
@@ -0,0 +1,389 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import querqy.model.InputSequenceElement;
+
+public class LayeredTrieMapRulesCollectionTest {
+
+    final Instructions instructions1 = instructions("i1");
+    final Instructions instructions2 = instructions("i2");
+    final Instructions instructions3 = instructions("i3");
+    final Instructions instructions4 = instructions("i4");
+
+    @Test
+    public void testAddRuleForExistingInput() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base());
+        final LayeredTrieMapRulesCollection updated = rules.addRule(new Input(inputTerms(null, "a")), instructions3);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "a");
+
+        assertThat(updated.getRewriteActions(sequence), contains(
+                new Action(Arrays.asList(instructions1, instructions3), termMatches(sequence, 0), 0, 1)));
+
+        // the previous version is unchanged
+        assertThat(rules.getRewriteActions(sequence), contains(
+                new Action(Collections.singletonList(instructions1), termMatches(sequence, 0), 0, 1)));
+    }
+
+    @Test
+    public void testAddRuleForNewInput() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base())
+                .addRule(new Input(inputTerms(null, "c", "d")), instructions3);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "b", "c", "d");
+
+        assertThat(rules.getRewriteActions(sequence), containsInAnyOrder(
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 0, 1), 0, 2),
+                new Action(Collections.singletonList(instructions3), termMatches(sequence, 1, 2), 1, 3)));
+    }
+
+    @Test
+    public void testReplaceRules() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base())
+                .addRule(new Input(inputTerms(null, "a")), instructions3)
+                .replaceRules(new Input(inputTerms(null, "a")), instructions4);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "a", "b", "c");
+
+        assertThat(rules.getRewriteActions(sequence), containsInAnyOrder(
+                new Action(Collections.singletonList(instructions4), termMatches(sequence, 0), 0, 1),
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 1, 2), 1, 3)));
+
+        assertEquals(1, rules.getNumChanges());
+    }
+
+    @Test
+    public void testRemoveRules() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base());
+        final LayeredTrieMapRulesCollection updated = rules.removeRules(new Input(inputTerms(null, "b", "c")));
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "b", "c");
+        assertThat(updated.getRewriteActions(sequence), empty());
+        assertEquals(1, rules.getRewriteActions(sequence).size());
+
+        final Set<Instruction> expectedInstructions = new HashSet<>(instructions1);
+        expectedInstructions.addAll(instructions3);
+        assertEquals(expectedInstructions, updated.getInstructions());
+    }
+
+    @Test
+    public void testThatHitsAreNotRecordedForRemovedRules() {
+
+        final TrieMapRulesCollection base = base();
+        base.setHitStatisticsEnabled(true);
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base)
+                .removeRules(new Input(inputTerms(null, "a")));
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "a", "b", "c");
+        assertThat(rules.getRewriteActions(sequence), contains(
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 1, 2), 1, 3)));
+
+        assertEquals(0L, instructions1.getHitCount());
+        assertEquals(1L, instructions2.getHitCount());
+    }
+
+    @Test
+    public void testThatRulesOfVersionAreReturned() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base())
+                .removeRules(new Input(inputTerms(null, "b", "c")))
+                .addRule(new Input(inputTerms(null, "c", "d")), instructions4);
+
+        assertThat(rules.getRules(), containsInAnyOrder(instructions1, instructions3, instructions4));
+    }
+
+    @Test
+    public void testUpdatePrefixRules() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base())
+                .replaceRules(new Input(Collections.singletonList(prefixTerm("pre"))), instructions4);
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "prefix");
+
+        assertThat(rules.getRewriteActions(sequence), contains(
+                new Action(Collections.singletonList(instructions4),
+                        new TermMatches(new TermMatch((querqy.model.Term) sequence.get(0).get(0), true,
+                                new querqy.SimpleComparableCharSequence("fix".toCharArray(), 0, 3))),
+                        0, 1)));
+
+        assertThat(rules.removeRules(new Input(Collections.singletonList(prefixTerm("pre"))))
+                .getRewriteActions(sequence), empty());
+    }
+
+    @Test
+    public void testThatCompactedCollectionContainsSameRules() {
+
+        final LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base())
+                .addRule(new Input(inputTerms(null, "a")), instructions3)
+                .removeRules(new Input(inputTerms(null, "b", "c")))
+                .addRule(new Input(inputTerms(null, "c", "d")), instructions4)
+                .removeRules(new Input(Collections.singletonList(prefixTerm("pre"))));
+
+        final TrieMapRulesCollection compacted = rules.compact();
+
+        for (final PositionSequence<InputSequenceElement> sequence : Arrays.asList(sequence(null, "a"),
+                sequence(null, "a", "b", "c", "d"), sequence(null, "prefix", "c", "d"))) {
+            final List<Action> expected = rules.getRewriteActions(sequence);
+            assertThat(compacted.getRewriteActions(sequence),
+                    containsInAnyOrder(expected.toArray(new Action[expected.size()])));
+        }
+
+        assertEquals(rules.getInstructions(), compacted.getInstructions());
+        assertEquals(0, new LayeredTrieMapRulesCollection(compacted).getNumChanges());
+    }
+
+    @Test
+    public void testThatUpdatesAreEquivalentToFullRebuild() {
+
+        final List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("f1:a", new Input(inputTerms(Collections.singletonList("f1"), "a")), instructions("r1")));
+        rules.add(new Rule("{f1,f2}:a", new Input(inputTerms(Arrays.asList("f1", "f2"), "a")),
+                instructions("r2")));
+        rules.add(new Rule("a", new Input(inputTerms(null, "a")), instructions("r3")));
+        rules.add(new Rule("a b", new Input(inputTerms(null, "a", "b")), instructions("r4")));
+        rules.add(new Rule("b c", new Input(inputTerms(null, "b", "c")), instructions("r5")));
+        rules.add(new Rule("pre*", new Input(Collections.singletonList(prefixTerm("pre"))), instructions("r6")));
+        rules.add(new Rule("\"a b\"", new Input(inputTerms(null, "a", "b"), true, true), instructions("r7")));
+        rules.add(new Rule("\"c", new Input(inputTerms(null, "c"), true, false), instructions("r8")));
+        rules.add(new Rule("a", new Input(inputTerms(null, "a")), instructions("r9")));
+        rules.add(new Rule("f1:a", new Input(inputTerms(Collections.singletonList("f1"), "a")),
+                instructions("r10")));
+
+        LayeredTrieMapRulesCollection layered = new LayeredTrieMapRulesCollection(build(rules));
+        assertEquivalent(build(rules), layered);
+
+        // replaces r1 and removes r10, keeps r2
+        Rule rule = replace(rules, new Rule("f1:a", new Input(inputTerms(Collections.singletonList("f1"), "a")),
+                instructions("u1")));
+        layered = layered.replaceRules(rule.input, rule.instructions);
+        assertEquivalent(build(rules), layered);
+
+        rule = add(rules, new Rule("c d", new Input(inputTerms(null, "c", "d")), instructions("u2")));
+        layered = layered.addRule(rule.input, rule.instructions);
+        // replaces r3 and removes r9
+        rule = replace(rules, new Rule("a", new Input(inputTerms(null, "a")), instructions("u3")));
+        layered = layered.replaceRules(rule.input, rule.instructions);
+        assertEquivalent(build(rules), layered);
+
+        layered = layered.removeRules(remove(rules, "b c"));
+        for (final Rule newRule : Arrays.asList(
+                new Rule("b", new Input(inputTerms(null, "b")), instructions("u4")),
+                new Rule("\"x\"", new Input(inputTerms(null, "x"), true, true), instructions("u5")),
+                new Rule("f2:a", new Input(inputTerms(Collections.singletonList("f2"), "a")), instructions("u6")),
+                new Rule("pr*", new Input(Collections.singletonList(prefixTerm("pr"))), instructions("u7")),
+                new Rule("x b", new Input(inputTerms(null, "x", "b")), instructions("u8")))) {
+            rule = add(rules, newRule);
+            layered = layered.addRule(rule.input, rule.instructions);
+        }
+        assertEquivalent(build(rules), layered);
+
+        layered = layered.removeRules(remove(rules, "{f1,f2}:a"));
+        assertEquivalent(build(rules), layered);
+
+        final TrieMapRulesCollection compacted = layered.compact();
+        assertEquivalent(compacted, new LayeredTrieMapRulesCollection(compacted));
+        assertEquivalent(build(rules), new LayeredTrieMapRulesCollection(compacted));
+    }
+
+    @Test
+    public void testThatUpdatesAreCompactedAtThreshold() {
+
+        final TrieMapRulesCollection base = base();
+        base.setHitStatisticsEnabled(true);
+
+        LayeredTrieMapRulesCollection rules = new LayeredTrieMapRulesCollection(base, 3)
+                .addRule(new Input(inputTerms(null, "a")), instructions4)
+                .removeRules(new Input(inputTerms(null, "b", "c")));
+        assertEquals(2, rules.getNumChanges());
+        assertEquals(base, rules.getBase());
+
+        final Instructions instructions5 = instructions("i5");
+        rules = rules.addRule(new Input(inputTerms(null, "c", "d")), instructions5);
+        assertEquals(0, rules.getNumChanges());
+        assertThat(rules.getBase() == base, is(false));
+        assertThat(rules.getBase().isHitStatisticsEnabled(), is(true));
+
+        final PositionSequence<InputSequenceElement> sequence = sequence(null, "a", "b", "c", "d");
+        assertThat(rules.getRewriteActions(sequence), containsInAnyOrder(
+                new Action(Arrays.asList(instructions1, instructions4), termMatches(sequence, 0), 0, 1),
+                new Action(Collections.singletonList(instructions5), termMatches(sequence, 2, 3), 2, 4)));
+
+        // the compacted version can be updated further
+        rules = rules.replaceRules(new Input(inputTerms(null, "a")), instructions2);
+        assertThat(rules.getRewriteActions(sequence(null, "a")), contains(
+                new Action(Collections.singletonList(instructions2), termMatches(sequence, 0), 0, 1)));
+        assertEquals(1, rules.getNumChanges());
+    }
+
+    void assertEquivalent(final TrieMapRulesCollection expected, final LayeredTrieMapRulesCollection actual) {
+
+        final List<PositionSequence<InputSequenceElement>> sequences = Arrays.asList(
+                sequence(alternatives("a")),
+                sequence(alternatives("a", "f1:a", "f2:a")),
+                sequence(alternatives("a"), alternatives("b"), alternatives("c"), alternatives("d")),
+                sequence(alternatives("prefix", "a"), alternatives("b", "x"), alternatives("c")),
+                sequence(alternatives("x", "f1:a"), alternatives("b", "a"), alternatives("b", "c")),
+                boundedSequence(alternatives("a"), alternatives("b")),
+                boundedSequence(alternatives("x")),
+                boundedSequence(alternatives("c"), alternatives("d")),
+                boundedSequence(alternatives("a", "f1:a"), alternatives("b")),
+                boundedSequence(alternatives("prefix"), alternatives("c")));
+
+        for (final PositionSequence<InputSequenceElement> sequence : sequences) {
+            assertEquals(expected.getRewriteActions(sequence), actual.getRewriteActions(sequence));
+        }
+        assertEquals(expected.getInstructions(), actual.getInstructions());
+    }
+
+    static class Rule {
+        final String name;
+        final Input input;
+        final Instructions instructions;
+
+        Rule(final String name, final Input input, final Instructions instructions) {
+            this.name = name;
+            this.input = input;
+            this.instructions = instructions;
+        }
+    }
+
+    TrieMapRulesCollection build(final List<Rule> rules) {
+        final TrieMapRulesCollectionBuilder builder = new TrieMapRulesCollectionBuilder(false);
+        for (final Rule rule : rules) {
+            builder.addRule(rule.input, rule.instructions);
+        }
+        return (TrieMapRulesCollection) builder.build();
+    }
+
+    /**
+     * Replaces the first rule with the same name in place and removes the others, as if the rules file was edited.
+     */
+    Rule replace(final List<Rule> rules, final Rule rule) {
+        int index = -1;
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            if (rules.get(i).name.equals(rule.name)) {
+                rules.remove(i);
+                index = i;
+            }
+        }
+        rules.add(index, rule);
+        return rule;
+    }
+
+    Rule add(final List<Rule> rules, final Rule rule) {
+        rules.add(rule);
+        return rule;
+    }
+
+    Input remove(final List<Rule> rules, final String name) {
+        Input input = null;
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            if (rules.get(i).name.equals(name)) {
+                input = rules.remove(i).input;
+            }
+        }
+        return input;
+    }
+
+    List<InputSequenceElement> alternatives(final String... values) {
+        final List<InputSequenceElement> result = new ArrayList<>();
+        for (final String value : values) {
+            final int colon = value.indexOf(':');
+            result.add(colon < 0
+                    ? new querqy.model.Term(null, value)
+                    : new querqy.model.Term(null, value.substring(0, colon), value.substring(colon + 1)));
+        }
+        return result;
+    }
+
+    @SafeVarargs
+    final PositionSequence<InputSequenceElement> sequence(final List<InputSequenceElement>... positions) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        for (final List<InputSequenceElement> position : positions) {
+            sequence.nextPosition();
+            for (final InputSequenceElement element : position) {
+                sequence.addElement(element);
+            }
+        }
+        return sequence;
+    }
+
+    @SafeVarargs
+    final PositionSequence<InputSequenceElement> boundedSequence(final List<InputSequenceElement>... positions) {
+        final List<List<InputSequenceElement>> bounded = new ArrayList<>();
+        bounded.add(Collections.<InputSequenceElement>singletonList(new InputBoundary(InputBoundary.Type.LEFT)));
+        bounded.addAll(Arrays.asList(positions));
+        bounded.add(Collections.<InputSequenceElement>singletonList(new InputBoundary(InputBoundary.Type.RIGHT)));
+        @SuppressWarnings("unchecked")
+        final List<InputSequenceElement>[] array = bounded.toArray(new List[bounded.size()]);
+        return sequence(array);
+    }
+
+    TrieMapRulesCollection base() {
+        final TrieMapRulesCollectionBuilder builder = new TrieMapRulesCollectionBuilder(false);
+        builder.addRule(new Input(inputTerms(null, "a")), instructions1);
+        builder.addRule(new Input(inputTerms(null, "b", "c")), instructions2);
+        builder.addRule(new Input(Collections.singletonList(prefixTerm("pre"))), instructions3);
+        return (TrieMapRulesCollection) builder.build();
+    }
+
+    PositionSequence<InputSequenceElement> sequence(final String field, final String... values) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        for (final String value : values) {
+            sequence.nextPosition();
+            sequence.addElement(new querqy.model.Term(null, field, value));
+        }
+        return sequence;
+    }
+
+    TermMatches termMatches(final PositionSequence<InputSequenceElement> sequence, final int... positions) {
+        final TermMatches termMatches = new TermMatches();
+        for (final int position : positions) {
+            termMatches.add(new TermMatch((querqy.model.Term) sequence.get(position).get(0)));
+        }
+        return termMatches;
+    }
+
+    List<Term> inputTerms(final List<String> fieldNames, final String... values) {
+        final List<Term> result = new ArrayList<>(values.length);
+        for (final String value : values) {
+            final char[] chars = value.toCharArray();
+            result.add(new Term(chars, 0, chars.length, fieldNames));
+        }
+        return result;
+    }
+
+    Term prefixTerm(final String value) {
+        final char[] chars = value.toCharArray();
+        return new PrefixTerm(chars, 0, chars.length, null);
+    }
+
+    Instructions instructions(final String... names) {
+        final List<Instruction> instructions = new ArrayList<>();
+        for (final String name : names) {
+            instructions.add(new RulesCollectionTest.SimpleInstruction(name));
+        }
+        return new Instructions(instructions);
+    }
+
+}
@@ -316,6 +316,26 @@ public class RulesCollectionTest {
 
    }
 
+   @Test
+   public void testThatRulesAddedAfterBuildAreNotVisible() {
+
+      RulesCollectionBuilder builder = new TrieMapRulesCollectionBuilder(false);
+
+      Instructions instructions1 = instructions("instruction1");
+      builder.addRule(new Input(inputTerms(null, "a"), false, false), instructions1);
+
+      RulesCollection rulesCollection = builder.build();
+
+      builder.addRule(new Input(inputTerms(null, "a"), false, false), instructions("instruction2"));
+
+      PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+      sequence.nextPosition();
+      sequence.addElement(new Term(null, "a"));
+
+      assertThat(rulesCollection.getRewriteActions(sequence),
+            contains(new Action(Arrays.asList(instructions1), termMatches("a"), 0, 1)));
+   }
+
    List<querqy.rewrite.commonrules.model.Term> inputTerms(List<String> fieldNames, String... values) {
       List<querqy.rewrite.commonrules.model.Term> result = new LinkedList<>();
       for (String value : values) {
@@ -0,0 +1,80 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import querqy.model.InputSequenceElement;
+
+public class TermDictionaryTest {
+
+    @Test
+    public void testThatIdsStartAfterReservedIds() {
+        final TermDictionary.Builder builder = new TermDictionary.Builder(2);
+        assertEquals(2, builder.add("a", false));
+        assertEquals(3, builder.add("b", false));
+        assertEquals(2, builder.add("a", false));
+
+        final TermDictionary dictionary = builder.build();
+        assertEquals(4, dictionary.size());
+        assertEquals(2, dictionary.getTermId("a"));
+        assertEquals(3, dictionary.getTermId("b"));
+        assertEquals(TermDictionary.NO_TERM, dictionary.getTermId("c"));
+        assertEquals(TermDictionary.NO_TERM, dictionary.getTermId(""));
+    }
+
+    @Test
+    public void testThatPrefixGetsIdOfItsOwn() {
+        final TermDictionary.Builder builder = new TermDictionary.Builder(0);
+        final int exactId = builder.add("ab", false);
+        final int prefixId = builder.add("ab", true);
+        final int shortPrefixId = builder.add("a", true);
+        assertNotEquals(exactId, prefixId);
+
+        final TermDictionary.Lookup lookup = builder.build().lookup();
+
+        assertTrue(lookup.seek("ab"));
+        assertEquals(exactId, lookup.getTermId());
+        assertEquals(1, lookup.getPrefixCount());
+        assertEquals(shortPrefixId, lookup.getPrefixTermId(0));
+
+        assertTrue(lookup.seek("abc"));
+        assertEquals(TermDictionary.NO_TERM, lookup.getTermId());
+        assertEquals(2, lookup.getPrefixCount());
+        assertEquals(prefixId, lookup.getPrefixTermId(0));
+        assertEquals(1, lookup.getPrefixIndex(0));
+        assertEquals(shortPrefixId, lookup.getPrefixTermId(1));
+        assertEquals(0, lookup.getPrefixIndex(1));
+
+        assertFalse(lookup.seek("b"));
+        assertEquals(TermDictionary.NO_TERM, lookup.getTermId());
+        assertEquals(0, lookup.getPrefixCount());
+    }
+
+    @Test
+    public void testThatTermMatchesOfAhoCorasickRulesCollectionReferenceTermIds() {
+        final AhoCorasickRulesCollectionBuilder builder = new AhoCorasickRulesCollectionBuilder(true);
+        final char[] value = "abc".toCharArray();
+        final Instructions instructions = new Instructions(
+                Collections.singletonList(new RulesCollectionTest.SimpleInstruction("i")));
+        builder.addRule(new Input(Collections.singletonList(new Term(value, 0, value.length, null))),
+                instructions);
+        final AhoCorasickRulesCollection rules = (AhoCorasickRulesCollection) builder.build();
+
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new querqy.model.Term(null, "ABC"));
+
+        final TermMatch match = rules.getRewriteActions(sequence).get(0).getTermMatches().get(0);
+        assertEquals(rules.getTermDictionary().getTermId("abc"), match.getTermId());
+        assertNotEquals(TermDictionary.NO_TERM, match.getTermId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatEmptyTokenCannotBeAdded() {
+        new TermDictionary.Builder(0).add("", false);
+    }
+
+}
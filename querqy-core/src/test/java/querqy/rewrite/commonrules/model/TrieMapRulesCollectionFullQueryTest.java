@@ -0,0 +1,173 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import querqy.model.InputSequenceElement;
+import querqy.model.Term;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+
+public class TrieMapRulesCollectionFullQueryTest {
+
+    static final String FULL_QUERY_RULES = "\"a b\" =>\n"
+            + " DECORATE: ab\n"
+            + "\"c\" =>\n"
+            + " DECORATE: c\n"
+            + "\"f1:d\" =>\n"
+            + " DECORATE: d\n"
+            + "\"\" =>\n"
+            + " DECORATE: empty\n"
+            + "a b\" =>\n"
+            + " DECORATE: ab-right\n"
+            + "b =>\n"
+            + " DECORATE: b\n";
+
+    static final String LEFT_BOUNDARY_RULES = FULL_QUERY_RULES
+            + "\"a =>\n"
+            + " DECORATE: a-left\n"
+            + "\"e* =>\n"
+            + " DECORATE: e-left\n";
+
+    @Test
+    public void testThatFullQueryKeysAreIndexed() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(FULL_QUERY_RULES);
+        assertEquals(4, rules.getNumFullQueryKeys());
+        assertFalse(rules.hasLeftBoundaryOnlyKeys);
+        assertTrue(rules.fullQueryValueIds.containsKey("a b"));
+        assertTrue(rules.fullQueryValueIds.containsKey("c"));
+        assertTrue(rules.fullQueryValueIds.containsKey("f1:d"));
+        assertTrue(rules.fullQueryValueIds.containsKey(""));
+
+        final TrieMapRulesCollection leftBoundaryRules = parse(LEFT_BOUNDARY_RULES);
+        assertEquals(4, leftBoundaryRules.getNumFullQueryKeys());
+        assertTrue(leftBoundaryRules.hasLeftBoundaryOnlyKeys);
+    }
+
+    @Test
+    public void testThatFullQueryRulesMatchOnce() throws Exception {
+        for (final String rulesString : new String[] {FULL_QUERY_RULES, LEFT_BOUNDARY_RULES}) {
+
+            final TrieMapRulesCollection rules = parse(rulesString);
+
+            final List<Action> actions = rules.getRewriteActions(sequence(true, "A", "b"));
+            final List<String> decorations = decorations(actions);
+            assertEquals(1, decorations.stream().filter("ab"::equals).count());
+            assertTrue(decorations.contains("ab-right"));
+            assertTrue(decorations.contains("b"));
+            assertEquals(rulesString == LEFT_BOUNDARY_RULES ? 4 : 3, decorations.size());
+
+            final Action fullQueryAction = actions.get(decorations.indexOf("ab"));
+            assertEquals(0, fullQueryAction.getStartPosition());
+            assertEquals(2, fullQueryAction.getEndPosition());
+            assertEquals(2, fullQueryAction.getTermMatches().size());
+            assertEquals("A", fullQueryAction.getTermMatches().get(0).getQueryTerm().getValue().toString());
+
+            assertEquals("[c]", decorations(rules.getRewriteActions(sequence(true, "c"))).toString());
+            assertEquals("[empty]", decorations(rules.getRewriteActions(sequence(true))).toString());
+            assertFalse(decorations(rules.getRewriteActions(sequence(true, "x", "a", "b"))).contains("ab"));
+            assertFalse(decorations(rules.getRewriteActions(sequence(false, "a", "b"))).contains("ab"));
+            assertFalse(decorations(rules.getRewriteActions(sequence(true, "d"))).contains("d"));
+        }
+    }
+
+    @Test
+    public void testThatFullQueryRulesAreInLookupOrder() throws Exception {
+
+        // the full-query rule comes before the right-boundary rule that ends at the same element, as if it had been
+        // found by the trie walk
+        assertEquals("[b, ab, ab-right]",
+                decorations(parse(FULL_QUERY_RULES).getRewriteActions(sequence(true, "a", "b"))).toString());
+        assertEquals("[a-left, b, ab, ab-right]",
+                decorations(parse(LEFT_BOUNDARY_RULES).getRewriteActions(sequence(true, "a", "b"))).toString());
+    }
+
+    @Test
+    public void testThatLeftBoundaryRulesAreFoundTogetherWithFullQueryRules() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(LEFT_BOUNDARY_RULES);
+
+        assertEquals("[a-left]", decorations(rules.getRewriteActions(sequence(true, "a", "x"))).toString());
+        assertEquals("[e-left]", decorations(rules.getRewriteActions(sequence(true, "eee"))).toString());
+    }
+
+    @Test
+    public void testThatFullQueryRulesMatchPositionsWithAlternatives() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(LEFT_BOUNDARY_RULES);
+
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+        sequence.nextPosition();
+        sequence.addElement(new Term(null, "x"));
+        sequence.addElement(new Term(null, "a"));
+        sequence.nextPosition();
+        sequence.addElement(new Term(null, "b"));
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+
+        final List<String> decorations = decorations(rules.getRewriteActions(sequence));
+        assertEquals(1, decorations.stream().filter("ab"::equals).count());
+        assertTrue(decorations.contains("a-left"));
+    }
+
+    @Test
+    public void testThatFieldNamesArePartOfTheKey() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(FULL_QUERY_RULES);
+
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+        sequence.nextPosition();
+        sequence.addElement(new Term(null, "f1", "d"));
+        sequence.nextPosition();
+        sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+
+        assertEquals("[d]", decorations(rules.getRewriteActions(sequence)).toString());
+    }
+
+    private TrieMapRulesCollection parse(final String rules) throws Exception {
+        return (TrieMapRulesCollection) new SimpleCommonRulesParser(new StringReader(rules),
+                new WhiteSpaceQuerqyParserFactory(), true).parse();
+    }
+
+    private PositionSequence<InputSequenceElement> sequence(final boolean boundaries, final String... terms) {
+        final PositionSequence<InputSequenceElement> sequence = new PositionSequence<>();
+        if (boundaries) {
+            sequence.nextPosition();
+            sequence.addElement(new InputBoundary(InputBoundary.Type.LEFT));
+        }
+        for (final String term : terms) {
+            sequence.nextPosition();
+            sequence.addElement(new Term(null, term));
+        }
+        if (boundaries) {
+            sequence.nextPosition();
+            sequence.addElement(new InputBoundary(InputBoundary.Type.RIGHT));
+        }
+        return sequence;
+    }
+
+    private List<String> decorations(final List<Action> actions) {
+        final List<String> decorations = new ArrayList<>();
+        for (final Action action : actions) {
+            for (final Instructions instructions : action.getInstructions()) {
+                for (final Instruction instruction : instructions) {
+                    decorations.add(((DecorateInstruction) instruction).decorationValue.toString());
+                }
+            }
+        }
+        return decorations;
+    }
+
+}
@@ -0,0 +1,110 @@
+package querqy.rewrite.commonrules.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import querqy.rewrite.commonrules.AbstractCommonRulesTest;
+import querqy.rewrite.commonrules.CommonRulesRewriter;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+
+public class TrieMapRulesCollectionHitStatisticsTest extends AbstractCommonRulesTest {
+
+    static final String RULES = "# comment\n"
+            + "a =>\n"
+            + " SYNONYM: b\n"
+            + "\n"
+            + "\"c d\" =>\n"
+            + " UP(10): e\n"
+            + "f* =>\n"
+            + " DOWN(10): g\n"
+            + "a x =>\n"
+            + " DELETE: x\n";
+
+    @Test
+    public void testThatRulesKeepLineNumbersAndInput() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(false);
+        final List<Instructions> instructions = rules.getRules();
+
+        assertEquals(4, instructions.size());
+        assertEquals(2, instructions.get(0).getLineNumber());
+        assertEquals("a", instructions.get(0).getInput());
+        assertEquals(5, instructions.get(1).getLineNumber());
+        assertEquals("\"c d\"", instructions.get(1).getInput());
+        assertEquals(7, instructions.get(2).getLineNumber());
+        assertEquals("f*", instructions.get(2).getInput());
+        assertEquals(9, instructions.get(3).getLineNumber());
+        assertEquals("a x", instructions.get(3).getInput());
+    }
+
+    @Test
+    public void testThatParallelParsingKeepsLineNumbers() throws Exception {
+
+        final TrieMapRulesCollection rules = (TrieMapRulesCollection) new SimpleCommonRulesParser(
+                new StringReader(RULES), new WhiteSpaceQuerqyParserFactory(), true).parse(ForkJoinPool.commonPool());
+        final List<Instructions> instructions = rules.getRules();
+
+        assertEquals(4, instructions.size());
+        assertEquals(2, instructions.get(0).getLineNumber());
+        assertEquals(9, instructions.get(3).getLineNumber());
+    }
+
+    @Test
+    public void testThatHitsAreCountedIfEnabled() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(true);
+
+        rewrite(rules, "a");
+        rewrite(rules, "a x");
+        rewrite(rules, "c d");
+        rewrite(rules, "y");
+
+        final List<Instructions> instructions = rules.getRules();
+        assertEquals(2L, instructions.get(0).getHitCount());
+        assertEquals(1L, instructions.get(1).getHitCount());
+        assertEquals(0L, instructions.get(2).getHitCount());
+        assertEquals(1L, instructions.get(3).getHitCount());
+
+        rewrite(rules, "fff");
+        assertEquals(1L, instructions.get(2).getHitCount());
+    }
+
+    @Test
+    public void testThatHitsAreNotCountedByDefault() throws Exception {
+
+        final TrieMapRulesCollection rules = parse(false);
+        assertFalse(rules.isHitStatisticsEnabled());
+
+        rewrite(rules, "a");
+
+        assertEquals(0L, rules.getRules().get(0).getHitCount());
+    }
+
+    @Test
+    public void testThatInstructionsWithoutRuleInfoHaveNoLineNumber() {
+        final Instructions instructions = new Instructions();
+        assertEquals(-1, instructions.getLineNumber());
+        assertNull(instructions.getInput());
+    }
+
+    TrieMapRulesCollection parse(final boolean hitStatisticsEnabled) throws Exception {
+        final TrieMapRulesCollection rules = (TrieMapRulesCollection) new SimpleCommonRulesParser(
+                new StringReader(RULES), new WhiteSpaceQuerqyParserFactory(), true).parse();
+        rules.setHitStatisticsEnabled(hitStatisticsEnabled);
+        return rules;
+    }
+
+    void rewrite(final RulesCollection rules, final String query) {
+        new CommonRulesRewriter(rules).rewrite(makeQuery(query), new HashMap<>());
+    }
+
+}
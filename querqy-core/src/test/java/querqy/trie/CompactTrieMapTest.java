@@ -0,0 +1,220 @@
+package querqy.trie;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.junit.Assert.*;
+import static querqy.trie.TrieMapTest.state;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class CompactTrieMapTest {
+
+    @Test
+    public void testThatEmptyMapAlwaysReturnsUnknownState() {
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(new TrieMap<>());
+        State<Integer> state = map.get("abc").getStateForCompleteSequence();
+        assertNotNull(state);
+        assertFalse(state.isKnown());
+        assertFalse(state.isFinal());
+        assertEquals(-1, state.getIndex());
+    }
+
+    @Test
+    public void testThatBlankLookupSequenceAlwaysReturnsUnknownState() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("abc", 1);
+        State<Integer> state = new CompactTrieMap<>(trieMap).get("").getStateForCompleteSequence();
+        assertNotNull(state);
+        assertFalse(state.isKnown());
+        assertFalse(state.isFinal());
+        assertEquals(-1, state.getIndex());
+    }
+
+    @Test
+    public void testThatSubsequenceOfEntryReturnsKnownAndNonFinalState() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("abc", 1);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+
+        assertThat(map.get("a").getStateForCompleteSequence(), state(true, false, 0, null));
+        assertThat(map.get("ab").getStateForCompleteSequence(), state(true, false, 1, null));
+        assertThat(map.get("abc").getStateForCompleteSequence(), state(true, true, 2, 1));
+        assertThat(map.get("ak").getStateForCompleteSequence(), state(false, false, -1, null));
+        assertThat(map.get("abcd").getStateForCompleteSequence(), state(false, false, -1, null));
+    }
+
+    @Test
+    public void testThatSiblingsAreFoundRegardlessOfInsertionOrder() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("ac", 1);
+        trieMap.put("ab", 2);
+        trieMap.put("b", 3);
+        trieMap.put("aa", 4);
+        trieMap.put("ad", 5);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+
+        assertThat(map.get("ac").getStateForCompleteSequence(), state(true, true, 1, 1));
+        assertThat(map.get("ab").getStateForCompleteSequence(), state(true, true, 1, 2));
+        assertThat(map.get("b").getStateForCompleteSequence(), state(true, true, 0, 3));
+        assertThat(map.get("aa").getStateForCompleteSequence(), state(true, true, 1, 4));
+        assertThat(map.get("ad").getStateForCompleteSequence(), state(true, true, 1, 5));
+        assertThat(map.get("ae").getStateForCompleteSequence(), state(false, false, -1, null));
+    }
+
+    @Test
+    public void testResumingFromKnownStates() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("abc", 1);
+        trieMap.put("ab", 2);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+
+        State<Integer> state = map.get("ab").getStateForCompleteSequence();
+        assertThat(state, state(true, true, 1, 2));
+
+        assertThat(map.get("c", state).getStateForCompleteSequence(), state(true, true, 0, 1));
+        assertThat(map.get("d", state).getStateForCompleteSequence(), state(false, false, -1, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatResumingFromUnknownStateThrowsException() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("abc", 1);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+        map.get("abc", map.get("k").getStateForCompleteSequence());
+    }
+
+    @Test
+    public void testGetPrefixes() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.putPrefix("a", 1);
+        trieMap.putPrefix("ab", 2);
+        trieMap.put("ab", 3);
+        trieMap.put("abcd", 4);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+
+        States<Integer> states = map.get("abc");
+        assertThat(states.getStateForCompleteSequence(), state(true, false, 2, null));
+        assertThat(states.getPrefixes(), contains(state(true, true, 1, 2), state(true, true, 0, 1)));
+
+        states = map.get("abx");
+        assertThat(states.getStateForCompleteSequence(), state(false, false, -1, null));
+        assertThat(states.getPrefixes(), contains(state(true, true, 1, 2), state(true, true, 0, 1)));
+
+        states = map.get("ab");
+        assertThat(states.getStateForCompleteSequence(), state(true, true, 1, 3));
+        assertThat(states.getPrefixes(), contains(state(true, true, 0, 1)));
+
+        assertNull(map.get("a").getPrefixes());
+    }
+
+    @Test
+    public void testPrefixIndexWhenResumingWithSpace() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("a", 1);
+        trieMap.putPrefix("a bc", 2);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+
+        States<Integer> states = map.get(" bcd", map.get("a").getStateForCompleteSequence());
+        States<Integer> expected = trieMap.get(" bcd", trieMap.get("a").getStateForCompleteSequence());
+
+        assertThat(states.getPrefixes(), contains(state(true, true, 1, 2)));
+        assertEquals(expected.getPrefixes().get(0).getIndex(), states.getPrefixes().get(0).getIndex());
+    }
+
+    @Test
+    public void testValueIterator() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("11", 1);
+        trieMap.put("12", 2);
+        trieMap.putPrefix("1", 3);
+        trieMap.put("2459", 4);
+        trieMap.putPrefix("245", 5);
+        List<Integer> values = new LinkedList<>();
+        for (Integer v: new CompactTrieMap<>(trieMap)) {
+            values.add(v);
+        }
+
+        assertThat(values, containsInAnyOrder(1, 2, 3, 4, 5));
+    }
+
+    @Test
+    public void testValueIteratorEmptyMap() {
+        Iterator<Integer> it = new CompactTrieMap<Integer>(new TrieMap<>()).iterator();
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail("NoSuchElementException expected");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCursorReportsCompleteSequenceAndPrefixes() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.putPrefix("a", 1);
+        trieMap.putPrefix("ab", 2);
+        trieMap.put("ab", 3);
+        trieMap.put("abcd", 4);
+        TrieCursor<Integer> cursor = new CompactTrieMap<>(trieMap).cursor();
+
+        assertTrue(cursor.seek("abc"));
+        assertFalse(cursor.isFinal());
+        assertNull(cursor.getValue());
+        assertEquals(2, cursor.getIndex());
+        assertEquals(2, cursor.getPrefixCount());
+        assertEquals((Integer) 2, cursor.getPrefixValue(0));
+        assertEquals(1, cursor.getPrefixIndex(0));
+        assertEquals((Integer) 1, cursor.getPrefixValue(1));
+        assertEquals(0, cursor.getPrefixIndex(1));
+
+        // the cursor is reused for the next lookup
+        assertTrue(cursor.seek("ab"));
+        assertTrue(cursor.isFinal());
+        assertEquals((Integer) 3, cursor.getValue());
+        assertEquals(1, cursor.getPrefixCount());
+
+        assertFalse(cursor.seek("x"));
+        assertFalse(cursor.isKnown());
+        assertFalse(cursor.isFinal());
+        assertEquals(-1, cursor.getNode());
+        assertEquals(0, cursor.getPrefixCount());
+    }
+
+    @Test
+    public void testCursorSeekNextWordEqualsLookupWithSpace() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("a", 1);
+        trieMap.put("a b", 2);
+        trieMap.putPrefix("a bc", 3);
+        CompactTrieMap<Integer> map = new CompactTrieMap<>(trieMap);
+        TrieCursor<Integer> cursor = map.cursor();
+
+        assertTrue(cursor.seek("a"));
+        final int node = cursor.getNode();
+
+        assertTrue(cursor.seekNextWord(node, "b"));
+        assertEquals((Integer) 2, cursor.getValue());
+
+        assertFalse(cursor.seekNextWord(node, "bcd"));
+        States<Integer> expected = map.get(" bcd", map.get("a").getStateForCompleteSequence());
+        assertEquals(1, cursor.getPrefixCount());
+        assertEquals((Integer) 3, cursor.getPrefixValue(0));
+        assertEquals(expected.getPrefixes().get(0).getIndex(), cursor.getPrefixIndex(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testThatCursorDoesNotReturnPrefixBeyondPrefixCount() {
+        TrieMap<Integer> trieMap = new TrieMap<>();
+        trieMap.put("abc", 1);
+        TrieCursor<Integer> cursor = new CompactTrieMap<>(trieMap).cursor();
+        cursor.seek("abc");
+        cursor.getPrefixValue(0);
+    }
+
+}
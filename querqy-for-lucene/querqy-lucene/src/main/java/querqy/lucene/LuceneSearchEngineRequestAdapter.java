@@ -5,6 +5,8 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import querqy.rewrite.SearchEngineRequestAdapter;
 import querqy.lucene.rewrite.SearchFieldsAndBoosting.FieldBoostModel;
+import querqy.lucene.rewrite.TermStatsCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
 import querqy.lucene.rewrite.cache.TermQueryCache;
 import querqy.model.ExpandedQuery;
 import querqy.model.QuerqyQuery;
@@ -65,6 +67,44 @@ public interface LuceneSearchEngineRequestAdapter extends SearchEngineRequestAda
      */
     Optional<TermQueryCache> getTermQueryCache();
 
+    /**
+     * <p>Get an optional {@link TermStatsCache}.</p>
+     *
+     * <p>If a cache is returned, the document frequency correction (see {@link QuerySimilarityScoring#DFC}) of the
+     * user query and the PRMS field boost model take the term statistics from this cache instead of reading them
+     * from the index for each request.</p>
+     *
+     * @return The optional TermStatsCache
+     */
+    default Optional<TermStatsCache> getTermStatsCache() {
+        return Optional.empty();
+    }
+
+    /**
+     * <p>Get an optional {@link LuceneQueriesCache}.</p>
+     *
+     * <p>If a cache is returned, {@link QueryParsingController} will look up the {@link LuceneQueries} in the cache
+     * using the query string, the key returned by {@link #getLuceneQueriesCacheKey()} and the cache key of the
+     * rewrite chain. Requests for debug information are never served from the cache.</p>
+     *
+     * @return The optional LuceneQueriesCache
+     */
+    default Optional<LuceneQueriesCache> getLuceneQueriesCache() {
+        return Optional.empty();
+    }
+
+    /**
+     * <p>Get the part of the {@link LuceneQueriesCache} key that represents the request parameters.</p>
+     *
+     * <p>The key must capture all request parameters that influence the queries created by
+     * {@link QueryParsingController}, apart from the query string. It must implement equals() and hashCode().</p>
+     *
+     * @return The key, or an empty Optional if the queries of this request must not be cached
+     */
+    default Optional<Object> getLuceneQueriesCacheKey() {
+        return Optional.empty();
+    }
+
     /**
      * <p>Should Querqy boost queries be added to the main query?</p>
      *
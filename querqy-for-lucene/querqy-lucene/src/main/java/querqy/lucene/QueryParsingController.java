@@ -17,6 +17,8 @@ import querqy.lucene.rewrite.LuceneTermQueryBuilder;
 import querqy.lucene.rewrite.SearchFieldsAndBoosting;
 import querqy.lucene.rewrite.SearchFieldsAndBoosting.FieldBoostModel;
 import querqy.lucene.rewrite.TermQueryBuilder;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCacheValue;
 import querqy.model.BoostQuery;
 import querqy.model.ExpandedQuery;
 import querqy.model.MatchAllQuery;
@@ -26,12 +28,14 @@ import querqy.parser.QuerqyParser;
 import querqy.parser.WhiteSpaceQuerqyParser;
 import querqy.rewrite.ContextAwareQueryRewriter;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
@@ -115,7 +119,8 @@ public class QueryParsingController {
                         : FieldBoostModel.FIXED,
                 queryFieldsAndBoostings,
                 generatedQueryFieldsAndBoostings,
-                gfb);
+                gfb,
+                requestAdapter.getTermStatsCache().orElse(null));
 
         if (!needsScores) {
             addQuerqyBoostQueriesToMainQuery = true;
@@ -129,7 +134,10 @@ public class QueryParsingController {
 
             final QuerySimilarityScoring userQuerySimilarityScoring = requestAdapter.getUserQuerySimilarityScoring()
                     .orElse(DEFAULT_USER_QUERY_SIMILARITY_SCORING);
-            final TermQueryBuilder userTermQueryBuilder = userQuerySimilarityScoring.createTermQueryBuilder(null);
+            final TermQueryBuilder userTermQueryBuilder = userQuerySimilarityScoring.createTermQueryBuilder(
+                    userQuerySimilarityScoring == QuerySimilarityScoring.DFC
+                            ? new DocumentFrequencyCorrection(requestAdapter.getTermStatsCache().orElse(null))
+                            : null);
             dfc = userTermQueryBuilder.getDocumentFrequencyCorrection().orElse(null);
 
             final QuerySimilarityScoring boostQuerySimilarityScoring = requestAdapter.getBoostQuerySimilarityScoring()
@@ -158,6 +166,50 @@ public class QueryParsingController {
 
     public LuceneQueries process() throws SyntaxException {
 
+        final LuceneQueriesCache luceneQueriesCache = requestAdapter.getLuceneQueriesCache().orElse(null);
+        if (luceneQueriesCache == null) {
+            return createLuceneQueries();
+        }
+
+        final List<Object> cacheKey = createLuceneQueriesCacheKey();
+        if (cacheKey == null) {
+            return createLuceneQueries();
+        }
+
+        final LuceneQueriesCacheValue cached = luceneQueriesCache.get(cacheKey);
+        if (cached != null) {
+            return cached.apply(requestAdapter.getContext());
+        }
+
+        final LuceneQueries luceneQueries = createLuceneQueries();
+        luceneQueriesCache.put(cacheKey, new LuceneQueriesCacheValue(luceneQueries, requestAdapter.getContext()));
+        return luceneQueries;
+
+    }
+
+    /**
+     * @return The key for the {@link LuceneQueriesCache} or null if the queries of this request cannot be cached
+     */
+    protected List<Object> createLuceneQueriesCacheKey() {
+
+        // only cache if we can capture all context entries that the rewriters create
+        if (debugQuery || !requestAdapter.getContext().isEmpty()) {
+            return null;
+        }
+
+        final Optional<Object> requestKey = requestAdapter.getLuceneQueriesCacheKey();
+        if (!requestKey.isPresent()) {
+            return null;
+        }
+
+        final List<Object> key = new ArrayList<>();
+        key.add(queryString);
+        key.add(requestKey.get());
+        return requestAdapter.getRewriteChain().addToCacheKey(requestAdapter, key) ? key : null;
+
+    }
+
+    protected LuceneQueries createLuceneQueries() throws SyntaxException {
 
         final ExpandedQuery parsedInput;
         if (requestAdapter.isMatchAllQuery(queryString)) {
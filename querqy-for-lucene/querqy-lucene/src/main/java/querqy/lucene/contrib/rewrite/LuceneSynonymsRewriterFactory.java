@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.ParseException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,6 +23,7 @@ import querqy.model.ExpandedQuery;
 import querqy.model.Term;
 import querqy.rewrite.QueryRewriter;
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 
 /**
  * @author rene
@@ -71,4 +73,10 @@ public class LuceneSynonymsRewriterFactory implements RewriterFactory {
         return QueryRewriter.EMPTY_GENERABLE_TERMS;
     }
 
+    @Override
+    public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                        final List<Object> key) {
+        return true;
+    }
+
 }
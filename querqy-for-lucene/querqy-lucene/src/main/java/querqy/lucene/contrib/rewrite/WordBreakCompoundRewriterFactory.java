@@ -6,6 +6,7 @@ import querqy.model.ExpandedQuery;
 import querqy.model.Term;
 import querqy.rewrite.QueryRewriter;
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 import querqy.trie.TrieMap;
 
 import java.util.List;
@@ -94,6 +95,21 @@ public class WordBreakCompoundRewriterFactory implements RewriterFactory {
                 verifyDecompundCollation);
     }
 
+    /**
+     * The rewriting depends on the terms in the index. Rewrite results are cached per index reader, using the reader's
+     * cache key, and not cached at all for readers that don't provide a cache key.
+     */
+    @Override
+    public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                        final List<Object> key) {
+        final IndexReader.CacheHelper cacheHelper = indexReaderSupplier.get().getReaderCacheHelper();
+        if (cacheHelper == null) {
+            return false;
+        }
+        key.add(cacheHelper.getKey());
+        return true;
+    }
+
     @Override
     public Set<Term> getGenerableTerms() {
         return QueryRewriter.EMPTY_GENERABLE_TERMS;
@@ -5,6 +5,7 @@ import org.apache.lucene.index.*;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Created by rene on 10/09/2016.
@@ -17,13 +18,38 @@ public class DocumentFrequencyCorrection {
     }
 
     protected final List<Integer> clauseOffsets = new ArrayList<>();
-    TermStats termStats = null;
+    // can be read by several threads once the query is shared via a LuceneQueriesCache
+    volatile TermStats termStats = null;
     protected int endUserQuery = -1;
     protected Status status = Status.USER_QUERY;
     protected int maxInClause = -1;
     protected int maxInUserQuery = -1;
     int termIndex = -1;
+    protected final TermStatsCache termStatsCache;
+    protected final Executor executor;
 
+    public DocumentFrequencyCorrection() {
+        this(null);
+    }
+
+    /**
+     * @param termStatsCache A cache for the statistics of the terms across requests or null if the statistics shall
+     *                       always be read from the index
+     */
+    public DocumentFrequencyCorrection(final TermStatsCache termStatsCache) {
+        this(termStatsCache, null);
+    }
+
+    /**
+     * @param termStatsCache A cache for the statistics of the terms across requests or null if the statistics shall
+     *                       always be read from the index
+     * @param executor An executor to look up the terms in the index segments in parallel (usually the executor of the
+     *                 IndexSearcher) or null to look them up in the calling thread
+     */
+    public DocumentFrequencyCorrection(final TermStatsCache termStatsCache, final Executor executor) {
+        this.termStatsCache = termStatsCache;
+        this.executor = executor;
+    }
 
     protected TermStats doCalculateTermContexts(final IndexReaderContext indexReaderContext)
             throws IOException {
@@ -31,28 +57,21 @@ public class DocumentFrequencyCorrection {
         final int[] dfs = new int[terms.size()];
         final TermContext[] contexts = new TermContext[dfs.length];
 
-        for (int i = 0; i < dfs.length; i++) {
-
-            final Term term = terms.get(i);
-
-            contexts[i] = new TermContext(indexReaderContext);
+        final Term[] termArray = terms.toArray(new Term[dfs.length]);
+        final TermStatsCache.Stats[] stats = (termStatsCache == null)
+                ? TermStatsCache.Stats.collect(indexReaderContext, termArray, executor)
+                : termStatsCache.get(indexReaderContext, termArray, executor);
 
-            for (final LeafReaderContext ctx : indexReaderContext.leaves()) {
-
-                final Terms terms = ctx.reader().terms(term.field());
-                if (terms != null) {
-                    final TermsEnum termsEnum = terms.iterator();
-                    if (termsEnum.seekExact(term.bytes())) {
-                        final TermState termState = termsEnum.termState();
-                        final int df = termsEnum.docFreq();
-                        dfs[i] = dfs[i] + df;
-                        contexts[i].register(termState, ctx.ord, df, -1);
-                    }
-                }
-
-            }
+        for (int i = 0; i < dfs.length; i++) {
+            // the TermContext will be modified below, it must not be shared
+            contexts[i] = stats[i].newTermContext(indexReaderContext);
+            dfs[i] = stats[i].getDocFreq();
         }
 
+        // Don't modify the state that was built up while creating the query: the statistics can be calculated more
+        // than once (for another reader or by concurrent searches over a cached query)
+        int maxInUserQuery = this.maxInUserQuery;
+
         for (int i = 0, last = clauseOffsets.size() - 1; i <= last; i++) {
             final int start = clauseOffsets.get(i);
             final int end = (i == last) ? terms.size() : clauseOffsets.get(i + 1);
@@ -122,13 +141,17 @@ public class DocumentFrequencyCorrection {
     protected TermStats calculateTermContexts(final IndexReaderContext indexReaderContext)
             throws IOException {
 
-        return setTermStats(doCalculateTermContexts(indexReaderContext));
-
-    }
+        // The weights of the term queries can be created concurrently (by an IndexSearcher with an executor or by
+        // concurrent searches over a cached query). Only the first of them calculates the statistics for a reader.
+        synchronized (this) {
+            TermStats ts = termStats;
+            if (ts == null || ts.topReaderContext != indexReaderContext) {
+                ts = doCalculateTermContexts(indexReaderContext);
+                termStats = ts;
+            }
+            return ts;
+        }
 
-    private synchronized TermStats setTermStats(final TermStats ts) {
-        this.termStats = ts;
-        return this.termStats;
     }
 
     public void newClause() {
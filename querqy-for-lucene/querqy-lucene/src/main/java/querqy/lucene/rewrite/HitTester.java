@@ -0,0 +1,135 @@
+package querqy.lucene.rewrite;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+
+/**
+ * <p>Tests whether the query created by a {@link LuceneQueryFactory} matches at least one document without executing
+ * a search.</p>
+ *
+ * <p>Term queries are looked up in the term dictionary. Disjunctions match if one of their clauses matches.
+ * Conjunctions don't match if one of their clauses doesn't match. Otherwise their documents are iterated without
+ * scoring until the first live document is found.</p>
+ */
+public class HitTester {
+
+    private HitTester() {}
+
+    public static boolean hasHits(final IndexSearcher searcher, final LuceneQueryFactory<?> queryFactory)
+            throws IOException {
+
+        if (queryFactory instanceof NeverMatchQueryFactory) {
+            return false;
+        }
+
+        if (queryFactory instanceof TermQueryFactory) {
+            return hasHits(searcher, ((TermQueryFactory) queryFactory).term);
+        }
+
+        if (queryFactory instanceof DisjunctionMaxQueryFactory) {
+            for (final LuceneQueryFactory<?> disjunct : ((DisjunctionMaxQueryFactory) queryFactory).disjuncts) {
+                if (hasHits(searcher, disjunct)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (queryFactory instanceof BooleanQueryFactory) {
+            boolean isConjunction = true;
+            for (final BooleanQueryFactory.Clause clause : ((BooleanQueryFactory) queryFactory).getClauses()) {
+                if (clause.occur == Occur.MUST || clause.occur == Occur.FILTER) {
+                    if (!hasHits(searcher, clause.queryFactory)) {
+                        return false;
+                    }
+                } else {
+                    isConjunction = false;
+                }
+            }
+            if (isConjunction && ((BooleanQueryFactory) queryFactory).getNumberOfClauses() == 1) {
+                return true;
+            }
+        }
+
+        return hasHits(searcher, queryFactory.createQuery(ConstantFieldBoost.NORM_BOOST, 0f,
+                new LuceneTermQueryBuilder()));
+
+    }
+
+    /**
+     * Looks up the term in the term dictionaries of the index segments.
+     */
+    public static boolean hasHits(final IndexSearcher searcher, final Term term) throws IOException {
+
+        for (final LeafReaderContext context : searcher.getIndexReader().leaves()) {
+
+            final LeafReader reader = context.reader();
+            final Terms terms = reader.terms(term.field());
+            if (terms == null) {
+                continue;
+            }
+
+            final TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term.bytes())) {
+                continue;
+            }
+
+            final Bits liveDocs = reader.getLiveDocs();
+            if (liveDocs == null) {
+                return true;
+            }
+
+            // the doc freq includes deleted documents
+            final PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+            if (hasLiveDoc(postings, liveDocs)) {
+                return true;
+            }
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Iterates over the documents that match the query without scoring until the first live document is found.
+     */
+    public static boolean hasHits(final IndexSearcher searcher, final Query query) throws IOException {
+
+        final Weight weight = searcher.createNormalizedWeight(query, false);
+
+        for (final LeafReaderContext context : searcher.getIndexReader().leaves()) {
+
+            final Scorer scorer = weight.scorer(context);
+            if (scorer != null && hasLiveDoc(scorer.iterator(), context.reader().getLiveDocs())) {
+                return true;
+            }
+
+        }
+
+        return false;
+    }
+
+    private static boolean hasLiveDoc(final DocIdSetIterator iterator, final Bits liveDocs) throws IOException {
+        for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+            if (liveDocs == null || liveDocs.get(doc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
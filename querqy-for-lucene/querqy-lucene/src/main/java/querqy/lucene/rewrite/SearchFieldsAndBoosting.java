@@ -23,11 +23,28 @@ public class SearchFieldsAndBoosting {
     final Map<String, Float> queryFieldsAndBoostings;
     final Map<String, Float> generatedQueryFieldsAndBoostings;
     final FieldBoostModel fieldBoostModel;
+    final TermStatsCache termStatsCache;
     
     public SearchFieldsAndBoosting(final FieldBoostModel fieldBoostModel,
                                    final Map<String, Float> queryFieldsAndBoostings,
                                    final Map<String, Float> generatedQueryFieldsAndBoostings,
                                    final float defaultGeneratedFieldBoostFactor) {
+        this(fieldBoostModel, queryFieldsAndBoostings, generatedQueryFieldsAndBoostings,
+                defaultGeneratedFieldBoostFactor, null);
+    }
+
+    /**
+     * @param fieldBoostModel The field boost model
+     * @param queryFieldsAndBoostings The query fields and their boost factors
+     * @param generatedQueryFieldsAndBoostings The query fields and boost factors for generated terms
+     * @param defaultGeneratedFieldBoostFactor The boost factor for generated terms in fields that have no boost factor
+     * @param termStatsCache A cache for the term statistics that are needed by the PRMS field boost model or null
+     */
+    public SearchFieldsAndBoosting(final FieldBoostModel fieldBoostModel,
+                                   final Map<String, Float> queryFieldsAndBoostings,
+                                   final Map<String, Float> generatedQueryFieldsAndBoostings,
+                                   final float defaultGeneratedFieldBoostFactor,
+                                   final TermStatsCache termStatsCache) {
         if (fieldBoostModel == null) {
             throw new IllegalArgumentException("FieldBoostModel must not be null");
         }
@@ -35,11 +52,12 @@ public class SearchFieldsAndBoosting {
         this.queryFieldsAndBoostings = queryFieldsAndBoostings;
         this.generatedQueryFieldsAndBoostings = generatedQueryFieldsAndBoostings;
         this.defaultGeneratedFieldBoostFactor = defaultGeneratedFieldBoostFactor;
+        this.termStatsCache = termStatsCache;
     }
 
     public SearchFieldsAndBoosting withFieldBoostModel(final FieldBoostModel newModel) {
         return new SearchFieldsAndBoosting(newModel, queryFieldsAndBoostings, generatedQueryFieldsAndBoostings,
-                defaultGeneratedFieldBoostFactor);
+                defaultGeneratedFieldBoostFactor, termStatsCache);
     }
     
     public boolean hasSearchField(String searchField, Term term) {
@@ -83,7 +101,7 @@ public class SearchFieldsAndBoosting {
 
                 case NONE: return ConstantFieldBoost.NORM_BOOST;
 
-                case PRMS: return new PRMSFieldBoost();
+                case PRMS: return new PRMSFieldBoost(termStatsCache);
 
                 default: throw new IllegalStateException("Unknown FieldBoostModel: " + fieldBoostModel);
 
@@ -0,0 +1,396 @@
+package querqy.lucene.rewrite;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import querqy.StripedLruCache;
+
+/**
+ * <p>A cache of the per-segment term states and document frequencies that {@link DocumentFrequencyCorrection} needs
+ * to build the {@link TermContext}s of a query, and of the total term frequencies that the PRMS field boost model
+ * ({@link querqy.lucene.rewrite.prms.PRMSFieldBoost}) needs.</p>
+ *
+ * <p>Collecting these statistics requires to seek each term in each segment, which is repeated for the same terms
+ * over and over again although the statistics only change when the index reader changes. The cache keeps the
+ * statistics per top-level {@link IndexReader}. The entries of a reader are evicted when the reader is closed.
+ * Readers that don't provide a {@link IndexReader#getReaderCacheHelper()} are not cached.</p>
+ *
+ * <p>The number of terms per reader is bounded, the least recently used terms are evicted first. The cache can be
+ * used by concurrent requests.</p>
+ */
+public class TermStatsCache {
+
+    final int maxTermsPerReader;
+    final Map<IndexReader.CacheKey, ReaderStats> readers = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxTermsPerReader The max. number of terms to keep per index reader
+     */
+    public TermStatsCache(final int maxTermsPerReader) {
+        if (maxTermsPerReader < 1) {
+            throw new IllegalArgumentException("maxTermsPerReader must be > 0");
+        }
+        this.maxTermsPerReader = maxTermsPerReader;
+    }
+
+    /**
+     * Get the statistics of a term, looking them up in the index if they aren't cached yet.
+     *
+     * @param indexReaderContext The top-level reader context
+     * @param term The term
+     * @return The statistics
+     * @throws IOException if the statistics cannot be read from the index
+     */
+    public Stats get(final IndexReaderContext indexReaderContext, final Term term) throws IOException {
+
+        final ReaderStats readerStats = getReaderStats(indexReaderContext.reader());
+        if (readerStats == null) {
+            return Stats.collect(indexReaderContext, term);
+        }
+
+        Stats stats = readerStats.get(term);
+        if (stats == null) {
+            // concurrent requests might collect the same statistics, which is cheaper than blocking them
+            stats = Stats.collect(indexReaderContext, term);
+            readerStats.put(term, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Get the statistics of a batch of terms. The statistics of the terms that aren't cached yet are collected using
+     * {@link Stats#collect(IndexReaderContext, Term[], Executor)}.
+     *
+     * @param indexReaderContext The top-level reader context
+     * @param terms The terms
+     * @param executor The executor to visit the segments in parallel or null
+     * @return The statistics, in the order of the terms
+     * @throws IOException if the statistics cannot be read from the index
+     */
+    public Stats[] get(final IndexReaderContext indexReaderContext, final Term[] terms, final Executor executor)
+            throws IOException {
+
+        final ReaderStats readerStats = getReaderStats(indexReaderContext.reader());
+        if (readerStats == null) {
+            return Stats.collect(indexReaderContext, terms, executor);
+        }
+
+        final Stats[] stats = new Stats[terms.length];
+        final int[] missing = new int[terms.length];
+        int numMissing = 0;
+        for (int i = 0; i < terms.length; i++) {
+            stats[i] = readerStats.get(terms[i]);
+            if (stats[i] == null) {
+                missing[numMissing++] = i;
+            }
+        }
+
+        if (numMissing > 0) {
+            final Term[] missingTerms = new Term[numMissing];
+            for (int i = 0; i < numMissing; i++) {
+                missingTerms[i] = terms[missing[i]];
+            }
+            final Stats[] collected = Stats.collect(indexReaderContext, missingTerms, executor);
+            for (int i = 0; i < numMissing; i++) {
+                stats[missing[i]] = collected[i];
+                readerStats.put(missingTerms[i], collected[i]);
+            }
+        }
+
+        return stats;
+    }
+
+    protected ReaderStats getReaderStats(final IndexReader reader) {
+
+        final IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+
+        final IndexReader.CacheKey key = cacheHelper.getKey();
+        ReaderStats readerStats = readers.get(key);
+        if (readerStats == null) {
+            final ReaderStats newReaderStats = new ReaderStats(maxTermsPerReader);
+            readerStats = readers.putIfAbsent(key, newReaderStats);
+            if (readerStats == null) {
+                readerStats = newReaderStats;
+                cacheHelper.addClosedListener(readers::remove);
+            }
+        }
+        return readerStats;
+    }
+
+    /**
+     * Get the sum of the total term frequencies of all terms in a field.
+     *
+     * @param reader The top-level reader
+     * @param field The field name
+     * @return The sum of the total term frequencies or -1 if the codec doesn't provide it
+     * @throws IOException if the statistics cannot be read from the index
+     */
+    public long getSumTotalTermFreq(final IndexReader reader, final String field) throws IOException {
+
+        final ReaderStats readerStats = getReaderStats(reader);
+        if (readerStats == null) {
+            return reader.getSumTotalTermFreq(field);
+        }
+
+        Long sumTotalTermFreq = readerStats.sumTotalTermFreqs.get(field);
+        if (sumTotalTermFreq == null) {
+            sumTotalTermFreq = reader.getSumTotalTermFreq(field);
+            readerStats.sumTotalTermFreqs.put(field, sumTotalTermFreq);
+        }
+        return sumTotalTermFreq;
+    }
+
+    /**
+     * @return The number of index readers for which statistics are cached
+     */
+    public int getNumReaders() {
+        return readers.size();
+    }
+
+    /**
+     * @param reader The top-level reader
+     * @return The number of terms cached for this reader
+     */
+    public int size(final IndexReader reader) {
+        final IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        final ReaderStats readerStats = cacheHelper == null ? null : readers.get(cacheHelper.getKey());
+        return readerStats == null ? 0 : readerStats.size();
+    }
+
+    /**
+     * The statistics of a term in the segments that contain the term. Stats are immutable, the {@link TermState}s
+     * must not be modified.
+     */
+    public static class Stats {
+
+        static final int[] NO_ORDS = new int[0];
+        static final TermState[] NO_STATES = new TermState[0];
+
+        final int docFreq;
+        final long totalTermFreq;
+        final int[] leafOrds;
+        final TermState[] termStates;
+        final int[] leafDocFreqs;
+
+        Stats(final int docFreq, final long totalTermFreq, final int[] leafOrds, final TermState[] termStates,
+              final int[] leafDocFreqs) {
+            this.docFreq = docFreq;
+            this.totalTermFreq = totalTermFreq;
+            this.leafOrds = leafOrds;
+            this.termStates = termStates;
+            this.leafDocFreqs = leafDocFreqs;
+        }
+
+        /**
+         * Seek the term in all segments.
+         *
+         * @param indexReaderContext The top-level reader context
+         * @param term The term
+         * @return The statistics of the term
+         * @throws IOException if the statistics cannot be read from the index
+         */
+        public static Stats collect(final IndexReaderContext indexReaderContext, final Term term) throws IOException {
+            return collect(indexReaderContext, new Term[] {term}, null)[0];
+        }
+
+        /**
+         * <p>Seek a batch of terms in all segments.</p>
+         *
+         * <p>The terms are sorted by field and value so that each segment only needs one {@link TermsEnum} per field
+         * and the seeks move forward through the term dictionary. If an executor is passed, the segments are
+         * visited in parallel.</p>
+         *
+         * @param indexReaderContext The top-level reader context
+         * @param terms The terms. The same term can occur more than once.
+         * @param executor The executor to visit the segments in parallel or null to visit them in the calling thread
+         * @return The statistics of the terms, in the order of the terms
+         * @throws IOException if the statistics cannot be read from the index
+         */
+        public static Stats[] collect(final IndexReaderContext indexReaderContext, final Term[] terms,
+                                      final Executor executor) throws IOException {
+
+            final Integer[] order = new Integer[terms.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> terms[i1].compareTo(terms[i2]));
+
+            final List<LeafReaderContext> leaves = indexReaderContext.leaves();
+            final TermState[][] leafStates = new TermState[leaves.size()][terms.length];
+            final int[][] leafDfs = new int[leaves.size()][terms.length];
+            final long[][] leafTtfs = new long[leaves.size()][terms.length];
+
+            if (executor == null || leaves.size() < 2) {
+                for (int i = 0; i < leafStates.length; i++) {
+                    seek(leaves.get(i), terms, order, leafStates[i], leafDfs[i], leafTtfs[i]);
+                }
+            } else {
+                final List<FutureTask<Void>> tasks = new ArrayList<>(leaves.size());
+                for (int i = 0; i < leafStates.length; i++) {
+                    final int leaf = i;
+                    final FutureTask<Void> task = new FutureTask<>(() -> {
+                        seek(leaves.get(leaf), terms, order, leafStates[leaf], leafDfs[leaf], leafTtfs[leaf]);
+                        return null;
+                    });
+                    tasks.add(task);
+                    executor.execute(task);
+                }
+                for (final FutureTask<Void> task : tasks) {
+                    try {
+                        task.get();
+                    } catch (final InterruptedException e) {
+                        throw new ThreadInterruptedException(e);
+                    } catch (final ExecutionException e) {
+                        final Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+
+            final Stats[] stats = new Stats[terms.length];
+            for (int k = 0; k < order.length; k++) {
+                final int termIdx = order[k];
+                if (k > 0 && terms[order[k - 1]].equals(terms[termIdx])) {
+                    stats[termIdx] = stats[order[k - 1]];
+                } else {
+                    stats[termIdx] = newStats(termIdx, leaves, leafStates, leafDfs, leafTtfs);
+                }
+            }
+
+            return stats;
+        }
+
+        static void seek(final LeafReaderContext leaf, final Term[] terms, final Integer[] order,
+                         final TermState[] states, final int[] dfs, final long[] ttfs) throws IOException {
+
+            String field = null;
+            TermsEnum termsEnum = null;
+            Term previous = null;
+
+            for (final int termIdx : order) {
+
+                final Term term = terms[termIdx];
+
+                if (!term.field().equals(field)) {
+                    field = term.field();
+                    final Terms fieldTerms = leaf.reader().terms(field);
+                    termsEnum = fieldTerms == null ? null : fieldTerms.iterator();
+                    previous = null;
+                }
+
+                // duplicates are handled when the Stats are created
+                if (termsEnum != null && !term.equals(previous)) {
+                    if (termsEnum.seekExact(term.bytes())) {
+                        states[termIdx] = termsEnum.termState();
+                        dfs[termIdx] = termsEnum.docFreq();
+                        ttfs[termIdx] = termsEnum.totalTermFreq();
+                    }
+                    previous = term;
+                }
+            }
+        }
+
+        static Stats newStats(final int termIdx, final List<LeafReaderContext> leaves, final TermState[][] leafStates,
+                              final int[][] leafDfs, final long[][] leafTtfs) {
+
+            int numLeaves = 0;
+            for (final TermState[] states : leafStates) {
+                if (states[termIdx] != null) {
+                    numLeaves++;
+                }
+            }
+
+            if (numLeaves == 0) {
+                return new Stats(0, 0L, NO_ORDS, NO_STATES, NO_ORDS);
+            }
+
+            int docFreq = 0;
+            long totalTermFreq = 0L;
+            final int[] leafOrds = new int[numLeaves];
+            final TermState[] termStates = new TermState[numLeaves];
+            final int[] leafDocFreqs = new int[numLeaves];
+
+            for (int i = 0, j = 0; i < leafStates.length; i++) {
+                final TermState state = leafStates[i][termIdx];
+                if (state != null) {
+                    leafOrds[j] = leaves.get(i).ord;
+                    termStates[j] = state;
+                    leafDocFreqs[j] = leafDfs[i][termIdx];
+                    docFreq += leafDocFreqs[j];
+                    // like IndexReader.totalTermFreq(): -1 if any segment doesn't know the total term freq
+                    final long ttf = leafTtfs[i][termIdx];
+                    totalTermFreq = (ttf == -1L || totalTermFreq == -1L) ? -1L : totalTermFreq + ttf;
+                    j++;
+                }
+            }
+
+            return new Stats(docFreq, totalTermFreq, leafOrds, termStates, leafDocFreqs);
+        }
+
+        /**
+         * Create a new {@link TermContext} from these statistics. The TermContext can be modified by the caller.
+         *
+         * @param indexReaderContext The top-level reader context from which the statistics were collected
+         * @return The TermContext
+         */
+        public TermContext newTermContext(final IndexReaderContext indexReaderContext) {
+            final TermContext termContext = new TermContext(indexReaderContext);
+            for (int i = 0; i < leafOrds.length; i++) {
+                termContext.register(termStates[i], leafOrds[i], leafDocFreqs[i], -1);
+            }
+            return termContext;
+        }
+
+        /**
+         * @return The document frequency of the term over all segments
+         */
+        public int getDocFreq() {
+            return docFreq;
+        }
+
+        /**
+         * @return The total term frequency of the term over all segments or -1 if the codec doesn't provide it
+         */
+        public long getTotalTermFreq() {
+            return totalTermFreq;
+        }
+
+    }
+
+    /**
+     * The cached statistics of a single reader.
+     */
+    static class ReaderStats extends StripedLruCache<Term, Stats> {
+
+        final Map<String, Long> sumTotalTermFreqs = new ConcurrentHashMap<>();
+
+        ReaderStats(final int maxSize) {
+            super(maxSize);
+        }
+    }
+
+}
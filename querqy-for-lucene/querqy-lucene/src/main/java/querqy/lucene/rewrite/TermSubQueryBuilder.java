@@ -62,7 +62,23 @@ public class TermSubQueryBuilder {
             cacheKey = null;
         }
         
-        final LuceneQueryFactoryAndPRMSQuery root;
+        final LuceneQueryFactoryAndPRMSQuery root = analyze(fieldname, sourceTerm);
+
+        putQueryFactoryAndPRMSQueryIntoCache(cacheKey, root);
+        
+        return root == null ? null : new TermSubQueryFactory(root, boost);
+    }
+
+    /**
+     * Analyzes the term for the given field without looking up or updating the cache.
+     *
+     * @param fieldname The field name
+     * @param sourceTerm The term
+     * @return The query factory and PRMS query for the analyzed term or null if the analysis didn't produce any tokens
+     * @throws IOException if the analysis fails
+     */
+    public LuceneQueryFactoryAndPRMSQuery analyze(final String fieldname, final Term sourceTerm) throws IOException {
+
         TokenStream ts = null;
         try {
            
@@ -82,7 +98,7 @@ public class TermSubQueryBuilder {
                sequence.addElement(new org.apache.lucene.index.Term(fieldname, new BytesRef(termAttr)));
            }
            
-           root = positionSequenceToQueryFactoryAndPRMS(sequence);
+           return positionSequenceToQueryFactoryAndPRMS(sequence);
 
         } finally {
            if (ts != null) {
@@ -92,10 +108,6 @@ public class TermSubQueryBuilder {
                }
            }
         }
-
-        putQueryFactoryAndPRMSQueryIntoCache(cacheKey, root);
-        
-        return root == null ? null : new TermSubQueryFactory(root, boost);
     }
 
     protected void putQueryFactoryAndPRMSQueryIntoCache(final CacheKey cacheKey, final LuceneQueryFactoryAndPRMSQuery value) {
@@ -0,0 +1,19 @@
+package querqy.lucene.rewrite.cache;
+
+import querqy.lucene.LuceneQueries;
+
+/**
+ * <p>A cache of the {@link LuceneQueries} that {@link querqy.lucene.QueryParsingController} creates for a request.</p>
+ *
+ * <p>The cached queries are only valid for the index reader that they were created for, as
+ * {@link querqy.lucene.rewrite.DocumentFrequencyCorrection} and the term query cache keep statistics of that reader.
+ * Implementations must make sure that the cache is cleared or replaced when the index reader changes (for example,
+ * by using a cache per searcher).</p>
+ */
+public interface LuceneQueriesCache {
+
+    void put(Object key, LuceneQueriesCacheValue value);
+
+    LuceneQueriesCacheValue get(Object key);
+
+}
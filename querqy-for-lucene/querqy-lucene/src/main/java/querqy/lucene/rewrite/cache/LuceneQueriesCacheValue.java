@@ -0,0 +1,48 @@
+package querqy.lucene.rewrite.cache;
+
+import querqy.lucene.LuceneQueries;
+import querqy.rewrite.RewriteCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The {@link LuceneQueries} of a request together with the entries that query rewriting put into the request
+ * context.</p>
+ *
+ * <p>The Lucene queries are shared between all requests that hit the cache entry. They must not be modified. Only the
+ * lists of filter and boost queries are copied for each request, as search components might add to them.</p>
+ */
+public class LuceneQueriesCacheValue {
+
+    final LuceneQueries luceneQueries;
+    final Map<String, Object> contextEntries;
+
+    /**
+     * @param luceneQueries The queries that were created for a request
+     * @param context The request context after the queries were created. It must have been empty before query
+     *                rewriting.
+     */
+    public LuceneQueriesCacheValue(final LuceneQueries luceneQueries, final Map<String, Object> context) {
+        this.luceneQueries = luceneQueries;
+        this.contextEntries = RewriteCache.copyContext(context);
+    }
+
+    /**
+     * Get the cached queries and put the cached context entries into the context.
+     *
+     * @param context The context of the current request
+     * @return The cached queries
+     */
+    public LuceneQueries apply(final Map<String, Object> context) {
+        context.putAll(contextEntries);
+        return new LuceneQueries(luceneQueries.mainQuery, copy(luceneQueries.filterQueries),
+                copy(luceneQueries.querqyBoostQueries), luceneQueries.userQuery,
+                luceneQueries.areQueriesInterdependent);
+    }
+
+    private static <T> List<T> copy(final List<T> list) {
+        return list == null ? null : new ArrayList<>(list);
+    }
+}
@@ -0,0 +1,484 @@
+package querqy.lucene.rewrite.cache;
+
+import org.apache.lucene.index.IndexReader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import querqy.StripedLruCache;
+
+/**
+ * <p>A bounded, concurrent {@link TermQueryCache} for applications that use querqy-lucene without Solr.</p>
+ *
+ * <p>The cache follows the W-TinyLFU policy: new entries go into a small LRU window. When they leave the window, they
+ * are only admitted to the main area of the cache if they were requested more often than the entry that would have
+ * to be evicted for them. The request frequencies are estimated by a count-min sketch, which is halved periodically so
+ * that old popularity fades. The main area is a segmented LRU that protects entries that were requested again after
+ * their admission. Under a skewed query distribution, this keeps the frequent terms in the cache much better than an
+ * LRU, which lets a burst of rare terms flush the cache.</p>
+ *
+ * <p>The entries are split into stripes that are locked independently, like in a {@link StripedLruCache}. Each stripe
+ * has its own frequency sketch.</p>
+ *
+ * <p>The cache keys don't depend on the index. If the cached values depend on the index reader (like the results
+ * of hit testing when preloading the cache), use a view from {@link #forReader(IndexReader)}, whose entries are removed
+ * when the reader is closed.</p>
+ */
+public class TinyLfuTermQueryCache implements TermQueryCache {
+
+    final Stripe[] stripes;
+    final Set<IndexReader.CacheKey> readerKeys = ConcurrentHashMap.newKeySet();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize The max. number of entries in the cache
+     */
+    public TinyLfuTermQueryCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        final int[] stripeSizes = StripedLruCache.stripeSizes(maxSize,
+                Math.min(StripedLruCache.MAX_STRIPES, Math.max(1, maxSize / 64)));
+        stripes = new Stripe[stripeSizes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(stripeSizes[i]);
+        }
+    }
+
+    @Override
+    public void put(final CacheKey key, final TermQueryCacheValue value) {
+        doPut(key, value);
+    }
+
+    @Override
+    public TermQueryCacheValue get(final CacheKey key) {
+        return doGet(key);
+    }
+
+    /**
+     * <p>Get a view of this cache whose entries only belong to the given index reader.</p>
+     *
+     * <p>The view shares the capacity and the statistics with this cache. Its entries are removed from the cache when
+     * the reader is closed. If the reader doesn't provide a {@link IndexReader#getReaderCacheHelper()}, the entries
+     * cannot be scoped and null is returned.</p>
+     *
+     * @param reader The top-level index reader
+     * @return The view or null if the reader doesn't support caching
+     */
+    public TermQueryCache forReader(final IndexReader reader) {
+
+        final IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+
+        final IndexReader.CacheKey readerKey = cacheHelper.getKey();
+        if (readerKeys.add(readerKey)) {
+            cacheHelper.addClosedListener(this::removeReader);
+        }
+
+        return new TermQueryCache() {
+
+            @Override
+            public void put(final CacheKey key, final TermQueryCacheValue value) {
+                doPut(new ReaderScopedKey(readerKey, key), value);
+            }
+
+            @Override
+            public TermQueryCacheValue get(final CacheKey key) {
+                return doGet(new ReaderScopedKey(readerKey, key));
+            }
+        };
+    }
+
+    protected TermQueryCacheValue doGet(final Object key) {
+        final Stripe stripe = stripe(key);
+        final TermQueryCacheValue value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    protected void doPut(final Object key, final TermQueryCacheValue value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        final Stripe stripe = stripe(key);
+        final int evicted;
+        synchronized (stripe) {
+            evicted = stripe.put(key, value);
+        }
+        if (evicted > 0) {
+            evictions.add(evicted);
+        }
+    }
+
+    void removeReader(final IndexReader.CacheKey readerKey) {
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeIf(key -> (key instanceof ReaderScopedKey)
+                        && ((ReaderScopedKey) key).readerKey == readerKey);
+            }
+        }
+        readerKeys.remove(readerKey);
+    }
+
+    /**
+     * @return The number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that didn't find an entry
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries that were evicted or not admitted to the cache
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    Stripe stripe(final Object key) {
+        return stripes[StripedLruCache.stripeIndex(spread(key.hashCode()), stripes.length)];
+    }
+
+    static int spread(final int h) {
+        final int x = h * 0x9e3779b9;
+        return x ^ (x >>> 16);
+    }
+
+    enum Area {WINDOW, PROBATION, PROTECTED}
+
+    static final class Node {
+
+        final Object key;
+        TermQueryCacheValue value;
+        Area area;
+        Node prev;
+        Node next;
+
+        Node(final Object key, final TermQueryCacheValue value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A doubly-linked list of nodes from the least recently used (head) to the most recently used (tail) node.
+     */
+    static final class NodeList {
+
+        final Area area;
+        Node head;
+        Node tail;
+        int size;
+
+        NodeList(final Area area) {
+            this.area = area;
+        }
+
+        void add(final Node node) {
+            node.area = area;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(final Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = node.next = null;
+            size--;
+        }
+
+        void moveToTail(final Node node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+    }
+
+    /**
+     * A part of the cache, which must be accessed under its lock.
+     */
+    static final class Stripe {
+
+        final int windowCapacity;
+        final int protectedCapacity;
+        final int mainCapacity;
+
+        final Map<Object, Node> nodes = new HashMap<>();
+        final NodeList window = new NodeList(Area.WINDOW);
+        final NodeList probation = new NodeList(Area.PROBATION);
+        final NodeList protectedList = new NodeList(Area.PROTECTED);
+        final FrequencySketch sketch;
+
+        Stripe(final int capacity) {
+            windowCapacity = Math.max(1, capacity / 100);
+            mainCapacity = capacity - windowCapacity;
+            protectedCapacity = (int) (mainCapacity * 0.8f);
+            sketch = new FrequencySketch(capacity);
+        }
+
+        TermQueryCacheValue get(final Object key) {
+
+            final int hash = spread(key.hashCode());
+            sketch.increment(hash);
+
+            final Node node = nodes.get(key);
+            if (node == null) {
+                return null;
+            }
+            touch(node);
+            return node.value;
+        }
+
+        /**
+         * @return The number of evicted entries
+         */
+        int put(final Object key, final TermQueryCacheValue value) {
+
+            final Node existing = nodes.get(key);
+            if (existing != null) {
+                existing.value = value;
+                touch(existing);
+                return 0;
+            }
+
+            final Node node = new Node(key, value);
+            nodes.put(key, node);
+            window.add(node);
+
+            int evicted = 0;
+            while (window.size > windowCapacity) {
+                final Node candidate = window.head;
+                window.remove(candidate);
+                evicted += admit(candidate);
+            }
+            return evicted;
+        }
+
+        void touch(final Node node) {
+            switch (node.area) {
+                case WINDOW:
+                    window.moveToTail(node);
+                    break;
+                case PROBATION:
+                    // requested again after admission: protect it
+                    probation.remove(node);
+                    protectedList.add(node);
+                    while (protectedList.size > protectedCapacity) {
+                        final Node demoted = protectedList.head;
+                        protectedList.remove(demoted);
+                        probation.add(demoted);
+                    }
+                    break;
+                case PROTECTED:
+                    protectedList.moveToTail(node);
+                    break;
+            }
+        }
+
+        /**
+         * Move a candidate from the window to the main area, evicting the candidate itself or a victim from the main
+         * area if the main area is full.
+         *
+         * @return The number of evicted entries
+         */
+        int admit(final Node candidate) {
+
+            if (probation.size + protectedList.size < mainCapacity) {
+                probation.add(candidate);
+                return 0;
+            }
+
+            final Node victim = probation.head != null ? probation.head : protectedList.head;
+            if (victim == null) {
+                nodes.remove(candidate.key);
+                return 1;
+            }
+
+            final int candidateFreq = sketch.frequency(spread(candidate.key.hashCode()));
+            final int victimFreq = sketch.frequency(spread(victim.key.hashCode()));
+
+            if (candidateFreq > victimFreq) {
+                if (victim.area == Area.PROBATION) {
+                    probation.remove(victim);
+                } else {
+                    protectedList.remove(victim);
+                }
+                nodes.remove(victim.key);
+                probation.add(candidate);
+            } else {
+                nodes.remove(candidate.key);
+            }
+            return 1;
+        }
+
+        void removeIf(final Predicate<Object> predicate) {
+            final Iterator<Map.Entry<Object, Node>> it = nodes.entrySet().iterator();
+            while (it.hasNext()) {
+                final Node node = it.next().getValue();
+                if (predicate.test(node.key)) {
+                    switch (node.area) {
+                        case WINDOW: window.remove(node); break;
+                        case PROBATION: probation.remove(node); break;
+                        case PROTECTED: protectedList.remove(node); break;
+                    }
+                    it.remove();
+                }
+            }
+        }
+
+        int size() {
+            return nodes.size();
+        }
+    }
+
+    /**
+     * A count-min sketch with 4-bit counters that estimates how often a key was requested. Two counters are packed into
+     * each byte. The counters are halved after a sample of 10 * capacity increments so that the sketch adapts to
+     * changes in popularity.
+     */
+    static final class FrequencySketch {
+
+        static final int DEPTH = 4;
+        static final int[] SEEDS = {0x97cb3127, 0xb5b2a5a9, 0x2f89b3c5, 0x7fb5d329};
+        static final int MAX_COUNT = 15;
+
+        final byte[][] counters;
+        final int mask;
+        final int sampleSize;
+        int additions = 0;
+
+        FrequencySketch(final int capacity) {
+            final int width = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+            counters = new byte[DEPTH][width >>> 1];
+            mask = width - 1;
+            sampleSize = Math.max(10, 10 * capacity);
+        }
+
+        int index(final int hash, final int row) {
+            final int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void increment(final int hash) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                final int i = index(hash, row);
+                if (count(row, i) < MAX_COUNT) {
+                    // the counter is below 15, adding to it can't overflow into the other counter of the byte
+                    counters[row][i >>> 1] += 1 << shift(i);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(final int hash) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, count(row, index(hash, row)));
+            }
+            return min;
+        }
+
+        int count(final int row, final int i) {
+            return (counters[row][i >>> 1] >>> shift(i)) & 0xf;
+        }
+
+        static int shift(final int i) {
+            return (i & 1) << 2;
+        }
+
+        void reset() {
+            for (final byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    // halve both counters of the byte
+                    row[i] = (byte) ((row[i] >>> 1) & 0x77);
+                }
+            }
+            additions = additions >>> 1;
+        }
+    }
+
+    static final class ReaderScopedKey {
+
+        final IndexReader.CacheKey readerKey;
+        final CacheKey key;
+
+        ReaderScopedKey(final IndexReader.CacheKey readerKey, final CacheKey key) {
+            this.readerKey = readerKey;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * readerKey.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ReaderScopedKey)) {
+                return false;
+            }
+            final ReaderScopedKey other = (ReaderScopedKey) obj;
+            return readerKey == other.readerKey && key.equals(other.key);
+        }
+    }
+
+}
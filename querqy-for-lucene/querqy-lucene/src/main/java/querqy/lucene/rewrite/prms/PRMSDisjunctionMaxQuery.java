@@ -8,6 +8,8 @@ import java.util.List;
 
 import org.apache.lucene.index.IndexReader;
 
+import querqy.lucene.rewrite.TermStatsCache;
+
 /**
  * @author rene
  *
@@ -16,8 +18,6 @@ public class PRMSDisjunctionMaxQuery implements PRMSQuery {
     
     final List<PRMSQuery> disjuncts;
     
-    private Double probability = null;
-    
     public PRMSDisjunctionMaxQuery(List<PRMSQuery> disjuncts) {
         if (disjuncts.isEmpty()) {
             throw new IllegalArgumentException("disjuncts.size() > 0 expected");
@@ -31,19 +31,18 @@ public class PRMSDisjunctionMaxQuery implements PRMSQuery {
     @Override
     public double calculateLikelihood(IndexReader indexReader)
             throws IOException {
-        
-        if (probability == null) {
-            
-            double max = 0.0;
-            for (PRMSQuery clause: disjuncts) {
-                max = Math.max(max, clause.calculateLikelihood(indexReader));
-            }
-            
-            probability = max;
-        
+        return calculateLikelihood(indexReader, null);
+    }
+
+    @Override
+    public double calculateLikelihood(IndexReader indexReader, TermStatsCache termStatsCache)
+            throws IOException {
+
+        double max = 0.0;
+        for (PRMSQuery clause: disjuncts) {
+            max = Math.max(max, clause.calculateLikelihood(indexReader, termStatsCache));
         }
-        
-        return probability;
+        return max;
     }
 
     public List<PRMSQuery> getDisjuncts() {
@@ -11,6 +11,7 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.IndexSearcher;
 
 import querqy.lucene.rewrite.FieldBoost;
+import querqy.lucene.rewrite.TermStatsCache;
 import querqy.lucene.rewrite.TermSubQueryFactory;
 import querqy.model.Term;
 
@@ -21,28 +22,44 @@ import querqy.model.Term;
 public class PRMSFieldBoost implements FieldBoost {
     
     Map<String, PRMSQuery> fieldPRMSQueries = new HashMap<>();
-    Map<String, Float> probabilities = null;
+    // calculated lazily for the last reader, possibly by concurrent threads
+    volatile Probabilities probabilities = null;
+    final TermStatsCache termStatsCache;
+
+    public PRMSFieldBoost() {
+        this(null);
+    }
+
+    /**
+     * @param termStatsCache A cache for the term frequencies across requests or null if the frequencies shall always
+     *                       be read from the index
+     */
+    public PRMSFieldBoost(TermStatsCache termStatsCache) {
+        this.termStatsCache = termStatsCache;
+    }
 
     /* (non-Javadoc)
      * @see querqy.lucene.rewrite.TermQueryBoost#getBoost()
      */
     @Override
     public float getBoost(String fieldname, IndexReader indexReader) throws IOException {
-        if (probabilities == null) {
-            calculateProbabilities(indexReader);
+        Probabilities probs = probabilities;
+        if (probs == null || probs.indexReader != indexReader) {
+            probs = new Probabilities(indexReader, calculateProbabilities(indexReader));
+            probabilities = probs;
         }
-        Float p = probabilities.get(fieldname);
+        Float p = probs.probabilities.get(fieldname);
         return p == null ? 0f : p;
     }
     
-    protected void calculateProbabilities(IndexReader indexReader) throws IOException {
+    protected Map<String, Float> calculateProbabilities(IndexReader indexReader) throws IOException {
         Map<String, Float> probs = new HashMap<>();
         switch (fieldPRMSQueries.size()) {
         case 0 : break;
         case 1 : 
             {
                 Map.Entry<String, PRMSQuery> entry = fieldPRMSQueries.entrySet().iterator().next();
-                double l = entry.getValue().calculateLikelihood(indexReader);
+                double l = entry.getValue().calculateLikelihood(indexReader, termStatsCache);
                 probs.put(entry.getKey(), l == 0.0 ? 0f : 1f);  
             }
             break;
@@ -50,15 +67,15 @@ public class PRMSFieldBoost implements FieldBoost {
             double sum = 0.0;
             Map<String, Double> likelihoods = new HashMap<String, Double>();
             for (Map.Entry<String, PRMSQuery> entry: fieldPRMSQueries.entrySet()) {
-                double l = entry.getValue().calculateLikelihood(indexReader);
+                double l = entry.getValue().calculateLikelihood(indexReader, termStatsCache);
                 sum += l;
                 likelihoods.put(entry.getKey(), l);
             }
             for (Map.Entry<String, Double> entry: likelihoods.entrySet()) {
                 probs.put(entry.getKey(), (float) (entry.getValue() / sum));
             }
-            probabilities = probs;
         }
+        return probs;
     }
 
     @Override
@@ -76,8 +93,9 @@ public class PRMSFieldBoost implements FieldBoost {
     public String toString(String fieldname) {
         StringBuilder sb = new StringBuilder();
         sb.append("^PRMS(");
-        if (probabilities != null) {
-            Float p = probabilities.get(fieldname);
+        Probabilities probs = probabilities;
+        if (probs != null) {
+            Float p = probs.probabilities.get(fieldname);
             if (p == null) {
                 p = 0f;
             }
@@ -128,8 +146,15 @@ public class PRMSFieldBoost implements FieldBoost {
         return true;
     }
 
+    static class Probabilities {
 
-    
-    
+        final IndexReader indexReader;
+        final Map<String, Float> probabilities;
+
+        Probabilities(IndexReader indexReader, Map<String, Float> probabilities) {
+            this.indexReader = indexReader;
+            this.probabilities = probabilities;
+        }
+    }
 
 }
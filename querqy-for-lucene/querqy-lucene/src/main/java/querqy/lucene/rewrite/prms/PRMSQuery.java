@@ -4,6 +4,8 @@ import java.io.IOException;
 
 import org.apache.lucene.index.IndexReader;
 
+import querqy.lucene.rewrite.TermStatsCache;
+
 /**
  * A query in the 'Probabilistic Retrieval Model for Semi-structured Data'
  *  
@@ -28,4 +30,14 @@ public interface PRMSQuery {
      */
     double calculateLikelihood(IndexReader indexReader) throws IOException;
 
+    /**
+     * Calculate the probability of the query for a given index, taking the term statistics from a cache
+     * @param indexReader
+     * @param termStatsCache The cache of the term statistics or null
+     * @return
+     */
+    default double calculateLikelihood(IndexReader indexReader, TermStatsCache termStatsCache) throws IOException {
+        return calculateLikelihood(indexReader);
+    }
+
 }
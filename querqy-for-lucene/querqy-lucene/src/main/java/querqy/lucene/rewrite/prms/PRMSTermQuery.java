@@ -8,6 +8,8 @@ import java.io.IOException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 
+import querqy.lucene.rewrite.TermStatsCache;
+
 /**
  * @author rene
  *
@@ -16,8 +18,6 @@ public class PRMSTermQuery implements PRMSQuery {
     
     final Term term;
     
-    private Double likelihood = null;
-    
     public PRMSTermQuery(Term term) {
         this.term = term;
     }
@@ -27,27 +27,34 @@ public class PRMSTermQuery implements PRMSQuery {
      */
     @Override
     public double calculateLikelihood(IndexReader indexReader) throws IOException {
-        
-        if (likelihood == null) {
-        
-            long totalTermsInField = indexReader.getSumTotalTermFreq(term.field());
-            
-            if (totalTermsInField == -1L) {
-                throw new UnsupportedOperationException("Codec does not support IndexReader.getSumTotalTermFreq(field)");
-            }
-            if (totalTermsInField < 1L) {
-                return 0.0;
-            }
-            long totalTf = indexReader.totalTermFreq(term);
-            if (totalTf == -1L) {
-                throw new UnsupportedOperationException("Codec does not support IndexReader.totalTermFreq(term)");
-            }
-            
-            likelihood = ((double) totalTf) / (double) totalTermsInField;
-            
+        return calculateLikelihood(indexReader, null);
+    }
+
+    /**
+     * Calculates the likelihood of the term query for the given index. The likelihood isn't kept in this object as
+     * PRMSTermQuerys can be cached across index readers.
+     */
+    @Override
+    public double calculateLikelihood(IndexReader indexReader, TermStatsCache termStatsCache) throws IOException {
+
+        long totalTermsInField = (termStatsCache == null)
+                ? indexReader.getSumTotalTermFreq(term.field())
+                : termStatsCache.getSumTotalTermFreq(indexReader, term.field());
+
+        if (totalTermsInField == -1L) {
+            throw new UnsupportedOperationException("Codec does not support IndexReader.getSumTotalTermFreq(field)");
         }
-        
-        return likelihood;
+        if (totalTermsInField < 1L) {
+            return 0.0;
+        }
+        long totalTf = (termStatsCache == null)
+                ? indexReader.totalTermFreq(term)
+                : termStatsCache.get(indexReader.getContext(), term).getTotalTermFreq();
+        if (totalTf == -1L) {
+            throw new UnsupportedOperationException("Codec does not support IndexReader.totalTermFreq(term)");
+        }
+
+        return ((double) totalTf) / (double) totalTermsInField;
     }
 
     public Term getTerm() {
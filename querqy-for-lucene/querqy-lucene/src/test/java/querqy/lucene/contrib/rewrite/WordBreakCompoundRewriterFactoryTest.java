@@ -1,10 +1,23 @@
 package querqy.lucene.contrib.rewrite;
 
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
 import org.junit.Assert;
 import org.junit.Test;
 import querqy.trie.TrieMap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class WordBreakCompoundRewriterFactoryTest {
 
@@ -30,4 +43,41 @@ public class WordBreakCompoundRewriterFactoryTest {
         Assert.assertTrue(triggerWords.get("word2").getStateForCompleteSequence().isFinal());
 
     }
+
+    @Test
+    public void testThatRewriteCacheKeyDependsOnIndexReader() throws Exception {
+
+        try (final Directory directory = new RAMDirectory();
+             final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+
+            addDoc(writer, "w1 w2");
+            final IndexReader reader1 = DirectoryReader.open(writer);
+            addDoc(writer, "w3");
+            final IndexReader reader2 = DirectoryReader.open(writer);
+
+            final AtomicReference<IndexReader> currentReader = new AtomicReference<>(reader1);
+            final WordBreakCompoundRewriterFactory factory = new WordBreakCompoundRewriterFactory(currentReader::get,
+                    "field1", false, 1, 2, 1, null, false, 2, false);
+
+            final List<Object> key1 = new ArrayList<>();
+            Assert.assertTrue(factory.addToRewriteCacheKey(null, key1));
+            final List<Object> key1Again = new ArrayList<>();
+            Assert.assertTrue(factory.addToRewriteCacheKey(null, key1Again));
+            Assert.assertEquals(key1, key1Again);
+
+            currentReader.set(reader2);
+            final List<Object> key2 = new ArrayList<>();
+            Assert.assertTrue(factory.addToRewriteCacheKey(null, key2));
+            Assert.assertNotEquals(key1, key2);
+
+            reader1.close();
+            reader2.close();
+        }
+    }
+
+    private static void addDoc(final IndexWriter writer, final String value) throws Exception {
+        final Document doc = new Document();
+        doc.add(new TextField("field1", value, Field.Store.NO));
+        writer.addDocument(doc);
+    }
 }
@@ -0,0 +1,208 @@
+package querqy.lucene.rewrite;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import querqy.lucene.rewrite.SearchFieldsAndBoosting.FieldBoostModel;
+import querqy.parser.WhiteSpaceQuerqyParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DocumentFrequencyCorrectionConcurrencyTest extends LuceneTestCase {
+
+    static final String[] VOCABULARY = {"a", "b", "c", "d", "e"};
+    static final int NUM_THREADS = 8;
+
+    Analyzer analyzer;
+    Directory directory;
+    IndexReader indexReader;
+    ExecutorService searchExecutor;
+    ExecutorService requestExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        analyzer = new MockAnalyzer(random());
+        directory = newDirectory();
+
+        // keep several segments so that the searcher with the executor searches several slices
+        final IndexWriter indexWriter = new IndexWriter(directory,
+                newIndexWriterConfig(analyzer).setMergePolicy(NoMergePolicy.INSTANCE));
+        for (int segment = 0; segment < 5; segment++) {
+            for (int i = 0; i < 50; i++) {
+                final Document doc = new Document();
+                doc.add(new TextField("f1", randomText(), Field.Store.NO));
+                doc.add(new TextField("f2", randomText(), Field.Store.NO));
+                indexWriter.addDocument(doc);
+            }
+            indexWriter.commit();
+        }
+        indexWriter.close();
+
+        indexReader = DirectoryReader.open(directory);
+        searchExecutor = Executors.newFixedThreadPool(4);
+        requestExecutor = Executors.newFixedThreadPool(NUM_THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        searchExecutor.shutdown();
+        requestExecutor.shutdown();
+        searchExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        requestExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testThatScoresWithExecutorEqualSingleThreadedScores() throws Exception {
+
+        final IndexSearcher singleThreadedSearcher = new IndexSearcher(indexReader);
+        final IndexSearcher concurrentSearcher = new IndexSearcher(indexReader, searchExecutor);
+
+        for (final String input : new String[] {"a", "a b", "c d e", "a b c d e", "b x e"}) {
+
+            final TopDocs expected = singleThreadedSearcher.search(buildQuery(input, new DocumentFrequencyCorrection()),
+                    1000);
+
+            for (int i = 0; i < 10; i++) {
+                assertSameScores(expected,
+                        concurrentSearcher.search(buildQuery(input, new DocumentFrequencyCorrection()), 1000));
+            }
+        }
+    }
+
+    @Test
+    public void testThatSharedQueryIsScoredConsistentlyByConcurrentSearches() throws Exception {
+
+        final IndexSearcher singleThreadedSearcher = new IndexSearcher(indexReader);
+        final IndexSearcher concurrentSearcher = new IndexSearcher(indexReader, searchExecutor);
+        final TermStatsCache termStatsCache = new TermStatsCache(100);
+
+        for (int iteration = 0; iteration < 20; iteration++) {
+
+            final String input = "a b c d e";
+            final TopDocs expected = singleThreadedSearcher.search(buildQuery(input, new DocumentFrequencyCorrection()),
+                    1000);
+
+            final CountingDocumentFrequencyCorrection dfc = new CountingDocumentFrequencyCorrection(
+                    iteration % 2 == 0 ? null : termStatsCache);
+            final Query sharedQuery = buildQuery(input, dfc);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<TopDocs>> results = new ArrayList<>();
+            for (int i = 0; i < NUM_THREADS; i++) {
+                final IndexSearcher searcher = (i % 2 == 0) ? concurrentSearcher : singleThreadedSearcher;
+                results.add(requestExecutor.submit(new Callable<TopDocs>() {
+                    @Override
+                    public TopDocs call() throws Exception {
+                        start.await();
+                        return searcher.search(sharedQuery, 1000);
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (final Future<TopDocs> result : results) {
+                assertSameScores(expected, result.get());
+            }
+
+            // both searchers have the same top-level reader context
+            assertEquals(1, dfc.calculations.get());
+        }
+    }
+
+    @Test
+    public void testThatStatisticsAreRecalculatedForAnotherReader() throws Exception {
+
+        final CountingDocumentFrequencyCorrection dfc = new CountingDocumentFrequencyCorrection(null);
+        final Query query = buildQuery("a b", dfc);
+
+        final IndexReader otherReader = DirectoryReader.open(directory);
+        try {
+            final TopDocs expected = new IndexSearcher(indexReader).search(query, 1000);
+            assertSameScores(expected, new IndexSearcher(otherReader, searchExecutor).search(query, 1000));
+            assertEquals(2, dfc.calculations.get());
+        } finally {
+            otherReader.close();
+        }
+    }
+
+    private Query buildQuery(final String input, final DocumentFrequencyCorrection dfc) {
+
+        final Map<String, Float> fields = new HashMap<>();
+        fields.put("f1", 1f);
+        fields.put("f2", 2f);
+
+        final SearchFieldsAndBoosting searchFieldsAndBoosting = new SearchFieldsAndBoosting(FieldBoostModel.FIXED,
+                fields, fields, 0.8f);
+
+        final LuceneQueryBuilder builder = new LuceneQueryBuilder(new DependentTermQueryBuilder(dfc),
+                new KeywordAnalyzer(), searchFieldsAndBoosting, 0.1f, null);
+
+        return builder.createQuery(new WhiteSpaceQuerqyParser().parse(input));
+    }
+
+    private void assertSameScores(final TopDocs expected, final TopDocs actual) {
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+            assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+        }
+    }
+
+    private String randomText() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0, len = 1 + random().nextInt(4); i < len; i++) {
+            sb.append(VOCABULARY[random().nextInt(VOCABULARY.length)]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    static class CountingDocumentFrequencyCorrection extends DocumentFrequencyCorrection {
+
+        final AtomicInteger calculations = new AtomicInteger();
+
+        CountingDocumentFrequencyCorrection(final TermStatsCache termStatsCache) {
+            super(termStatsCache);
+        }
+
+        @Override
+        protected TermStats doCalculateTermContexts(final IndexReaderContext indexReaderContext) throws IOException {
+            calculations.incrementAndGet();
+            return super.doCalculateTermContexts(indexReaderContext);
+        }
+    }
+
+}
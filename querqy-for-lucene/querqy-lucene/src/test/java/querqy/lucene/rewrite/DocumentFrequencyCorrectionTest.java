@@ -123,6 +123,54 @@ public class DocumentFrequencyCorrectionTest extends LuceneTestCase {
         
     }
 
+    @Test
+    public void testThatStatsForAnotherReaderDoNotDependOnPreviousReader() throws Exception {
+
+        Analyzer analyzer = new MockAnalyzer(random());
+
+        Directory directory1 = newDirectory();
+        RandomIndexWriter indexWriter1 = new RandomIndexWriter(random(), directory1, analyzer);
+        int df1 = getRandomDf() + 20;
+        addNumDocsWithStringField("f1", "a", indexWriter1, df1);
+        indexWriter1.close();
+
+        Directory directory2 = newDirectory();
+        RandomIndexWriter indexWriter2 = new RandomIndexWriter(random(), directory2, analyzer);
+        int df2 = getRandomDf();
+        addNumDocsWithStringField("f1", "a", indexWriter2, df2);
+        indexWriter2.close();
+
+        DocumentFrequencyCorrection dfc = new DocumentFrequencyCorrection();
+        dfc.newClause();
+        Term t1 = newTerm("f1", "a", dfc);
+        dfc.finishedUserQuery();
+        dfc.newClause();
+        Term t1a = newTerm("f1", "a", dfc);
+
+        DependentTermQuery tq1 = new DependentTermQuery(t1, dfc, ConstantFieldBoost.NORM_BOOST);
+        DependentTermQuery tq1a = new DependentTermQuery(t1a, dfc, ConstantFieldBoost.NORM_BOOST);
+
+        IndexReader indexReader1 = DirectoryReader.open(directory1);
+        IndexSearcher indexSearcher1 = newSearcher(indexReader1);
+        assertEquals(df1 * 2 - 1, dfc.getDocumentFrequencyAndTermContext(tq1a.tqIndex,
+                indexSearcher1.getTopReaderContext()).termContext.docFreq());
+
+        // the same query (for example, from a cache) used with another reader
+        IndexReader indexReader2 = DirectoryReader.open(directory2);
+        IndexSearcher indexSearcher2 = newSearcher(indexReader2);
+        assertEquals(df2, dfc.getDocumentFrequencyAndTermContext(tq1.tqIndex,
+                indexSearcher2.getTopReaderContext()).termContext.docFreq());
+        assertEquals(df2 * 2 - 1, dfc.getDocumentFrequencyAndTermContext(tq1a.tqIndex,
+                indexSearcher2.getTopReaderContext()).termContext.docFreq());
+
+        indexReader1.close();
+        indexReader2.close();
+        directory1.close();
+        directory2.close();
+        analyzer.close();
+
+    }
+
     int getRandomDf() {
         return 1 + new Long(Math.round(50.0 * Math.random())).intValue();
     }
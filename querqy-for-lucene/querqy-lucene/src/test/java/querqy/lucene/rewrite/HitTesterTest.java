@@ -0,0 +1,125 @@
+package querqy.lucene.rewrite;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HitTesterTest extends LuceneTestCase {
+
+    Analyzer analyzer;
+    Directory directory;
+    IndexReader indexReader;
+    IndexSearcher indexSearcher;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        analyzer = new MockAnalyzer(random());
+        directory = newDirectory();
+
+        final IndexWriter indexWriter = new IndexWriter(directory, newIndexWriterConfig(analyzer));
+        addDoc(indexWriter, "1", "a b");
+        addDoc(indexWriter, "2", "c");
+        indexWriter.commit();
+        addDoc(indexWriter, "3", "d");
+        addDoc(indexWriter, "4", "d e");
+        indexWriter.deleteDocuments(new Term("id", "4"));
+        indexWriter.close();
+
+        indexReader = DirectoryReader.open(directory);
+        indexSearcher = newSearcher(indexReader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testTermQueryFactory() throws Exception {
+        assertHasHits(true, tqf("a"));
+        assertHasHits(true, tqf("d"));
+        assertHasHits(false, tqf("x"));
+        assertHasHits(false, new TermQueryFactory(new Term("f2", "a")));
+    }
+
+    @Test
+    public void testThatTermsOfDeletedDocumentsDontHaveHits() throws Exception {
+        assertHasHits(false, tqf("e"));
+    }
+
+    @Test
+    public void testConjunction() throws Exception {
+        assertHasHits(true, bqf(tqf("a"), tqf("b")));
+        assertHasHits(false, bqf(tqf("a"), tqf("c")));
+        assertHasHits(false, bqf(tqf("a"), tqf("x")));
+        assertHasHits(false, bqf(tqf("d"), tqf("e")));
+        assertHasHits(true, bqf(tqf("c")));
+    }
+
+    @Test
+    public void testDisjunction() throws Exception {
+        assertHasHits(true, dmqf(tqf("x"), tqf("c")));
+        assertHasHits(false, dmqf(tqf("x"), tqf("e")));
+        assertHasHits(true, dmqf(tqf("x"), bqf(tqf("b"), tqf("a"))));
+        assertHasHits(false, dmqf(tqf("x"), bqf(tqf("b"), tqf("c"))));
+    }
+
+    @Test
+    public void testNeverMatchQueryFactory() throws Exception {
+        assertHasHits(false, NeverMatchQueryFactory.FACTORY);
+    }
+
+    private void assertHasHits(final boolean expected, final LuceneQueryFactory<?> factory) throws Exception {
+        // must be consistent with executing the query
+        assertEquals(expected, indexSearcher.search(factory.createQuery(ConstantFieldBoost.NORM_BOOST, 0f,
+                new LuceneTermQueryBuilder()), 1).totalHits > 0);
+        assertEquals(expected, HitTester.hasHits(indexSearcher, factory));
+    }
+
+    private static void addDoc(final IndexWriter indexWriter, final String id, final String text) throws Exception {
+        final Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.NO));
+        doc.add(new TextField("f1", text, Field.Store.NO));
+        indexWriter.addDocument(doc);
+    }
+
+    private static TermQueryFactory tqf(final String value) {
+        return new TermQueryFactory(new Term("f1", value));
+    }
+
+    private static BooleanQueryFactory bqf(final LuceneQueryFactory<?>... clauses) {
+        final BooleanQueryFactory bqf = new BooleanQueryFactory(true);
+        for (final LuceneQueryFactory<?> clause : clauses) {
+            bqf.add(clause, Occur.MUST);
+        }
+        return bqf;
+    }
+
+    private static DisjunctionMaxQueryFactory dmqf(final LuceneQueryFactory<?>... disjuncts) {
+        final DisjunctionMaxQueryFactory dmqf = new DisjunctionMaxQueryFactory();
+        for (final LuceneQueryFactory<?> disjunct : disjuncts) {
+            dmqf.add(disjunct);
+        }
+        return dmqf;
+    }
+
+}
@@ -0,0 +1,187 @@
+package querqy.lucene.rewrite;
+
+import static querqy.lucene.rewrite.TestUtil.addNumDocsWithStringField;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+import querqy.lucene.rewrite.DependentTermQueryBuilder.DependentTermQuery;
+import querqy.lucene.rewrite.DocumentFrequencyCorrection.DocumentFrequencyAndTermContext;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TermStatsCacheTest extends LuceneTestCase {
+
+    @Test
+    public void testThatStatsAreCachedPerReader() throws Exception {
+
+        final Analyzer analyzer = new MockAnalyzer(random());
+        final Directory directory = newDirectory();
+        final RandomIndexWriter indexWriter = new RandomIndexWriter(random(), directory, analyzer);
+        addNumDocsWithStringField("f1", "a", indexWriter, 7);
+        addNumDocsWithStringField("f1", "b", indexWriter, 3);
+        indexWriter.close();
+
+        final IndexReader indexReader = DirectoryReader.open(directory);
+        final IndexSearcher indexSearcher = newSearcher(indexReader);
+
+        final TermStatsCache cache = new TermStatsCache(100);
+
+        final TermStatsCache.Stats stats = cache.get(indexSearcher.getTopReaderContext(), new Term("f1", "a"));
+        assertEquals(7, stats.getDocFreq());
+        assertSame(stats, cache.get(indexSearcher.getTopReaderContext(), new Term("f1", "a")));
+        assertEquals(7, stats.newTermContext(indexSearcher.getTopReaderContext()).docFreq());
+
+        assertEquals(0, cache.get(indexSearcher.getTopReaderContext(), new Term("f1", "x")).getDocFreq());
+        assertEquals(0, cache.get(indexSearcher.getTopReaderContext(), new Term("f2", "a")).getDocFreq());
+
+        assertEquals(1, cache.getNumReaders());
+        assertEquals(3, cache.size(indexReader));
+
+        indexReader.close();
+        assertEquals(0, cache.getNumReaders());
+
+        directory.close();
+        analyzer.close();
+    }
+
+    @Test
+    public void testThatNumberOfTermsIsBounded() throws Exception {
+
+        final Analyzer analyzer = new MockAnalyzer(random());
+        final Directory directory = newDirectory();
+        final RandomIndexWriter indexWriter = new RandomIndexWriter(random(), directory, analyzer);
+        addNumDocsWithStringField("f1", "a", indexWriter, 1);
+        indexWriter.close();
+
+        final IndexReader indexReader = DirectoryReader.open(directory);
+        final IndexSearcher indexSearcher = newSearcher(indexReader);
+
+        final TermStatsCache cache = new TermStatsCache(20);
+        for (int i = 0; i < 200; i++) {
+            cache.get(indexSearcher.getTopReaderContext(), new Term("f1", "t" + i));
+        }
+        assertTrue(cache.size(indexReader) <= 20);
+        assertTrue(cache.size(indexReader) > 0);
+
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+    }
+
+    @Test
+    public void testThatCachedStatsAreNotModifiedByDocumentFrequencyCorrection() throws Exception {
+
+        final Analyzer analyzer = new MockAnalyzer(random());
+        final Directory directory = newDirectory();
+        final RandomIndexWriter indexWriter = new RandomIndexWriter(random(), directory, analyzer);
+        addNumDocsWithStringField("f1", "a", indexWriter, 10);
+        addNumDocsWithStringField("f2", "a", indexWriter, 2);
+        indexWriter.close();
+
+        final IndexReader indexReader = DirectoryReader.open(directory);
+        final IndexSearcher indexSearcher = newSearcher(indexReader);
+
+        final TermStatsCache cache = new TermStatsCache(100);
+
+        for (int i = 0; i < 2; i++) {
+
+            final DocumentFrequencyCorrection dfc = new DocumentFrequencyCorrection(cache);
+            dfc.newClause();
+            final Term term1 = new Term("f1", "a");
+            final Term term2 = new Term("f2", "a");
+            dfc.prepareTerm(term1);
+            dfc.prepareTerm(term2);
+            final DependentTermQuery tq1 = new DependentTermQuery(term1, dfc, ConstantFieldBoost.NORM_BOOST);
+            final DependentTermQuery tq2 = new DependentTermQuery(term2, dfc, ConstantFieldBoost.NORM_BOOST);
+            dfc.finishedUserQuery();
+
+            final DocumentFrequencyAndTermContext dftc1 = dfc.getDocumentFrequencyAndTermContext(tq1.tqIndex,
+                    indexSearcher.getTopReaderContext());
+            final DocumentFrequencyAndTermContext dftc2 = dfc.getDocumentFrequencyAndTermContext(tq2.tqIndex,
+                    indexSearcher.getTopReaderContext());
+
+            // f2:a gets the df of f1:a
+            assertEquals(10, dftc1.termContext.docFreq());
+            assertEquals(10, dftc2.termContext.docFreq());
+            assertEquals(2, cache.get(indexSearcher.getTopReaderContext(), term2).getDocFreq());
+        }
+
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+    }
+
+    @Test
+    public void testThatBatchCollectionEqualsSingleTermCollection() throws Exception {
+
+        final Analyzer analyzer = new MockAnalyzer(random());
+        final Directory directory = newDirectory();
+        final RandomIndexWriter indexWriter = new RandomIndexWriter(random(), directory, analyzer);
+        addNumDocsWithStringField("f1", "a", indexWriter, 4);
+        addNumDocsWithStringField("f2", "b", indexWriter, 2);
+        indexWriter.commit();
+        addNumDocsWithStringField("f1", "c", indexWriter, 3);
+        addNumDocsWithStringField("f1", "a", indexWriter, 1);
+        indexWriter.commit();
+        addNumDocsWithStringField("f2", "a", indexWriter, 5);
+        indexWriter.close();
+
+        final IndexReader indexReader = DirectoryReader.open(directory);
+        final IndexSearcher indexSearcher = newSearcher(indexReader);
+        final IndexReaderContext topReaderContext = indexSearcher.getTopReaderContext();
+
+        final Term[] terms = new Term[] {
+                new Term("f2", "a"), new Term("f1", "c"), new Term("f1", "a"), new Term("f3", "a"),
+                new Term("f1", "x"), new Term("f1", "a"), new Term("f2", "b")
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (final Executor exec : new Executor[] {null, executor}) {
+
+                final TermStatsCache.Stats[] stats = TermStatsCache.Stats.collect(topReaderContext, terms, exec);
+                assertEquals(terms.length, stats.length);
+
+                for (int i = 0; i < terms.length; i++) {
+                    final TermStatsCache.Stats expected = TermStatsCache.Stats.collect(topReaderContext, terms[i]);
+                    assertEquals(expected.getDocFreq(), stats[i].getDocFreq());
+                    assertArrayEquals(expected.leafOrds, stats[i].leafOrds);
+                    assertArrayEquals(expected.leafDocFreqs, stats[i].leafDocFreqs);
+                    assertEquals(expected.getDocFreq(), stats[i].newTermContext(topReaderContext).docFreq());
+                }
+
+                assertEquals(5, stats[0].getDocFreq());
+                assertEquals(5, stats[2].getDocFreq());
+                assertEquals(0, stats[3].getDocFreq());
+                assertEquals(0, stats[4].getDocFreq());
+                assertSame(stats[2], stats[5]);
+
+                final TermStatsCache cache = new TermStatsCache(100);
+                cache.get(topReaderContext, new Term("f1", "c"));
+                final TermStatsCache.Stats[] cached = cache.get(topReaderContext, terms, exec);
+                for (int i = 0; i < terms.length; i++) {
+                    assertEquals(stats[i].getDocFreq(), cached[i].getDocFreq());
+                }
+                assertEquals(6, cache.size(indexReader));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+    }
+
+}
@@ -184,6 +184,24 @@ public class TermSubQueryBuilderTest {
         verify(cache, never()).put(any(CacheKey.class), any(TermQueryCacheValue.class));
 
     }
+
+    @Test
+    public void testThatAnalyzeDoesNotUseCache() throws Exception {
+        TermSubQueryBuilder builder = new TermSubQueryBuilder(ANALYZER, cache);
+
+        querqy.model.Term term = new querqy.model.Term(null, "f", "abc", false);
+
+        Term expected = new Term("f", "abc");
+        assertThat(
+                builder.analyze("f", term),
+                lap(tqf(expected), prmsTq(expected))
+                );
+
+        assertNull(builder.analyze("f", new querqy.model.Term(null, "f", ".", false)));
+
+        verify(cache, never()).get(any(CacheKey.class));
+        verify(cache, never()).put(any(CacheKey.class), any(TermQueryCacheValue.class));
+    }
     
     public TQFMatcher tqf(Term term) {
         return new TQFMatcher(term);
@@ -0,0 +1,198 @@
+package querqy.lucene.rewrite.cache;
+
+import static querqy.lucene.rewrite.TestUtil.addNumDocsWithStringField;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+import querqy.lucene.rewrite.NeverMatchQueryFactory;
+import querqy.lucene.rewrite.prms.PRMSQuery;
+import querqy.model.Term;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TinyLfuTermQueryCacheTest extends LuceneTestCase {
+
+    @Test
+    public void testThatValuesAreCachedAndStatisticsAreCounted() throws Exception {
+
+        final TinyLfuTermQueryCache cache = new TinyLfuTermQueryCache(100);
+        final TermQueryCacheValue value = value();
+
+        assertNull(cache.get(key("f1", "a")));
+        cache.put(key("f1", "a"), value);
+        assertSame(value, cache.get(key("f1", "a")));
+        assertNull(cache.get(key("f2", "a")));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+
+        final TermQueryCacheValue value2 = value();
+        cache.put(key("f1", "a"), value2);
+        assertSame(value2, cache.get(key("f1", "a")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testThatCacheIsBounded() throws Exception {
+
+        final TinyLfuTermQueryCache cache = new TinyLfuTermQueryCache(200);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(key("f1", "t" + i), value());
+        }
+        assertTrue(cache.size() <= 200);
+        assertTrue(cache.size() > 100);
+        assertEquals(10000 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    public void testThatFrequentTermsSurviveScanOfRareTerms() throws Exception {
+
+        final TinyLfuTermQueryCache cache = new TinyLfuTermQueryCache(100);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                final CacheKey key = key("f1", "hot" + i);
+                if (cache.get(key) == null) {
+                    cache.put(key, value());
+                }
+            }
+        }
+
+        // a burst of terms that are requested only once would flush an LRU cache
+        for (int i = 0; i < 1000; i++) {
+            final CacheKey key = key("f1", "rare" + i);
+            if (cache.get(key) == null) {
+                cache.put(key, value());
+            }
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(key("f1", "hot" + i)) != null) {
+                hot++;
+            }
+        }
+        assertTrue("Only " + hot + " hot terms left", hot >= 45);
+    }
+
+    @Test
+    public void testThatReaderScopedEntriesAreRemovedWhenReaderIsClosed() throws Exception {
+
+        final Analyzer analyzer = new MockAnalyzer(random());
+        final Directory directory = newDirectory();
+        final RandomIndexWriter indexWriter = new RandomIndexWriter(random(), directory, analyzer);
+        addNumDocsWithStringField("f1", "a", indexWriter, 1);
+        indexWriter.close();
+
+        final IndexReader indexReader1 = DirectoryReader.open(directory);
+        final IndexReader indexReader2 = DirectoryReader.open(directory);
+
+        final TinyLfuTermQueryCache cache = new TinyLfuTermQueryCache(100);
+        final TermQueryCache view1 = cache.forReader(indexReader1);
+        final TermQueryCache view2 = cache.forReader(indexReader2);
+
+        final TermQueryCacheValue value = value();
+        view1.put(key("f1", "a"), value);
+        cache.put(key("f1", "b"), value());
+
+        assertSame(value, view1.get(key("f1", "a")));
+        assertSame(value, cache.forReader(indexReader1).get(key("f1", "a")));
+        assertNull(view2.get(key("f1", "a")));
+        assertNull(cache.get(key("f1", "a")));
+        assertNull(view1.get(key("f1", "b")));
+        assertEquals(2, cache.size());
+
+        indexReader1.close();
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(key("f1", "b")));
+
+        indexReader2.close();
+        directory.close();
+        analyzer.close();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+
+        final TinyLfuTermQueryCache cache = new TinyLfuTermQueryCache(500);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    final java.util.Random rnd = new java.util.Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        // skewed distribution of keys
+                        final int k = (int) Math.pow(rnd.nextInt(1000), 2) / 100;
+                        final CacheKey key = key("f1", "t" + k);
+                        final TermQueryCacheValue cached = cache.get(key);
+                        if (cached == null) {
+                            cache.put(key, value());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(cache.size() <= 500);
+        assertEquals(80000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testThatPackedSketchCountersDontInterfere() throws Exception {
+
+        final TinyLfuTermQueryCache.FrequencySketch sketch = new TinyLfuTermQueryCache.FrequencySketch(1000);
+
+        // two counters per byte
+        assertEquals((sketch.mask + 1) / 2, sketch.counters[0].length);
+
+        // find two hashes whose counters share a byte in the first row
+        final int hash1 = 42;
+        int hash2 = hash1 + 1;
+        while ((sketch.index(hash2, 0) >>> 1) != (sketch.index(hash1, 0) >>> 1)
+                || sketch.index(hash2, 0) == sketch.index(hash1, 0)) {
+            hash2++;
+        }
+
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(hash1);
+        }
+        sketch.increment(hash2);
+
+        assertEquals(TinyLfuTermQueryCache.FrequencySketch.MAX_COUNT, sketch.count(0, sketch.index(hash1, 0)));
+        assertEquals(1, sketch.count(0, sketch.index(hash2, 0)));
+
+        sketch.reset();
+        assertEquals(7, sketch.count(0, sketch.index(hash1, 0)));
+        assertEquals(0, sketch.count(0, sketch.index(hash2, 0)));
+    }
+
+    private static CacheKey key(final String field, final String value) {
+        return new CacheKey(field, new Term(null, value));
+    }
+
+    private static TermQueryCacheValue value() {
+        return new TermQueryCacheValue(NeverMatchQueryFactory.FACTORY, PRMSQuery.NEVER_MATCH_PRMS_QUERY);
+    }
+
+}
@@ -109,6 +109,84 @@ public class PRMSFieldBoostTest extends LuceneTestCase {
         
     }
     
+    @Test
+    public void testThatStatisticsAreTakenFromTermStatsCacheAndRecalculatedForNewReader() throws Exception {
+
+        Directory directory = newDirectory();
+        Analyzer analyzer = new StandardAnalyzer();
+
+        IndexWriterConfig conf = new IndexWriterConfig(analyzer);
+        conf.setCodec(Codec.forName(TestUtil.LUCENE_CODEC));
+        IndexWriter indexWriter = new IndexWriter(directory, conf);
+        addNumDocs("f1", "abc", indexWriter, 2);
+        addNumDocs("f1", "def", indexWriter, 2);
+        addNumDocs("f2", "abc", indexWriter, 1);
+        addNumDocs("f2", "def", indexWriter, 3);
+        indexWriter.commit();
+
+        TermStatsCache termStatsCache = new TermStatsCache(100);
+
+        PRMSTermQuery q1 = new PRMSTermQuery(new org.apache.lucene.index.Term("f1", "abc"));
+        PRMSTermQuery q2 = new PRMSTermQuery(new org.apache.lucene.index.Term("f2", "abc"));
+
+        IndexReader indexReader1 = DirectoryReader.open(directory);
+
+        assertEquals(0.5, q1.calculateLikelihood(indexReader1, termStatsCache), 0.00001);
+        assertEquals(0.25, q2.calculateLikelihood(indexReader1, termStatsCache), 0.00001);
+        assertEquals(q1.calculateLikelihood(indexReader1), q1.calculateLikelihood(indexReader1, termStatsCache),
+                0.00001);
+        assertEquals(2, termStatsCache.size(indexReader1));
+
+        PRMSFieldBoost fieldBoost = new PRMSFieldBoost(termStatsCache);
+        fieldBoost.fieldPRMSQueries.put("f1", q1);
+        fieldBoost.fieldPRMSQueries.put("f2", q2);
+
+        assertEquals(2f / 3f, fieldBoost.getBoost("f1", indexReader1), 0.00001);
+        assertEquals(1f / 3f, fieldBoost.getBoost("f2", indexReader1), 0.00001);
+
+        // f2:abc gets as likely as f1:abc in the new reader
+        addNumDocs("f2", "abc", indexWriter, 4);
+        indexWriter.close();
+
+        IndexReader indexReader2 = DirectoryReader.open(directory);
+
+        assertEquals(0.625, q2.calculateLikelihood(indexReader2, termStatsCache), 0.00001);
+        assertEquals(0.5, q1.calculateLikelihood(indexReader2, termStatsCache), 0.00001);
+        assertEquals(0.625f / 1.125f, fieldBoost.getBoost("f2", indexReader2), 0.00001);
+
+        assertEquals(2, termStatsCache.getNumReaders());
+        indexReader1.close();
+        indexReader2.close();
+        assertEquals(0, termStatsCache.getNumReaders());
+
+        directory.close();
+        analyzer.close();
+    }
+
+    @Test
+    public void testThatSingleFieldGetsFullBoost() throws Exception {
+
+        Directory directory = newDirectory();
+        Analyzer analyzer = new StandardAnalyzer();
+
+        IndexWriterConfig conf = new IndexWriterConfig(analyzer);
+        conf.setCodec(Codec.forName(TestUtil.LUCENE_CODEC));
+        IndexWriter indexWriter = new IndexWriter(directory, conf);
+        addNumDocs("f1", "abc def", indexWriter, 2);
+        indexWriter.close();
+
+        IndexReader indexReader = DirectoryReader.open(directory);
+
+        PRMSFieldBoost fieldBoost = new PRMSFieldBoost();
+        fieldBoost.fieldPRMSQueries.put("f1", new PRMSTermQuery(new org.apache.lucene.index.Term("f1", "abc")));
+        assertEquals(1f, fieldBoost.getBoost("f1", indexReader), 0f);
+        assertEquals(0f, fieldBoost.getBoost("f2", indexReader), 0f);
+
+        indexReader.close();
+        directory.close();
+        analyzer.close();
+    }
+
     public static void addNumDocs(String fieldname, String value, IndexWriter indexWriter, int num) throws IOException {
         for (int i = 0; i < num; i++) {
             Document doc = new Document();
@@ -1,13 +1,18 @@
 package querqy.solr;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
@@ -16,21 +21,29 @@ import org.apache.solr.util.plugin.SolrCoreAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import querqy.lucene.rewrite.TermStatsCache;
 import querqy.lucene.rewrite.cache.CacheKey;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCacheValue;
 import querqy.lucene.rewrite.cache.TermQueryCache;
 import querqy.lucene.rewrite.cache.TermQueryCacheValue;
 import querqy.parser.QuerqyParser;
 import querqy.parser.WhiteSpaceQuerqyParser;
+import querqy.rewrite.RewriteCache;
 import querqy.rewrite.RewriteChain;
 import querqy.rewrite.RewriterFactory;
 
 /**
  * Abstract superclass for QuerqyDismaxQParserPlugins.
  */
-public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin implements ResourceLoaderAware {
+public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin
+        implements ResourceLoaderAware, Closeable, SolrMetricProducer {
     
     public static final String CONF_CACHE_NAME = "termQueryCache.name";
     public static final String CONF_CACHE_UPDATE = "termQueryCache.update";
+    public static final String CONF_REWRITE_CACHE_SIZE = "rewriteCache.size";
+    public static final String CONF_LUCENE_QUERIES_CACHE_NAME = "luceneQueriesCache.name";
+    public static final String CONF_TERM_STATS_CACHE_SIZE = "termStatsCache.size";
 
     protected Logger logger = LoggerFactory.getLogger(getClass());
     
@@ -40,6 +53,13 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
     protected SolrQuerqyParserFactory querqyParserFactory = null;
     protected String termQueryCacheName = null;
     protected boolean ignoreTermQueryCacheUpdates = true; 
+    protected String luceneQueriesCacheName = null;
+    protected TermStatsCache termStatsCache = null;
+
+    protected final Set<String> metricNames = ConcurrentHashMap.newKeySet();
+    protected SolrMetricManager metricManager = null;
+    protected String metricsRegistry = null;
+    protected String metricsScope = null;
     
     public abstract QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req,
                                          TermQueryCache termQueryCache);
@@ -53,6 +73,9 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
     public void inform(final ResourceLoader loader) throws IOException {
 
         rewriteChain = loadRewriteChain(loader);
+        if (metricManager != null) {
+            registerRewriteChainMetrics();
+        }
       
         termQueryCacheName = (String) initArgs.get(CONF_CACHE_NAME);
 
@@ -63,6 +86,15 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
         }
 
         ignoreTermQueryCacheUpdates = (updateCache != null) && !updateCache;
+
+        luceneQueriesCacheName = (String) initArgs.get(CONF_LUCENE_QUERIES_CACHE_NAME);
+
+        final Integer termStatsCacheSize = (Integer) initArgs.get(CONF_TERM_STATS_CACHE_SIZE);
+        if (termStatsCacheSize != null && termStatsCacheSize < 0) {
+            throw new IOException(CONF_TERM_STATS_CACHE_SIZE + " must not be negative");
+        }
+        termStatsCache = termStatsCacheSize == null || termStatsCacheSize == 0
+                ? null : new TermStatsCache(termStatsCacheSize);
         
         this.querqyParserFactory = loadSolrQuerqyParserFactory(loader, initArgs);
     }
@@ -126,7 +158,13 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
             }
         }
       
-        return new RewriteChain(factories);
+        final Integer rewriteCacheSize = (Integer) initArgs.get(CONF_REWRITE_CACHE_SIZE);
+        if (rewriteCacheSize != null && rewriteCacheSize < 0) {
+            throw new IOException(CONF_REWRITE_CACHE_SIZE + " must not be negative");
+        }
+
+        return new RewriteChain(factories, rewriteCacheSize == null || rewriteCacheSize == 0
+                ? null : new RewriteCache(rewriteCacheSize));
       
     }
 
@@ -135,6 +173,56 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
         return querqyParserFactory.createParser(qstr, localParams, params, req);
     }
 
+    /**
+     * Called by Solr when the plugin is registered with the core. The metrics of the rewrite chain are registered as
+     * soon as both the metric manager and the rewrite chain are available.
+     */
+    @Override
+    public void initializeMetrics(final SolrMetricManager manager, final String registry, final String scope) {
+        metricManager = manager;
+        metricsRegistry = registry;
+        metricsScope = scope;
+        if (rewriteChain != null) {
+            registerRewriteChainMetrics();
+        }
+    }
+
+    protected void registerRewriteChainMetrics() {
+        rewriteChain.setMetrics(new SolrRewriteChainMetrics(this, metricManager, metricsRegistry, metricsScope,
+                rewriteChain));
+    }
+
+    @Override
+    public Set<String> getMetricNames() {
+        return metricNames;
+    }
+
+    /**
+     * <p>Get the {@link LuceneQueriesCache} of the current searcher.</p>
+     *
+     * <p>The cache is a Solr user cache that is named by {@link #CONF_LUCENE_QUERIES_CACHE_NAME}. As the cached
+     * queries depend on the index statistics, the cache must not be autowarmed. It will be replaced with an empty cache
+     * when a new searcher is opened.</p>
+     *
+     * @param req The current request
+     * @return The cache or null if no cache was configured
+     */
+    protected LuceneQueriesCache getLuceneQueriesCache(final SolrQueryRequest req) {
+
+        if (luceneQueriesCacheName == null) {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        final SolrCache<Object, LuceneQueriesCacheValue> solrCache = req.getSearcher().getCache(luceneQueriesCacheName);
+        if (solrCache == null) {
+            logger.warn("Missing Solr cache {}", luceneQueriesCacheName);
+            return null;
+        }
+
+        return new SolrLuceneQueriesCacheAdapter(solrCache);
+    }
+
     @Override
     public final QParser createParser(final String qstr, final SolrParams localParams, final SolrParams params,
                                       SolrQueryRequest req) {
@@ -162,4 +250,23 @@ public abstract class AbstractQuerqyDismaxQParserPlugin extends QParserPlugin im
         return rewriteChain;
     }
 
+    /**
+     * Closes the {@link RewriterFactory}s that implement {@link Closeable}. Solr calls this method when the core is
+     * closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (rewriteChain != null) {
+            for (final RewriterFactory factory : rewriteChain.getRewriterFactories()) {
+                if (factory instanceof Closeable) {
+                    try {
+                        ((Closeable) factory).close();
+                    } catch (final IOException e) {
+                        logger.error("Could not close rewriter factory", e);
+                    }
+                }
+            }
+        }
+    }
+
 }
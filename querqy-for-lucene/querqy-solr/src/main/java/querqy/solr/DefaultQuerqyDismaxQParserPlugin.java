@@ -13,7 +13,8 @@ public class DefaultQuerqyDismaxQParserPlugin extends AbstractQuerqyDismaxQParse
    public QParser createParser(final String qstr, final SolrParams localParams, final SolrParams params,
                                final SolrQueryRequest req, final TermQueryCache termQueryCache) {
          return new QuerqyDismaxQParser(qstr, localParams, params, req,
-                 createQuerqyParser(qstr, localParams, params, req), rewriteChain, termQueryCache);
+                 createQuerqyParser(qstr, localParams, params, req), rewriteChain, termQueryCache,
+                 getLuceneQueriesCache(req), termStatsCache);
    }
 
 }
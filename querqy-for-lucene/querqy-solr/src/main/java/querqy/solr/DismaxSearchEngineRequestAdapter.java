@@ -9,6 +9,7 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.schema.FieldType;
@@ -26,6 +27,8 @@ import querqy.lucene.PhraseBoosting.PhraseBoostFieldParams;
 import querqy.lucene.QuerySimilarityScoring;
 import querqy.lucene.LuceneSearchEngineRequestAdapter;
 import querqy.lucene.rewrite.SearchFieldsAndBoosting;
+import querqy.lucene.rewrite.TermStatsCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
 import querqy.lucene.rewrite.cache.TermQueryCache;
 import querqy.model.QuerqyQuery;
 import querqy.model.RawQuery;
@@ -33,11 +36,16 @@ import querqy.parser.QuerqyParser;
 import querqy.rewrite.RewriteChain;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -76,10 +84,29 @@ public class DismaxSearchEngineRequestAdapter implements LuceneSearchEngineReque
     private static final Pattern PATTERN_WHITESPACE = Pattern.compile("\\s+");
     private static final Pattern PATTERN_CARAT = Pattern.compile("\\^");
 
+    /**
+     * Request parameters that don't influence the queries that Querqy creates. They are not part of the
+     * {@link #getLuceneQueriesCacheKey()}.
+     */
+    protected static final Set<String> PARAMS_NOT_IN_QUERIES_CACHE_KEY = new HashSet<>(Arrays.asList(
+            CommonParams.START, CommonParams.ROWS, CommonParams.FL, CommonParams.WT, CommonParams.SORT,
+            CommonParams.FQ, "echoParams", CommonParams.OMIT_HEADER, CommonParams.TIME_ALLOWED,
+            CommonParams.SEGMENT_TERMINATE_EARLY, CursorMarkParams.CURSOR_MARK_PARAM, "indent", "_"));
+
+    /**
+     * Prefixes of request parameters of other search components. These parameters are not part of the
+     * {@link #getLuceneQueriesCacheKey()}.
+     */
+    protected static final String[] PARAM_PREFIXES_NOT_IN_QUERIES_CACHE_KEY = {
+            "facet", "hl", "spellcheck", "stats", "group", "terms", "mlt"
+    };
+
     private final String userQueryString;
     private final SolrParams solrParams;
     private final SolrQueryRequest request;
     private final TermQueryCache termQueryCache;
+    private final LuceneQueriesCache luceneQueriesCache;
+    private final TermStatsCache termStatsCache;
     private final QuerqyParser querqyParser;
     private final RewriteChain rewriteChain;
     private final List<FieldParams> allPhraseFields;
@@ -91,10 +118,30 @@ public class DismaxSearchEngineRequestAdapter implements LuceneSearchEngineReque
                                             final String queryString, final SolrParams solrParams,
                                             final QuerqyParser querqyParser, final RewriteChain rewriteChain,
                                             final TermQueryCache termQueryCache) {
+        this(qParser, request, queryString, solrParams, querqyParser, rewriteChain, termQueryCache, null);
+    }
+
+    public DismaxSearchEngineRequestAdapter(final QParser qParser, final SolrQueryRequest request,
+                                            final String queryString, final SolrParams solrParams,
+                                            final QuerqyParser querqyParser, final RewriteChain rewriteChain,
+                                            final TermQueryCache termQueryCache,
+                                            final LuceneQueriesCache luceneQueriesCache) {
+        this(qParser, request, queryString, solrParams, querqyParser, rewriteChain, termQueryCache,
+                luceneQueriesCache, null);
+    }
+
+    public DismaxSearchEngineRequestAdapter(final QParser qParser, final SolrQueryRequest request,
+                                            final String queryString, final SolrParams solrParams,
+                                            final QuerqyParser querqyParser, final RewriteChain rewriteChain,
+                                            final TermQueryCache termQueryCache,
+                                            final LuceneQueriesCache luceneQueriesCache,
+                                            final TermStatsCache termStatsCache) {
         this.qParser = qParser;
         this.userQueryString = queryString;
         this.solrParams = solrParams;
         this.termQueryCache = termQueryCache;
+        this.luceneQueriesCache = luceneQueriesCache;
+        this.termStatsCache = termStatsCache;
         this.querqyParser = querqyParser;
         this.request = request;
         this.rewriteChain = rewriteChain;
@@ -144,6 +191,65 @@ public class DismaxSearchEngineRequestAdapter implements LuceneSearchEngineReque
         return Optional.ofNullable(termQueryCache);
     }
 
+    @Override
+    public Optional<LuceneQueriesCache> getLuceneQueriesCache() {
+        return Optional.ofNullable(luceneQueriesCache);
+    }
+
+    @Override
+    public Optional<TermStatsCache> getTermStatsCache() {
+        return Optional.ofNullable(termStatsCache);
+    }
+
+    /**
+     * <p>The key consists of all request parameters, apart from the parameters that are known to be irrelevant for
+     * the queries (see {@link #PARAMS_NOT_IN_QUERIES_CACHE_KEY} and {@link #PARAM_PREFIXES_NOT_IN_QUERIES_CACHE_KEY}).
+     * This includes parameters that are only referenced from other parameters, like in <code>bq=$myboost</code>.</p>
+     *
+     * <p>Requests with a parameter that refers to the current time (NOW) are not cached, as the boost queries and
+     * functions are evaluated at parse time.</p>
+     *
+     * @return The key or an empty Optional if the queries must not be cached
+     */
+    @Override
+    public Optional<Object> getLuceneQueriesCacheKey() {
+
+        final Map<String, List<String>> key = new TreeMap<>();
+
+        final Iterator<String> names = solrParams.getParameterNamesIterator();
+        while (names.hasNext()) {
+            final String name = names.next();
+            if (!isInLuceneQueriesCacheKey(name)) {
+                continue;
+            }
+            final String[] values = solrParams.getParams(name);
+            if (values != null) {
+                for (final String value : values) {
+                    if (value != null && value.contains("NOW")) {
+                        return Optional.empty();
+                    }
+                }
+                key.put(name, Arrays.asList(values));
+            }
+        }
+
+        return Optional.of(key);
+
+    }
+
+    protected boolean isInLuceneQueriesCacheKey(final String paramName) {
+        if (PARAMS_NOT_IN_QUERIES_CACHE_KEY.contains(paramName)) {
+            return false;
+        }
+        for (final String prefix : PARAM_PREFIXES_NOT_IN_QUERIES_CACHE_KEY) {
+            if (paramName.startsWith(prefix)
+                    && (paramName.length() == prefix.length() || paramName.charAt(prefix.length()) == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean addQuerqyBoostQueriesToMainQuery() {
         return QBOOST_METHOD_OPT.equals(solrParams.get(QBOOST_METHOD, QBOOST_METHOD_DEFAULT));
@@ -17,6 +17,8 @@ import org.apache.solr.search.WrappedQuery;
 import querqy.lucene.LuceneQueries;
 import querqy.lucene.QueryParsingController;
 import querqy.lucene.LuceneSearchEngineRequestAdapter;
+import querqy.lucene.rewrite.TermStatsCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
 import querqy.lucene.rewrite.cache.TermQueryCache;
 import querqy.parser.QuerqyParser;
 import querqy.rewrite.ContextAwareQueryRewriter;
@@ -48,6 +50,39 @@ public class QuerqyDismaxQParser extends QParser {
     public QuerqyDismaxQParser(final String qstr, final SolrParams localParams, final SolrParams params,
                                 final SolrQueryRequest req, final QuerqyParser querqyParser,
                                 final RewriteChain rewriteChain, final TermQueryCache termQueryCache) {
+        this(qstr, localParams, params, req, querqyParser, rewriteChain, termQueryCache, null);
+    }
+
+    /**
+     * Constructor for the QParser
+     *
+     * @param qstr        The part of the query string specific to this parser
+     * @param localParams The set of parameters that are specific to this QParser.  See http://wiki.apache.org/solr/LocalParams
+     * @param params      The rest of the {@link SolrParams}
+     * @param req         The original {@link SolrQueryRequest}.
+     * @param luceneQueriesCache The cache for the queries created by Querqy or null
+     */
+    public QuerqyDismaxQParser(final String qstr, final SolrParams localParams, final SolrParams params,
+                                final SolrQueryRequest req, final QuerqyParser querqyParser,
+                                final RewriteChain rewriteChain, final TermQueryCache termQueryCache,
+                                final LuceneQueriesCache luceneQueriesCache) {
+        this(qstr, localParams, params, req, querqyParser, rewriteChain, termQueryCache, luceneQueriesCache, null);
+    }
+
+    /**
+     * Constructor for the QParser
+     *
+     * @param qstr        The part of the query string specific to this parser
+     * @param localParams The set of parameters that are specific to this QParser.  See http://wiki.apache.org/solr/LocalParams
+     * @param params      The rest of the {@link SolrParams}
+     * @param req         The original {@link SolrQueryRequest}.
+     * @param luceneQueriesCache The cache for the queries created by Querqy or null
+     * @param termStatsCache The cache for the term statistics of the document frequency correction or null
+     */
+    public QuerqyDismaxQParser(final String qstr, final SolrParams localParams, final SolrParams params,
+                                final SolrQueryRequest req, final QuerqyParser querqyParser,
+                                final RewriteChain rewriteChain, final TermQueryCache termQueryCache,
+                                final LuceneQueriesCache luceneQueriesCache, final TermStatsCache termStatsCache) {
         super(qstr, localParams, params, req);
         final String q = Objects.requireNonNull(qstr).trim();
         if (q.isEmpty()) {
@@ -57,7 +92,8 @@ public class QuerqyDismaxQParser extends QParser {
         this.querqyParser = querqyParser;
 
         requestAdapter = new DismaxSearchEngineRequestAdapter(this, req, userQueryString,
-                SolrParams.wrapDefaults(localParams, params), querqyParser, rewriteChain, termQueryCache);
+                SolrParams.wrapDefaults(localParams, params), querqyParser, rewriteChain, termQueryCache,
+                luceneQueriesCache, termStatsCache);
 
 
         controller = new QueryParsingController(requestAdapter);
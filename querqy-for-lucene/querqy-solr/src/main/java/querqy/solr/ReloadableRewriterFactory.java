@@ -0,0 +1,23 @@
+package querqy.solr;
+
+import java.io.IOException;
+
+import querqy.rewrite.RewriterFactory;
+
+/**
+ * A {@link RewriterFactory} that can reload its configuration (for example, its rules) without reloading the Solr
+ * core.
+ *
+ * @see RewriterReloadRequestHandler
+ */
+public interface ReloadableRewriterFactory extends RewriterFactory {
+
+    /**
+     * Reload the configuration. Implementations must keep the previous configuration if reloading fails and must not
+     * affect rewriters that were created before.
+     *
+     * @throws IOException if the configuration cannot be loaded
+     */
+    void reload() throws IOException;
+
+}
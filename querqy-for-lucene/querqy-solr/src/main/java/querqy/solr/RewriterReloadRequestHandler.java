@@ -0,0 +1,87 @@
+package querqy.solr;
+
+import java.io.IOException;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.QParserPlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import querqy.rewrite.RewriterFactory;
+
+/**
+ * <p>Reloads the {@link ReloadableRewriterFactory}s (for example, the Common Rules) in the rewrite chain of a Querqy
+ * query parser without reloading the Solr core.</p>
+ *
+ * <p>Each rewriter factory loads and parses its new configuration before it replaces the current one. Requests that
+ * are processed in the meantime use the previous configuration. If reloading a rewriter factory fails, it keeps its
+ * current configuration.</p>
+ *
+ * <p>Configuration:</p>
+ * <pre>
+ * &lt;requestHandler name="/querqy/rewriter/reload" class="querqy.solr.RewriterReloadRequestHandler"&gt;
+ *     &lt;lst name="defaults"&gt;
+ *         &lt;str name="qParser"&gt;querqy&lt;/str&gt;
+ *     &lt;/lst&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ *
+ * <p>The request parameter qParser names the query parser whose rewriters will be reloaded (default: querqy).</p>
+ */
+public class RewriterReloadRequestHandler extends RequestHandlerBase {
+
+    public static final String PARAM_QPARSER = "qParser";
+    public static final String DEFAULT_QPARSER = "querqy";
+
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public void handleRequestBody(final SolrQueryRequest req, final SolrQueryResponse rsp) throws Exception {
+
+        final String qParserName = req.getParams().get(PARAM_QPARSER, DEFAULT_QPARSER);
+
+        final QParserPlugin plugin = req.getCore().getQueryPlugin(qParserName);
+        if (!(plugin instanceof AbstractQuerqyDismaxQParserPlugin)) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                    "Not a Querqy query parser: " + qParserName);
+        }
+
+        final NamedList<Object> reloaded = new SimpleOrderedMap<>();
+
+        int i = 0;
+        for (final RewriterFactory factory
+                : ((AbstractQuerqyDismaxQParserPlugin) plugin).getRewriteChain().getRewriterFactories()) {
+
+            if (factory instanceof ReloadableRewriterFactory) {
+
+                final long start = System.currentTimeMillis();
+                try {
+                    ((ReloadableRewriterFactory) factory).reload();
+                } catch (final IOException e) {
+                    throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                            "Could not reload rewriter " + i + " of query parser " + qParserName, e);
+                }
+                final long time = System.currentTimeMillis() - start;
+
+                logger.info("Reloaded rewriter {} of query parser {} in {}ms", i, qParserName, time);
+                reloaded.add(Integer.toString(i), time);
+            }
+
+            i++;
+        }
+
+        rsp.add("reloaded", reloaded);
+
+    }
+
+    @Override
+    public String getDescription() {
+        return "Reloads the rewriters of a Querqy query parser";
+    }
+
+}
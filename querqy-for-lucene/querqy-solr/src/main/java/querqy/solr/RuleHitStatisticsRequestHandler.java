@@ -0,0 +1,193 @@
+package querqy.solr;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.QParserPlugin;
+
+import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+import querqy.rewrite.commonrules.model.Instructions;
+import querqy.rewrite.commonrules.model.LayeredTrieMapRulesCollection;
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollection;
+
+/**
+ * <p>Reports the rules that matched most often and the rules that never matched for the Common Rules rewriters of a
+ * Querqy query parser. Rules that never match can be removed from the rules file, which makes the rules smaller and
+ * faster to look up.</p>
+ *
+ * <p>Rule matches are only counted if the Common Rules rewriter is configured with
+ * <code>&lt;bool name="ruleHitStatistics"&gt;true&lt;/bool&gt;</code>. Such rewriters bypass the rewrite cache and the
+ * Lucene queries cache, so that every match is counted.</p>
+ *
+ * <p>The counts start at 0 when the rules are loaded. The rules are shared between cores via the
+ * {@link SharedRulesRegistry}, and so are the counts. A reload only starts from 0 again if it loads new rules. If
+ * the registry still holds rules with the same content and settings, for example because the rules file has not
+ * changed, these rules are reused together with their counts.</p>
+ *
+ * <p>Configuration:</p>
+ * <pre>
+ * &lt;requestHandler name="/querqy/rules/stats" class="querqy.solr.RuleHitStatisticsRequestHandler"&gt;
+ *     &lt;lst name="defaults"&gt;
+ *         &lt;str name="qParser"&gt;querqy&lt;/str&gt;
+ *     &lt;/lst&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ *
+ * <p>Request parameters:</p>
+ * <ul>
+ *     <li>qParser: the name of the query parser (default: querqy)</li>
+ *     <li>rows: the max. number of most frequently matching rules to report per rewriter (default: 10)</li>
+ *     <li>neverHit.rows: the max. number of rules without matches to report per rewriter (default: 100)</li>
+ * </ul>
+ *
+ * <p>The rules are identified by their input and by the line number of their input in the rules file.</p>
+ *
+ * <p>Rules in a {@link TrieMapRulesCollection} (including rules loaded by a
+ * {@link querqy.rewrite.commonrules.CompiledRulesLoader}) and in a {@link LayeredTrieMapRulesCollection} are reported.
+ * Compiled rules are parsed when they are reported for the first time, as the report needs all rules. Rewriters with
+ * other rules collections are listed with <code>supported=false</code> and the class of their rules collection.</p>
+ */
+public class RuleHitStatisticsRequestHandler extends RequestHandlerBase {
+
+    public static final String PARAM_QPARSER = "qParser";
+    public static final String DEFAULT_QPARSER = "querqy";
+
+    public static final String PARAM_ROWS = "rows";
+    public static final int DEFAULT_ROWS = 10;
+
+    public static final String PARAM_NEVER_HIT_ROWS = "neverHit.rows";
+    public static final int DEFAULT_NEVER_HIT_ROWS = 100;
+
+    @Override
+    public void handleRequestBody(final SolrQueryRequest req, final SolrQueryResponse rsp) throws Exception {
+
+        final SolrParams params = req.getParams();
+        final String qParserName = params.get(PARAM_QPARSER, DEFAULT_QPARSER);
+        final int rows = params.getInt(PARAM_ROWS, DEFAULT_ROWS);
+        final int neverHitRows = params.getInt(PARAM_NEVER_HIT_ROWS, DEFAULT_NEVER_HIT_ROWS);
+        if (rows < 0 || neverHitRows < 0) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                    PARAM_ROWS + " and " + PARAM_NEVER_HIT_ROWS + " must not be negative");
+        }
+
+        final QParserPlugin plugin = req.getCore().getQueryPlugin(qParserName);
+        if (!(plugin instanceof AbstractQuerqyDismaxQParserPlugin)) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                    "Not a Querqy query parser: " + qParserName);
+        }
+
+        final NamedList<Object> rewriters = new SimpleOrderedMap<>();
+
+        int i = 0;
+        for (final RewriterFactory factory
+                : ((AbstractQuerqyDismaxQParserPlugin) plugin).getRewriteChain().getRewriterFactories()) {
+
+            if (factory instanceof SimpleCommonRulesRewriterFactory) {
+                final RulesCollection rules = ((SimpleCommonRulesRewriterFactory) factory).getRules();
+                final NamedList<Object> report;
+                if (rules instanceof TrieMapRulesCollection) {
+                    final TrieMapRulesCollection trieMapRules = (TrieMapRulesCollection) rules;
+                    report = report(trieMapRules.getRules(), trieMapRules.isHitStatisticsEnabled(), rows,
+                            neverHitRows);
+                } else if (rules instanceof LayeredTrieMapRulesCollection) {
+                    final LayeredTrieMapRulesCollection layeredRules = (LayeredTrieMapRulesCollection) rules;
+                    report = report(layeredRules.getRules(), layeredRules.isHitStatisticsEnabled(), rows,
+                            neverHitRows);
+                } else {
+                    report = new SimpleOrderedMap<>();
+                    report.add("supported", false);
+                    report.add("rulesCollection", rules.getClass().getName());
+                }
+                rewriters.add(Integer.toString(i), report);
+            }
+
+            i++;
+        }
+
+        rsp.add("rewriters", rewriters);
+
+    }
+
+    protected NamedList<Object> report(final List<Instructions> allRules, final boolean hitStatisticsEnabled,
+                                       final int rows, final int neverHitRows) {
+
+        // keep the rows most frequently matching rules, the rule with the fewest hits at the head. The counts keep
+        // changing while we rank the rules, so we rank a snapshot of them
+        final Comparator<RuleHits> byHits = Comparator.comparingLong(ruleHits -> ruleHits.hits);
+        final PriorityQueue<RuleHits> hottest = new PriorityQueue<>(Math.max(1, rows), byHits);
+        final List<Object> neverHit = new ArrayList<>();
+        int numNeverHit = 0;
+
+        for (final Instructions instructions : allRules) {
+            final long hits = instructions.getHitCount();
+            if (hits == 0L) {
+                if (numNeverHit < neverHitRows) {
+                    neverHit.add(describe(instructions, hits));
+                }
+                numNeverHit++;
+            } else if (rows > 0) {
+                if (hottest.size() < rows) {
+                    hottest.add(new RuleHits(instructions, hits));
+                } else if (hits > hottest.peek().hits) {
+                    hottest.poll();
+                    hottest.add(new RuleHits(instructions, hits));
+                }
+            }
+        }
+
+        final List<RuleHits> sortedHottest = new ArrayList<>(hottest);
+        sortedHottest.sort(byHits.reversed());
+        final List<Object> hottestReport = new ArrayList<>(sortedHottest.size());
+        for (final RuleHits ruleHits : sortedHottest) {
+            hottestReport.add(describe(ruleHits.rule, ruleHits.hits));
+        }
+
+        final NamedList<Object> report = new SimpleOrderedMap<>();
+        report.add("supported", true);
+        report.add("hitStatisticsEnabled", hitStatisticsEnabled);
+        report.add("numRules", allRules.size());
+        report.add("numRulesNeverHit", numNeverHit);
+        report.add("hottest", hottestReport);
+        report.add("neverHit", neverHit);
+        return report;
+    }
+
+    protected NamedList<Object> describe(final Instructions instructions, final long hits) {
+        final NamedList<Object> rule = new SimpleOrderedMap<>();
+        rule.add("line", instructions.getLineNumber());
+        rule.add("input", instructions.getInput());
+        rule.add("hits", hits);
+        return rule;
+    }
+
+    /**
+     * A rule and its hit count at the time when the count was read
+     */
+    static class RuleHits {
+
+        final Instructions rule;
+        final long hits;
+
+        RuleHits(final Instructions rule, final long hits) {
+            this.rule = rule;
+            this.hits = hits;
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Reports rule hit statistics of the Common Rules rewriters of a Querqy query parser";
+    }
+
+}
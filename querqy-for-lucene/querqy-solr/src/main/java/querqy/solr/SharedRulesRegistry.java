@@ -0,0 +1,262 @@
+package querqy.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.analysis.util.ResourceLoader;
+
+import querqy.rewrite.commonrules.model.RulesCollection;
+
+/**
+ * <p>A JVM-wide registry of {@link RulesCollection}s that allows Solr cores which load identical rules with identical
+ * settings to share a single, immutable RulesCollection.</p>
+ *
+ * <p>Rule sets are identified by a {@link Key}, which consists of a hash of the rules content and of the settings
+ * that influence parsing the rules. Each user of a rule set holds a {@link Lease}. The rule set is removed from the
+ * registry once the last lease has been closed, which normally happens when the last core that uses the rules is
+ * unloaded.</p>
+ */
+public class SharedRulesRegistry {
+
+    private static final SharedRulesRegistry INSTANCE = new SharedRulesRegistry();
+
+    public static SharedRulesRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * Get the rules for a key. The rules are created using the loader if they are not yet registered.
+     *
+     * @param key The key of the rules
+     * @param loader Creates the rules if they are not yet registered
+     * @return A lease for the rules, which must be closed once the rules are no longer used
+     * @throws IOException if the rules cannot be loaded
+     */
+    public Lease acquire(final Key key, final RulesLoader loader) throws IOException {
+
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+            entry.refCount++;
+        }
+
+        // load outside the registry lock so that cores with different rules can load in parallel
+        try {
+            return new Lease(key, entry, entry.getRules(loader));
+        } catch (final IOException | RuntimeException e) {
+            release(key, entry);
+            throw e;
+        }
+    }
+
+    protected void release(final Key key, final Entry entry) {
+        synchronized (entries) {
+            if (--entry.refCount == 0) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return The number of registered rule sets
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @param key The key of the rules
+     * @return The number of open leases for the rules
+     */
+    public int getRefCount(final Key key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            return entry == null ? 0 : entry.refCount;
+        }
+    }
+
+    /**
+     * Read a resource completely, so that it can be hashed and parsed afterwards.
+     *
+     * @param resourceLoader The resource loader
+     * @param resourceName The name of the resource
+     * @return The content of the resource
+     * @throws IOException if the resource cannot be read
+     */
+    public static byte[] readResource(final ResourceLoader resourceLoader, final String resourceName)
+            throws IOException {
+        try (final InputStream in = resourceLoader.openResource(resourceName)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Create a hash over one or more contents. The hash distinguishes the boundaries between the contents.
+     *
+     * @param contents The contents
+     * @return A hex-encoded SHA-256 hash
+     */
+    public static String hash(final byte[]... contents) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        for (final byte[] content : contents) {
+            digest.update(Integer.toString(content.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) ':');
+            digest.update(content);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates the rules if they are not yet registered.
+     */
+    public interface RulesLoader {
+
+        RulesCollection load() throws IOException;
+
+    }
+
+    /**
+     * Identifies a rule set by the hash of its content and the settings that were used to parse it.
+     */
+    public static class Key {
+
+        final String contentHash;
+        final boolean ignoreCase;
+        final String settings;
+
+        /**
+         * @param contentHash A hash of the rules content (see {@link SharedRulesRegistry#hash(byte[]...)})
+         * @param ignoreCase The ignoreCase setting
+         * @param settings Further settings that influence parsing the rules, for example the class name of the
+         *                 querqy parser
+         */
+        public Key(final String contentHash, final boolean ignoreCase, final String settings) {
+            if (contentHash == null) {
+                throw new IllegalArgumentException("contentHash must not be null");
+            }
+            this.contentHash = contentHash;
+            this.ignoreCase = ignoreCase;
+            this.settings = settings;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + contentHash.hashCode();
+            result = prime * result + (ignoreCase ? 1231 : 1237);
+            result = prime * result + ((settings == null) ? 0 : settings.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            final Key other = (Key) obj;
+            if (!contentHash.equals(other.contentHash))
+                return false;
+            if (ignoreCase != other.ignoreCase)
+                return false;
+            if (settings == null) {
+                if (other.settings != null)
+                    return false;
+            } else if (!settings.equals(other.settings))
+                return false;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "Key [contentHash=" + contentHash + ", ignoreCase=" + ignoreCase + ", settings=" + settings + "]";
+        }
+
+    }
+
+    /**
+     * Gives access to registered rules. The rules are released when the lease is closed. Closing a lease more than
+     * once has no effect.
+     */
+    public class Lease implements Closeable {
+
+        final Key key;
+        final Entry entry;
+        final RulesCollection rules;
+        final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Lease(final Key key, final Entry entry, final RulesCollection rules) {
+            this.key = key;
+            this.entry = entry;
+            this.rules = rules;
+        }
+
+        public RulesCollection getRules() {
+            return rules;
+        }
+
+        public Key getKey() {
+            return key;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(key, entry);
+            }
+        }
+
+    }
+
+    static class Entry {
+
+        int refCount = 0; // guarded by the registry's entries map
+        RulesCollection rules = null;
+
+        synchronized RulesCollection getRules(final RulesLoader loader) throws IOException {
+            if (rules == null) {
+                rules = loader.load();
+                if (rules == null) {
+                    throw new IOException("RulesLoader returned null");
+                }
+            }
+            return rules;
+        }
+
+    }
+
+}
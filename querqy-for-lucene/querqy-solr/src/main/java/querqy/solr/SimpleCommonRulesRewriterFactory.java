@@ -3,15 +3,26 @@
  */
 package querqy.solr;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.solr.common.util.NamedList;
 
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 import querqy.rewrite.commonrules.QuerqyParserFactory;
+import querqy.rewrite.commonrules.RuleParseException;
+import querqy.rewrite.commonrules.SimpleCommonRulesParser;
 import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollection;
 
 /**
  * @author René Kriegler, @renekrie
@@ -36,6 +47,12 @@ public class SimpleCommonRulesRewriterFactory implements RewriterFactoryAdapter
 
         final Boolean ignoreCase = args.getBooleanArg("ignoreCase");
 
+        // parse large rule files using the threads of the common ForkJoinPool
+        final Boolean parallelParsing = args.getBooleanArg("parallelParsing");
+
+        // count how often each rule matches (see RuleHitStatisticsRequestHandler)
+        final Boolean ruleHitStatistics = args.getBooleanArg("ruleHitStatistics");
+
         // querqy parser for queries that are part of the instructions in the
         // rules
         String rulesQuerqyParser = (String) args.get("querqyParser");
@@ -51,10 +68,162 @@ public class SimpleCommonRulesRewriterFactory implements RewriterFactoryAdapter
             querqyParser = new WhiteSpaceQuerqyParserFactory();
         }
 
-        return new querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory(
-                new InputStreamReader(resourceLoader.openResource(rulesResourceName), "UTF-8"),
-                querqyParser,
-                ignoreCase == null || ignoreCase);
+        return new ReloadableCommonRulesRewriterFactory(resourceLoader, rulesResourceName, querqyParser,
+                ignoreCase == null || ignoreCase, parallelParsing != null && parallelParsing,
+                ruleHitStatistics != null && ruleHitStatistics);
+    }
+
+    /**
+     * A {@link querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory} that re-reads the rules from the
+     * {@link ResourceLoader} when it is reloaded.
+     *
+     * <p>The rules are obtained from the {@link SharedRulesRegistry}, so that cores that load identical rules with the
+     * same settings share them. The rules are released when the factory is closed.</p>
+     *
+     * <p>If rule hit statistics are enabled, the rules count how often they match. Rules with hit statistics are
+     * registered separately from rules without them, so that cores that don't ask for statistics don't pay for the
+     * counting. As the counts are kept in the rules, they are shared with the other cores that use the same rules
+     * with statistics. Enabling the statistics bypasses the rewrite cache and the Lucene queries cache so that every
+     * rule match is counted.</p>
+     */
+    public static class ReloadableCommonRulesRewriterFactory
+            extends querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory
+            implements ReloadableRewriterFactory, Closeable {
+
+        final ResourceLoader resourceLoader;
+        final String rulesResourceName;
+        final QuerqyParserFactory querqyParserFactory;
+        final boolean ignoreCase;
+        final boolean parallelParsing;
+        final boolean ruleHitStatistics;
+
+        private SharedRulesRegistry.Lease lease; // guarded by this
+
+        public ReloadableCommonRulesRewriterFactory(final ResourceLoader resourceLoader,
+                                                    final String rulesResourceName,
+                                                    final QuerqyParserFactory querqyParserFactory,
+                                                    final boolean ignoreCase) throws IOException {
+            this(resourceLoader, rulesResourceName, querqyParserFactory, ignoreCase, false);
+        }
+
+        public ReloadableCommonRulesRewriterFactory(final ResourceLoader resourceLoader,
+                                                    final String rulesResourceName,
+                                                    final QuerqyParserFactory querqyParserFactory,
+                                                    final boolean ignoreCase,
+                                                    final boolean parallelParsing) throws IOException {
+            this(resourceLoader, rulesResourceName, querqyParserFactory, ignoreCase, parallelParsing, false);
+        }
+
+        public ReloadableCommonRulesRewriterFactory(final ResourceLoader resourceLoader,
+                                                    final String rulesResourceName,
+                                                    final QuerqyParserFactory querqyParserFactory,
+                                                    final boolean ignoreCase,
+                                                    final boolean parallelParsing,
+                                                    final boolean ruleHitStatistics) throws IOException {
+            this(resourceLoader, rulesResourceName, querqyParserFactory, ignoreCase, parallelParsing,
+                    ruleHitStatistics, acquireRules(resourceLoader, rulesResourceName, querqyParserFactory,
+                            ignoreCase, parallelParsing, ruleHitStatistics));
+        }
+
+        private ReloadableCommonRulesRewriterFactory(final ResourceLoader resourceLoader,
+                                                     final String rulesResourceName,
+                                                     final QuerqyParserFactory querqyParserFactory,
+                                                     final boolean ignoreCase,
+                                                     final boolean parallelParsing,
+                                                     final boolean ruleHitStatistics,
+                                                     final SharedRulesRegistry.Lease lease) {
+            super(lease.getRules());
+            this.resourceLoader = resourceLoader;
+            this.rulesResourceName = rulesResourceName;
+            this.querqyParserFactory = querqyParserFactory;
+            this.ignoreCase = ignoreCase;
+            this.parallelParsing = parallelParsing;
+            this.ruleHitStatistics = ruleHitStatistics;
+            this.lease = lease;
+        }
+
+        /**
+         * Parse the rules again and replace the current rules once they have been parsed successfully.
+         *
+         * @throws IOException if the rules cannot be read or parsed. The current rules are kept in this case.
+         */
+        @Override
+        public synchronized void reload() throws IOException {
+            final SharedRulesRegistry.Lease newLease = acquireRules(resourceLoader, rulesResourceName,
+                    querqyParserFactory, ignoreCase, parallelParsing, ruleHitStatistics);
+            setRules(newLease.getRules());
+            if (lease != null) {
+                lease.close();
+            }
+            lease = newLease;
+        }
+
+        /**
+         * Release the rules. This factory must not be used any longer after it has been closed.
+         */
+        @Override
+        public synchronized void close() {
+            if (lease != null) {
+                lease.close();
+                lease = null;
+            }
+        }
+
+        public String getRulesResourceName() {
+            return rulesResourceName;
+        }
+
+        /**
+         * Rewrites are not cached if rule hit statistics are enabled, as cached rewrites would not be counted.
+         */
+        @Override
+        public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                            final List<Object> key) {
+            return !ruleHitStatistics && super.addToRewriteCacheKey(searchEngineRequestAdapter, key);
+        }
+
+        static SharedRulesRegistry.Lease acquireRules(final ResourceLoader resourceLoader,
+                                                      final String rulesResourceName,
+                                                      final QuerqyParserFactory querqyParserFactory,
+                                                      final boolean ignoreCase,
+                                                      final boolean parallelParsing,
+                                                      final boolean ruleHitStatistics) throws IOException {
+
+            final byte[] content = SharedRulesRegistry.readResource(resourceLoader, rulesResourceName);
+
+            final SharedRulesRegistry.Key key = new SharedRulesRegistry.Key(SharedRulesRegistry.hash(content),
+                    ignoreCase, SimpleCommonRulesRewriterFactory.class.getName() + ":"
+                    + querqyParserFactory.getClass().getName() + (ruleHitStatistics ? ":ruleHitStatistics" : ""));
+
+            return SharedRulesRegistry.getInstance().acquire(key,
+                    () -> loadRules(content, rulesResourceName, querqyParserFactory, ignoreCase, parallelParsing,
+                            ruleHitStatistics));
+        }
+
+        static RulesCollection loadRules(final byte[] content, final String rulesResourceName,
+                                         final QuerqyParserFactory querqyParserFactory, final boolean ignoreCase,
+                                         final boolean parallelParsing, final boolean ruleHitStatistics)
+                throws IOException {
+
+            try (final Reader reader = new InputStreamReader(new ByteArrayInputStream(content),
+                    StandardCharsets.UTF_8)) {
+                final SimpleCommonRulesParser parser = new SimpleCommonRulesParser(reader, querqyParserFactory,
+                        ignoreCase);
+                final RulesCollection rules = parallelParsing
+                        ? parser.parse(ForkJoinPool.commonPool()) : parser.parse();
+                if (ruleHitStatistics) {
+                    if (!(rules instanceof TrieMapRulesCollection)) {
+                        throw new IOException("Rule hit statistics are not supported for "
+                                + rules.getClass().getName());
+                    }
+                    ((TrieMapRulesCollection) rules).setHitStatisticsEnabled(true);
+                }
+                return rules;
+            } catch (final RuleParseException e) {
+                throw new IOException("Cannot parse rules in " + rulesResourceName, e);
+            }
+        }
+
     }
 
 }
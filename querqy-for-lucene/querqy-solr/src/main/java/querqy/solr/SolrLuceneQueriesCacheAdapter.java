@@ -0,0 +1,31 @@
+package querqy.solr;
+
+import org.apache.solr.search.SolrCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCache;
+import querqy.lucene.rewrite.cache.LuceneQueriesCacheValue;
+
+/**
+ * A {@link LuceneQueriesCache} that delegates to a {@link SolrCache} of the current searcher.
+ */
+public class SolrLuceneQueriesCacheAdapter implements LuceneQueriesCache {
+
+    private final SolrCache<Object, LuceneQueriesCacheValue> delegate;
+
+    public SolrLuceneQueriesCacheAdapter(final SolrCache<Object, LuceneQueriesCacheValue> delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Solr cache must not be null");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void put(final Object key, final LuceneQueriesCacheValue value) {
+        delegate.put(key, value);
+    }
+
+    @Override
+    public LuceneQueriesCacheValue get(final Object key) {
+        return delegate.get(key);
+    }
+
+}
@@ -0,0 +1,91 @@
+package querqy.solr;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricManager;
+import querqy.rewrite.RewriteCache;
+import querqy.rewrite.RewriteChain;
+import querqy.rewrite.RewriteChainMetrics;
+import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.commonrules.CommonRulesMetrics;
+import querqy.rewrite.commonrules.SimpleCommonRulesRewriterFactory;
+
+/**
+ * <p>Registers the metrics of a {@link RewriteChain} with Solr's {@link SolrMetricManager}.</p>
+ *
+ * <p>For each rewriter in the chain, a timer named
+ * <code>QUERYPARSER.&lt;scope&gt;.rewriter.&lt;position&gt;_&lt;factory class&gt;.time</code> is registered.
+ * Common Rules rewriters additionally expose the number of looked up input sequences, of matched rules and of the
+ * applied instructions by instruction type as gauges. If the chain has a {@link RewriteCache}, counters for cache hits
+ * and misses and a gauge for the cache size are registered under <code>QUERYPARSER.&lt;scope&gt;.rewriteCache</code>.
+ * </p>
+ */
+public class SolrRewriteChainMetrics implements RewriteChainMetrics {
+
+    private final Timer[] rewriterTimers;
+    private final Counter rewriteCacheHits;
+    private final Counter rewriteCacheMisses;
+
+    public SolrRewriteChainMetrics(final SolrInfoBean info, final SolrMetricManager manager, final String registry,
+                                   final String scope, final RewriteChain rewriteChain) {
+
+        final String category = info.getCategory().toString();
+
+        final List<RewriterFactory> factories = rewriteChain.getRewriterFactories();
+        rewriterTimers = new Timer[factories.size()];
+
+        int position = 0;
+        for (final RewriterFactory factory : factories) {
+
+            final String rewriterName = position + "_" + factory.getClass().getSimpleName();
+            rewriterTimers[position] = manager.timer(info, registry, "time", category, scope, "rewriter",
+                    rewriterName);
+
+            if (factory instanceof SimpleCommonRulesRewriterFactory) {
+                final CommonRulesMetrics metrics = ((SimpleCommonRulesRewriterFactory) factory).getMetrics();
+                manager.registerGauge(info, registry, (Gauge<Long>) metrics::getSequencesLookedUp, true,
+                        "sequencesLookedUp", category, scope, "rewriter", rewriterName);
+                manager.registerGauge(info, registry, (Gauge<Long>) metrics::getActionsMatched, true,
+                        "actionsMatched", category, scope, "rewriter", rewriterName);
+                manager.registerGauge(info, registry, new MetricsMap((detailed, map) -> {
+                            for (final Map.Entry<String, Long> entry : metrics.getInstructionsApplied().entrySet()) {
+                                map.put(entry.getKey(), entry.getValue());
+                            }
+                        }), true, "instructionsApplied", category, scope, "rewriter", rewriterName);
+            }
+
+            position++;
+        }
+
+        final RewriteCache rewriteCache = rewriteChain.getRewriteCache();
+        if (rewriteCache != null) {
+            rewriteCacheHits = manager.counter(info, registry, "hits", category, scope, "rewriteCache");
+            rewriteCacheMisses = manager.counter(info, registry, "misses", category, scope, "rewriteCache");
+            manager.registerGauge(info, registry, (Gauge<Integer>) rewriteCache::size, true, "size", category, scope,
+                    "rewriteCache");
+        } else {
+            rewriteCacheHits = rewriteCacheMisses = null;
+        }
+
+    }
+
+    @Override
+    public void rewriterApplied(final int position, final RewriterFactory factory, final long durationNanos) {
+        rewriterTimers[position].update(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rewriteCacheLookup(final boolean hit) {
+        if (rewriteCacheHits != null) {
+            (hit ? rewriteCacheHits : rewriteCacheMisses).inc();
+        }
+    }
+
+}
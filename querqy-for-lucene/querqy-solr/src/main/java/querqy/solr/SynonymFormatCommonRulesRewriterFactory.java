@@ -4,6 +4,8 @@
 package querqy.solr;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Collections;
@@ -23,6 +25,7 @@ import querqy.model.Query;
 import querqy.model.Term;
 import querqy.rewrite.QueryRewriter;
 import querqy.rewrite.RewriterFactory;
+import querqy.rewrite.SearchEngineRequestAdapter;
 import querqy.rewrite.commonrules.CommonRulesRewriter;
 import querqy.rewrite.commonrules.model.BoostInstruction;
 import querqy.rewrite.commonrules.model.BoostInstruction.BoostDirection;
@@ -62,24 +65,42 @@ public class SynonymFormatCommonRulesRewriterFactory implements
          throw new IllegalArgumentException("At least on of boostUp or boostDown must be configured");
       }
 
-      RulesCollectionBuilder builder = new TrieMapRulesCollectionBuilder(ignoreCase != null && ignoreCase);
+      final boolean ignoreCaseValue = ignoreCase != null && ignoreCase;
 
-      if (boostUp != null) {
-         addBoostInstructions(builder, BoostDirection.UP, 1f, resourceLoader, boostUp);
-      }
+      // the boostUp and boostDown contents are read once to find identical rules in the SharedRulesRegistry
+      final byte[] boostUpContent = boostUp == null ? null : SharedRulesRegistry.readResource(resourceLoader, boostUp);
+      final byte[] boostDownContent = boostDown == null
+            ? null : SharedRulesRegistry.readResource(resourceLoader, boostDown);
 
-      if (boostDown != null) {
-         addBoostInstructions(builder, BoostDirection.DOWN, 1f, resourceLoader, boostDown);
-      }
+      final SharedRulesRegistry.Key key = new SharedRulesRegistry.Key(
+            SharedRulesRegistry.hash(boostUpContent == null ? new byte[0] : boostUpContent,
+                  boostDownContent == null ? new byte[0] : boostDownContent),
+            ignoreCaseValue,
+            getClass().getName() + ":boostUp=" + (boostUp != null) + ",boostDown=" + (boostDown != null));
+
+      final SharedRulesRegistry.Lease lease = SharedRulesRegistry.getInstance().acquire(key, () -> {
+
+         RulesCollectionBuilder builder = new TrieMapRulesCollectionBuilder(ignoreCaseValue);
+
+         if (boostUpContent != null) {
+            addBoostInstructions(builder, BoostDirection.UP, 1f, boostUpContent);
+         }
+
+         if (boostDownContent != null) {
+            addBoostInstructions(builder, BoostDirection.DOWN, 1f, boostDownContent);
+         }
+
+         return builder.build();
+      });
 
-      return new RulesRewriterFactory(builder.build());
+      return new RulesRewriterFactory(lease);
    }
 
    void addBoostInstructions(RulesCollectionBuilder builder, BoostDirection direction, float boost,
-         ResourceLoader resourceLoader, String resourceName) throws IOException {
+         byte[] content) throws IOException {
 
       try (
-            BufferedReader reader = new BufferedReader(new InputStreamReader(resourceLoader.openResource(resourceName)))) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content)))) {
 
          String line;
 
@@ -180,12 +201,29 @@ public class SynonymFormatCommonRulesRewriterFactory implements
 
    }
 
-   public static class RulesRewriterFactory implements RewriterFactory {
+   public static class RulesRewriterFactory implements RewriterFactory, Closeable {
 
       final RulesCollection rules;
+      final SharedRulesRegistry.Lease lease;
 
       public RulesRewriterFactory(RulesCollection rules) {
          this.rules = rules;
+         this.lease = null;
+      }
+
+      public RulesRewriterFactory(SharedRulesRegistry.Lease lease) {
+         this.rules = lease.getRules();
+         this.lease = lease;
+      }
+
+      /**
+       * Releases the rules if they were obtained from the {@link SharedRulesRegistry}.
+       */
+      @Override
+      public void close() {
+         if (lease != null) {
+            lease.close();
+         }
       }
 
       @Override
@@ -203,6 +241,12 @@ public class SynonymFormatCommonRulesRewriterFactory implements
         return result;
     }
 
+    @Override
+    public boolean addToRewriteCacheKey(final SearchEngineRequestAdapter searchEngineRequestAdapter,
+                                        final List<Object> key) {
+        return true;
+    }
+
    }
 
 }
@@ -4,20 +4,28 @@
 package querqy.solr;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.solr.common.util.ExecutorUtil;
 import org.apache.solr.core.AbstractSolrEventListener;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import querqy.lucene.rewrite.LuceneTermQueryBuilder;
 import querqy.lucene.rewrite.*;
 import querqy.lucene.rewrite.cache.CacheKey;
 import querqy.lucene.rewrite.cache.TermQueryCache;
@@ -28,6 +36,16 @@ import querqy.rewrite.RewriteChain;
 import querqy.rewrite.RewriterFactory;
 
 /**
+ * <p>Preloads the TermQueryCache with the terms that the rewriters can generate.</p>
+ *
+ * <p>The terms can be preloaded by several threads ({@value #CONF_THREADS}). If a time budget is configured
+ * ({@value #CONF_TIME_BUDGET_MILLIS}), the new searcher is registered once the budget is used up, and the remaining
+ * terms are preloaded in the background.</p>
+ *
+ * <p>The text analysis of the terms doesn't depend on the searcher. When a new searcher is opened, the analysis results
+ * of the terms that were preloaded for the previous searcher are re-used and only terms that weren't preloaded before
+ * are analyzed. Only the test for hits is repeated for all terms.</p>
+ *
  * @author rene
  *
  */
@@ -42,6 +60,16 @@ public class TermQueryCachePreloader extends AbstractSolrEventListener {
     public static final String CONF_CACHE_NAME = "cacheName";
     
     public static final String CONF_TEST_FOR_HITS = "testForHits";
+
+    public static final String CONF_THREADS = "threads";
+
+    public static final String CONF_TIME_BUDGET_MILLIS = "timeBudgetMillis";
+
+    // the preloading for the last searcher while it is still running in the background
+    final AtomicReference<Preloading> currentPreloading = new AtomicReference<>();
+
+    // the analysis results of the preloading for the last searcher
+    volatile Map<CacheKey, AnalyzedTerm> lastAnalyzedTerms = null;
     
     public TermQueryCachePreloader(SolrCore core) {
         super(core);
@@ -85,6 +113,34 @@ public class TermQueryCachePreloader extends AbstractSolrEventListener {
         final Boolean doTest = getArgs().getBooleanArg(CONF_TEST_FOR_HITS);
         return doTest != null && doTest;
     }
+
+    protected int getThreads() {
+        final Object conf = getArgs().get(CONF_THREADS);
+        if (conf == null) {
+            return 1;
+        }
+        final int threads = ((Number) conf).intValue();
+        if (threads < 1) {
+            throw new RuntimeException(CONF_THREADS + " must be > 0");
+        }
+        return threads;
+    }
+
+    /**
+     * @return The max. time to block the searcher registration in ms or 0 if all terms must be preloaded before the
+     *         searcher is registered.
+     */
+    protected long getTimeBudgetMillis() {
+        final Object budget = getArgs().get(CONF_TIME_BUDGET_MILLIS);
+        if (budget == null) {
+            return 0L;
+        }
+        final long millis = ((Number) budget).longValue();
+        if (millis < 0L) {
+            throw new RuntimeException(CONF_TIME_BUDGET_MILLIS + " must not be negative");
+        }
+        return millis;
+    }
     
     @Override
     public void newSearcher(final SolrIndexSearcher newSearcher, final SolrIndexSearcher currentSearcher) {
@@ -96,74 +152,222 @@ public class TermQueryCachePreloader extends AbstractSolrEventListener {
         final boolean testForHits = isTestForHits();
         
         LOG.info("Starting preload for Querqy TermQueryCache. Testing for hits: {}", testForHits);
-        final long t1 = System.currentTimeMillis();
-        
         
         final AbstractQuerqyDismaxQParserPlugin queryPluginPlugin = getQParserPlugin();
         final RewriteChain rewriteChain = queryPluginPlugin.getRewriteChain();
         
+        final List<PreloadTerm> preloadTerms = new ArrayList<>();
         if (rewriteChain != null && !preloadFields.isEmpty()) {
-        
-            final List<RewriterFactory> factories = rewriteChain.getRewriterFactories();
-            if (!factories.isEmpty()) {
-            
-                final TermSubQueryBuilder termSubQueryBuilder = new TermSubQueryBuilder(newSearcher.getSchema().getQueryAnalyzer(), cache);
-                for (final RewriterFactory factory : factories) {
-                    for (final Term term: factory.getGenerableTerms()) {
-                        final String field = term.getField();
-                        if (field != null) {
-                            if (preloadFields.containsKey(field)) {
-                                preloadTerm(newSearcher, termSubQueryBuilder, field, term, testForHits, cache);
-                            }
-                        } else {
-                            for (final String fieldname : preloadFields.keySet()) {
-                                preloadTerm(newSearcher, termSubQueryBuilder, fieldname, term, testForHits, cache);
-                            }
+            // the same term might be generated by more than one rewriter
+            final Set<CacheKey> seen = new HashSet<>();
+            for (final RewriterFactory factory : rewriteChain.getRewriterFactories()) {
+                for (final Term term: factory.getGenerableTerms()) {
+                    final String field = term.getField();
+                    if (field != null) {
+                        if (preloadFields.containsKey(field)) {
+                            addPreloadTerm(preloadTerms, seen, field, term);
+                        }
+                    } else {
+                        for (final String fieldname : preloadFields.keySet()) {
+                            addPreloadTerm(preloadTerms, seen, fieldname, term);
                         }
                     }
                 }
-                
             }
-            
         }
-        
-        if (LOG.isInfoEnabled()) {
-            final long t2 = System.currentTimeMillis();
-            LOG.info("Finished preload for Querqy TermQueryCache after {}ms", (t2 - t1));
+
+        final TermSubQueryBuilder termSubQueryBuilder = new TermSubQueryBuilder(
+                newSearcher.getSchema().getQueryAnalyzer(), null);
+
+        final Preloading preloading = new Preloading(newSearcher, termSubQueryBuilder, preloadTerms, testForHits,
+                cache, lastAnalyzedTerms);
+        // the terms of an older searcher that are still being preloaded in the background aren't needed anymore
+        final Preloading previous = currentPreloading.getAndSet(preloading);
+        if (previous != null) {
+            previous.cancel();
+        }
+        lastAnalyzedTerms = preloading.analyzedTerms;
+
+        final int threads = getThreads();
+        final long timeBudgetMillis = getTimeBudgetMillis();
+
+        if (threads == 1 && timeBudgetMillis == 0L) {
+            preloading.run();
+            return;
+        }
+
+        final ExecutorService executor = ExecutorUtil.newMDCAwareFixedThreadPool(threads,
+                new DefaultSolrThreadFactory("querqyTermQueryCachePreloader"));
+        for (int i = 0; i < threads; i++) {
+            executor.execute(preloading::run);
+        }
+        // the threads end once all terms have been preloaded
+        executor.shutdown();
+
+        try {
+            final boolean finished = executor.awaitTermination(
+                    timeBudgetMillis > 0L ? timeBudgetMillis : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (!finished) {
+                LOG.info("Time budget of {}ms for preloading Querqy TermQueryCache used up after {} of {} terms. " +
+                        "Continuing in the background.", timeBudgetMillis, preloading.numDone.get(),
+                        preloadTerms.size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            preloading.cancel();
         }
         
     }
-    
 
-    protected void preloadTerm(final IndexSearcher searcher, final TermSubQueryBuilder termSubQueryBuilder,
-                               final String field, final Term term, final boolean testForHits,
-                               final TermQueryCache cache) {
-        
-        try {
-            
-            // luceneQueryBuilder.termToFactory creates the query and caches it (without the boost)
-            final TermSubQueryFactory termSubQueryFactory
-                    = termSubQueryBuilder.termToFactory(field, term, ConstantFieldBoost.NORM_BOOST);
-            
-            // test the query for hits and override the cache value with a factory that creates a query that never matches
-            // --> this query will never be executed against the index again
-            
-            // no need to re-test for hits if we've seen this term before
-            if (testForHits && (termSubQueryFactory != null) && (!termSubQueryFactory.isNeverMatchQuery())) {
-                final Query query = termSubQueryFactory
-                        .createQuery(ConstantFieldBoost.NORM_BOOST, 0.01f, new LuceneTermQueryBuilder());
-                final TopDocs topDocs = searcher.search(query, 1);
-                if (topDocs.totalHits < 1) {
-                    cache.put(new CacheKey(field, term),
-                            new TermQueryCacheValue(NeverMatchQueryFactory.FACTORY, PRMSQuery.NEVER_MATCH_PRMS_QUERY));
+    private static void addPreloadTerm(final List<PreloadTerm> preloadTerms, final Set<CacheKey> seen,
+                                       final String field, final Term term) {
+        final CacheKey key = new CacheKey(field, term);
+        if (seen.add(key)) {
+            preloadTerms.add(new PreloadTerm(field, term, key));
+        }
+    }
+
+    /**
+     * The preloading of the terms for one searcher. Threads take the next term to preload from a shared counter so that
+     * the work is balanced across the threads.
+     */
+    class Preloading implements Runnable {
+
+        final SolrIndexSearcher searcher;
+        final TermSubQueryBuilder termSubQueryBuilder;
+        final List<PreloadTerm> preloadTerms;
+        final boolean testForHits;
+        final TermQueryCache cache;
+        // the analysis results of the previous searcher's preloading, might be null
+        final Map<CacheKey, AnalyzedTerm> previousAnalyzedTerms;
+        final Map<CacheKey, AnalyzedTerm> analyzedTerms = new ConcurrentHashMap<>();
+        final AtomicInteger numAnalyzed = new AtomicInteger();
+        final int progressStep;
+        final long startMillis = System.currentTimeMillis();
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger numDone = new AtomicInteger();
+        volatile boolean cancelled = false;
+
+        Preloading(final SolrIndexSearcher searcher, final TermSubQueryBuilder termSubQueryBuilder,
+                   final List<PreloadTerm> preloadTerms, final boolean testForHits, final TermQueryCache cache,
+                   final Map<CacheKey, AnalyzedTerm> previousAnalyzedTerms) {
+            this.searcher = searcher;
+            this.termSubQueryBuilder = termSubQueryBuilder;
+            this.preloadTerms = preloadTerms;
+            this.testForHits = testForHits;
+            this.cache = cache;
+            this.previousAnalyzedTerms = previousAnalyzedTerms;
+            progressStep = Math.max(100, preloadTerms.size() / 10);
+        }
+
+        @Override
+        public void run() {
+
+            if (preloadTerms.isEmpty()) {
+                finished();
+                return;
+            }
+
+            int i;
+            while (!cancelled && (i = next.getAndIncrement()) < preloadTerms.size()) {
+
+                final PreloadTerm preloadTerm = preloadTerms.get(i);
+                try {
+                    AnalyzedTerm analyzedTerm = previousAnalyzedTerms == null
+                            ? null : previousAnalyzedTerms.get(preloadTerm.key);
+                    if (analyzedTerm == null) {
+                        analyzedTerm = new AnalyzedTerm(
+                                termSubQueryBuilder.analyze(preloadTerm.field, preloadTerm.term));
+                        numAnalyzed.incrementAndGet();
+                    }
+                    analyzedTerms.put(preloadTerm.key, analyzedTerm);
+
+                    if (analyzedTerm.queryFactoryAndPRMSQuery != null) {
+                        preloadTerm(searcher, preloadTerm.key, analyzedTerm.queryFactoryAndPRMSQuery, testForHits,
+                                cache);
+                    }
+                } catch (final AlreadyClosedException e) {
+                    LOG.info("Searcher closed, stopping preload for Querqy TermQueryCache");
+                    cancel();
+                    return;
+                } catch (final IOException | RuntimeException e) {
+                    // keep counting the term as done, so that the preloading finishes and releases the searcher
+                    LOG.error("Error preloading term " + preloadTerm.term.toString(), e);
+                }
+
+                final int done = numDone.incrementAndGet();
+                if (done == preloadTerms.size()) {
+                    finished();
+                } else if (done % progressStep == 0) {
+                    LOG.info("Preloaded {} of {} terms for Querqy TermQueryCache", done, preloadTerms.size());
                 }
             }
-        
-        } catch (final IOException e) {
-            LOG.error("Error preloading term " + term.toString(), e);
+        }
+
+        void cancel() {
+            cancelled = true;
+            currentPreloading.compareAndSet(this, null);
+        }
+
+        void finished() {
+            // don't keep a reference to the searcher
+            currentPreloading.compareAndSet(this, null);
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Finished preload for Querqy TermQueryCache after {}ms. Analyzed {} of {} terms.",
+                        (System.currentTimeMillis() - startMillis), numAnalyzed.get(), preloadTerms.size());
+            }
+        }
+    }
+
+    static class PreloadTerm {
+
+        final String field;
+        final Term term;
+        final CacheKey key;
+
+        PreloadTerm(final String field, final Term term, final CacheKey key) {
+            this.field = field;
+            this.term = term;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The searcher-independent analysis result of a term. queryFactoryAndPRMSQuery is null if the analysis didn't
+     * produce any tokens.
+     */
+    static class AnalyzedTerm {
+
+        final LuceneQueryFactoryAndPRMSQuery queryFactoryAndPRMSQuery;
+
+        AnalyzedTerm(final LuceneQueryFactoryAndPRMSQuery queryFactoryAndPRMSQuery) {
+            this.queryFactoryAndPRMSQuery = queryFactoryAndPRMSQuery;
         }
     }
     
 
+    /**
+     * Puts the analyzed term into the cache. If testForHits is true and the term doesn't match any document in the
+     * searcher, a value that never matches is put into the cache instead.
+     */
+    protected void preloadTerm(final IndexSearcher searcher, final CacheKey key,
+                               final LuceneQueryFactoryAndPRMSQuery analyzedTerm, final boolean testForHits,
+                               final TermQueryCache cache) throws IOException {
+
+        // test the query for hits and put a factory that creates a query that never matches into the cache
+        // --> this query will never be executed against the index again
+        // (single terms are looked up in the term dictionary, only conjunctions need to iterate documents)
+        if (testForHits) {
+            if (!HitTester.hasHits(searcher, analyzedTerm.queryFactory)) {
+                cache.put(key, new TermQueryCacheValue(NeverMatchQueryFactory.FACTORY,
+                        PRMSQuery.NEVER_MATCH_PRMS_QUERY));
+                return;
+            }
+        }
+
+        // the cache value doesn't have a boost, it is only added later via the TermSubQueryFactory
+        cache.put(key, new TermQueryCacheValue(analyzedTerm));
+    }
 
 }
@@ -0,0 +1,144 @@
+package querqy.solr;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SolrTestCaseJ4.SuppressSSL
+public class LuceneQueriesCacheTest extends SolrTestCaseJ4 {
+
+    private static final String CACHE_NAME = "querqyLuceneQueriesCache";
+
+    public void index() throws Exception {
+
+        assertU(adoc("id", "1", "f1", "a"));
+        assertU(adoc("id", "2", "f1", "b"));
+        assertU(adoc("id", "3", "f1", "b", "f2", "c"));
+
+        assertU(commit());
+    }
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        initCore("solrconfig-lucenequeriescache.xml", "schema.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        clearIndex();
+        index();
+    }
+
+    @Test
+    public void testThatRepeatedQueryIsServedFromCache() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            final SolrQueryRequest req = req("q", "a",
+                    DisMaxParams.QF, "f1 f2",
+                    "defType", "querqy",
+                    "rows", String.valueOf(10 + i)
+            );
+
+            assertQ("Cached queries differ from original queries",
+                    req,
+                    "//result[@name='response'][@numFound='3']",
+                    "//result/doc[1]/str[@name='id'][text()='3']",
+                    "//arr[@name='querqy_decorations'][count(str)=1]",
+                    "//arr[@name='querqy_decorations']/str[text()='deco1']"
+            );
+
+            req.close();
+
+            assertEquals(1, cacheSize());
+        }
+
+    }
+
+    @Test
+    public void testThatQueryParamsArePartOfTheCacheKey() throws Exception {
+
+        SolrQueryRequest req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy");
+        assertQ("Expected 3 results", req, "//result[@name='response'][@numFound='3']");
+        req.close();
+
+        req = req("q", "a",
+                DisMaxParams.QF, "f2",
+                "defType", "querqy");
+        assertQ("Expected 0 results", req, "//result[@name='response'][@numFound='0']");
+        req.close();
+
+        assertEquals(2, cacheSize());
+
+    }
+
+    @Test
+    public void testThatCacheIsInvalidatedOnNewSearcher() throws Exception {
+
+        SolrQueryRequest req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy");
+        assertQ("Expected 3 results", req, "//result[@name='response'][@numFound='3']");
+        req.close();
+
+        assertEquals(1, cacheSize());
+
+        assertU(adoc("id", "4", "f1", "a"));
+        assertU(commit());
+
+        assertEquals(0, cacheSize());
+
+        req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy");
+        assertQ("Expected 4 results", req, "//result[@name='response'][@numFound='4']");
+        req.close();
+
+    }
+
+    @Test
+    public void testThatDebugQueryBypassesCache() throws Exception {
+
+        final SolrQueryRequest req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy",
+                "debugQuery", "true");
+        assertQ("Expected 3 results", req, "//result[@name='response'][@numFound='3']");
+        req.close();
+
+        assertEquals(0, cacheSize());
+    }
+
+    @Test
+    public void testThatBoostsThatDependOnNowAreNotCached() throws Exception {
+
+        final SolrQueryRequest req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                DisMaxParams.BF, "recip(ms(NOW,NOW),1,1,1)",
+                "defType", "querqy");
+        assertQ("Expected 3 results", req, "//result[@name='response'][@numFound='3']");
+        req.close();
+
+        assertEquals(0, cacheSize());
+    }
+
+    private int cacheSize() {
+        final RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            final SolrCache<?, ?> cache = searcher.get().getCache(CACHE_NAME);
+            return cache.size();
+        } finally {
+            searcher.decref();
+        }
+    }
+
+}
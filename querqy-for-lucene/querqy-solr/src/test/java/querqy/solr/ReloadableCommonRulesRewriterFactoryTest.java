@@ -0,0 +1,80 @@
+package querqy.solr;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.junit.Test;
+
+import querqy.rewrite.commonrules.WhiteSpaceQuerqyParserFactory;
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollection;
+import querqy.solr.SimpleCommonRulesRewriterFactory.ReloadableCommonRulesRewriterFactory;
+
+public class ReloadableCommonRulesRewriterFactoryTest {
+
+    static final String RULES = "solr/collection1/conf/rules-rulehitstatistics.txt";
+
+    final ResourceLoader resourceLoader = new ClasspathResourceLoader(getClass().getClassLoader());
+
+    @Test
+    public void testThatRulesWithHitStatisticsAreNotSharedWithRulesWithout() throws Exception {
+
+        final ReloadableCommonRulesRewriterFactory withoutStatistics = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, false);
+        final ReloadableCommonRulesRewriterFactory withStatistics = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, true);
+        final ReloadableCommonRulesRewriterFactory withStatistics2 = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, true);
+
+        try {
+            assertNotSame(withoutStatistics.getRules(), withStatistics.getRules());
+            assertSame(withStatistics.getRules(), withStatistics2.getRules());
+
+            assertFalse(((TrieMapRulesCollection) withoutStatistics.getRules()).isHitStatisticsEnabled());
+            assertTrue(((TrieMapRulesCollection) withStatistics.getRules()).isHitStatisticsEnabled());
+        } finally {
+            withoutStatistics.close();
+            withStatistics.close();
+            withStatistics2.close();
+        }
+    }
+
+    @Test
+    public void testThatRewritesAreNotCachedWithHitStatistics() throws Exception {
+
+        final ReloadableCommonRulesRewriterFactory withoutStatistics = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, false);
+        final ReloadableCommonRulesRewriterFactory withStatistics = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, true);
+
+        try {
+            assertTrue(withoutStatistics.addToRewriteCacheKey(null, new ArrayList<>()));
+            assertFalse(withStatistics.addToRewriteCacheKey(null, new ArrayList<>()));
+        } finally {
+            withoutStatistics.close();
+            withStatistics.close();
+        }
+    }
+
+    @Test
+    public void testThatReloadingUnchangedRulesKeepsTheRules() throws Exception {
+
+        final ReloadableCommonRulesRewriterFactory factory = new ReloadableCommonRulesRewriterFactory(
+                resourceLoader, RULES, new WhiteSpaceQuerqyParserFactory(), true, false, true);
+
+        try {
+            final RulesCollection rules = factory.getRules();
+            factory.reload();
+            assertSame(rules, factory.getRules());
+        } finally {
+            factory.close();
+        }
+    }
+
+}
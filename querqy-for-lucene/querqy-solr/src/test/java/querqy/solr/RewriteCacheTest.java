@@ -0,0 +1,82 @@
+package querqy.solr;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QueryParsing;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SolrTestCaseJ4.SuppressSSL
+public class RewriteCacheTest extends SolrTestCaseJ4 {
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        initCore("solrconfig-rewritecache.xml", "schema.xml");
+
+        assertU(adoc("id", "1", "f1", "a", "f2", "c"));
+        assertU(adoc("id", "2", "f1", "a", "f2", "b", "f4", "d"));
+        assertU(adoc("id", "5", "f1", "m", "f2", "b", "f4", "d"));
+        assertU(adoc("id", "6", "f1", "m", "f2", "c", "f4", "e"));
+        assertU(commit());
+    }
+
+    @Test
+    public void testThatCachedFilterRuleIsApplied() {
+
+        // the second request is served from the rewrite cache
+        for (int i = 0; i < 2; i++) {
+            final SolrQueryRequest req = req("q", "a",
+                    DisMaxParams.QF, "f1 f2",
+                    "defType", "querqy"
+            );
+
+            assertQ("Filter rule failed",
+                    req,
+                    "//result[@name='response' and @numFound='1']/doc[1]/str[@name='id'][text()='1']"
+            );
+
+            req.close();
+        }
+    }
+
+    @Test
+    public void testThatCachedDownRuleIsApplied() {
+
+        for (int i = 0; i < 2; i++) {
+            final SolrQueryRequest req = req("q", "m b",
+                    DisMaxParams.QF, "f1 f2 f4",
+                    DisMaxParams.MM, "1",
+                    QueryParsing.OP, "OR",
+                    "defType", "querqy"
+            );
+
+            assertQ("Down rule failed",
+                    req,
+                    "//result[@name='response' and @numFound='3']/doc[1]/str[@name='id'][text()='6']"
+            );
+
+            req.close();
+        }
+    }
+
+    @Test
+    public void testThatCacheIsKeyedByQueryString() {
+
+        SolrQueryRequest req = req("q", "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy"
+        );
+        assertQ("Filter rule failed", req, "//result[@name='response' and @numFound='1']");
+        req.close();
+
+        // no rule for 'b'
+        req = req("q", "b",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy"
+        );
+        assertQ("Cached rewrite applied to another query", req, "//result[@name='response' and @numFound='2']");
+        req.close();
+    }
+
+}
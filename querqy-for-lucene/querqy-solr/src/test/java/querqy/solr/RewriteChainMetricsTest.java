@@ -0,0 +1,68 @@
+package querqy.solr;
+
+import java.util.Map;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SolrTestCaseJ4.SuppressSSL
+public class RewriteChainMetricsTest extends SolrTestCaseJ4 {
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        initCore("solrconfig-rewritecache.xml", "schema.xml");
+        assertU(adoc("id", "1", "f1", "qup"));
+        assertU(commit());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThatRewriterMetricsAreRegistered() throws Exception {
+
+        final String prefix = "QUERYPARSER." + DefaultQuerqyDismaxQParserPlugin.class.getName() + ".";
+        final String rewriterPrefix = prefix + "rewriter.0_ReloadableCommonRulesRewriterFactory.";
+
+        final Timer timer = (Timer) metric(rewriterPrefix + "time");
+        final Gauge<Long> actionsMatched = (Gauge<Long>) metric(rewriterPrefix + "actionsMatched");
+        final Gauge<Map<String, Object>> instructions = (Gauge<Map<String, Object>>)
+                metric(rewriterPrefix + "instructionsApplied");
+        final Counter hits = (Counter) metric(prefix + "rewriteCache.hits");
+        final Counter misses = (Counter) metric(prefix + "rewriteCache.misses");
+
+        final long timerCount = timer.getCount();
+        final long actionsCount = actionsMatched.getValue();
+        final long hitCount = hits.getCount();
+        final long missCount = misses.getCount();
+
+        for (int i = 0; i < 2; i++) {
+            final SolrQueryRequest req = req("q", "qup",
+                    DisMaxParams.QF, "f1",
+                    "defType", "querqy");
+            assertQ("Expected 1 result", req, "//result[@name='response'][@numFound='1']");
+            req.close();
+        }
+
+        // the second request is served from the rewrite cache
+        assertEquals(timerCount + 1, timer.getCount());
+        assertEquals(actionsCount + 1, (long) actionsMatched.getValue());
+        assertEquals(missCount + 1, misses.getCount());
+        assertEquals(hitCount + 1, hits.getCount());
+        assertTrue(((Number) instructions.getValue().get("BoostInstruction")).longValue() > 0L);
+
+    }
+
+    private Metric metric(final String name) {
+        final Metric metric = h.getCore().getCoreMetricManager().getRegistry().getMetrics().get(name);
+        assertNotNull("Missing metric " + name + " in " + h.getCore().getCoreMetricManager().getRegistry().getNames(),
+                metric);
+        return metric;
+    }
+
+}
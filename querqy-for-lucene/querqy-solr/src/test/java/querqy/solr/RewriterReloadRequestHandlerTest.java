@@ -0,0 +1,127 @@
+package querqy.solr;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SolrTestCaseJ4.SuppressSSL
+public class RewriterReloadRequestHandlerTest extends SolrTestCaseJ4 {
+
+    static final String RULES = "a =>\n\tSYNONYM: b\n";
+
+    Path rulesFile;
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        initCore("solrconfig-reload.xml", "schema.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rulesFile = Paths.get(h.getCore().getResourceLoader().getConfigDir(), "rules-reload.txt");
+        clearIndex();
+        assertU(adoc("id", "1", "f1", "a"));
+        assertU(adoc("id", "2", "f1", "b"));
+        assertU(adoc("id", "3", "f1", "c"));
+        assertU(commit());
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        // restore the original rules
+        writeRules(RULES);
+        reload();
+        super.tearDown();
+    }
+
+    @Test
+    public void testThatRulesAreReloaded() throws Exception {
+
+        assertNumFound("a", 2);
+
+        writeRules("a =>\n\tSYNONYM: c\n\tSYNONYM: b\n");
+        assertNumFound("a", 2); // not reloaded yet
+
+        reload();
+        assertNumFound("a", 3);
+    }
+
+    @Test
+    public void testThatReloadReleasesPreviousRules() throws Exception {
+
+        final int numRuleSets = SharedRulesRegistry.getInstance().size();
+
+        writeRules("a =>\n\tSYNONYM: c\n");
+        reload();
+        assertNumFound("a", 2);
+
+        assertEquals(numRuleSets, SharedRulesRegistry.getInstance().size());
+    }
+
+    @Test
+    public void testThatPreviousRulesAreKeptIfReloadFails() throws Exception {
+
+        writeRules("a =>\n\tSYNONYM: c\n\tFOO\n");
+
+        try {
+            reload();
+            fail("Reloading invalid rules must fail");
+        } catch (final SolrException e) {
+            assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+        }
+
+        assertNumFound("a", 2);
+    }
+
+    @Test
+    public void testThatReloadingOtherQueryParserFails() throws Exception {
+        final SolrQueryRequest req = req(CommonParams.QT, "/querqy/rewriter/reload", "qParser", "lucene");
+        try {
+            h.query(req);
+            fail("Only Querqy query parsers can be reloaded");
+        } catch (final SolrException e) {
+            assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+        } finally {
+            req.close();
+        }
+    }
+
+    void writeRules(final String rules) throws Exception {
+        Files.write(rulesFile, rules.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void reload() throws Exception {
+        final SolrQueryRequest req = req(CommonParams.QT, "/querqy/rewriter/reload");
+        try {
+            assertNull(h.validateXPath(h.query(req), "//lst[@name='reloaded']/long[@name='0']"));
+        } finally {
+            req.close();
+        }
+    }
+
+    void assertNumFound(final String q, final int numFound) {
+        final SolrQueryRequest req = req("q", q,
+                DisMaxParams.QF, "f1",
+                "defType", "querqy");
+        try {
+            assertQ("Unexpected result for " + q, req, "//result[@name='response' and @numFound='" + numFound + "']");
+        } finally {
+            req.close();
+        }
+    }
+
+}
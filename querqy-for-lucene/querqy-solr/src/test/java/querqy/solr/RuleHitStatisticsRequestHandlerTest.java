@@ -0,0 +1,72 @@
+package querqy.solr;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SolrTestCaseJ4.SuppressSSL
+public class RuleHitStatisticsRequestHandlerTest extends SolrTestCaseJ4 {
+
+    static final String REWRITER = "//lst[@name='rewriters']/lst[@name='0']";
+
+    @BeforeClass
+    public static void beforeTests() throws Exception {
+        initCore("solrconfig-rulehitstatistics.xml", "schema.xml");
+        assertU(adoc("id", "1", "f1", "a"));
+        assertU(commit());
+    }
+
+    @Test
+    public void testThatHottestAndNeverHitRulesAreReported() throws Exception {
+
+        search("a");
+        search("a");
+        search("c");
+
+        final SolrQueryRequest req = req(CommonParams.QT, "/querqy/rules/stats");
+        assertQ("Unexpected rule hit statistics",
+                req,
+                REWRITER + "/bool[@name='supported'][text()='true']",
+                REWRITER + "/bool[@name='hitStatisticsEnabled'][text()='true']",
+                REWRITER + "/int[@name='numRules'][text()='3']",
+                REWRITER + "/int[@name='numRulesNeverHit'][text()='1']",
+                REWRITER + "/arr[@name='hottest'][count(lst)=2]",
+                REWRITER + "/arr[@name='hottest']/lst[1]/str[@name='input'][text()='a']",
+                REWRITER + "/arr[@name='hottest']/lst[1]/int[@name='line'][text()='1']",
+                REWRITER + "/arr[@name='hottest']/lst[1]/long[@name='hits'][text()='2']",
+                REWRITER + "/arr[@name='hottest']/lst[2]/str[@name='input'][text()='c']",
+                REWRITER + "/arr[@name='hottest']/lst[2]/int[@name='line'][text()='4']",
+                REWRITER + "/arr[@name='neverHit'][count(lst)=1]",
+                REWRITER + "/arr[@name='neverHit']/lst[1]/str[@name='input'][text()='e']",
+                REWRITER + "/arr[@name='neverHit']/lst[1]/int[@name='line'][text()='7']"
+        );
+        req.close();
+
+        final SolrQueryRequest limited = req(CommonParams.QT, "/querqy/rules/stats", "rows", "1",
+                "neverHit.rows", "0");
+        assertQ("Unexpected limited rule hit statistics",
+                limited,
+                REWRITER + "/int[@name='numRulesNeverHit'][text()='1']",
+                REWRITER + "/arr[@name='hottest'][count(lst)=1]",
+                REWRITER + "/arr[@name='hottest']/lst[1]/str[@name='input'][text()='a']",
+                REWRITER + "/arr[@name='neverHit'][count(lst)=0]"
+        );
+        limited.close();
+
+    }
+
+    void search(final String q) {
+        final SolrQueryRequest req = req("q", q,
+                DisMaxParams.QF, "f1",
+                "defType", "querqy");
+        try {
+            assertQ("Search failed", req, "//result[@name='response']");
+        } finally {
+            req.close();
+        }
+    }
+
+}
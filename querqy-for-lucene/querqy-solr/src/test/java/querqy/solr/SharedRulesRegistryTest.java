@@ -0,0 +1,102 @@
+package querqy.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import querqy.rewrite.commonrules.model.RulesCollection;
+import querqy.rewrite.commonrules.model.TrieMapRulesCollectionBuilder;
+
+public class SharedRulesRegistryTest {
+
+    final SharedRulesRegistry registry = new SharedRulesRegistry();
+
+    final SharedRulesRegistry.Key key = new SharedRulesRegistry.Key(
+            SharedRulesRegistry.hash("a =>\n SYNONYM: b".getBytes(StandardCharsets.UTF_8)), true, "settings");
+
+    @Test
+    public void testThatIdenticalRulesAreLoadedOnce() throws Exception {
+
+        final AtomicInteger loaded = new AtomicInteger();
+        final SharedRulesRegistry.RulesLoader loader = () -> {
+            loaded.incrementAndGet();
+            return new TrieMapRulesCollectionBuilder(true).build();
+        };
+
+        final SharedRulesRegistry.Lease lease1 = registry.acquire(key, loader);
+        final SharedRulesRegistry.Lease lease2 = registry.acquire(
+                new SharedRulesRegistry.Key(key.contentHash, true, "settings"), loader);
+
+        assertEquals(1, loaded.get());
+        assertSame(lease1.getRules(), lease2.getRules());
+        assertEquals(1, registry.size());
+        assertEquals(2, registry.getRefCount(key));
+
+        lease1.close();
+        lease1.close(); // no effect
+        assertEquals(1, registry.getRefCount(key));
+
+        lease2.close();
+        assertEquals(0, registry.getRefCount(key));
+        assertEquals(0, registry.size());
+
+        // loaded again after the last lease was closed
+        registry.acquire(key, loader).close();
+        assertEquals(2, loaded.get());
+    }
+
+    @Test
+    public void testThatSettingsAreDistinguished() throws Exception {
+
+        final SharedRulesRegistry.RulesLoader loader = () -> new TrieMapRulesCollectionBuilder(true).build();
+
+        final SharedRulesRegistry.Lease lease1 = registry.acquire(key, loader);
+        final SharedRulesRegistry.Lease lease2 = registry.acquire(
+                new SharedRulesRegistry.Key(key.contentHash, false, "settings"), loader);
+        final SharedRulesRegistry.Lease lease3 = registry.acquire(
+                new SharedRulesRegistry.Key(key.contentHash, true, "other"), loader);
+
+        assertEquals(3, registry.size());
+
+        lease1.close();
+        lease2.close();
+        lease3.close();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testThatFailedLoadIsNotRegistered() throws Exception {
+
+        try {
+            registry.acquire(key, () -> {
+                throw new IOException("test");
+            });
+            fail("Exception expected");
+        } catch (final IOException e) {
+            assertEquals("test", e.getMessage());
+        }
+
+        assertEquals(0, registry.size());
+
+        final RulesCollection rules = new TrieMapRulesCollectionBuilder(true).build();
+        try (final SharedRulesRegistry.Lease lease = registry.acquire(key, () -> rules)) {
+            assertSame(rules, lease.getRules());
+        }
+    }
+
+    @Test
+    public void testThatHashDistinguishesContentBoundaries() throws Exception {
+        assertNotEquals(SharedRulesRegistry.hash("ab".getBytes(StandardCharsets.UTF_8), new byte[0]),
+                SharedRulesRegistry.hash("a".getBytes(StandardCharsets.UTF_8), "b".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(SharedRulesRegistry.hash("ab".getBytes(StandardCharsets.UTF_8)),
+                SharedRulesRegistry.hash("ab".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
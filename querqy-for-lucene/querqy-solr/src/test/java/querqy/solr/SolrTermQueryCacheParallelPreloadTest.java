@@ -0,0 +1,160 @@
+package querqy.solr;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.DisMaxParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import querqy.lucene.rewrite.LuceneQueryFactoryAndPRMSQuery;
+import querqy.lucene.rewrite.cache.CacheKey;
+import querqy.lucene.rewrite.cache.TermQueryCache;
+import querqy.model.Term;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SolrTestCaseJ4.SuppressSSL
+public class SolrTermQueryCacheParallelPreloadTest extends SolrTestCaseJ4 {
+
+    @BeforeClass
+    public static void beforeTest() throws Exception {
+        initCore("solrconfig-cache-parallel-preload.xml", "schema.xml");
+    }
+
+    @Test
+    public void testThatAllTermsArePreloadedByParallelThreads() throws Exception {
+
+        // firstSearcher: 5 generated terms in one field, preloaded by 4 threads
+        SolrQueryRequest req = req(
+                CommonParams.QT, "/admin/mbeans",
+                "cat", "CACHE",
+                "stats", "true"
+        );
+        try {
+            assertQ("Querqy cache not prefilled",
+                    req,
+                    "//lst[@name='CACHE']/lst[@name='querqyTermQueryCache']"
+                            + "/lst[@name='stats']/long[@name='CACHE.searcher.querqyTermQueryCache.size'][text()='5']");
+        } finally {
+            req.close();
+        }
+
+        assertU(adoc("id", "1", "f1", "a", "f2", "c"));
+        assertU(commit());
+
+        // newSearcher: 5 generated terms in two fields, preloaded by 3 threads within the time budget
+        SolrQueryRequest req2 = req(
+                CommonParams.QT, "/admin/mbeans",
+                "cat", "CACHE",
+                "stats", "true"
+        );
+        try {
+            assertQ("Querqy cache not prefilled",
+                    req2,
+                    "//lst[@name='CACHE']/lst[@name='querqyTermQueryCache']"
+                            + "/lst[@name='stats']/long[@name='CACHE.searcher.querqyTermQueryCache.size'][text()='10']");
+        } finally {
+            req2.close();
+        }
+
+        SolrQueryRequest req3 = req(
+                CommonParams.Q, "a",
+                DisMaxParams.QF, "f1 f2",
+                "defType", "querqy",
+                "debugQuery", "true"
+        );
+        try {
+            // only f2:c has hits
+            assertQ("Terms w/o hits found in parsedquery",
+                    req3,
+                    "//result[@name='response'][@numFound='1']",
+                    "//str[@name='parsedquery'][contains(.,'f2:c')]",
+                    "//str[@name='parsedquery'][not(contains(.,'f1:c'))]",
+                    "//str[@name='parsedquery'][not(contains(.,'f1:b'))]",
+                    "//str[@name='parsedquery'][not(contains(.,'f2:f'))]"
+            );
+        } finally {
+            req3.close();
+        }
+
+        // runs after the checks above as it would change the size of the current searcher's cache
+        assertThatAnalysisResultsAreReusedForNextSearcher();
+    }
+
+    @Test
+    public void testThatPreloadingFinishesIfATermFails() throws Exception {
+
+        final NamedList<Object> args = new NamedList<>();
+        args.add(TermQueryCachePreloader.CONF_PRELOAD_FIELDS, "f1 f2");
+        args.add(TermQueryCachePreloader.CONF_Q_PARSER_PLUGIN, "querqy");
+        args.add(TermQueryCachePreloader.CONF_CACHE_NAME, "querqyTermQueryCache");
+        args.add(TermQueryCachePreloader.CONF_THREADS, 2);
+
+        final AtomicInteger numPreloaded = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        final TermQueryCachePreloader preloader = new TermQueryCachePreloader(h.getCore()) {
+            @Override
+            protected void preloadTerm(final IndexSearcher searcher, final CacheKey key,
+                                       final LuceneQueryFactoryAndPRMSQuery analyzedTerm, final boolean testForHits,
+                                       final TermQueryCache cache) {
+                // don't touch the cache of the searcher, the other test checks its size
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Preloading failed");
+                }
+                numPreloaded.incrementAndGet();
+            }
+        };
+        preloader.init(args);
+
+        final RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            preloader.newSearcher(searcher.get(), null);
+        } finally {
+            searcher.decref();
+        }
+
+        assertTrue(failed.get());
+        assertEquals(9, numPreloaded.get());
+        // the preloading has finished and doesn't keep a reference to the searcher
+        assertNull(preloader.currentPreloading.get());
+    }
+
+    private void assertThatAnalysisResultsAreReusedForNextSearcher() throws Exception {
+
+        final NamedList<Object> args = new NamedList<>();
+        args.add(TermQueryCachePreloader.CONF_PRELOAD_FIELDS, "f1 f2");
+        args.add(TermQueryCachePreloader.CONF_Q_PARSER_PLUGIN, "querqy");
+        args.add(TermQueryCachePreloader.CONF_CACHE_NAME, "querqyTermQueryCache");
+        args.add(TermQueryCachePreloader.CONF_TEST_FOR_HITS, true);
+        args.add(TermQueryCachePreloader.CONF_THREADS, 2);
+
+        final TermQueryCachePreloader preloader = new TermQueryCachePreloader(h.getCore());
+        preloader.init(args);
+
+        final RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            preloader.newSearcher(searcher.get(), null);
+            final Map<CacheKey, TermQueryCachePreloader.AnalyzedTerm> analyzedTerms =
+                    new HashMap<>(preloader.lastAnalyzedTerms);
+            assertEquals(10, analyzedTerms.size());
+            assertNotNull(analyzedTerms.get(new CacheKey("f2", new Term(null, "d"))).queryFactoryAndPRMSQuery);
+
+            preloader.newSearcher(searcher.get(), null);
+            assertEquals(10, preloader.lastAnalyzedTerms.size());
+            for (final Map.Entry<CacheKey, TermQueryCachePreloader.AnalyzedTerm> entry : analyzedTerms.entrySet()) {
+                assertSame(entry.getValue(), preloader.lastAnalyzedTerms.get(entry.getKey()));
+            }
+        } finally {
+            searcher.decref();
+        }
+    }
+
+}